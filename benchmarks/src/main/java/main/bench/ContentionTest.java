@@ -0,0 +1,165 @@
+// ContentionTest.java
+package main.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import main.FileHandler;
+import main.Task;
+import main.TodoManager;
+
+// Several JVMs writing to one data directory at once: what the directory lock
+// costs, and whether anything is lost. Each worker process opens the directory
+// with its own TodoManager, watches it, and for a fixed time writes as fast as
+// it can:
+//   50% add a task
+//   30% rename a task it added
+//   20% complete or reopen one of the seeded tasks every worker shares
+// Every mutation appends to the journal under the lock, and the journal is
+// compacted every thousand or so records, by whichever worker gets there
+// first. Afterwards each worker reports the final title of every task it
+// added; the directory is loaded once more and each of those must be there
+// with that title, as must every seeded task, and no two workers may have been
+// given the same id. One worker alone runs first, as the baseline.
+// Run after `mvn -f benchmarks/pom.xml package` with
+//   java -cp benchmarks/target/benchmarks.jar main.bench.ContentionTest [processes] [seconds]
+public class ContentionTest {
+    private static final int SEEDED = 1000;
+    // Time the workers get to start and load before the clock starts
+    private static final long STARTUP_MILLIS = 3000;
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--worker")) {
+            work(Path.of(args[1]), Integer.parseInt(args[2]), Long.parseLong(args[3]), Long.parseLong(args[4]),
+                    Path.of(args[5]));
+            return;
+        }
+        int processes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        
+        boolean ok = run(1, seconds);
+        if (processes > 1) {
+            ok &= run(processes, seconds);
+        }
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+    
+    private static boolean run(int processes, int seconds) throws Exception {
+        Path dir = Files.createTempDirectory("todo-contention");
+        Path results = Files.createTempDirectory("todo-contention-results");
+        try {
+            new FileHandler(dir).saveTasks(TaskData.tasks(SEEDED));
+            String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+            long startAt = System.currentTimeMillis() + STARTUP_MILLIS;
+            long endAt = startAt + seconds * 1000L;
+            List<Process> workers = new ArrayList<>();
+            for (int i = 0; i < processes; i++) {
+                workers.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        ContentionTest.class.getName(), "--worker", dir.toString(), String.valueOf(i),
+                        String.valueOf(startAt), String.valueOf(endAt), results.resolve("worker-" + i).toString())
+                        .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start());
+            }
+            for (Process worker : workers) {
+                if (worker.waitFor() != 0) {
+                    System.out.println("worker exited with " + worker.exitValue());
+                    return false;
+                }
+            }
+            
+            long writes = 0;
+            int added = 0;
+            Map<Integer, String> expected = new HashMap<>();
+            for (int i = 0; i < processes; i++) {
+                List<String> lines = Files.readAllLines(results.resolve("worker-" + i), StandardCharsets.UTF_8);
+                writes += Long.parseLong(lines.get(0));
+                for (String line : lines.subList(1, lines.size())) {
+                    int bar = line.indexOf('|');
+                    expected.put(Integer.parseInt(line.substring(0, bar)), line.substring(bar + 1));
+                    added++;
+                }
+            }
+            Map<Integer, Task> stored = new HashMap<>();
+            FileHandler check = new FileHandler(dir);
+            check.setArchiveAfter(Duration.ZERO);
+            for (Task task : check.loadTasks()) {
+                stored.put(task.getId(), task);
+            }
+            int missing = 0;
+            int wrong = 0;
+            for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+                Task task = stored.get(entry.getKey());
+                if (task == null) {
+                    missing++;
+                } else if (!task.getTitle().equals(entry.getValue())) {
+                    wrong++;
+                }
+            }
+            for (int id = 1; id <= SEEDED; id++) {
+                if (!stored.containsKey(id)) {
+                    missing++;
+                }
+            }
+            int duplicates = added - expected.size();
+            boolean ok = missing == 0 && wrong == 0 && duplicates == 0 && stored.size() == SEEDED + added;
+            
+            System.out.printf("%d process%s, %d s%n", processes, processes == 1 ? "" : "es", seconds);
+            System.out.printf("writes:       %d%n", writes);
+            System.out.printf("writes/s:     %.0f%n", writes / (double) seconds);
+            System.out.printf("tasks:        %d stored, %d expected%n", stored.size(), SEEDED + added);
+            System.out.printf("lost: %d, stale: %d, duplicate ids: %d -> %s%n", missing, wrong, duplicates,
+                    ok ? "OK" : "FAILED");
+            return ok;
+        } finally {
+            TaskData.deleteRecursively(dir);
+            TaskData.deleteRecursively(results);
+        }
+    }
+    
+    private static void work(Path dir, int index, long startAt, long endAt, Path results) throws Exception {
+        // The seeded tasks completed long ago stay in the working set
+        FileHandler fileHandler = new FileHandler(dir);
+        fileHandler.setArchiveAfter(Duration.ZERO);
+        TodoManager manager = new TodoManager(fileHandler, true, TodoManager.Storage.OBJECTS);
+        manager.watchExternalChanges();
+        Random random = new Random(index);
+        List<Integer> ids = new ArrayList<>();
+        Map<Integer, String> titles = new HashMap<>();
+        Thread.sleep(Math.max(0, startAt - System.currentTimeMillis()));
+        long writes = 0;
+        while (System.currentTimeMillis() < endAt) {
+            int pick = random.nextInt(10);
+            if (pick < 5 || ids.isEmpty()) {
+                Task task = manager.addTask("worker " + index + " task " + writes, "", Task.Priority.MEDIUM);
+                ids.add(task.getId());
+                titles.put(task.getId(), task.getTitle());
+            } else if (pick < 8) {
+                int id = ids.get(random.nextInt(ids.size()));
+                String title = "worker " + index + " task " + id + " v" + writes;
+                manager.updateTask(id, title, "", Task.Priority.HIGH);
+                titles.put(id, title);
+            } else if (random.nextBoolean()) {
+                manager.markTaskCompleted(1 + random.nextInt(SEEDED));
+            } else {
+                manager.markTaskIncomplete(1 + random.nextInt(SEEDED));
+            }
+            writes++;
+        }
+        manager.close();
+        
+        StringBuilder out = new StringBuilder().append(writes).append('\n');
+        for (Map.Entry<Integer, String> entry : titles.entrySet()) {
+            out.append(entry.getKey()).append('|').append(entry.getValue()).append('\n');
+        }
+        Files.writeString(results, out, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,69 @@
+// FileHandlerBenchmark.java
+package main.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import main.FileHandler;
+import main.Task;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Full snapshot save and load in both on-disk formats. The snapshot lives in
+// a temp directory, so the numbers include the page cache but not a cold disk.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class FileHandlerBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+    
+    @Param({"TEXT", "BINARY"})
+    public FileHandler.SnapshotFormat format;
+    
+    private Path dir;
+    private FileHandler fileHandler;
+    private List<Task> tasks;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("todo-bench");
+        fileHandler = new FileHandler(dir, format);
+        // Every task stays, and loading never writes
+        fileHandler.setArchiveAfter(Duration.ZERO);
+        tasks = TaskData.tasks(size);
+        fileHandler.saveTasks(tasks);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fileHandler.close();
+        TaskData.deleteRecursively(dir);
+    }
+    
+    @Benchmark
+    public void saveTasks() {
+        fileHandler.saveTasks(tasks);
+    }
+    
+    @Benchmark
+    public List<Task> loadTasks() {
+        return fileHandler.loadTasks();
+    }
+}
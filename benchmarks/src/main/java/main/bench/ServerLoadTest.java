@@ -0,0 +1,142 @@
+// ServerLoadTest.java
+package main.bench;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import main.TaskLists;
+import main.TaskServer;
+
+// Closed-loop load test of the HTTP API: a TaskServer on a loopback port over
+// a temporary data directory seeded with tasks, and client threads that each
+// send their next request as soon as the last one is answered, for a fixed
+// time. Not a JMH benchmark, since the point is throughput and tail latency
+// of the whole stack. The request mix is mostly reads:
+//   60% GET the pending High tasks, revalidated with If-None-Match
+//   30% GET one task by id
+//   10% POST a new task, which also makes the cached lists stale
+// Run after `mvn -f benchmarks/pom.xml package` with
+//   java -cp benchmarks/target/benchmarks.jar main.bench.ServerLoadTest [tasks] [clients] [seconds]
+public class ServerLoadTest {
+    public static void main(String[] args) throws Exception {
+        int taskCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        
+        Path dir = Files.createTempDirectory("todo-load");
+        TaskLists lists = new TaskLists(dir);
+        TaskServer server = null;
+        try {
+            lists.get(TaskLists.DEFAULT_LIST).addTasks(TaskData.tasks(taskCount));
+            server = new TaskServer(lists, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            server.start();
+            String base = "http://localhost:" + server.getPort() + "/api/tasks";
+            HttpClient client = HttpClient.newHttpClient();
+            
+            // A few seconds unmeasured so the JIT settles first
+            run(client, base, taskCount, clients, Math.min(3, seconds), new AtomicLong());
+            AtomicLong notModified = new AtomicLong();
+            long start = System.nanoTime();
+            long[] latencies = run(client, base, taskCount, clients, seconds, notModified);
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            
+            Arrays.sort(latencies);
+            System.out.printf("%d tasks, %d clients, %d s%n", taskCount, clients, seconds);
+            System.out.printf("requests:     %d (%d answered 304 Not Modified)%n", latencies.length, notModified.get());
+            System.out.printf("requests/s:   %.0f%n", latencies.length / elapsed);
+            System.out.printf("p50 latency:  %.2f ms%n", percentile(latencies, 0.50) / 1e6);
+            System.out.printf("p99 latency:  %.2f ms%n", percentile(latencies, 0.99) / 1e6);
+            System.out.printf("max latency:  %.2f ms%n", latencies[latencies.length - 1] / 1e6);
+        } finally {
+            if (server != null) {
+                server.stop(0);
+            }
+            lists.close();
+            TaskData.deleteRecursively(dir);
+        }
+    }
+    
+    // Latency of every request the clients completed, in nanoseconds
+    private static long[] run(HttpClient client, String base, int taskCount, int clients, int seconds,
+            AtomicLong notModified) throws InterruptedException {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        long[][] perClient = new long[clients][];
+        Thread[] threads = new Thread[clients];
+        for (int i = 0; i < clients; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> perClient[index] = clientLoop(client, base, taskCount, deadline,
+                    new Random(index), notModified), "load-client-" + i);
+            threads[i].start();
+        }
+        int total = 0;
+        for (int i = 0; i < clients; i++) {
+            threads[i].join();
+            total += perClient[i].length;
+        }
+        long[] latencies = new long[total];
+        int offset = 0;
+        for (long[] latenciesOfClient : perClient) {
+            System.arraycopy(latenciesOfClient, 0, latencies, offset, latenciesOfClient.length);
+            offset += latenciesOfClient.length;
+        }
+        return latencies;
+    }
+    
+    private static long[] clientLoop(HttpClient client, String base, int taskCount, long deadline, Random random,
+            AtomicLong notModified) {
+        HttpRequest list = HttpRequest.newBuilder(URI.create(base + "?status=pending&priority=High")).build();
+        String etag = null;
+        long[] latencies = new long[1024];
+        int count = 0;
+        while (System.nanoTime() < deadline) {
+            int pick = random.nextInt(10);
+            HttpRequest request;
+            if (pick < 6) {
+                request = etag == null ? list
+                        : HttpRequest.newBuilder(list.uri()).header("If-None-Match", etag).build();
+            } else if (pick < 9) {
+                request = HttpRequest.newBuilder(URI.create(base + "/" + (1 + random.nextInt(taskCount)))).build();
+            } else {
+                request = HttpRequest.newBuilder(URI.create(base))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"title\":\"" + TaskData.words(random, 3)
+                                + "\",\"priority\":\"High\"}"))
+                        .build();
+            }
+            long start = System.nanoTime();
+            HttpResponse<byte[]> response;
+            try {
+                response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            } catch (Exception e) {
+                throw new IllegalStateException("Request to " + request.uri() + " failed", e);
+            }
+            long latency = System.nanoTime() - start;
+            if (response.statusCode() >= 400) {
+                throw new IllegalStateException(request.uri() + " answered " + response.statusCode());
+            }
+            if (request.uri().equals(list.uri())) {
+                if (response.statusCode() == 304) {
+                    notModified.incrementAndGet();
+                }
+                etag = response.headers().firstValue("ETag").orElse(null);
+            }
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latency;
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+    
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))];
+    }
+}
@@ -0,0 +1,60 @@
+// TaskData.java
+package main.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import main.Task;
+
+// Deterministic task lists shared by the benchmarks
+final class TaskData {
+    private static final String[] WORDS = ("report review meeting budget design code deploy release plan "
+            + "test bug fix update write email call client server database backup invoice travel book "
+            + "dentist groceries garden car insurance tax").split(" ");
+    private static final String[] PRIORITIES = {"High", "Medium", "Low"};
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 9, 0);
+    
+    private TaskData() {
+    }
+    
+    // Ids 1..count; about a third completed
+    static List<Task> tasks(int count) {
+        Random random = new Random(42);
+        List<Task> tasks = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            LocalDateTime createdAt = START.plusSeconds(id * 37L).plusNanos(random.nextInt(1_000_000) * 1000L);
+            boolean completed = random.nextInt(3) == 0;
+            LocalDateTime completedAt = completed ? createdAt.plusMinutes(random.nextInt(10_000)) : null;
+            tasks.add(new Task(id, words(random, 3), words(random, 8), completed,
+                    createdAt, completedAt, PRIORITIES[random.nextInt(PRIORITIES.length)]));
+        }
+        return tasks;
+    }
+    
+    static String words(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+    
+    static void deleteRecursively(Path dir) throws Exception {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
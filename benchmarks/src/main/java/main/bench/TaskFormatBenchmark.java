@@ -0,0 +1,96 @@
+// TaskFormatBenchmark.java
+package main.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import main.Task;
+import main.TaskEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Cost of encoding and decoding one tasks.txt line. The records cycle through
+// a fixed sample so the JIT sees a realistic mix of completed/pending tasks.
+// Run with -prof gc to compare the allocation rate of the two encoders.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TaskFormatBenchmark {
+    private static final int SAMPLE = 1024;
+    
+    // Counts the bytes and drops them, leaving only the encoding cost
+    private static final WritableByteChannel DISCARD = new WritableByteChannel() {
+        @Override
+        public int write(ByteBuffer source) {
+            int length = source.remaining();
+            source.position(source.limit());
+            return length;
+        }
+        
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+        
+        @Override
+        public void close() {
+        }
+    };
+    
+    private Task[] tasks;
+    private String[] lines;
+    private int next;
+    private TaskEncoder encoder;
+    
+    @Setup
+    public void setUp() {
+        List<Task> sample = TaskData.tasks(SAMPLE);
+        tasks = sample.toArray(new Task[0]);
+        lines = new String[SAMPLE];
+        for (int i = 0; i < SAMPLE; i++) {
+            lines[i] = tasks[i].toFileFormat();
+        }
+        encoder = new TaskEncoder();
+    }
+    
+    @Benchmark
+    public String toFileFormat() {
+        next = (next + 1) & (SAMPLE - 1);
+        return tasks[next].toFileFormat();
+    }
+    
+    // What a text snapshot used to do per task: format a String, then encode it
+    @Benchmark
+    public byte[] toFileFormatBytes() {
+        next = (next + 1) & (SAMPLE - 1);
+        return (tasks[next].toFileFormat() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+    }
+    
+    // What it does now
+    @Benchmark
+    public long encode() throws IOException {
+        next = (next + 1) & (SAMPLE - 1);
+        encoder.encode(tasks[next], DISCARD);
+        return encoder.bytesWritten();
+    }
+    
+    @Benchmark
+    public Task fromFileFormat() {
+        next = (next + 1) & (SAMPLE - 1);
+        return Task.fromFileFormat(lines[next]);
+    }
+}
@@ -0,0 +1,138 @@
+// TodoManagerBenchmark.java
+package main.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import main.FileHandler;
+import main.Task;
+import main.TodoManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// TodoManager queries and mutations against a loaded task list. Mutations go
+// through the write-behind journal, as they do in the JavaFX app, and leave
+// the list the same size so every iteration measures the same workload.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class TodoManagerBenchmark {
+    private static final long FLUSH_DELAY_MILLIS = 200;
+    private static final int BATCH_SIZE = 1000;
+    
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+    
+    @Param({"OBJECTS", "COLUMNS"})
+    public TodoManager.Storage storage;
+    
+    private Path dir;
+    private TodoManager manager;
+    private int cursor;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("todo-bench");
+        new FileHandler(dir).saveTasks(TaskData.tasks(size));
+        FileHandler fileHandler = new FileHandler(dir);
+        // Every task stays, so ids 1..size all exist
+        fileHandler.setArchiveAfter(Duration.ZERO);
+        fileHandler.enableWriteBehind(FLUSH_DELAY_MILLIS);
+        manager = new TodoManager(fileHandler, true, storage);
+        // Build the search index outside the measured region
+        manager.search("warmup", 1);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        manager.close();
+        TaskData.deleteRecursively(dir);
+    }
+    
+    // Cycles over existing ids
+    private int nextExistingId() {
+        cursor = cursor % size + 1;
+        return cursor;
+    }
+    
+    @Benchmark
+    public Task getTaskById() {
+        return manager.getTaskById(nextExistingId());
+    }
+    
+    @Benchmark
+    public int getTaskCountByPriority() {
+        return manager.getTaskCountByPriority(Task.Priority.HIGH);
+    }
+    
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Task> getAllTasks() {
+        return manager.getAllTasks();
+    }
+    
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Task> getPendingTasks() {
+        return manager.getPendingTasks();
+    }
+    
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Task> getTasksByPriority() {
+        return manager.getTasksByPriority(Task.Priority.MEDIUM);
+    }
+    
+    @Benchmark
+    public List<Task> search() {
+        return manager.search("budget review", 100);
+    }
+    
+    @Benchmark
+    public void addAndRemoveTask() {
+        Task task = manager.addTask("benchmark task", "added and removed again", "Medium");
+        manager.removeTask(task.getId());
+    }
+    
+    @Benchmark
+    public void updateTask() {
+        int id = nextExistingId();
+        Task task = manager.getTaskById(id);
+        manager.updateTask(id, task.getTitle(), task.getDescription(), task.getPriority());
+    }
+    
+    // One batch completing and one reopening BATCH_SIZE tasks
+    @Benchmark
+    public void toggleCompletionBatch() {
+        List<Integer> ids = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            ids.add(nextExistingId());
+        }
+        manager.setCompleted(ids, true);
+        manager.setCompleted(ids, false);
+    }
+    
+    @Benchmark
+    public void toggleCompletion() {
+        int id = nextExistingId();
+        manager.markTaskCompleted(id);
+        manager.markTaskIncomplete(id);
+    }
+}
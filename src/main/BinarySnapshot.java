@@ -0,0 +1,220 @@
+// BinarySnapshot.java
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+
+// Versioned binary snapshot (tasks.bin). Layout, big-endian:
+//   header:  int magic, int version, int task count
+//   task:    int id, byte flags, byte priority,
+//            long createdAt epoch second, int createdAt nano,
+//            [long completedAt epoch second, int completedAt nano]   if HAS_COMPLETED_AT
+//            string title, string description, [string priority]   if priority is CUSTOM
+//   string:  int UTF-8 byte length (-1 for null), bytes
+// Timestamps are Task's epoch nanoseconds split into second and nano, so they
+// round-trip exactly. Priorities are written by code; CUSTOM is only read, from
+// snapshots written when a priority could be any text.
+class BinarySnapshot {
+    static final int MAGIC = 0x544F444F; // "TODO"
+    static final int VERSION = 1;
+    
+    private static final int COMPLETED = 1;
+    private static final int HAS_COMPLETED_AT = 2;
+    
+    private static final byte CUSTOM = 0;
+    // Code of each Task.Priority, by ordinal
+    private static final byte[] PRIORITY_CODES = {1, 2, 3};
+    private static final Task.Priority[] PRIORITIES = {null, Task.Priority.HIGH, Task.Priority.MEDIUM, Task.Priority.LOW};
+    
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    
+    static void write(Path path, List<Task> tasks) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(tasks.size());
+            
+            for (Task task : tasks) {
+                byte[] title = bytes(task.getTitle());
+                byte[] description = bytes(task.getDescription());
+                byte priority = PRIORITY_CODES[task.getPriority().ordinal()];
+                long completedAt = task.getCompletedAtNanos();
+                boolean hasCompletedAt = completedAt != Task.NO_TIME;
+                
+                int recordSize = 4 + 1 + 1 + 12 + (hasCompletedAt ? 12 : 0)
+                        + stringSize(title) + stringSize(description);
+                if (buffer.remaining() < recordSize) {
+                    drain(channel, buffer);
+                    if (buffer.capacity() < recordSize) {
+                        buffer = ByteBuffer.allocateDirect(recordSize);
+                    }
+                }
+                
+                int flags = (task.isCompleted() ? COMPLETED : 0) | (hasCompletedAt ? HAS_COMPLETED_AT : 0);
+                buffer.putInt(task.getId()).put((byte) flags).put(priority);
+                putTime(buffer, task.getCreatedAtNanos());
+                if (hasCompletedAt) {
+                    putTime(buffer, completedAt);
+                }
+                putString(buffer, title);
+                putString(buffer, description);
+            }
+            drain(channel, buffer);
+            channel.force(false);
+        }
+    }
+    
+    // progress hears the byte offset reached every PROGRESS_INTERVAL tasks
+    static void read(Path path, Consumer<Task> sink, LongConsumer progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = map(channel, path);
+            int count = buffer.getInt();
+            Decoder decoder = new Decoder();
+            for (int i = 0; i < count; i++) {
+                if (i % MappedTaskLoader.PROGRESS_INTERVAL == 0) {
+                    progress.accept(buffer.position());
+                }
+                sink.accept(decoder.next(buffer));
+            }
+        }
+    }
+    
+    // CRC32 of every record by task id, stepping over the strings instead of
+    // decoding them. Records whose checksum differs from the one in previous,
+    // or whose id wanted accepts, are decoded and handed to changed unless
+    // that is null; a null previous makes every record changed.
+    static IntIntMap checksums(Path path, IntIntMap previous, IntPredicate wanted, Consumer<Task> changed)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = map(channel, path);
+            int count = buffer.getInt();
+            IntIntMap sums = new IntIntMap(count);
+            Decoder decoder = new Decoder();
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < count; i++) {
+                int start = buffer.position();
+                int id = buffer.getInt();
+                int flags = buffer.get();
+                byte priorityCode = buffer.get();
+                skip(buffer, (flags & HAS_COMPLETED_AT) != 0 ? 24 : 12);
+                skip(buffer, buffer.getInt());
+                skip(buffer, buffer.getInt());
+                if (priorityCode == CUSTOM) {
+                    skip(buffer, buffer.getInt());
+                }
+                int end = buffer.position();
+                crc.reset();
+                crc.update(buffer.position(start).limit(end));
+                buffer.limit(buffer.capacity()).position(end);
+                int sum = (int) crc.getValue();
+                if (changed != null && (previous == null || !previous.containsKey(id) || previous.get(id) != sum
+                        || wanted.test(id) || sums.containsKey(id))) {
+                    changed.accept(decoder.next(buffer.position(start)));
+                }
+                sums.put(id, sum);
+            }
+            return sums;
+        }
+    }
+    
+    // The whole file, positioned at the task count
+    private static MappedByteBuffer map(FileChannel channel, Path path) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot too large: " + size + " bytes");
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (size < 12 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a task snapshot: " + path);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        return buffer;
+    }
+    
+    // Null strings are stored with length -1 and no bytes
+    private static void skip(ByteBuffer buffer, int length) {
+        if (length > 0) {
+            buffer.position(buffer.position() + length);
+        }
+    }
+    
+    // Reads task records, reusing one buffer for their strings
+    private static final class Decoder {
+        private byte[] scratch = new byte[256];
+        
+        Task next(ByteBuffer buffer) {
+            int id = buffer.getInt();
+            int flags = buffer.get();
+            byte priorityCode = buffer.get();
+            long createdAt = getTime(buffer);
+            long completedAt = (flags & HAS_COMPLETED_AT) != 0 ? getTime(buffer) : Task.NO_TIME;
+            
+            String title = getString(buffer);
+            String description = getString(buffer);
+            Task.Priority priority = priorityCode == CUSTOM
+                    ? Task.Priority.orDefault(getString(buffer)) : PRIORITIES[priorityCode];
+            
+            return new Task(id, title, description, (flags & COMPLETED) != 0, createdAt, completedAt, priority);
+        }
+        
+        private String getString(ByteBuffer buffer) {
+            int length = buffer.getInt();
+            if (length < 0) {
+                return null;
+            }
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            buffer.get(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+    
+    private static void putTime(ByteBuffer buffer, long epochNanos) {
+        buffer.putLong(Math.floorDiv(epochNanos, NANOS_PER_SECOND))
+                .putInt((int) Math.floorMod(epochNanos, NANOS_PER_SECOND));
+    }
+    
+    private static long getTime(ByteBuffer buffer) {
+        long epochSecond = buffer.getLong();
+        return Task.epochNanos(epochSecond, buffer.getInt());
+    }
+    
+    private static byte[] bytes(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+    
+    private static int stringSize(byte[] value) {
+        return 4 + (value != null ? value.length : 0);
+    }
+    
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(value.length).put(value);
+        }
+    }
+    
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,189 @@
+// ChangeFeed.java
+package main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A TodoManager's recent changes in a ring of the last CAPACITY, and the
+// subscriptions reading them. A subscription is only a position in the ring
+// plus the demand its subscriber has signalled, so a slow subscriber costs no
+// memory: it reads on from where it is whenever it asks for more. One that
+// falls more than CAPACITY changes behind has missed some and is told so.
+final class ChangeFeed {
+    static final int CAPACITY = 4096;
+    private static final int MASK = CAPACITY - 1;
+    // Changes a subscription takes from the ring at a time
+    private static final int DRAIN_BATCH = 256;
+    
+    // Changes floor + 1 to last are kept; guarded by this
+    private final TaskChange[] ring = new TaskChange[CAPACITY];
+    private long floor;
+    private long last;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+    
+    // Called with the manager's write lock held, in sequence order
+    synchronized void append(TaskChange change) {
+        ring[(int) (change.getSequence() & MASK)] = change;
+        last = change.getSequence();
+        floor = Math.max(floor, last - CAPACITY);
+    }
+    
+    // Forget every change: the tasks were replaced wholesale and sequence is
+    // the version after that
+    synchronized void reset(long sequence) {
+        Arrays.fill(ring, null);
+        floor = sequence;
+        last = sequence;
+    }
+    
+    // Up to max changes after sequence, in order; null if some of them are no
+    // longer kept, or sequence is ahead of the feed
+    synchronized List<TaskChange> since(long sequence, int max) {
+        if (sequence < floor || sequence > last) {
+            return null;
+        }
+        int count = (int) Math.min(max, last - sequence);
+        List<TaskChange> changes = new ArrayList<>(count);
+        for (long s = sequence + 1; s <= sequence + count; s++) {
+            changes.add(ring[(int) (s & MASK)]);
+        }
+        return changes;
+    }
+    
+    synchronized boolean isLatest(long sequence) {
+        return sequence == last;
+    }
+    
+    void subscribe(long after, Flow.Subscriber<? super TaskChange> subscriber, Executor executor) {
+        Subscription subscription = new Subscription(after, subscriber, executor);
+        subscriptions.add(subscription);
+        subscription.signal();
+    }
+    
+    // Wake subscriptions that are waiting for changes. Called after the
+    // manager's lock is released.
+    void publish() {
+        for (Subscription subscription : subscriptions) {
+            subscription.signal();
+        }
+    }
+    
+    // Subscribers get what is left and then onComplete
+    void close() {
+        closed = true;
+        publish();
+    }
+    
+    // Delivery runs as one task on the executor at a time: signals that
+    // arrive while it runs are counted, and it goes round again for them.
+    // That keeps the subscriber's calls serial, as Flow requires.
+    private final class Subscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super TaskChange> subscriber;
+        private final Executor executor;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger signals = new AtomicInteger();
+        // Sequence of the last change delivered; only touched by run()
+        private long cursor;
+        private boolean subscribed;
+        private volatile Throwable error;
+        private volatile boolean cancelled;
+        
+        Subscription(long after, Flow.Subscriber<? super TaskChange> subscriber, Executor executor) {
+            this.cursor = after;
+            this.subscriber = subscriber;
+            this.executor = executor;
+        }
+        
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                // Rule 3.9 of the reactive streams spec
+                error = new IllegalArgumentException("Requested " + n + " changes; must be positive");
+            } else {
+                demand.accumulateAndGet(n, (current, more) -> current + more < 0 ? Long.MAX_VALUE : current + more);
+            }
+            signal();
+        }
+        
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+        
+        void signal() {
+            if (signals.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    cancel();
+                }
+            }
+        }
+        
+        @Override
+        public void run() {
+            int handled;
+            do {
+                handled = signals.get();
+                try {
+                    deliver();
+                } catch (RuntimeException e) {
+                    // Thrown by the subscriber, which hears of it once
+                    fail(e);
+                }
+            } while (!signals.compareAndSet(handled, 0));
+        }
+        
+        private void deliver() {
+            if (!subscribed) {
+                subscribed = true;
+                subscriber.onSubscribe(this);
+            }
+            while (!cancelled) {
+                if (error != null) {
+                    fail(error);
+                    return;
+                }
+                long wanted = demand.get();
+                List<TaskChange> changes = since(cursor, (int) Math.min(wanted, DRAIN_BATCH));
+                if (changes == null) {
+                    fail(new IllegalStateException("Changes after " + cursor + " are no longer kept"));
+                    return;
+                }
+                if (changes.isEmpty()) {
+                    // Nothing more will come once the feed is closed and read
+                    // to the end, so finish even without demand
+                    if (closed && (wanted > 0 || isLatest(cursor))) {
+                        cancel();
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                for (TaskChange change : changes) {
+                    if (cancelled) {
+                        return;
+                    }
+                    subscriber.onNext(change);
+                    cursor = change.getSequence();
+                    demand.decrementAndGet();
+                }
+            }
+        }
+        
+        private void fail(Throwable cause) {
+            if (!cancelled) {
+                cancel();
+                subscriber.onError(cause);
+            }
+        }
+    }
+}
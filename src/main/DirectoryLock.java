@@ -0,0 +1,206 @@
+// DirectoryLock.java
+package main;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Coordinates the processes sharing a data directory through byte-range locks
+// on its tasks.lock file, which the OS drops if a process dies holding them.
+// Byte 0 guards short critical sections. Appending to the journal or reading
+// it takes it shared, so appends from several processes go ahead together;
+// rotating the journal, replacing the snapshot or leasing ids takes it
+// exclusively. Byte 1 is held for as long as a snapshot is being written, so
+// only one process compacts at a time. A file lock belongs to the whole JVM,
+// and a second FileHandler on the same directory in this JVM would get
+// OverlappingFileLockException, so each byte is also guarded by locks shared
+// by every DirectoryLock on the directory, and so is the channel: on most
+// systems closing any channel to a file drops every lock the process holds on
+// it. If the file system cannot lock files, only the in-process locks remain.
+final class DirectoryLock {
+    static final String LOCK_FILE = "tasks.lock";
+    private static final long MUTEX = 0;
+    private static final long WRITER = 1;
+    
+    // The in-process side, one per directory for the life of the JVM
+    private static final class Shared {
+        final ReentrantReadWriteLock mutex = new ReentrantReadWriteLock();
+        // Released by whichever thread finishes the snapshot
+        final Semaphore writer = new Semaphore(1);
+        // The rest is guarded by this; the channel is closed when the last
+        // user closes
+        FileChannel channel;
+        int users;
+        boolean warned;
+        // Byte 0 taken shared for every thread holding the read side of mutex
+        FileLock sharedLock;
+        int readers;
+    }
+    
+    private static final Map<Path, Shared> SHARED = new ConcurrentHashMap<>();
+    
+    private final Path path;
+    private final Shared shared;
+    private boolean closed;
+    // Guarded by the write side of shared.mutex, and by shared.writer
+    private FileLock mutexLock;
+    private FileLock writerLock;
+    
+    DirectoryLock(Path dataDir) {
+        this.path = dataDir.resolve(LOCK_FILE);
+        this.shared = SHARED.computeIfAbsent(dataDir.toAbsolutePath().normalize(), dir -> new Shared());
+        synchronized (shared) {
+            shared.users++;
+        }
+    }
+    
+    // Exclusive. Reentrant; every lock needs an unlock on the same thread, and
+    // a thread holding the shared lock must not ask for this one.
+    void lock() {
+        shared.mutex.writeLock().lock();
+        if (shared.mutex.getWriteHoldCount() == 1) {
+            try {
+                mutexLock = channel().lock(MUTEX, 1, false);
+            } catch (IOException e) {
+                warn(e);
+            }
+        }
+    }
+    
+    void unlock() {
+        try {
+            if (shared.mutex.getWriteHoldCount() == 1 && mutexLock != null) {
+                release(mutexLock);
+                mutexLock = null;
+            }
+        } finally {
+            shared.mutex.writeLock().unlock();
+        }
+    }
+    
+    // Held together with other appenders and readers, here and in other
+    // processes. Inside lock it adds nothing, as the exclusive lock covers it.
+    void lockShared() {
+        shared.mutex.readLock().lock();
+        if (shared.mutex.isWriteLockedByCurrentThread()) {
+            return;
+        }
+        synchronized (shared) {
+            if (shared.readers++ == 0) {
+                try {
+                    shared.sharedLock = channel().lock(MUTEX, 1, true);
+                } catch (IOException e) {
+                    warn(e);
+                }
+            }
+        }
+    }
+    
+    void unlockShared() {
+        try {
+            if (!shared.mutex.isWriteLockedByCurrentThread()) {
+                synchronized (shared) {
+                    if (--shared.readers == 0 && shared.sharedLock != null) {
+                        release(shared.sharedLock);
+                        shared.sharedLock = null;
+                    }
+                }
+            }
+        } finally {
+            shared.mutex.readLock().unlock();
+        }
+    }
+    
+    // The right to write the snapshot, waiting for whoever has it
+    void lockWriter() {
+        shared.writer.acquireUninterruptibly();
+        try {
+            writerLock = channel().lock(WRITER, 1, false);
+        } catch (IOException e) {
+            warn(e);
+        }
+    }
+    
+    // The right to write the snapshot, or false if another process or
+    // handler has it now
+    boolean tryLockWriter() {
+        if (!shared.writer.tryAcquire()) {
+            return false;
+        }
+        try {
+            writerLock = channel().tryLock(WRITER, 1, false);
+            if (writerLock == null) {
+                shared.writer.release();
+                return false;
+            }
+        } catch (IOException e) {
+            warn(e);
+        }
+        return true;
+    }
+    
+    // May be called from a thread other than the one that locked
+    void unlockWriter() {
+        if (writerLock != null) {
+            release(writerLock);
+            writerLock = null;
+        }
+        shared.writer.release();
+    }
+    
+    // Closes the lock file once no handler on the directory uses it; safe to
+    // call more than once
+    void close() {
+        synchronized (shared) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (--shared.users == 0 && shared.channel != null) {
+                try {
+                    shared.channel.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing lock file: " + e.getMessage());
+                }
+                shared.channel = null;
+            }
+        }
+    }
+    
+    // Reopened if a closed handler is still used
+    private FileChannel channel() throws IOException {
+        synchronized (shared) {
+            if (shared.channel == null) {
+                shared.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            }
+            return shared.channel;
+        }
+    }
+    
+    private static void release(FileLock lock) {
+        try {
+            if (lock.isValid()) {
+                lock.release();
+            }
+        } catch (IOException e) {
+            System.err.println("Error unlocking data directory: " + e.getMessage());
+        }
+    }
+    
+    // Once per directory, or a broken lock file would log on every append
+    private void warn(IOException e) {
+        synchronized (shared) {
+            if (!shared.warned) {
+                shared.warned = true;
+                System.err.println("Error locking data directory: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -2,20 +2,155 @@
 package main;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
 
+// Tasks are persisted as a snapshot (tasks.txt, or tasks.bin in the binary
+// format) plus an append-only journal (tasks.journal) of add/update/complete/delete
+// records. Loading replays the journal on top of the snapshot; compaction folds
+// the journal back into a fresh snapshot on a background thread.
+//
+// In write-behind mode journal records are queued in memory and a flusher
+// thread writes each burst with a single write and fsync, so callers on the
+// UI thread never wait for the disk.
+//
+// With an archive age set (todo.archive.days, or setArchiveAfter), completed
+// tasks older than that are moved to a TaskArchive as they load, so they stay
+// out of memory and out of every later snapshot. It is off by default, so
+// loading only reads unless asked to.
+//
+// A handler can also watch its directory for changes other programs make to
+// the files and work out which tasks they touched; see watch.
+//
+// Several processes can share a directory. Each write holds a DirectoryLock
+// only while it touches the files: appends go to whichever journal is
+// current, one process compacts at a time, and ids come from blocks each
+// process leases from tasks.ids, so no two hand out the same one. A
+// compaction that finds records it has not read folds the files into the new
+// snapshot rather than writing its own tasks over them.
 public class FileHandler {
-    private static final String DATA_DIR = "data";
+    public enum SnapshotFormat { TEXT, BINARY }
+    
+    static final String DATA_DIR = "data";
     private static final String TASKS_FILE = "tasks.txt";
+    private static final String BINARY_FILE = "tasks.bin";
+    private static final String MIGRATED_SUFFIX = ".migrated";
+    private static final String FORMAT_PROPERTY = "todo.snapshot.format";
+    private static final String JOURNAL_FILE = "tasks.journal";
+    private static final String COMPACTING_SUFFIX = ".compacting";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String IDS_FILE = "tasks.ids";
+    // Ids a process takes from tasks.ids at a time
+    static final int ID_LEASE = 1024;
+    private static final int COMPACT_MIN_RECORDS = 1000;
+    // Most journal bytes handed to the OS in one write, always whole records
+    private static final int JOURNAL_CHUNK = 1 << 16;
+    private static final String ARCHIVE_DAYS_PROPERTY = "todo.archive.days";
+    // Tasks moved to the archive per gzip member while loading
+    private static final int ARCHIVE_CHUNK = 16384;
+    // Quiet time after the last change to the data files before they are
+    // compared, so a burst of writes is read once; a change is read at most
+    // WATCH_MAX_DELAY_MILLIS after it even if the writes never pause
+    private static final long WATCH_QUIET_MILLIS = 200;
+    private static final long WATCH_MAX_DELAY_MILLIS = 2000;
+    private static final Set<String> DATA_FILES = Set.of(TASKS_FILE, BINARY_FILE, JOURNAL_FILE,
+            JOURNAL_FILE + COMPACTING_SUFFIX);
+    
+    private static final char OP_ADD = 'A';
+    private static final char OP_UPDATE = 'U';
+    private static final char OP_COMPLETE = 'C';
+    private static final char OP_DELETE = 'D';
+    
+    private final SnapshotFormat format;
+    private final Path dataDir;
+    private final Path textPath;
     private final Path filePath;
+    private final Path journalPath;
+    private final Path idsPath;
+    private final DirectoryLock directoryLock;
+    private final TaskArchive archive;
+    private final Path compactingPath;
+    private final ExecutorService compactor;
+    private FileOutputStream journalStream;
+    private final ByteArrayOutputStream journalBuffer = new ByteArrayOutputStream();
+    // The file journalStream appends to, which another process may rotate
+    private Object openJournalKey;
+    private final AtomicInteger journalRecords = new AtomicInteger();
+    // Reused by every text snapshot; saves and compactions never overlap
+    private TaskEncoder snapshotEncoder;
+    private volatile boolean compacting;
+    
+    // Write-behind state; pendingLock is never held while doing I/O
+    private final Object pendingLock = new Object();
+    private List<String> pendingRecords = new ArrayList<>();
+    private volatile long flushDelayMillis;
+    private volatile boolean closed;
+    private Thread flusher;
+    private volatile Consumer<IOException> errorListener;
+    // Completed tasks older than this are archived as they load; 0 keeps them
+    private volatile long archiveAfterNanos;
+    private boolean failing;
+    
+    // Watching for changes made elsewhere; see watch. Guarded by this.
+    private WatchService watchService;
+    // Bytes at the start of the journal the tasks in memory already include,
+    // and the journal file they are in, if known
+    private long journalOffset;
+    private Object journalKey;
+    // What the tasks in memory were read from: the snapshot's stamp, its
+    // checksums by task id, and the ids the journal up to journalOffset
+    // touches. The last two are built once watching starts and dropped when
+    // the snapshot is rewritten here; null means not known.
+    private FileStamp snapshotStamp;
+    private IntIntMap snapshotSums;
+    private IntIntMap journalIds;
+    // A snapshot changed elsewhere, compared but not applied yet
+    private SnapshotDiff snapshotDiff;
     
     public FileHandler() {
+        this(Paths.get(DATA_DIR), defaultFormat());
+    }
+    
+    public FileHandler(Path dataDir) {
+        this(dataDir, SnapshotFormat.TEXT);
+    }
+    
+    public FileHandler(Path dataDir, SnapshotFormat format) {
         // Create data directory if it doesn't exist
-        Path dataDir = Paths.get(DATA_DIR);
         if (!Files.exists(dataDir)) {
             try {
                 Files.createDirectories(dataDir);
@@ -24,57 +159,1394 @@ public class FileHandler {
             }
         }
         
-        this.filePath = dataDir.resolve(TASKS_FILE);
+        this.format = format;
+        this.dataDir = dataDir;
+        this.textPath = dataDir.resolve(TASKS_FILE);
+        this.filePath = format == SnapshotFormat.BINARY ? dataDir.resolve(BINARY_FILE) : textPath;
+        this.journalPath = dataDir.resolve(JOURNAL_FILE);
+        this.idsPath = dataDir.resolve(IDS_FILE);
+        this.directoryLock = new DirectoryLock(dataDir);
+        this.archive = new TaskArchive(dataDir, directoryLock);
+        this.archiveAfterNanos = defaultArchiveAge().toNanos();
+        this.compactingPath = dataDir.resolve(JOURNAL_FILE + COMPACTING_SUFFIX);
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "tasks-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    // Queue journal records and let a background thread write them at most
+    // maxDelayMillis later; bursts of mutations share one write
+    public synchronized void enableWriteBehind(long maxDelayMillis) {
+        if (maxDelayMillis <= 0) {
+            throw new IllegalArgumentException("Flush delay must be positive");
+        }
+        flushDelayMillis = maxDelayMillis;
+        if (flusher == null) {
+            flusher = new Thread(this::runFlusher, "tasks-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
     }
     
-    public void saveTasks(List<Task> tasks) {
-        try (BufferedWriter writer = Files.newBufferedWriter(filePath)) {
-            for (Task task : tasks) {
-                writer.write(task.toFileFormat());
-                writer.newLine();
+    // How long a task stays in the working set after it is completed, after
+    // which loading moves it to the archive; zero or null, the default
+    // unless todo.archive.days is set, keeps every task there. Takes effect
+    // at the next load.
+    public void setArchiveAfter(Duration age) {
+        archiveAfterNanos = age == null || age.isNegative() ? 0 : age.toNanos();
+    }
+    
+    TaskArchive archive() {
+        return archive;
+    }
+    
+    // Append tasks to the archive; the caller journals their deletion once
+    // this returns true
+    boolean moveToArchive(List<Task> tasks) {
+        try {
+            archive.append(tasks);
+            return true;
+        } catch (IOException e) {
+            report("Error archiving tasks", e);
+            return false;
+        }
+    }
+    
+    // Take tasks back out of the archive; returns the ones it had
+    List<Task> removeFromArchive(Collection<Integer> ids) {
+        try {
+            return archive.remove(ids);
+        } catch (IOException e) {
+            report("Error updating the archive", e);
+            return new ArrayList<>();
+        }
+    }
+    
+    // Called with the failure of a journal, snapshot or compaction write.
+    // Runs on whichever thread hit the error, the flusher thread included.
+    public void setErrorListener(Consumer<IOException> errorListener) {
+        this.errorListener = errorListener;
+    }
+    
+    // Rewrite the full snapshot and drop the journal it supersedes. Records
+    // another process has journaled since the tasks were read are kept.
+    public synchronized void saveTasks(List<Task> tasks) {
+        long start = Metrics.start();
+        TaskEvents.Save event = new TaskEvents.Save();
+        event.begin();
+        awaitCompaction();
+        // Queued records describe changes the given list already contains
+        takePending();
+        long bytes = 0;
+        try {
+            bytes = replaceSnapshot(tasks);
+        } catch (IOException e) {
+            report("Error saving tasks", e);
+        }
+        saved(Metrics.SAVE, start, event, tasks.size(), bytes);
+    }
+    
+    private void saved(LatencyHistogram histogram, long start, TaskEvents.Save event, int tasks, long bytes) {
+        histogram.recordSince(start);
+        if (event.shouldCommit()) {
+            event.tasks = tasks;
+            event.bytes = bytes;
+            event.format = format.name();
+            event.compaction = histogram == Metrics.COMPACT;
+            event.commit();
+        }
+    }
+    
+    // Holds this. Write tasks as the whole snapshot and drop the journal they
+    // include, unless another process has added records to it since it was
+    // read; then it stays, to be replayed on top.
+    private long replaceSnapshot(List<Task> tasks) throws IOException {
+        directoryLock.lockWriter();
+        try {
+            long bytes = writeSnapshot(tasks);
+            directoryLock.lock();
+            try {
+                boolean current = caughtUp();
+                publishSnapshot();
+                if (current) {
+                    closeJournal();
+                    Files.deleteIfExists(journalPath);
+                    journalEmptied();
+                    snapshotWritten();
+                } else {
+                    snapshotReplaced();
+                }
+            } finally {
+                directoryLock.unlock();
             }
+            return bytes;
+        } finally {
+            directoryLock.unlockWriter();
+        }
+    }
+    
+    // The first of count ids that no process sharing the directory has been or
+    // will be given; floor is above every id the caller knows of. Ids leased
+    // but not used before a process exits are skipped for good.
+    int leaseIds(int floor, int count) {
+        try {
+            return lease(floor, count);
         } catch (IOException e) {
-            System.err.println("Error saving tasks: " + e.getMessage());
+            report("Error leasing task ids", e);
+            return floor;
         }
     }
     
-    public List<Task> loadTasks() {
-        List<Task> tasks = new ArrayList<>();
+    private int lease(int floor, int count) throws IOException {
+        directoryLock.lock();
+        try {
+            int first = floor;
+            if (Files.exists(idsPath)) {
+                try {
+                    first = Math.max(floor, Integer.parseInt(Files.readString(idsPath, StandardCharsets.UTF_8).trim()));
+                } catch (NumberFormatException e) {
+                    System.err.println("Error reading " + IDS_FILE + ": " + e.getMessage());
+                }
+            }
+            Path tempPath = idsPath.resolveSibling(IDS_FILE + TEMP_SUFFIX);
+            Files.writeString(tempPath, (first + count) + "\n", StandardCharsets.UTF_8);
+            Files.move(tempPath, idsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return first;
+        } finally {
+            directoryLock.unlock();
+        }
+    }
+    
+    // Write any queued journal records now and wait until they are on disk
+    public synchronized void flush() {
+        List<String> batch = takePending();
+        if (!batch.isEmpty() && !writeJournal(batch)) {
+            requeue(batch);
+        }
+    }
+    
+    public synchronized List<Task> loadTasks() {
+        IntTaskMap tasks = new IntTaskMap();
+        loadTasks(task -> tasks.put(task.getId(), task), fraction -> { });
+        return tasks.values();
+    }
+    
+    // Hand every stored task to sink, in file order, as the snapshot is parsed.
+    // The journal is read first and applied to each task on its way past, so
+    // every task the sink sees is already final and a caller can show it before
+    // the rest of the file is read. progress hears the fraction of the snapshot
+    // read so far.
+    public synchronized void loadTasks(Consumer<Task> sink, DoubleConsumer progress) {
+        long start = Metrics.start();
+        TaskEvents.Load event = new TaskEvents.Load();
+        event.begin();
+        flush();
+        boolean migrate = format == SnapshotFormat.BINARY && !Files.exists(filePath) && Files.exists(textPath);
+        List<Task> migrated = migrate ? new ArrayList<>() : null;
+        // Counted here rather than in each loader; [0] snapshot tasks, [1] tasks handed out
+        int[] counts = new int[2];
+        Consumer<Task> kept = task -> {
+            counts[1]++;
+            if (migrate) {
+                migrated.add(task);
+            }
+            sink.accept(task);
+        };
+        long archiveAge = archiveAfterNanos;
+        long archiveBefore = archiveAge > 0 ? Task.now() - archiveAge : Long.MIN_VALUE;
+        List<Task> archived = new ArrayList<>();
+        Consumer<Task> out = task -> {
+            if (task.getCompletedAtNanos() == Task.NO_TIME || task.getCompletedAtNanos() >= archiveBefore) {
+                kept.accept(task);
+                return;
+            }
+            archived.add(task);
+            if (archived.size() >= ARCHIVE_CHUNK) {
+                archiveLoaded(archived, kept);
+                archived.clear();
+            }
+        };
+        
+        // A leftover .compacting file means a compaction did not finish;
+        // its records are still needed and replaying them is idempotent
+        JournalChanges changes = new JournalChanges();
+        Path snapshot = format == SnapshotFormat.BINARY && Files.exists(filePath) ? filePath
+                : Files.exists(textPath) ? textPath : null;
+        int records;
+        // No other process rotates the journal while it is read, and appends
+        // past the stamp taken first are read again by the watcher.
+        // The snapshot is read after; if it is replaced first, its stamp no
+        // longer matches and the next compaction and the watcher know.
+        directoryLock.lockShared();
+        try {
+            snapshotStamp = snapshot != null ? FileStamp.of(snapshot) : null;
+            FileStamp journal = FileStamp.of(journalPath);
+            journalOffset = journal != null ? journal.size : 0;
+            journalKey = journal != null ? journal.key : null;
+            records = readJournal(compactingPath, changes) + readJournal(journalPath, changes);
+        } finally {
+            directoryLock.unlockShared();
+        }
+        journalRecords.set(records);
+        Consumer<Task> merged = task -> {
+            counts[0]++;
+            Task replayed = changes.apply(task);
+            if (replayed != null) {
+                out.accept(replayed);
+            }
+        };
+        
+        snapshotSums = null;
+        journalIds = null;
+        snapshotDiff = null;
+        long size = 0;
+        if (snapshot != null) {
+            try {
+                size = Files.size(snapshot);
+                long total = size;
+                readSnapshot(snapshot, merged, offset -> progress.accept(total > 0 ? (double) offset / total : 1.0));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error loading tasks: " + e.getMessage());
+            }
+        }
+        // Tasks added since the snapshot was written
+        changes.forEachAdded(out);
+        archiveLoaded(archived, kept);
+        progress.accept(1.0);
         
-        if (!Files.exists(filePath)) {
-            return tasks; // Return empty list if file doesn't exist
+        if (migrate) {
+            migrateToBinary(migrated);
         }
         
-        try (BufferedReader reader = Files.newBufferedReader(filePath)) {
+        Metrics.count(Metrics.TASKS_PARSED, counts[0] + records);
+        Metrics.LOAD.recordSince(start);
+        if (event.shouldCommit()) {
+            event.tasks = counts[1];
+            event.bytes = size;
+            event.format = snapshot == filePath ? format.name() : SnapshotFormat.TEXT.name();
+            event.commit();
+        }
+    }
+    
+    // First start in binary mode: write tasks.bin from the text snapshot and
+    // journal, then set tasks.txt aside so it is not mistaken for current data
+    private void migrateToBinary(List<Task> tasks) {
+        try {
+            replaceSnapshot(tasks);
+            Files.move(textPath, textPath.resolveSibling(TASKS_FILE + MIGRATED_SUFFIX),
+                    StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Migrated " + tasks.size() + " tasks to " + BINARY_FILE);
+        } catch (IOException e) {
+            System.err.println("Error migrating tasks to binary format: " + e.getMessage());
+        }
+    }
+    
+    // Every task in a snapshot; progress hears the offset read up to
+    private void readSnapshot(Path snapshot, Consumer<Task> sink, LongConsumer progress) throws IOException {
+        if (snapshot.equals(filePath) && format == SnapshotFormat.BINARY) {
+            BinarySnapshot.read(snapshot, sink, progress);
+        } else if (MappedTaskLoader.canMap(Files.size(snapshot))) {
+            new MappedTaskLoader().load(snapshot, sink, progress);
+        } else {
+            loadSnapshotBuffered(snapshot, sink, progress);
+        }
+    }
+    
+    // Line-at-a-time reader, kept for snapshots too large to map
+    private void loadSnapshotBuffered(Path snapshot, Consumer<Task> sink, LongConsumer progress) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(snapshot)) {
             String line;
+            long position = 0;
+            int lines = 0;
+            boolean escaped = false;
             while ((line = reader.readLine()) != null) {
-                if (!line.trim().isEmpty()) {
+                // Close enough for progress; multi-byte characters are rare
+                position += line.length() + 1;
+                if (++lines % MappedTaskLoader.PROGRESS_INTERVAL == 0) {
+                    progress.accept(position);
+                }
+                if (lines == 1 && line.equals(Task.ESCAPED_HEADER)) {
+                    escaped = true;
+                } else if (!line.trim().isEmpty()) {
                     try {
-                        Task task = Task.fromFileFormat(line);
-                        tasks.add(task);
+                        sink.accept(Task.fromFileFormat(line, escaped));
                     } catch (Exception e) {
+                        Metrics.count(Metrics.PARSE_ERRORS, 1);
                         System.err.println("Error parsing task line: " + line + " - " + e.getMessage());
                     }
                 }
             }
+        }
+    }
+    
+    // Archived tasks are deleted from the journal's point of view; if the
+    // archive cannot be written they stay
+    private void archiveLoaded(List<Task> tasks, Consumer<Task> kept) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        if (!moveToArchive(tasks)) {
+            tasks.forEach(kept);
+            return;
+        }
+        JournalBatch batch = new JournalBatch();
+        for (Task task : tasks) {
+            batch.delete(task.getId());
+        }
+        append(batch);
+    }
+    
+    public void appendAdd(Task task) {
+        appendRecord(addRecord(task));
+    }
+    
+    public void appendUpdate(Task task) {
+        appendRecord(updateRecord(task));
+    }
+    
+    public void appendCompletion(Task task) {
+        appendRecord(completionRecord(task));
+    }
+    
+    public void appendDelete(int id) {
+        appendRecord(deleteRecord(id));
+    }
+    
+    // Journal records for a group of changes, appended with a single write
+    public static class JournalBatch {
+        private final List<String> records = new ArrayList<>();
+        
+        public void add(Task task) {
+            records.add(addRecord(task));
+        }
+        
+        public void update(Task task) {
+            records.add(updateRecord(task));
+        }
+        
+        public void completion(Task task) {
+            records.add(completionRecord(task));
+        }
+        
+        public void delete(int id) {
+            records.add(deleteRecord(id));
+        }
+        
+        public boolean isEmpty() {
+            return records.isEmpty();
+        }
+    }
+    
+    public void append(JournalBatch batch) {
+        if (!batch.isEmpty()) {
+            appendRecords(batch.records);
+        }
+    }
+    
+    static String addRecord(Task task) {
+        return OP_ADD + "|" + encodeTask(task);
+    }
+    
+    private static String updateRecord(Task task) {
+        return OP_UPDATE + "|" + encodeTask(task);
+    }
+    
+    private static String completionRecord(Task task) {
+        return OP_COMPLETE + "|" + task.getId() + "|" + task.isCompleted() + "|"
+                + formatTime(task.getCompletedAt());
+    }
+    
+    static String deleteRecord(int id) {
+        return OP_DELETE + "|" + id;
+    }
+    
+    // The journal is compacted once it holds more records than live tasks,
+    // which keeps the amortized cost of a mutation constant
+    public boolean needsCompaction(int liveTasks) {
+        return !compacting && journalRecords.get() > Math.max(COMPACT_MIN_RECORDS, liveTasks);
+    }
+    
+    // Fold the journal into a new snapshot. snapshot supplies a private copy
+    // of the tasks, taken at the same point the journal is rotated, and is
+    // only called if they include every record in the files. If another
+    // process has written records this one has not read, the new snapshot is
+    // the old one with the rotated journal replayed on top, read from the
+    // files. Does nothing while another process compacts.
+    public synchronized void compact(Supplier<List<Task>> snapshot) {
+        if (compacting) {
+            return;
+        }
+        // Checked first: while another process compacts, the caller, often
+        // the FX thread, should not wait for a journal write either
+        if (!directoryLock.tryLockWriter()) {
+            return;
+        }
+        // Queued records predate the snapshot and belong in the rotated journal
+        flush();
+        List<Task> copies = null;
+        directoryLock.lock();
+        try {
+            // A compaction that did not finish left one; fold that in first
+            // and rotate the journal next time
+            if (!Files.exists(compactingPath)) {
+                if (caughtUp()) {
+                    copies = snapshot.get();
+                }
+                closeJournal();
+                if (Files.exists(journalPath)) {
+                    Files.move(journalPath, compactingPath);
+                }
+                journalEmptied();
+            }
+            compacting = true;
         } catch (IOException e) {
-            System.err.println("Error loading tasks: " + e.getMessage());
+            report("Error rotating journal", e);
+        } finally {
+            directoryLock.unlock();
+            // On any failure, snapshot throwing included, no compaction runs
+            // to release the writer lock, and every later write would wait for it
+            if (!compacting) {
+                directoryLock.unlockWriter();
+            }
+        }
+        if (!compacting) {
+            return;
         }
         
+        List<Task> fromMemory = copies;
+        compactor.execute(() -> {
+            long start = Metrics.start();
+            TaskEvents.Save event = new TaskEvents.Save();
+            event.begin();
+            long bytes = 0;
+            int count = 0;
+            try {
+                List<Task> tasks = fromMemory != null ? fromMemory : mergeFiles();
+                count = tasks.size();
+                bytes = writeSnapshot(tasks);
+                directoryLock.lock();
+                try {
+                    publishSnapshot();
+                    Files.deleteIfExists(compactingPath);
+                } finally {
+                    directoryLock.unlock();
+                }
+            } catch (IOException e) {
+                report("Error compacting tasks", e);
+            } finally {
+                saved(Metrics.COMPACT, start, event, count, bytes);
+                synchronized (this) {
+                    if (fromMemory != null) {
+                        snapshotWritten();
+                    } else {
+                        snapshotReplaced();
+                    }
+                    compacting = false;
+                    notifyAll();
+                }
+                directoryLock.unlockWriter();
+            }
+        });
+    }
+    
+    // The snapshot with the rotated journal replayed on top, as the files
+    // have them. Only the writer lock's holder calls this, so neither changes.
+    private List<Task> mergeFiles() throws IOException {
+        JournalChanges changes = new JournalChanges();
+        readRecords(compactingPath, 0, (offset, fields) -> changes.record(fields));
+        List<Task> tasks = new ArrayList<>();
+        Path snapshot = snapshotPath();
+        if (Files.exists(snapshot)) {
+            readSnapshot(snapshot, task -> {
+                Task merged = changes.apply(task);
+                if (merged != null) {
+                    tasks.add(merged);
+                }
+            }, position -> { });
+        }
+        changes.forEachAdded(tasks::add);
         return tasks;
     }
     
+    // Flush queued records, stop the flusher and release the journal. Safe to
+    // call more than once, e.g. from both Application.stop and a shutdown hook.
+    public synchronized void close() {
+        closed = true;
+        synchronized (pendingLock) {
+            pendingLock.notifyAll();
+        }
+        flush();
+        awaitCompaction();
+        closeJournal();
+        directoryLock.close();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                System.err.println("Error closing file watcher: " + e.getMessage());
+            }
+        }
+    }
+    
     public boolean fileExists() {
         return Files.exists(filePath);
     }
     
     public void createEmptyFile() {
         try {
-            if (!Files.exists(filePath)) {
+            if (Files.exists(filePath)) {
+                return;
+            }
+            if (format == SnapshotFormat.BINARY) {
+                BinarySnapshot.write(filePath, new ArrayList<>());
+            } else {
                 Files.createFile(filePath);
             }
         } catch (IOException e) {
             System.err.println("Error creating empty file: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+    
+    private void appendRecord(String record) {
+        appendRecords(List.of(record));
+    }
+    
+    private void appendRecords(List<String> records) {
+        journalRecords.addAndGet(records.size());
+        if (flushDelayMillis > 0 && !closed) {
+            synchronized (pendingLock) {
+                boolean wasEmpty = pendingRecords.isEmpty();
+                pendingRecords.addAll(records);
+                if (wasEmpty) {
+                    pendingLock.notifyAll();
+                }
+            }
+        } else {
+            synchronized (this) {
+                writeJournal(records);
+            }
+        }
+    }
+    
+    private void runFlusher() {
+        while (!closed) {
+            synchronized (pendingLock) {
+                try {
+                    while (pendingRecords.isEmpty() && !closed) {
+                        pendingLock.wait();
+                    }
+                    // Let the rest of the burst arrive; this bounds the flush latency
+                    if (!closed) {
+                        pendingLock.wait(flushDelayMillis);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            flush();
+        }
+    }
+    
+    private List<String> takePending() {
+        synchronized (pendingLock) {
+            if (pendingRecords.isEmpty()) {
+                return List.of();
+            }
+            List<String> batch = pendingRecords;
+            pendingRecords = new ArrayList<>();
+            return batch;
+        }
+    }
+    
+    // Put a failed batch back in front of anything queued since, to retry later
+    private void requeue(List<String> batch) {
+        synchronized (pendingLock) {
+            batch.addAll(pendingRecords);
+            pendingRecords = batch;
+        }
+    }
+    
+    // Must hold the FileHandler lock. Write-behind batches are forced to disk;
+    // replay is idempotent, so a retried batch that was partly written is harmless.
+    // Other processes may append at the same time: the journal is opened for
+    // append and every write is whole records, so theirs never land mid-line.
+    private boolean writeJournal(List<String> records) {
+        directoryLock.lockShared();
+        try {
+            if (journalStream != null && !journalCurrent()) {
+                // Rotated by another process's compaction
+                closeJournal();
+            }
+            if (journalStream == null) {
+                journalStream = new FileOutputStream(journalPath.toFile(), true);
+                openJournalKey = Files.readAttributes(journalPath, BasicFileAttributes.class).fileKey();
+            }
+            FileChannel channel = journalStream.getChannel();
+            long before = channel.size();
+            long bytes = 0;
+            for (String record : records) {
+                journalBuffer.write(record.getBytes(StandardCharsets.UTF_8));
+                journalBuffer.write('\n');
+                if (journalBuffer.size() >= JOURNAL_CHUNK) {
+                    bytes += drainJournalBuffer();
+                }
+            }
+            bytes += drainJournalBuffer();
+            if (flushDelayMillis > 0) {
+                channel.force(false);
+            }
+            // Nobody else appended in between if the file grew by exactly this much
+            long end = before + bytes;
+            if (before == journalOffset && channel.size() == end
+                    && (journalKey == null || journalKey.equals(openJournalKey))) {
+                journalWritten(records, end);
+            }
+            Metrics.count(Metrics.BYTES_WRITTEN, bytes);
+            failing = false;
+            return true;
+        } catch (IOException e) {
+            journalBuffer.reset();
+            closeJournal();
+            report("Error writing journal", e);
+            return false;
+        } finally {
+            directoryLock.unlockShared();
+        }
+    }
+    
+    // One write call; returns the bytes written
+    private int drainJournalBuffer() throws IOException {
+        int bytes = journalBuffer.size();
+        if (bytes > 0) {
+            journalBuffer.writeTo(journalStream);
+            journalBuffer.reset();
+        }
+        return bytes;
+    }
+    
+    // Holds the directory lock. False once another process has rotated or
+    // deleted the journal this appends to.
+    private boolean journalCurrent() {
+        FileStamp journal = FileStamp.of(journalPath);
+        return journal != null && Objects.equals(journal.key, openJournalKey);
+    }
+    
+    // Log every failure, but tell the listener only when saving starts failing
+    // so a broken disk does not produce an error per flush
+    private synchronized void report(String message, IOException e) {
+        System.err.println(message + ": " + e.getMessage());
+        Consumer<IOException> listener = errorListener;
+        if (!failing && listener != null) {
+            listener.accept(e);
+        }
+        failing = true;
+    }
+    
+    // Only complete lines: another process may be appending one right now
+    private int readJournal(Path journal, JournalChanges changes) {
+        int[] records = {0};
+        try {
+            readRecords(journal, 0, (offset, fields) -> {
+                changes.record(fields);
+                records[0]++;
+            });
+        } catch (IOException e) {
+            System.err.println("Error loading journal: " + e.getMessage());
+        }
+        return records[0];
+    }
+    
+    // Net effect of the journal records, applied to snapshot tasks as they load
+    private static class JournalChanges {
+        // Whole tasks from add/update records, in journal order
+        private final IntTaskMap replaced = new IntTaskMap();
+        // Ids of deleted tasks, as a set
+        private final IntIntMap deleted = new IntIntMap();
+        // Completion changes to tasks that are only in the snapshot
+        private final Map<Integer, String[]> completions = new HashMap<>();
+        
+        void record(String[] fields) {
+            switch (fields[0].charAt(0)) {
+                case OP_ADD:
+                case OP_UPDATE:
+                    put(Task.fromFields(fields, 1));
+                    break;
+                case OP_COMPLETE: {
+                    int id = Integer.parseInt(fields[1]);
+                    Task task = replaced.get(id);
+                    if (task != null) {
+                        setCompletion(task, fields);
+                    } else if (!deleted.containsKey(id)) {
+                        completions.put(id, fields);
+                    }
+                    break;
+                }
+                case OP_DELETE:
+                    delete(Integer.parseInt(fields[1]));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown journal operation");
+            }
+        }
+        
+        void put(Task task) {
+            replaced.put(task.getId(), task);
+            deleted.remove(task.getId());
+            completions.remove(task.getId());
+        }
+        
+        void delete(int id) {
+            replaced.remove(id);
+            deleted.put(id, 1);
+            completions.remove(id);
+        }
+        
+        boolean touches(int id) {
+            return replaced.containsKey(id) || deleted.containsKey(id) || completions.containsKey(id);
+        }
+        
+        // The final form of a snapshot task, or null if it was deleted
+        Task apply(Task task) {
+            if (deleted.containsKey(task.getId())) {
+                return null;
+            }
+            Task replacement = replaced.remove(task.getId());
+            if (replacement != null) {
+                return replacement;
+            }
+            String[] completion = completions.get(task.getId());
+            if (completion != null) {
+                setCompletion(task, completion);
+            }
+            return task;
+        }
+        
+        // Journaled tasks the snapshot did not contain
+        void forEachAdded(Consumer<Task> sink) {
+            for (Task task : replaced) {
+                sink.accept(task);
+            }
+        }
+        
+        // Take over the changes other makes to tasks this leaves alone
+        void addUntouched(JournalChanges other) {
+            for (Task task : other.replaced) {
+                if (!touches(task.getId())) {
+                    put(task);
+                }
+            }
+            other.deleted.forEach((id, unused) -> {
+                if (!touches(id)) {
+                    delete(id);
+                }
+            });
+            other.completions.forEach((id, fields) -> {
+                if (!touches(id)) {
+                    completions.put(id, fields);
+                }
+            });
+        }
+        
+        private static void setCompletion(Task task, String[] fields) {
+            task.setCompleted(Boolean.parseBoolean(fields[2]));
+            task.setCompletedAtNanos(Task.parseOptionalTime(fields[3]));
+        }
+    }
+    
+    // Tasks as the files another program changed now have them, for
+    // TodoManager to apply: whole tasks that are new or may differ, removed
+    // ids, and completions of tasks that otherwise stayed the same. A complete
+    // set lists every task, so any task it leaves out is gone.
+    static final class ExternalChanges {
+        interface CompletionVisitor {
+            void visit(int id, boolean completed, long completedAtNanos);
+        }
+        
+        private final JournalChanges changes;
+        private final boolean complete;
+        
+        private ExternalChanges(JournalChanges changes, boolean complete) {
+            this.changes = changes;
+            this.complete = complete;
+        }
+        
+        void forEachTask(Consumer<Task> action) {
+            changes.forEachAdded(action);
+        }
+        
+        void forEachCompletion(CompletionVisitor visitor) {
+            changes.completions.forEach((id, fields) -> visitor.visit(id, Boolean.parseBoolean(fields[2]),
+                    Task.parseOptionalTime(fields[3])));
+        }
+        
+        void forEachRemoved(IntConsumer action) {
+            changes.deleted.forEach((id, unused) -> action.accept(id));
+        }
+        
+        boolean isComplete() {
+            return complete;
+        }
+        
+        boolean contains(int id) {
+            return changes.replaced.containsKey(id);
+        }
+    }
+    
+    // Watch the data directory for changes other programs make to the files:
+    // a sync tool, a script, a second instance. Once the files settle,
+    // onChange runs on the "tasks-watcher" thread and should apply what
+    // readExternalChanges returns. Writes made here are told apart by the
+    // files' stamps and the journal offset, so they never count as changes.
+    public synchronized void watch(Runnable onChange) throws IOException {
+        if (watchService != null || closed) {
+            return;
+        }
+        WatchService service = dataDir.getFileSystem().newWatchService();
+        dataDir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        watchService = service;
+        Thread watcher = new Thread(() -> runWatcher(service, onChange), "tasks-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+    
+    private enum FileCheck { UNCHANGED, CHANGED, BUSY }
+    
+    // Compare the files whenever the directory has been quiet for a while,
+    // and once more after every change found, to confirm it or to retry
+    private void runWatcher(WatchService service, Runnable onChange) {
+        // The first comparison builds the baselines
+        boolean pending = true;
+        long since = System.nanoTime();
+        try {
+            while (true) {
+                WatchKey key;
+                if (!pending) {
+                    key = service.take();
+                } else if (System.nanoTime() - since < TimeUnit.MILLISECONDS.toNanos(WATCH_MAX_DELAY_MILLIS)) {
+                    key = service.poll(WATCH_QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                } else {
+                    key = null;
+                }
+                if (key != null) {
+                    boolean relevant = touchesDataFiles(key);
+                    key.reset();
+                    if (relevant && !pending) {
+                        pending = true;
+                        since = System.nanoTime();
+                    }
+                    continue;
+                }
+                FileCheck check = checkFiles();
+                if (check == FileCheck.CHANGED) {
+                    try {
+                        onChange.run();
+                    } catch (RuntimeException e) {
+                        System.err.println("Error applying changed tasks: " + e.getMessage());
+                    }
+                }
+                pending = check != FileCheck.UNCHANGED;
+                since = System.nanoTime();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+    
+    private static boolean touchesDataFiles(WatchKey key) {
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object name = event.context();
+            relevant |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || name != null && DATA_FILES.contains(name.toString());
+        }
+        return relevant;
+    }
+    
+    // Compare the files with what the tasks in memory came from, building the
+    // baselines first if need be. The snapshot is read without holding this
+    // lock; if it was rewritten here meanwhile the answer is BUSY.
+    private FileCheck checkFiles() {
+        Path snapshot;
+        FileStamp stamp;
+        FileStamp seen;
+        IntIntMap base;
+        long offset;
+        synchronized (this) {
+            if (compacting) {
+                return FileCheck.BUSY;
+            }
+            snapshot = snapshotPath();
+            stamp = FileStamp.of(snapshot);
+            if (snapshotDiff != null && Objects.equals(stamp, snapshotDiff.stamp)) {
+                return FileCheck.CHANGED;
+            }
+            seen = snapshotStamp;
+            base = snapshotSums;
+            offset = journalOffset;
+            if (base != null && Objects.equals(stamp, seen)) {
+                return journalChanged() ? FileCheck.CHANGED : FileCheck.UNCHANGED;
+            }
+        }
+        try {
+            if (Objects.equals(stamp, seen)) {
+                IntIntMap sums = stamp != null ? checksums(snapshot, null, id -> false, null) : new IntIntMap();
+                IntIntMap ids = new IntIntMap();
+                RecordVisitor collect = (start, fields) -> {
+                    if (start < offset) {
+                        ids.put(Integer.parseInt(fields[1]), 1);
+                    }
+                };
+                readRecords(compactingPath, 0, (start, fields) -> ids.put(Integer.parseInt(fields[1]), 1));
+                readRecords(journalPath, 0, collect);
+                synchronized (this) {
+                    if (snapshotStamp != seen || snapshotSums != null || journalOffset != offset) {
+                        return FileCheck.BUSY;
+                    }
+                    snapshotSums = sums;
+                    journalIds = ids;
+                    return journalChanged() ? FileCheck.CHANGED : FileCheck.UNCHANGED;
+                }
+            }
+            SnapshotDiff diff = diffSnapshot(snapshot, stamp, base, id -> false);
+            synchronized (this) {
+                if (snapshotStamp != seen || snapshotSums != base) {
+                    return FileCheck.BUSY;
+                }
+                snapshotDiff = diff;
+                return FileCheck.CHANGED;
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error reading changed tasks: " + e.getMessage());
+            return FileCheck.UNCHANGED;
+        }
+    }
+    
+    // What the files now say that the tasks in memory do not, or null if they
+    // agree. Call from watch's onChange holding the lock the tasks' changes
+    // are journaled under, so none of them lands between reading the files
+    // and applying the result; queued records are written first for the same
+    // reason. Only the tasks the changed snapshot lines and journal records
+    // name are parsed, unless the files were replaced before the baselines
+    // were built.
+    synchronized ExternalChanges readExternalChanges() {
+        flush();
+        if (compacting || snapshotSums == null && snapshotDiff == null) {
+            return null;
+        }
+        // So that no process rotates the journal between the two reads of it
+        directoryLock.lockShared();
+        try {
+            return readExternalChangesLocked();
+        } finally {
+            directoryLock.unlockShared();
+        }
+    }
+    
+    private ExternalChanges readExternalChangesLocked() {
+        SnapshotDiff diff = snapshotDiff;
+        snapshotDiff = null;
+        Path snapshot = snapshotPath();
+        FileStamp stamp = FileStamp.of(snapshot);
+        if (!Objects.equals(stamp, diff != null ? diff.stamp : snapshotStamp)) {
+            // Rewritten again since it was compared; the watcher compares it again
+            return null;
+        }
+        FileStamp journal = FileStamp.of(journalPath);
+        boolean replaced = journalReplaced(journal);
+        if (diff == null && !replaced && !journalChanged()) {
+            return null;
+        }
+        try {
+            JournalChanges changes = new JournalChanges();
+            long end;
+            boolean complete = diff != null && diff.complete;
+            if (replaced || complete) {
+                // The old journal's changes may be gone, or folded into the
+                // snapshot: look again at every task either journal names
+                JournalChanges all = new JournalChanges();
+                IntIntMap ids = new IntIntMap();
+                RecordVisitor replay = (offset, fields) -> {
+                    all.record(fields);
+                    ids.put(Integer.parseInt(fields[1]), 1);
+                };
+                readRecords(compactingPath, 0, replay);
+                end = readRecords(journalPath, 0, replay);
+                IntIntMap old = journalIds;
+                if (!complete) {
+                    complete = snapshotSums == null;
+                    diff = diffSnapshot(snapshot, stamp, snapshotSums,
+                            id -> ids.containsKey(id) || old != null && old.containsKey(id));
+                }
+                for (Task task : diff.changed) {
+                    Task now = all.apply(task);
+                    if (now != null) {
+                        changes.put(now);
+                    } else {
+                        changes.delete(task.getId());
+                    }
+                }
+                for (int id : diff.removed) {
+                    changes.delete(id);
+                }
+                all.forEachAdded(changes::put);
+                if (!complete && old != null) {
+                    old.forEach((id, unused) -> {
+                        if (!changes.touches(id)) {
+                            changes.delete(id);
+                        }
+                    });
+                }
+                journalIds = ids;
+                journalRecords.set(ids.size());
+            } else {
+                JournalChanges tail = new JournalChanges();
+                JournalChanges all = new JournalChanges();
+                IntIntMap ids = journalIds;
+                long from = journalOffset;
+                int[] records = {0};
+                end = readRecords(journalPath, diff != null ? 0 : from, (offset, fields) -> {
+                    all.record(fields);
+                    if (offset >= from) {
+                        tail.record(fields);
+                        ids.put(Integer.parseInt(fields[1]), 1);
+                        records[0]++;
+                    }
+                });
+                if (diff != null) {
+                    // A changed line gets the whole journal on top; a removed
+                    // one survives only as a journaled task
+                    for (Task task : diff.changed) {
+                        Task now = all.apply(task);
+                        if (now != null) {
+                            changes.put(now);
+                        } else {
+                            changes.delete(task.getId());
+                        }
+                    }
+                    for (int id : diff.removed) {
+                        Task journaled = all.replaced.get(id);
+                        if (journaled != null) {
+                            changes.put(journaled);
+                        } else {
+                            changes.delete(id);
+                        }
+                    }
+                }
+                changes.addUntouched(tail);
+                journalRecords.addAndGet(records[0]);
+            }
+            if (diff != null) {
+                snapshotStamp = diff.stamp;
+                snapshotSums = diff.sums;
+            }
+            journalOffset = end;
+            journalKey = journal != null ? journal.key : null;
+            return new ExternalChanges(changes, complete);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error reading changed tasks: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    // Holds this
+    private boolean journalChanged() {
+        FileStamp journal = FileStamp.of(journalPath);
+        return journal == null ? journalOffset > 0 : journal.size != journalOffset || journalReplaced(journal);
+    }
+    
+    // Holds this. Rotated, rewritten or cut short by someone else.
+    private boolean journalReplaced(FileStamp journal) {
+        if (journal == null) {
+            return journalOffset > 0;
+        }
+        return journal.size < journalOffset || journalKey != null && !journalKey.equals(journal.key);
+    }
+    
+    // The snapshot at path compared with base, the checksums of the one the
+    // tasks in memory came from; with no base every task counts as changed.
+    // Tasks wanted names are read whether they changed or not.
+    private SnapshotDiff diffSnapshot(Path snapshot, FileStamp stamp, IntIntMap base, IntPredicate wanted)
+            throws IOException {
+        SnapshotDiff diff = new SnapshotDiff(stamp, base == null);
+        diff.sums = stamp != null ? checksums(snapshot, base, wanted, diff.changed::add) : new IntIntMap();
+        if (base != null) {
+            base.forEach((id, sum) -> {
+                if (!diff.sums.containsKey(id)) {
+                    diff.removed.add(id);
+                }
+            });
+        }
+        return diff;
+    }
+    
+    private IntIntMap checksums(Path snapshot, IntIntMap previous, IntPredicate wanted, Consumer<Task> changed)
+            throws IOException {
+        return format == SnapshotFormat.BINARY && snapshot.equals(filePath)
+                ? BinarySnapshot.checksums(snapshot, previous, wanted, changed)
+                : new MappedTaskLoader().checksums(snapshot, previous, wanted, changed);
+    }
+    
+    // The file loading reads the tasks from
+    private Path snapshotPath() {
+        return format == SnapshotFormat.BINARY && Files.exists(filePath) ? filePath : textPath;
+    }
+    
+    // Holds this. The journal was just deleted or rotated here.
+    private void journalEmptied() {
+        journalRecords.set(0);
+        journalOffset = 0;
+        journalKey = null;
+        if (journalIds != null) {
+            journalIds = new IntIntMap();
+        }
+    }
+    
+    // Holds this. The snapshot was just written here from the tasks in
+    // memory; the watcher rebuilds the baselines from it.
+    private void snapshotWritten() {
+        snapshotStamp = FileStamp.of(filePath);
+        snapshotSums = null;
+        journalIds = null;
+        snapshotDiff = null;
+    }
+    
+    // Holds this. The snapshot was written here, but with changes from other
+    // processes the tasks in memory may lack, so the watcher compares every
+    // task with it.
+    private void snapshotReplaced() {
+        snapshotStamp = null;
+        snapshotSums = null;
+        journalIds = null;
+        snapshotDiff = null;
+    }
+    
+    // Holds this and the directory lock. True if the tasks in memory include
+    // every record in the files, so nothing another process wrote is missing.
+    private boolean caughtUp() {
+        return snapshotDiff == null && Objects.equals(FileStamp.of(snapshotPath()), snapshotStamp)
+                && !journalChanged();
+    }
+    
+    // Holds this. The records just written here directly follow what the tasks
+    // in memory already include, so move past them.
+    private void journalWritten(List<String> records, long end) {
+        journalOffset = end;
+        journalKey = openJournalKey;
+        if (journalIds != null) {
+            for (String record : records) {
+                int bar = record.indexOf('|', 2);
+                journalIds.put(Integer.parseInt(record, 2, bar >= 0 ? bar : record.length(), 10), 1);
+            }
+        }
+    }
+    
+    private interface RecordVisitor {
+        void visit(long offset, String[] fields);
+    }
+    
+    // The records of a journal from byte offset from, each with the offset it
+    // starts at, up to the last complete line; returns the offset after that
+    // line, so one still being written is read next time
+    private static long readRecords(Path journal, long from, RecordVisitor visitor) throws IOException {
+        if (!Files.exists(journal)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ)) {
+            channel.position(from);
+            byte[] buffer = new byte[1 << 16];
+            // buffer[0] is at file offset base; the bytes before length are
+            // read, and those before scanned hold no line break
+            long base = from;
+            int length = 0;
+            int scanned = 0;
+            while (true) {
+                if (length == buffer.length) {
+                    // One line longer than the buffer
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                int read = channel.read(ByteBuffer.wrap(buffer, length, buffer.length - length));
+                if (read <= 0) {
+                    return base;
+                }
+                length += read;
+                int lineStart = 0;
+                for (int i = scanned; i < length; i++) {
+                    if (buffer[i] == '\n') {
+                        visitLine(buffer, lineStart, i, base + lineStart, visitor);
+                        lineStart = i + 1;
+                    }
+                }
+                System.arraycopy(buffer, lineStart, buffer, 0, length - lineStart);
+                length -= lineStart;
+                base += lineStart;
+                scanned = length;
+            }
+        }
+    }
+    
+    private static void visitLine(byte[] buffer, int start, int end, long offset, RecordVisitor visitor) {
+        if (end > start && buffer[end - 1] == '\r') {
+            end--;
+        }
+        if (end == start) {
+            return;
+        }
+        String text = new String(buffer, start, end - start, StandardCharsets.UTF_8);
+        try {
+            visitor.visit(offset, Task.splitFields(text));
+        } catch (RuntimeException e) {
+            Metrics.count(Metrics.PARSE_ERRORS, 1);
+            System.err.println("Error parsing journal record: " + text + " - " + e.getMessage());
+        }
+    }
+    
+    // One version of a file: rewriting it through a temporary file changes
+    // the key, writing it in place the size or modification time
+    private static final class FileStamp {
+        final Object key;
+        final long size;
+        final FileTime modified;
+        
+        private FileStamp(BasicFileAttributes attributes) {
+            this.key = attributes.fileKey();
+            this.size = attributes.size();
+            this.modified = attributes.lastModifiedTime();
+        }
+        
+        // Null if there is no such file
+        static FileStamp of(Path path) {
+            try {
+                return new FileStamp(Files.readAttributes(path, BasicFileAttributes.class));
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof FileStamp)) {
+                return false;
+            }
+            FileStamp stamp = (FileStamp) other;
+            return Objects.equals(key, stamp.key) && size == stamp.size && modified.equals(stamp.modified);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(key, size, modified);
+        }
+    }
+    
+    // A snapshot changed elsewhere, against the one the tasks in memory came from
+    private static final class SnapshotDiff {
+        final FileStamp stamp;
+        // Every task is in changed, since there was nothing to compare with
+        final boolean complete;
+        IntIntMap sums;
+        final List<Task> changed = new ArrayList<>();
+        final List<Integer> removed = new ArrayList<>();
+        
+        SnapshotDiff(FileStamp stamp, boolean complete) {
+            this.stamp = stamp;
+            this.complete = complete;
+        }
+    }
+    
+    // Into a temporary file for publishSnapshot; returns its size. Holds the
+    // directory's writer lock, so no other process writes the same file.
+    private long writeSnapshot(List<Task> tasks) throws IOException {
+        Path tempPath = filePath.resolveSibling(filePath.getFileName() + TEMP_SUFFIX);
+        if (format == SnapshotFormat.BINARY) {
+            BinarySnapshot.write(tempPath, tasks);
+        } else {
+            if (snapshotEncoder == null) {
+                snapshotEncoder = new TaskEncoder();
+            }
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                snapshotEncoder.encodeHeader(channel);
+                for (Task task : tasks) {
+                    snapshotEncoder.encode(task, channel);
+                }
+                snapshotEncoder.flush(channel);
+            }
+        }
+        long bytes = Files.size(tempPath);
+        Metrics.count(Metrics.BYTES_WRITTEN, bytes);
+        return bytes;
+    }
+    
+    // Holds the directory lock
+    private void publishSnapshot() throws IOException {
+        Path tempPath = filePath.resolveSibling(filePath.getFileName() + TEMP_SUFFIX);
+        Files.move(tempPath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    // Zero, which archives nothing, unless todo.archive.days is set
+    private static Duration defaultArchiveAge() {
+        String days = System.getProperty(ARCHIVE_DAYS_PROPERTY);
+        if (days == null) {
+            return Duration.ZERO;
+        }
+        try {
+            return Duration.ofDays(Integer.parseInt(days.trim()));
+        } catch (NumberFormatException e) {
+            System.err.println("Error reading " + ARCHIVE_DAYS_PROPERTY + ": " + e.getMessage());
+            return Duration.ZERO;
+        }
+    }
+    
+    static SnapshotFormat defaultFormat() {
+        return "binary".equalsIgnoreCase(System.getProperty(FORMAT_PROPERTY))
+                ? SnapshotFormat.BINARY : SnapshotFormat.TEXT;
+    }
+    
+    private void closeJournal() {
+        if (journalStream != null) {
+            try {
+                journalStream.close();
+            } catch (IOException e) {
+                System.err.println("Error closing journal: " + e.getMessage());
+            }
+            journalStream = null;
+        }
+    }
+    
+    private void awaitCompaction() {
+        while (compacting) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    // A task's fields as a journal record, escaped like a snapshot line (see Task.escape)
+    private static String encodeTask(Task task) {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append(task.getId()).append('|');
+        Task.escape(sb, task.getTitle()).append('|');
+        Task.escape(sb, task.getDescription()).append('|');
+        sb.append(task.isCompleted()).append('|');
+        appendTime(sb, task.getCreatedAtNanos()).append('|');
+        appendTime(sb, task.getCompletedAtNanos()).append('|');
+        return Task.escape(sb, task.getPriority().toString()).toString();
+    }
+    
+    private static String formatTime(LocalDateTime time) {
+        return time != null ? time.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME) : "null";
+    }
+    
+    private static StringBuilder appendTime(StringBuilder sb, long epochNanos) {
+        if (epochNanos == Task.NO_TIME) {
+            return sb.append("null");
+        }
+        Task.appendTime(sb, epochNanos);
+        return sb;
+    }
+}
@@ -0,0 +1,216 @@
+// IndexedTaskMap.java
+package main;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
+
+// The default TaskTable: Task objects in an IntTaskMap, with one more map per
+// completion state and per priority so each query is a copy of one map.
+// Returned tasks are the stored objects, in the order of the id map, as the
+// column store returns them.
+class IndexedTaskMap implements TaskTable {
+    // A view reorders itself once this many of its tasks, and at least this
+    // share of them, were moved into it out of order
+    private static final int REORDER_MIN = 64;
+    private static final int REORDER_SHARE = 8;
+    
+    private final IntTaskMap tasks;
+    private final View completedTasks = new View();
+    private final View pendingTasks = new View();
+    private final View[] tasksByPriority = new View[Task.Priority.values().length];
+    
+    // The tasks of one completion state or priority. A task that joins it when
+    // it changes, rather than when it is added, goes to the end of the map and
+    // so out of the id map's order; until the view is reordered its tasks are
+    // sorted back into that order as they are read.
+    private final class View {
+        private final IntTaskMap map = new IntTaskMap();
+        private int moved;
+        
+        int size() {
+            return map.size();
+        }
+        
+        void add(Task task) {
+            map.put(task.getId(), task);
+        }
+        
+        void move(Task task) {
+            map.put(task.getId(), task);
+            moved++;
+            if (moved >= REORDER_MIN && moved >= map.size() / REORDER_SHARE) {
+                List<Task> ordered = values();
+                map.clear();
+                for (Task each : ordered) {
+                    map.put(each.getId(), each);
+                }
+                moved = 0;
+            }
+        }
+        
+        void remove(int id) {
+            map.remove(id);
+        }
+        
+        List<Task> values() {
+            List<Task> values = map.values();
+            if (moved > 0) {
+                // Mostly one sorted run and a short tail, which List.sort merges
+                values.sort(Comparator.comparingInt(task -> tasks.position(task.getId())));
+            }
+            return values;
+        }
+        
+        boolean forEachWhile(Predicate<Task> visitor) {
+            if (moved > 0) {
+                for (Task task : values()) {
+                    if (!visitor.test(task)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return map.forEachWhile(visitor);
+        }
+    }
+    
+    IndexedTaskMap(int expectedSize) {
+        tasks = new IntTaskMap(expectedSize);
+        for (int i = 0; i < tasksByPriority.length; i++) {
+            tasksByPriority[i] = new View();
+        }
+    }
+    
+    @Override
+    public int size() {
+        return tasks.size();
+    }
+    
+    @Override
+    public int completedCount() {
+        return completedTasks.size();
+    }
+    
+    @Override
+    public int pendingCount() {
+        return pendingTasks.size();
+    }
+    
+    @Override
+    public int count(Task.Priority priority) {
+        return tasksByPriority[priority.ordinal()].size();
+    }
+    
+    @Override
+    public Task get(int id) {
+        return tasks.get(id);
+    }
+    
+    @Override
+    public List<Task> all() {
+        return tasks.values();
+    }
+    
+    @Override
+    public List<Task> completed() {
+        return completedTasks.values();
+    }
+    
+    @Override
+    public List<Task> pending() {
+        return pendingTasks.values();
+    }
+    
+    @Override
+    public List<Task> byPriority(Task.Priority priority) {
+        return tasksByPriority[priority.ordinal()].values();
+    }
+    
+    // Walks the smallest map that holds every candidate
+    @Override
+    public void scan(Boolean completed, Task.Priority priority, Predicate<Task> visitor) {
+        if (priority != null) {
+            tasksByPriority[priority.ordinal()].forEachWhile(task ->
+                    completed != null && task.isCompleted() != completed || visitor.test(task));
+        } else if (completed != null) {
+            (completed ? completedTasks : pendingTasks).forEachWhile(visitor);
+        } else {
+            tasks.forEachWhile(visitor);
+        }
+    }
+    
+    @Override
+    public Task put(Task task) {
+        Task previous = tasks.put(task.getId(), task);
+        if (previous == null) {
+            (task.isCompleted() ? completedTasks : pendingTasks).add(task);
+            tasksByPriority[task.getPriority().ordinal()].add(task);
+        } else {
+            // Replaced in place in the id map, but moved in the views
+            unindex(previous);
+            (task.isCompleted() ? completedTasks : pendingTasks).move(task);
+            tasksByPriority[task.getPriority().ordinal()].move(task);
+        }
+        return previous;
+    }
+    
+    @Override
+    public Task remove(int id) {
+        Task task = tasks.remove(id);
+        if (task != null) {
+            unindex(task);
+        }
+        return task;
+    }
+    
+    @Override
+    public Task setCompleted(int id, boolean completed) {
+        Task task = tasks.get(id);
+        if (task == null || task.isCompleted() == completed) {
+            return null;
+        }
+        (completed ? pendingTasks : completedTasks).remove(id);
+        (completed ? completedTasks : pendingTasks).move(task);
+        task.setCompleted(completed);
+        return task;
+    }
+    
+    @Override
+    public Task update(int id, String title, String description, Task.Priority priority) {
+        Task task = tasks.get(id);
+        if (task == null) {
+            return null;
+        }
+        Task.Priority previous = task.getPriority();
+        task.setTitle(title);
+        task.setDescription(description);
+        task.setPriority(priority);
+        if (priority != previous) {
+            tasksByPriority[previous.ordinal()].remove(id);
+            tasksByPriority[priority.ordinal()].move(task);
+        }
+        return task;
+    }
+    
+    @Override
+    public List<Task> copies() {
+        List<Task> copies = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            copies.add(task.copy());
+        }
+        return copies;
+    }
+    
+    @Override
+    public Iterator<Task> iterator() {
+        return tasks.iterator();
+    }
+    
+    private void unindex(Task task) {
+        (task.isCompleted() ? completedTasks : pendingTasks).remove(task.getId());
+        tasksByPriority[task.getPriority().ordinal()].remove(task.getId());
+    }
+}
@@ -0,0 +1,159 @@
+// IntIntMap.java
+package main;
+
+// Open-addressing hash map from int to int without boxing. Missing keys read
+// as 0. Linear probing with backward-shift deletion, so there are no tombstones.
+class IntIntMap {
+    interface EntryVisitor {
+        void visit(int key, int value);
+    }
+    
+    private static final int FREE_KEY = 0;
+    
+    private int[] keys;
+    private int[] values;
+    private int size;
+    // Key 0 marks a free slot, so it is stored on the side
+    private boolean hasZeroKey;
+    private int zeroValue;
+    
+    IntIntMap() {
+        this(2);
+    }
+    
+    IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, expectedSize) * 2 - 1) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+    }
+    
+    int size() {
+        return size + (hasZeroKey ? 1 : 0);
+    }
+    
+    boolean isEmpty() {
+        return size() == 0;
+    }
+    
+    boolean containsKey(int key) {
+        return key == FREE_KEY ? hasZeroKey : keys[find(key)] == key;
+    }
+    
+    int get(int key) {
+        if (key == FREE_KEY) {
+            return hasZeroKey ? zeroValue : 0;
+        }
+        int slot = find(key);
+        return keys[slot] == key ? values[slot] : 0;
+    }
+    
+    void put(int key, int value) {
+        if (key == FREE_KEY) {
+            hasZeroKey = true;
+            zeroValue = value;
+            return;
+        }
+        int slot = find(key);
+        if (keys[slot] == key) {
+            values[slot] = value;
+            return;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length / 2) {
+            resize(keys.length * 2);
+        }
+    }
+    
+    // Add delta to the value of key, inserting it if missing
+    void add(int key, int delta) {
+        put(key, get(key) + delta);
+    }
+    
+    int remove(int key) {
+        if (key == FREE_KEY) {
+            int previous = hasZeroKey ? zeroValue : 0;
+            hasZeroKey = false;
+            zeroValue = 0;
+            return previous;
+        }
+        int slot = find(key);
+        if (keys[slot] != key) {
+            return 0;
+        }
+        int previous = values[slot];
+        shiftBack(slot);
+        size--;
+        return previous;
+    }
+    
+    void forEach(EntryVisitor visitor) {
+        if (hasZeroKey) {
+            visitor.visit(FREE_KEY, zeroValue);
+        }
+        int[] keys = this.keys;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != FREE_KEY) {
+                visitor.visit(keys[slot], values[slot]);
+            }
+        }
+    }
+    
+    // Slot holding key, or the free slot where it would go
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != FREE_KEY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+    
+    // Close the gap left at slot by moving later entries of the probe run back
+    private void shiftBack(int slot) {
+        int mask = keys.length - 1;
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (keys[next] != FREE_KEY) {
+            int home = hash(keys[next]) & mask;
+            // Move the entry if its home slot is not between gap and next (cyclically)
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = FREE_KEY;
+        values[gap] = 0;
+    }
+    
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[capacity];
+        values = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            int key = oldKeys[i];
+            if (key != FREE_KEY) {
+                int slot = hash(key) & mask;
+                while (keys[slot] != FREE_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+    
+    // Keys are mostly sequential task ids. Runs of 16 consecutive ids keep
+    // their order in neighbouring slots, so walking a map touches few cache
+    // lines, while the runs themselves are scattered: with plain key order,
+    // ids past the table size would wrap onto the dense run of older ids and
+    // every probe would walk it.
+    private static int hash(int key) {
+        int run = (key >>> 4) * 0x9E3779B9;
+        return (run ^ (run >>> 16)) << 4 | (key & 15);
+    }
+}
@@ -0,0 +1,227 @@
+// IntTaskMap.java
+package main;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+// Hash map from task id to Task keyed by primitive ints, iterated in insertion order.
+// Entries live in an append-only array; the open-addressing table stores entry
+// positions. Removed entries leave a hole that is squeezed out on the next rebuild.
+class IntTaskMap implements Iterable<Task> {
+    private static final int EMPTY = 0;
+    private static final int DELETED = -1;
+    private static final int MIN_CAPACITY = 16;
+    
+    private int[] table;      // entry position + 1, EMPTY or DELETED
+    private int[] keys;       // id of each entry position
+    private Task[] values;    // task of each entry position, null once removed
+    private int end;          // number of used entry positions
+    private int size;
+    
+    IntTaskMap() {
+        this(MIN_CAPACITY);
+    }
+    
+    IntTaskMap(int expectedSize) {
+        allocate(Math.max(MIN_CAPACITY, expectedSize));
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    boolean isEmpty() {
+        return size == 0;
+    }
+    
+    boolean containsKey(int id) {
+        return get(id) != null;
+    }
+    
+    Task get(int id) {
+        int[] table = this.table;
+        int mask = table.length - 1;
+        for (int slot = hash(id) & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == EMPTY) {
+                return null;
+            }
+            if (entry > 0 && keys[entry - 1] == id) {
+                return values[entry - 1];
+            }
+        }
+    }
+    
+    // Where id comes in iteration order, comparable only to other positions
+    // taken before the map next changes; -1 if it is not here
+    int position(int id) {
+        int[] table = this.table;
+        int mask = table.length - 1;
+        for (int slot = hash(id) & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == EMPTY) {
+                return -1;
+            }
+            if (entry > 0 && keys[entry - 1] == id) {
+                return entry - 1;
+            }
+        }
+    }
+    
+    // Insert or replace; a replaced task keeps its position in iteration order
+    Task put(int id, Task task) {
+        int mask = table.length - 1;
+        int free = -1;
+        for (int slot = hash(id) & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == EMPTY) {
+                if (free < 0) {
+                    free = slot;
+                }
+                break;
+            }
+            if (entry == DELETED) {
+                if (free < 0) {
+                    free = slot;
+                }
+            } else if (keys[entry - 1] == id) {
+                Task previous = values[entry - 1];
+                values[entry - 1] = task;
+                return previous;
+            }
+        }
+        
+        if (end == values.length) {
+            rebuild(size + 1);
+            put(id, task);
+            return null;
+        }
+        keys[end] = id;
+        values[end] = task;
+        table[free] = ++end;
+        size++;
+        return null;
+    }
+    
+    Task remove(int id) {
+        int[] table = this.table;
+        int mask = table.length - 1;
+        for (int slot = hash(id) & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == EMPTY) {
+                return null;
+            }
+            if (entry > 0 && keys[entry - 1] == id) {
+                Task previous = values[entry - 1];
+                values[entry - 1] = null;
+                table[slot] = DELETED;
+                size--;
+                if (size == 0) {
+                    clear();
+                }
+                return previous;
+            }
+        }
+    }
+    
+    void clear() {
+        allocate(MIN_CAPACITY);
+    }
+    
+    List<Task> values() {
+        List<Task> result = new ArrayList<>(size);
+        for (int i = 0; i < end; i++) {
+            if (values[i] != null) {
+                result.add(values[i]);
+            }
+        }
+        return result;
+    }
+    
+    // Offer each task to visitor until it returns false; false if it did
+    boolean forEachWhile(Predicate<Task> visitor) {
+        for (int i = 0; i < end; i++) {
+            if (values[i] != null && !visitor.test(values[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    @Override
+    public Iterator<Task> iterator() {
+        return new Iterator<Task>() {
+            private int position = advance(0);
+            
+            private int advance(int from) {
+                while (from < end && values[from] == null) {
+                    from++;
+                }
+                return from;
+            }
+            
+            @Override
+            public boolean hasNext() {
+                return position < end;
+            }
+            
+            @Override
+            public Task next() {
+                if (position >= end) {
+                    throw new NoSuchElementException();
+                }
+                Task task = values[position];
+                position = advance(position + 1);
+                return task;
+            }
+        };
+    }
+    
+    // Squeeze out removed entries, growing only when the map is more than half full
+    private void rebuild(int required) {
+        int[] oldKeys = keys;
+        Task[] oldValues = values;
+        int oldEnd = end;
+        int capacity = values.length;
+        while (required > capacity / 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+        for (int i = 0; i < oldEnd; i++) {
+            if (oldValues[i] != null) {
+                insertNew(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+    
+    private void insertNew(int id, Task task) {
+        int mask = table.length - 1;
+        int slot = hash(id) & mask;
+        while (table[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        keys[end] = id;
+        values[end] = task;
+        table[slot] = ++end;
+        size++;
+    }
+    
+    private void allocate(int capacity) {
+        int entries = Integer.highestOneBit(capacity - 1) << 1;
+        // The table is twice the entry capacity, so live entries plus
+        // DELETED markers never fill more than half of it
+        table = new int[entries << 1];
+        keys = new int[entries];
+        values = new Task[entries];
+        end = 0;
+        size = 0;
+    }
+    
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
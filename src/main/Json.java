@@ -0,0 +1,273 @@
+// Json.java
+package main;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Just enough JSON for the HTTP API. parse gives Map (object), List (array),
+// String, Long or Double (number), Boolean or null, and throws
+// IllegalArgumentException on malformed text.
+final class Json {
+    private final String text;
+    private int position;
+    
+    private Json(String text) {
+        this.text = text;
+    }
+    
+    static Object parse(String text) {
+        Json parser = new Json(text);
+        parser.skipWhitespace();
+        Object value = parser.value();
+        parser.skipWhitespace();
+        if (parser.position != text.length()) {
+            throw parser.error("Unexpected text after the value");
+        }
+        return value;
+    }
+    
+    // {"id":1,"title":...,"createdAt":"2024-05-01T10:00:00","completedAt":null,"priority":"High"}
+    static void appendTask(StringBuilder out, Task task) {
+        out.append("{\"id\":").append(task.getId());
+        out.append(",\"title\":");
+        appendString(out, task.getTitle());
+        out.append(",\"description\":");
+        appendString(out, task.getDescription());
+        out.append(",\"completed\":").append(task.isCompleted());
+        out.append(",\"createdAt\":");
+        appendTime(out, task.getCreatedAtNanos());
+        out.append(",\"completedAt\":");
+        appendTime(out, task.getCompletedAtNanos());
+        out.append(",\"priority\":");
+        appendString(out, task.getPriority() != null ? task.getPriority().toString() : null);
+        out.append('}');
+    }
+    
+    static void appendTasks(StringBuilder out, List<Task> tasks) {
+        out.append('[');
+        for (int i = 0; i < tasks.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            appendTask(out, tasks.get(i));
+        }
+        out.append(']');
+    }
+    
+    // {"sequence":12,"type":"updated","fields":["title"],"task":{...}}
+    static void appendChange(StringBuilder out, TaskChange change) {
+        out.append("{\"sequence\":").append(change.getSequence());
+        out.append(",\"type\":");
+        appendString(out, change.getType().name().toLowerCase(Locale.ROOT));
+        out.append(",\"fields\":[");
+        boolean first = true;
+        for (TaskChange.Field field : change.getChangedFields()) {
+            if (!first) {
+                out.append(',');
+            }
+            appendString(out, field.name().toLowerCase(Locale.ROOT));
+            first = false;
+        }
+        out.append("],\"task\":");
+        appendTask(out, change.getTask());
+        out.append('}');
+    }
+    
+    private static void appendTime(StringBuilder out, long epochNanos) {
+        if (epochNanos == Task.NO_TIME) {
+            out.append("null");
+        } else {
+            Task.appendTime(out.append('"'), epochNanos);
+            out.append('"');
+        }
+    }
+    
+    static void appendString(StringBuilder out, String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+    
+    private Object value() {
+        if (position >= text.length()) {
+            throw error("Unexpected end of input");
+        }
+        char c = text.charAt(position);
+        switch (c) {
+            case '{': return object();
+            case '[': return array();
+            case '"': return string();
+            case 't': return literal("true", Boolean.TRUE);
+            case 'f': return literal("false", Boolean.FALSE);
+            case 'n': return literal("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return number();
+                }
+                throw error("Unexpected character '" + c + "'");
+        }
+    }
+    
+    private Map<String, Object> object() {
+        Map<String, Object> object = new LinkedHashMap<>();
+        position++;
+        skipWhitespace();
+        if (peek('}')) {
+            position++;
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            if (!peek('"')) {
+                throw error("Expected a field name");
+            }
+            String name = string();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            object.put(name, value());
+            skipWhitespace();
+            if (peek(',')) {
+                position++;
+            } else {
+                expect('}');
+                return object;
+            }
+        }
+    }
+    
+    private List<Object> array() {
+        List<Object> array = new ArrayList<>();
+        position++;
+        skipWhitespace();
+        if (peek(']')) {
+            position++;
+            return array;
+        }
+        while (true) {
+            skipWhitespace();
+            array.add(value());
+            skipWhitespace();
+            if (peek(',')) {
+                position++;
+            } else {
+                expect(']');
+                return array;
+            }
+        }
+    }
+    
+    private String string() {
+        position++;
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            if (position >= text.length()) {
+                throw error("Unterminated string");
+            }
+            char c = text.charAt(position++);
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (position >= text.length()) {
+                throw error("Unterminated string");
+            }
+            char escaped = text.charAt(position++);
+            switch (escaped) {
+                case '"': case '\\': case '/': sb.append(escaped); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (position + 4 > text.length()) {
+                        throw error("Bad unicode escape");
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Bad unicode escape");
+                    }
+                    position += 4;
+                    break;
+                default:
+                    throw error("Bad escape '\\" + escaped + "'");
+            }
+        }
+    }
+    
+    private Object number() {
+        int start = position;
+        boolean integral = true;
+        while (position < text.length()) {
+            char c = text.charAt(position);
+            if (c == '.' || c == 'e' || c == 'E') {
+                integral = false;
+            } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+                break;
+            }
+            position++;
+        }
+        String number = text.substring(start, position);
+        try {
+            return integral ? (Object) Long.parseLong(number) : (Object) Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw error("Bad number " + number);
+        }
+    }
+    
+    private Object literal(String word, Object value) {
+        if (!text.startsWith(word, position)) {
+            throw error("Unexpected character '" + text.charAt(position) + "'");
+        }
+        position += word.length();
+        return value;
+    }
+    
+    private boolean peek(char c) {
+        return position < text.length() && text.charAt(position) == c;
+    }
+    
+    private void expect(char c) {
+        if (!peek(c)) {
+            throw error("Expected '" + c + "'");
+        }
+        position++;
+    }
+    
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+    
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + position);
+    }
+}
@@ -0,0 +1,64 @@
+// LatencySummary.java
+package main;
+
+// Point-in-time view of a LatencyHistogram, in microseconds. Public with plain
+// getters so JMX can show it as composite data.
+public class LatencySummary {
+    private final long count;
+    private final long meanNanos;
+    private final long p50Nanos;
+    private final long p90Nanos;
+    private final long p99Nanos;
+    private final long p999Nanos;
+    private final long maxNanos;
+    
+    LatencySummary(long count, long meanNanos, long p50Nanos, long p90Nanos,
+                   long p99Nanos, long p999Nanos, long maxNanos) {
+        this.count = count;
+        this.meanNanos = meanNanos;
+        this.p50Nanos = p50Nanos;
+        this.p90Nanos = p90Nanos;
+        this.p99Nanos = p99Nanos;
+        this.p999Nanos = p999Nanos;
+        this.maxNanos = maxNanos;
+    }
+    
+    public long getCount() {
+        return count;
+    }
+    
+    public double getMeanMicros() {
+        return micros(meanNanos);
+    }
+    
+    public double getP50Micros() {
+        return micros(p50Nanos);
+    }
+    
+    public double getP90Micros() {
+        return micros(p90Nanos);
+    }
+    
+    public double getP99Micros() {
+        return micros(p99Nanos);
+    }
+    
+    public double getP999Micros() {
+        return micros(p999Nanos);
+    }
+    
+    public double getMaxMicros() {
+        return micros(maxNanos);
+    }
+    
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                count, getMeanMicros(), getP50Micros(), getP90Micros(), getP99Micros(),
+                getP999Micros(), getMaxMicros());
+    }
+}
@@ -2,9 +2,37 @@
 package main;
 
 import javafx.application.Application;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
 
 public class Main {
+    private static final int DEFAULT_PORT = 8080;
+    // Requests are answered by a thread of their own, so group their writes
+    private static final long SERVER_FLUSH_DELAY_MILLIS = 50;
+    
     public static void main(String[] args) {
+        // --server [port] runs the JSON API instead of a window
+        if (args.length > 0 && args[0].equals("--server")) {
+            int port = args.length > 1 ? parsePort(args[1]) : DEFAULT_PORT;
+            if (port < 0) {
+                System.err.println("Not a port number: " + args[1]);
+                System.err.println("Usage: --server [port]  (0 to 65535, 0 for any free one; default "
+                        + DEFAULT_PORT + ")");
+                System.exit(1);
+            }
+            startServer(port);
+            return;
+        }
+        // --import|--export <file.csv|file.jsonl> [list] moves tasks in or out and exits
+        if (args.length > 1 && (args[0].equals("--import") || args[0].equals("--export"))) {
+            System.exit(transfer(args[0].equals("--import"), Paths.get(args[1]),
+                    args.length > 2 ? args[2] : TaskLists.DEFAULT_LIST));
+        }
+        
         // Check if JavaFX is available
         try {
             Application.launch(TodoAppUI.class, args);
@@ -20,7 +48,12 @@ public class Main {
     
     private static void startConsoleVersion() {
         System.out.println("=== Todo Application - Console Version ===");
-        TodoManager manager = new TodoManager();
+        Metrics.registerMBean();
+        // Every list's shard is parsed in parallel
+        TaskLists lists = new TaskLists();
+        closeOnExit(lists);
+        lists.loadAll();
+        TodoManager manager = lists.get(TaskLists.DEFAULT_LIST);
         
         // Add some sample tasks if none exist
         if (manager.getTaskCount() == 0) {
@@ -50,6 +83,96 @@ public class Main {
         System.out.println("Completed: " + manager.getCompletedTaskCount());
         System.out.println("Pending: " + manager.getPendingTaskCount());
         
+        if (lists.names().size() > 1) {
+            System.out.println("\nLists:");
+            for (Map.Entry<String, Integer> list : lists.queryAll(TodoManager::getTaskCount).entrySet()) {
+                System.out.println(list.getKey() + ": " + list.getValue() + " tasks");
+            }
+        }
+        
+        // Run with -Dtodo.metrics=true to see where the time went
+        if (Metrics.ENABLED) {
+            System.out.println();
+            Metrics.dump(System.out);
+        }
+        
         System.out.println("\nNote: For full GUI experience, please install JavaFX and run again.");
     }
+    
+    // -1 if text is not a TCP port number
+    private static int parsePort(String text) {
+        try {
+            int port = Integer.parseInt(text);
+            if (port >= 0 && port <= 65535) {
+                return port;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        return -1;
+    }
+    
+    private static void startServer(int port) {
+        Metrics.registerMBean();
+        TaskLists lists = new TaskLists(Paths.get(FileHandler.DATA_DIR), dir -> {
+            FileHandler fileHandler = new FileHandler(dir, FileHandler.defaultFormat());
+            fileHandler.enableWriteBehind(SERVER_FLUSH_DELAY_MILLIS);
+            return fileHandler;
+        });
+        closeOnExit(lists);
+        lists.loadAll();
+        for (String name : lists.names()) {
+            lists.get(name).watchExternalChanges();
+        }
+        try {
+            // Only this machine can reach it; there is no authentication
+            TaskServer server = new TaskServer(lists, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            server.start();
+            System.out.println("Serving " + lists.names().size() + " task lists at http://localhost:"
+                    + server.getPort() + "/api/tasks");
+        } catch (IOException e) {
+            System.err.println("Error starting the server: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+    
+    private static int transfer(boolean importing, Path file, String list) {
+        TaskLists lists = new TaskLists();
+        try {
+            if (importing && !lists.contains(list)) {
+                lists.create(list);
+            }
+            if (!lists.contains(list)) {
+                System.err.println("No list named " + list);
+                return 1;
+            }
+            TodoManager manager = lists.get(list);
+            if (!importing) {
+                long start = System.nanoTime();
+                long count = TaskTransfer.exportFile(manager, file);
+                System.out.printf("Exported %d tasks to %s in %.2f s%n", count, file,
+                        (System.nanoTime() - start) / 1e9);
+                return 0;
+            }
+            TaskTransfer.Report report = TaskTransfer.importFile(manager, file);
+            System.out.println(report);
+            for (TaskTransfer.RecordError error : report.getErrors()) {
+                System.out.println("  " + error);
+            }
+            if (report.getRejected() > report.getErrors().size()) {
+                System.out.println("  and " + (report.getRejected() - report.getErrors().size()) + " more");
+            }
+            return 0;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error " + (importing ? "importing " : "exporting ") + file + ": " + e.getMessage());
+            return 1;
+        } finally {
+            lists.close();
+        }
+    }
+    
+    // Make sure queued write-behind records reach the disk however the JVM exits
+    static void closeOnExit(TaskLists lists) {
+        Runtime.getRuntime().addShutdownHook(new Thread(lists::close, "tasks-shutdown"));
+    }
 }
\ No newline at end of file
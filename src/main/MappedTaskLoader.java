@@ -0,0 +1,335 @@
+// MappedTaskLoader.java
+package main;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+
+// Reads the tasks.txt snapshot through a memory-mapped FileChannel and scans the
+// '|'-delimited fields straight from the bytes. Equivalent to calling
+// Task.fromFileFormat on every line, without the regex split, the per-field
+// Strings and the DateTimeFormatter parse. Fields are unescaped only in a file
+// that starts with Task.ESCAPED_HEADER.
+class MappedTaskLoader {
+    private static final int FIELDS = 7;
+    // Lines between progress reports
+    static final int PROGRESS_INTERVAL = 4096;
+    private static final int[] NANO_SCALE = {
+        0, 100_000_000, 10_000_000, 1_000_000, 100_000, 10_000, 1_000, 100, 10, 1
+    };
+    
+    private static final byte[] HEADER = Task.ESCAPED_HEADER.getBytes(StandardCharsets.US_ASCII);
+    
+    private byte[] line = new byte[512];
+    private final int[] delimiters = new int[FIELDS - 1];
+    // Whether the file being read has escaped fields
+    private boolean escaped;
+    
+    // Files past 2GB cannot be mapped as a single buffer
+    static boolean canMap(long size) {
+        return size <= Integer.MAX_VALUE;
+    }
+    
+    // Parse every line of the file, handing tasks to the sink; malformed lines
+    // are reported the same way FileHandler always has and skipped. progress
+    // hears the byte offset reached every PROGRESS_INTERVAL lines.
+    void load(Path path, Consumer<Task> sink, LongConsumer progress) throws IOException {
+        int[] lines = {0};
+        forEachLine(path, (start, length) -> {
+            if (++lines[0] % PROGRESS_INTERVAL == 0) {
+                progress.accept(start);
+            }
+            if (isBlank(line, length)) {
+                return;
+            }
+            try {
+                sink.accept(parse(line, length));
+            } catch (RuntimeException e) {
+                Metrics.count(Metrics.PARSE_ERRORS, 1);
+                System.err.println("Error parsing task line: "
+                        + new String(line, 0, length, StandardCharsets.UTF_8) + " - " + e.getMessage());
+            }
+        });
+    }
+    
+    // CRC32 of every line by the task id it starts with, without parsing the
+    // rest. Lines whose checksum differs from the one in previous, or whose id
+    // wanted accepts, are parsed and handed to changed unless that is null; a
+    // null previous makes every line changed. Lines load would skip are skipped
+    // here too, and when an id repeats the later line wins, as it does when loading.
+    IntIntMap checksums(Path path, IntIntMap previous, IntPredicate wanted, Consumer<Task> changed)
+            throws IOException {
+        IntIntMap sums = new IntIntMap(previous != null ? previous.size() : 1024);
+        CRC32 crc = new CRC32();
+        forEachLine(path, (start, length) -> {
+            int pipe = 0;
+            while (pipe < length && line[pipe] != '|') {
+                pipe++;
+            }
+            if (pipe == length || isBlank(line, length)) {
+                return;
+            }
+            try {
+                int id = parseInt(line, 0, pipe);
+                crc.reset();
+                crc.update(line, 0, length);
+                int sum = (int) crc.getValue();
+                if (changed != null && (previous == null || !previous.containsKey(id) || previous.get(id) != sum
+                        || wanted.test(id) || sums.containsKey(id))) {
+                    changed.accept(parse(line, length));
+                }
+                sums.put(id, sum);
+            } catch (RuntimeException e) {
+                Metrics.count(Metrics.PARSE_ERRORS, 1);
+            }
+        });
+        return sums;
+    }
+    
+    private interface LineVisitor {
+        // The line is in line[0, length), without its line break
+        void visit(int start, int length);
+    }
+    
+    private void forEachLine(Path path, LineVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (!canMap(fileSize)) {
+                throw new IOException("Snapshot too large to map: " + fileSize + " bytes");
+            }
+            int size = (int) fileSize;
+            if (size == 0) {
+                return;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            
+            escaped = false;
+            int start = 0;
+            while (start < size) {
+                int end = start;
+                while (end < size && buffer.get(end) != '\n') {
+                    end++;
+                }
+                int length = end - start;
+                if (length > 0 && buffer.get(end - 1) == '\r') {
+                    length--;
+                }
+                if (length > line.length) {
+                    line = new byte[Math.max(length, line.length * 2)];
+                }
+                buffer.get(start, line, 0, length);
+                if (start == 0 && isHeader(line, length)) {
+                    escaped = true;
+                } else {
+                    visitor.visit(start, length);
+                }
+                start = end + 1;
+            }
+        }
+    }
+    
+    private Task parse(byte[] b, int length) {
+        int found = 0;
+        for (int i = 0; i < length; i++) {
+            if (b[i] == '|') {
+                if (found == delimiters.length) {
+                    throw new IllegalArgumentException("Invalid task format");
+                }
+                delimiters[found++] = i;
+            }
+        }
+        // String.split drops trailing empty fields, so an empty priority
+        // has always been rejected as well
+        if (found != delimiters.length || delimiters[found - 1] == length - 1) {
+            throw new IllegalArgumentException("Invalid task format");
+        }
+        
+        int id = parseInt(b, 0, delimiters[0]);
+        String title = field(b, delimiters[0] + 1, delimiters[1]);
+        String description = field(b, delimiters[1] + 1, delimiters[2]);
+        boolean completed = isTrue(b, delimiters[2] + 1, delimiters[3]);
+        long createdAt = parseTime(b, delimiters[3] + 1, delimiters[4]);
+        long completedAt = isNull(b, delimiters[4] + 1, delimiters[5])
+                ? Task.NO_TIME : parseTime(b, delimiters[4] + 1, delimiters[5]);
+        Task.Priority priority = priority(b, delimiters[5] + 1, length);
+        
+        return new Task(id, title, description, completed, createdAt, completedAt, priority);
+    }
+    
+    private static boolean isHeader(byte[] b, int length) {
+        return Arrays.equals(b, 0, length, HEADER, 0, HEADER.length);
+    }
+    
+    private static boolean isBlank(byte[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if ((b[i] & 0xff) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // A text field, unescaped if the file is (see Task.escape); most hold
+    // no '\' to undo
+    private String field(byte[] b, int from, int to) {
+        for (int i = from; escaped && i < to; i++) {
+            if (b[i] == '\\') {
+                String text = utf8(b, from, to);
+                return Task.unescape(text, 0, text.length());
+            }
+        }
+        return utf8(b, from, to);
+    }
+    
+    private static String utf8(byte[] b, int from, int to) {
+        return new String(b, from, to - from, StandardCharsets.UTF_8);
+    }
+    
+    private static int parseInt(byte[] b, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (b[i] == '-' || b[i] == '+')) {
+            negative = b[i] == '-';
+            i++;
+        }
+        // Leave empty, overlong and malformed input to Integer.parseInt for its error
+        if (i == to || to - i > 10) {
+            return Integer.parseInt(ascii(b, from, to));
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = b[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return Integer.parseInt(ascii(b, from, to));
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value != (int) value) {
+            return Integer.parseInt(ascii(b, from, to));
+        }
+        return (int) value;
+    }
+    
+    // Boolean.parseBoolean semantics: "true" in any case, anything else is false
+    private static boolean isTrue(byte[] b, int from, int to) {
+        if (to - from != 4) {
+            return false;
+        }
+        return (b[from] | 0x20) == 't' && (b[from + 1] | 0x20) == 'r'
+                && (b[from + 2] | 0x20) == 'u' && (b[from + 3] | 0x20) == 'e';
+    }
+    
+    private static boolean isNull(byte[] b, int from, int to) {
+        return to - from == 4 && b[from] == 'n' && b[from + 1] == 'u' && b[from + 2] == 'l' && b[from + 3] == 'l';
+    }
+    
+    // Fixed ISO_LOCAL_DATE_TIME layout yyyy-MM-ddTHH:mm[:ss[.fffffffff]], as
+    // epoch nanoseconds (see Task); anything else, including out-of-range
+    // fields, goes through LocalDateTime.parse for the usual errors
+    static long parseTime(byte[] b, int from, int to) {
+        int length = to - from;
+        if (length >= 16 && b[from + 4] == '-' && b[from + 7] == '-' && b[from + 10] == 'T' && b[from + 13] == ':') {
+            int year = digits(b, from, 4);
+            int month = digits(b, from + 5, 2);
+            int day = digits(b, from + 8, 2);
+            int hour = digits(b, from + 11, 2);
+            int minute = digits(b, from + 14, 2);
+            int second = 0;
+            int nano = 0;
+            int p = from + 16;
+            boolean valid = (year | month | day | hour | minute) >= 0;
+            if (valid && p < to) {
+                valid = to - p >= 3 && b[p] == ':';
+                second = valid ? digits(b, p + 1, 2) : -1;
+                p += 3;
+                if (valid && p < to) {
+                    int fraction = to - p - 1;
+                    valid = b[p] == '.' && fraction >= 1 && fraction <= 9;
+                    nano = valid ? digits(b, p + 1, fraction) : -1;
+                    nano = nano >= 0 ? nano * NANO_SCALE[fraction] : -1;
+                }
+            }
+            if (valid && second >= 0 && second < 60 && nano >= 0 && hour < 24 && minute < 60
+                    && month >= 1 && month <= 12 && day >= 1 && day <= lengthOfMonth(year, month)) {
+                long epochSecond = epochDay(year, month, day) * 86_400L + hour * 3_600 + minute * 60 + second;
+                return Task.epochNanos(epochSecond, nano);
+            }
+        }
+        return Task.parseTime(ascii(b, from, to));
+    }
+    
+    // Days from 1970-01-01 to a valid date, as LocalDate.toEpochDay
+    private static long epochDay(int year, int month, int day) {
+        long y = year;
+        long total = 365 * y + (y + 3) / 4 - (y + 99) / 100 + (y + 399) / 400;
+        total += (367 * month - 362) / 12 + day - 1;
+        if (month > 2) {
+            total -= isLeap(year) ? 1 : 2;
+        }
+        return total - 719_528;
+    }
+    
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2: return isLeap(year) ? 29 : 28;
+            case 4: case 6: case 9: case 11: return 30;
+            default: return 31;
+        }
+    }
+    
+    private static boolean isLeap(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+    
+    private static int digits(byte[] b, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            int digit = b[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+    
+    // The files hold these three spellings unless edited by hand, so match
+    // them without allocating a String per line
+    private static Task.Priority priority(byte[] b, int from, int to) {
+        if (matches(b, from, to, "High")) {
+            return Task.Priority.HIGH;
+        }
+        if (matches(b, from, to, "Medium")) {
+            return Task.Priority.MEDIUM;
+        }
+        if (matches(b, from, to, "Low")) {
+            return Task.Priority.LOW;
+        }
+        return Task.Priority.orDefault(utf8(b, from, to));
+    }
+    
+    private static boolean matches(byte[] b, int from, int to, String value) {
+        if (to - from != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (b[from + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static String ascii(byte[] b, int from, int to) {
+        return new String(b, from, to - from, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,142 @@
+// Metrics.java
+package main;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+// Latency histograms and counters for the storage, query and table paths.
+// Off unless the JVM runs with -Dtodo.metrics=true; when off, start() returns 0
+// without reading the clock and every record call returns straight away.
+public final class Metrics {
+    public static final boolean ENABLED = Boolean.getBoolean("todo.metrics");
+    
+    static final LatencyHistogram LOAD = new LatencyHistogram("load");
+    static final LatencyHistogram SAVE = new LatencyHistogram("save");
+    static final LatencyHistogram COMPACT = new LatencyHistogram("compact");
+    static final LatencyHistogram PARSE = new LatencyHistogram("parse");
+    static final LatencyHistogram RELOAD = new LatencyHistogram("externalChanges");
+    static final LatencyHistogram ARCHIVE = new LatencyHistogram("readArchive");
+    
+    static final LatencyHistogram GET_ALL = new LatencyHistogram("getAllTasks");
+    static final LatencyHistogram GET_COMPLETED = new LatencyHistogram("getCompletedTasks");
+    static final LatencyHistogram GET_PENDING = new LatencyHistogram("getPendingTasks");
+    static final LatencyHistogram GET_BY_PRIORITY = new LatencyHistogram("getTasksByPriority");
+    static final LatencyHistogram GET_BY_ID = new LatencyHistogram("getTaskById");
+    static final LatencyHistogram COUNT = new LatencyHistogram("counts");
+    static final LatencyHistogram SEARCH = new LatencyHistogram("search");
+    static final LatencyHistogram TIME_RANGE = new LatencyHistogram("timeRange");
+    static final LatencyHistogram QUERY = new LatencyHistogram("query");
+    
+    static final LatencyHistogram ADD = new LatencyHistogram("addTask");
+    static final LatencyHistogram REMOVE = new LatencyHistogram("removeTask");
+    static final LatencyHistogram COMPLETE = new LatencyHistogram("setCompleted");
+    static final LatencyHistogram UPDATE = new LatencyHistogram("updateTask");
+    static final LatencyHistogram BATCH = new LatencyHistogram("batch");
+    
+    static final LatencyHistogram REFRESH_TABLE = new LatencyHistogram("refreshTaskTable");
+    static final LatencyHistogram HTTP_REQUEST = new LatencyHistogram("httpRequest");
+    
+    private static final List<LatencyHistogram> HISTOGRAMS = List.of(
+            LOAD, SAVE, COMPACT, PARSE, RELOAD, ARCHIVE,
+            GET_ALL, GET_COMPLETED, GET_PENDING, GET_BY_PRIORITY, GET_BY_ID, COUNT, SEARCH, TIME_RANGE, QUERY,
+            ADD, REMOVE, COMPLETE, UPDATE, BATCH,
+            REFRESH_TABLE, HTTP_REQUEST);
+    
+    // Snapshot and journal bytes handed to the file system
+    static final LongAdder BYTES_WRITTEN = new LongAdder();
+    // Snapshot tasks and journal records read back
+    static final LongAdder TASKS_PARSED = new LongAdder();
+    static final LongAdder PARSE_ERRORS = new LongAdder();
+    
+    private Metrics() {
+    }
+    
+    // Start time for LatencyHistogram.recordSince, or 0 when metrics are off
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+    
+    static void count(LongAdder counter, long amount) {
+        if (ENABLED) {
+            counter.add(amount);
+        }
+    }
+    
+    static Map<String, Long> counters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("bytesWritten", BYTES_WRITTEN.sum());
+        counters.put("tasksParsed", TASKS_PARSED.sum());
+        counters.put("parseErrors", PARSE_ERRORS.sum());
+        return counters;
+    }
+    
+    static Map<String, LatencySummary> latencies() {
+        Map<String, LatencySummary> latencies = new LinkedHashMap<>();
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            latencies.put(histogram.name(), histogram.summary());
+        }
+        return latencies;
+    }
+    
+    static void reset() {
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            histogram.reset();
+        }
+        BYTES_WRITTEN.reset();
+        TASKS_PARSED.reset();
+        PARSE_ERRORS.reset();
+    }
+    
+    // Operations that were never called are left out
+    public static void dump(PrintStream out) {
+        out.println("=== Metrics ===");
+        counters().forEach((name, value) -> out.printf("%-20s %d%n", name, value));
+        latencies().forEach((name, summary) -> {
+            if (summary.getCount() > 0) {
+                out.printf("%-20s %s%n", name, summary);
+            }
+        });
+    }
+    
+    // Visible in JConsole or VisualVM under todo > Metrics
+    public static void registerMBean() {
+        if (!ENABLED) {
+            return;
+        }
+        try {
+            ObjectName name = new ObjectName("todo:type=Metrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), name);
+            }
+        } catch (Exception e) {
+            System.err.println("Error registering metrics MBean: " + e.getMessage());
+        }
+    }
+    
+    private static class MBean implements MetricsMXBean {
+        @Override
+        public boolean isEnabled() {
+            return ENABLED;
+        }
+        
+        @Override
+        public Map<String, Long> getCounters() {
+            return counters();
+        }
+        
+        @Override
+        public Map<String, LatencySummary> getLatencies() {
+            return latencies();
+        }
+        
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+// MetricsMXBean.java
+package main;
+
+import java.util.Map;
+
+// JMX view of Metrics, registered as "todo:type=Metrics" when metrics are on
+public interface MetricsMXBean {
+    boolean isEnabled();
+    
+    // Bytes written, tasks parsed, parse errors
+    Map<String, Long> getCounters();
+    
+    // One entry per instrumented operation
+    Map<String, LatencySummary> getLatencies();
+    
+    void reset();
+}
@@ -0,0 +1,269 @@
+// SearchIndex.java
+package main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// Inverted index over task titles and descriptions. Text is split into
+// lower-case letter/digit tokens; each term maps to the ids of the tasks that
+// contain it, weighted by where it occurs. A sorted view of the terms lets a
+// query token also match every term it is a prefix of (type-ahead search).
+// Not thread-safe; TodoManager guards it with its own lock.
+class SearchIndex {
+    private static final int TITLE_WEIGHT = 3;
+    private static final int DESCRIPTION_WEIGHT = 1;
+    // Typing "rep" should rank "rep" above "report"
+    private static final int EXACT_TERM_BONUS = 2;
+    
+    // Hash lookups on the mutation path; the sorted map only changes when a
+    // term is seen for the first time or loses its last task
+    private final Map<String, IntIntMap> postings = new HashMap<>();
+    private final NavigableMap<String, IntIntMap> sortedTerms = new TreeMap<>();
+    
+    // Index must see the task's current title and description; callers
+    // remove a task before changing its text and add it again afterwards
+    void add(Task task) {
+        int id = task.getId();
+        forEachTerm(task, (term, weight) -> {
+            IntIntMap ids = postings.get(term);
+            if (ids == null) {
+                ids = new IntIntMap();
+                postings.put(term, ids);
+                sortedTerms.put(term, ids);
+            }
+            ids.put(id, weight);
+        });
+    }
+    
+    void remove(Task task) {
+        int id = task.getId();
+        forEachTerm(task, (term, weight) -> {
+            IntIntMap ids = postings.get(term);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    postings.remove(term);
+                    sortedTerms.remove(term);
+                }
+            }
+        });
+    }
+    
+    // Ids of tasks matching every query token (as a term prefix), best first.
+    // Score is the summed weight of the matched terms; ties go to the newer id.
+    int[] search(String query, int limit) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty() || limit <= 0) {
+            return new int[0];
+        }
+        
+        List<TokenMatch> matches = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            TokenMatch match = new TokenMatch(token,
+                    sortedTerms.subMap(token, true, token + Character.MAX_VALUE, false));
+            if (match.postingCount == 0) {
+                return new int[0];
+            }
+            matches.add(match);
+        }
+        // Start from the rarest token so the candidate set stays small
+        matches.sort((a, b) -> Long.compare(a.postingCount, b.postingCount));
+        
+        IntIntMap scores = matches.get(0).scoreAll();
+        for (int i = 1; i < matches.size() && !scores.isEmpty(); i++) {
+            scores = matches.get(i).narrow(scores);
+        }
+        return topIds(scores, limit);
+    }
+    
+    // Most tasks search could return for these tokens: the postings of the
+    // rarest one. Costs one walk over the matching terms per token.
+    long estimate(List<String> tokens) {
+        long estimate = Long.MAX_VALUE;
+        for (String token : tokens) {
+            long count = 0;
+            for (IntIntMap ids : sortedTerms.subMap(token, true, token + Character.MAX_VALUE, false).values()) {
+                count += ids.size();
+            }
+            estimate = Math.min(estimate, count);
+        }
+        return tokens.isEmpty() ? 0 : estimate;
+    }
+    
+    // Whether search would find task for these tokens: each one starts a word
+    // of its title or description
+    static boolean matches(Task task, List<String> tokens) {
+        List<String> terms = tokenize(task.getTitle());
+        terms.addAll(tokenize(task.getDescription()));
+        for (String token : tokens) {
+            boolean found = false;
+            for (String term : terms) {
+                if (term.startsWith(token)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // The index terms one query token matches
+    private static class TokenMatch {
+        private final String token;
+        private final List<Map.Entry<String, IntIntMap>> terms;
+        private final long postingCount;
+        
+        TokenMatch(String token, NavigableMap<String, IntIntMap> range) {
+            this.token = token;
+            this.terms = new ArrayList<>(range.entrySet());
+            long count = 0;
+            for (Map.Entry<String, IntIntMap> term : terms) {
+                count += term.getValue().size();
+            }
+            this.postingCount = count;
+        }
+        
+        private int bonus(Map.Entry<String, IntIntMap> term) {
+            return term.getKey().length() == token.length() ? EXACT_TERM_BONUS : 1;
+        }
+        
+        IntIntMap scoreAll() {
+            IntIntMap scores = new IntIntMap((int) Math.min(postingCount, 1 << 28));
+            for (Map.Entry<String, IntIntMap> term : terms) {
+                int bonus = bonus(term);
+                term.getValue().forEach((id, weight) -> scores.add(id, weight * bonus));
+            }
+            return scores;
+        }
+        
+        // Keep the candidates that also match this token, adding its score.
+        // Probes each candidate when that is cheaper than walking the postings.
+        IntIntMap narrow(IntIntMap candidates) {
+            IntIntMap scores = new IntIntMap(candidates.size());
+            if ((long) candidates.size() * terms.size() < postingCount) {
+                candidates.forEach((id, score) -> {
+                    int tokenScore = 0;
+                    for (Map.Entry<String, IntIntMap> term : terms) {
+                        tokenScore += term.getValue().get(id) * bonus(term);
+                    }
+                    if (tokenScore > 0) {
+                        scores.put(id, score + tokenScore);
+                    }
+                });
+            } else {
+                for (Map.Entry<String, IntIntMap> term : terms) {
+                    int bonus = bonus(term);
+                    term.getValue().forEach((id, weight) -> {
+                        if (candidates.containsKey(id)) {
+                            scores.add(id, weight * bonus);
+                        }
+                    });
+                }
+                // Only existing keys are written, so the map is not restructured mid-walk
+                scores.forEach((id, score) -> scores.put(id, score + candidates.get(id)));
+            }
+            return scores;
+        }
+    }
+    
+    // Best `limit` (score, id) pairs packed into longs, kept in a primitive min-heap
+    private static int[] topIds(IntIntMap scores, int limit) {
+        long[] heap = new long[Math.min(limit, scores.size())];
+        int[] size = {0};
+        scores.forEach((id, score) -> {
+            long packed = ((long) score << 32) | (id & 0xFFFFFFFFL);
+            if (size[0] < heap.length) {
+                heap[size[0]] = packed;
+                siftUp(heap, size[0]++);
+            } else if (packed > heap[0]) {
+                heap[0] = packed;
+                siftDown(heap, heap.length);
+            }
+        });
+        Arrays.sort(heap);
+        int[] ids = new int[heap.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = (int) heap[heap.length - 1 - i];
+        }
+        return ids;
+    }
+    
+    private static void siftUp(long[] heap, int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent] <= heap[index]) {
+                return;
+            }
+            swap(heap, parent, index);
+            index = parent;
+        }
+    }
+    
+    private static void siftDown(long[] heap, int size) {
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (heap[index] <= heap[child]) {
+                return;
+            }
+            swap(heap, index, child);
+            index = child;
+        }
+    }
+    
+    private static void swap(long[] heap, int i, int j) {
+        long value = heap[i];
+        heap[i] = heap[j];
+        heap[j] = value;
+    }
+    
+    private interface TermVisitor {
+        void visit(String term, int weight);
+    }
+    
+    private static void forEachTerm(Task task, TermVisitor visitor) {
+        Map<String, Integer> weights = new HashMap<>();
+        for (String term : tokenize(task.getTitle())) {
+            weights.merge(term, TITLE_WEIGHT, Integer::sum);
+        }
+        for (String term : tokenize(task.getDescription())) {
+            weights.merge(term, DESCRIPTION_WEIGHT, Integer::sum);
+        }
+        weights.forEach(visitor::visit);
+    }
+    
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        // Lower-case once; a per-token toLowerCase would copy every term twice
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+}
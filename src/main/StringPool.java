@@ -0,0 +1,169 @@
+// StringPool.java
+package main;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Strings kept as UTF-8 in one byte array and referred to by int code. Equal
+// strings share a code and are stored once; each code counts its users and is
+// freed with the last one. The bytes of freed strings are reclaimed by
+// compacting the array once they make up half of it. Not thread-safe.
+class StringPool {
+    // Code standing for null
+    static final int NULL = -1;
+    
+    private static final int MIN_COMPACT_BYTES = 1 << 16;
+    
+    private byte[] bytes = new byte[1024];
+    private int used;         // bytes written, including those of freed strings
+    private int dead;         // bytes of freed strings
+    
+    // Per code
+    private int[] offsets = new int[16];
+    private int[] lengths = new int[16];
+    private int[] hashes = new int[16];
+    private int[] refs = new int[16];     // 0 once the code is free
+    private int codes;                    // codes ever handed out
+    private int[] freeCodes = new int[16];
+    private int freeCount;
+    
+    // Open addressing over the live codes: code + 1, or 0 for an empty slot
+    private int[] table = new int[32];
+    private int live;
+    
+    // Code for value, taking one reference to it
+    int intern(String value) {
+        if (value == null) {
+            return NULL;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        int hash = value.hashCode();
+        int mask = table.length - 1;
+        int slot = spread(hash) & mask;
+        for (int entry; (entry = table[slot]) != 0; slot = (slot + 1) & mask) {
+            int code = entry - 1;
+            if (hashes[code] == hash && equals(code, utf8)) {
+                refs[code]++;
+                return code;
+            }
+        }
+        
+        int code = freeCount > 0 ? freeCodes[--freeCount] : newCode();
+        if (used + utf8.length > bytes.length && dead > used / 2) {
+            compact();
+        }
+        if (used + utf8.length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, used + utf8.length));
+        }
+        System.arraycopy(utf8, 0, bytes, used, utf8.length);
+        offsets[code] = used;
+        lengths[code] = utf8.length;
+        hashes[code] = hash;
+        refs[code] = 1;
+        used += utf8.length;
+        table[slot] = code + 1;
+        if (++live > table.length / 2) {
+            rehash(table.length * 2);
+        }
+        return code;
+    }
+    
+    // Drop one reference taken by intern
+    void release(int code) {
+        if (code == NULL || --refs[code] > 0) {
+            return;
+        }
+        removeFromTable(code);
+        live--;
+        dead += lengths[code];
+        if (freeCount == freeCodes.length) {
+            freeCodes = Arrays.copyOf(freeCodes, freeCount * 2);
+        }
+        freeCodes[freeCount++] = code;
+        if (dead >= MIN_COMPACT_BYTES && dead > used / 2) {
+            compact();
+        }
+    }
+    
+    String get(int code) {
+        return code == NULL ? null : new String(bytes, offsets[code], lengths[code], StandardCharsets.UTF_8);
+    }
+    
+    // Bytes held by the arrays, for comparing memory use
+    long footprint() {
+        return bytes.length + 4L * (offsets.length + lengths.length + hashes.length + refs.length
+                + freeCodes.length + table.length);
+    }
+    
+    private boolean equals(int code, byte[] utf8) {
+        int offset = offsets[code];
+        return lengths[code] == utf8.length
+                && Arrays.equals(bytes, offset, offset + utf8.length, utf8, 0, utf8.length);
+    }
+    
+    private int newCode() {
+        if (codes == offsets.length) {
+            int capacity = codes * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            refs = Arrays.copyOf(refs, capacity);
+        }
+        return codes++;
+    }
+    
+    // Rewrite the live strings to the front of the array, in code order
+    private void compact() {
+        byte[] compacted = new byte[Math.max(1024, (used - dead) * 2)];
+        int position = 0;
+        for (int code = 0; code < codes; code++) {
+            if (refs[code] > 0) {
+                System.arraycopy(bytes, offsets[code], compacted, position, lengths[code]);
+                offsets[code] = position;
+                position += lengths[code];
+            }
+        }
+        bytes = compacted;
+        used = position;
+        dead = 0;
+    }
+    
+    private void removeFromTable(int code) {
+        int mask = table.length - 1;
+        int slot = spread(hashes[code]) & mask;
+        while (table[slot] != code + 1) {
+            slot = (slot + 1) & mask;
+        }
+        // Backward-shift deletion, as in IntIntMap
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (table[next] != 0) {
+            int home = spread(hashes[table[next] - 1]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                table[gap] = table[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table[gap] = 0;
+    }
+    
+    private void rehash(int capacity) {
+        int[] rehashed = new int[capacity];
+        int mask = capacity - 1;
+        for (int entry : table) {
+            if (entry != 0) {
+                int slot = spread(hashes[entry - 1]) & mask;
+                while (rehashed[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                rehashed[slot] = entry;
+            }
+        }
+        table = rehashed;
+    }
+    
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -1,32 +1,89 @@
 // Task.java
 package main;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 public class Task {
+    public enum Priority {
+        HIGH("High"), MEDIUM("Medium"), LOW("Low");
+        
+        private final String label;
+        
+        Priority(String label) {
+            this.label = label;
+        }
+        
+        // Shown in the table and written to the files
+        @Override
+        public String toString() {
+            return label;
+        }
+        
+        // Case-insensitive, as priorities have always been matched; null if
+        // the text is not a priority
+        public static Priority parse(String text) {
+            if (text == null) {
+                return null;
+            }
+            switch (text.toLowerCase(Locale.ROOT)) {
+                case "high": return HIGH;
+                case "medium": return MEDIUM;
+                case "low": return LOW;
+                default: return null;
+            }
+        }
+        
+        // Older files could hold any text as a priority; anything that is not
+        // one of the three reads as MEDIUM, the form's default
+        public static Priority orDefault(String text) {
+            Priority priority = parse(text);
+            return priority != null ? priority : MEDIUM;
+        }
+    }
+    
+    // Timestamps are LocalDateTimes stored as nanoseconds since 1970-01-01T00:00
+    // (the local time read as UTC, which round-trips exactly); NO_TIME is null
+    public static final long NO_TIME = Long.MIN_VALUE;
+    // First line of a tasks.txt written with escaped fields (see escape);
+    // snapshots from before escaping have none
+    static final String ESCAPED_HEADER = "#escaped";
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    // Seconds whose nanoseconds fit in a long, from 1677-09-21 to 2262-04-11
+    private static final long MIN_EPOCH_SECOND = Long.MIN_VALUE / NANOS_PER_SECOND;
+    private static final long MAX_EPOCH_SECOND = Long.MAX_VALUE / NANOS_PER_SECOND - 1;
+    
     private int id;
     private String title;
     private String description;
     private boolean completed;
-    private LocalDateTime createdAt;
-    private LocalDateTime completedAt;
-    private String priority;
+    private long createdAt;
+    private long completedAt;
+    private Priority priority;
     
     // Constructor
-    public Task(int id, String title, String description, String priority) {
+    public Task(int id, String title, String description, Priority priority) {
         this.id = id;
         this.title = title;
         this.description = description;
         this.priority = priority;
         this.completed = false;
-        this.createdAt = LocalDateTime.now();
-        this.completedAt = null;
+        this.createdAt = now();
+        this.completedAt = NO_TIME;
+    }
+    
+    public Task(int id, String title, String description, String priority) {
+        this(id, title, description, Priority.orDefault(priority));
     }
     
     // Constructor for loading from file
-    public Task(int id, String title, String description, boolean completed, 
-                LocalDateTime createdAt, LocalDateTime completedAt, String priority) {
+    public Task(int id, String title, String description, boolean completed,
+                long createdAt, long completedAt, Priority priority) {
         this.id = id;
         this.title = title;
         this.description = description;
@@ -36,6 +93,12 @@ public class Task {
         this.priority = priority;
     }
     
+    public Task(int id, String title, String description, boolean completed,
+                LocalDateTime createdAt, LocalDateTime completedAt, String priority) {
+        this(id, title, description, completed, epochNanos(createdAt), epochNanos(completedAt),
+                Priority.orDefault(priority));
+    }
+    
     // Getters and Setters
     public int getId() {
         return id;
@@ -67,68 +130,254 @@ public class Task {
     
     public void setCompleted(boolean completed) {
         this.completed = completed;
-        if (completed && completedAt == null) {
-            this.completedAt = LocalDateTime.now();
+        if (completed && completedAt == NO_TIME) {
+            this.completedAt = now();
         } else if (!completed) {
-            this.completedAt = null;
+            this.completedAt = NO_TIME;
         }
     }
     
     public LocalDateTime getCreatedAt() {
+        return localDateTime(createdAt);
+    }
+    
+    public long getCreatedAtNanos() {
         return createdAt;
     }
     
     public void setCreatedAt(LocalDateTime createdAt) {
-        this.createdAt = createdAt;
+        this.createdAt = epochNanos(createdAt);
     }
     
     public LocalDateTime getCompletedAt() {
+        return localDateTime(completedAt);
+    }
+    
+    // NO_TIME while the task is pending
+    public long getCompletedAtNanos() {
         return completedAt;
     }
     
     public void setCompletedAt(LocalDateTime completedAt) {
+        this.completedAt = epochNanos(completedAt);
+    }
+    
+    public void setCompletedAtNanos(long completedAt) {
         this.completedAt = completedAt;
     }
     
-    public String getPriority() {
+    public Priority getPriority() {
         return priority;
     }
     
-    public void setPriority(String priority) {
+    public void setPriority(Priority priority) {
         this.priority = priority;
     }
     
     // Format task for file storage
     public String toFileFormat() {
         DateTimeFormatter formatter = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
-        String completedAtStr = (completedAt != null) ? completedAt.format(formatter) : "null";
+        String completedAtStr = (completedAt != NO_TIME) ? getCompletedAt().format(formatter) : "null";
         
         return String.format("%d|%s|%s|%b|%s|%s|%s",
-                id, title, description, completed, 
-                createdAt.format(formatter), completedAtStr, priority);
+                id, escape(title), escape(description), completed,
+                getCreatedAt().format(formatter), completedAtStr, priority);
     }
     
     // Create task from file format
     public static Task fromFileFormat(String line) {
-        String[] parts = line.split("\\|");
-        if (parts.length != 7) {
-            throw new IllegalArgumentException("Invalid task format");
+        return fromFileFormat(line, true);
+    }
+    
+    // Lines of a snapshot without ESCAPED_HEADER predate escaping and are
+    // taken verbatim, backslashes and all
+    static Task fromFileFormat(String line, boolean escaped) {
+        long start = Metrics.start();
+        try {
+            String[] parts = escaped ? splitFields(line) : line.split("\\|");
+            // String.split drops trailing empty fields, so an empty priority
+            // has always been rejected as well
+            if (parts.length != 7 || parts[6].isEmpty()) {
+                throw new IllegalArgumentException("Invalid task format");
+            }
+            return fromFields(parts, 0);
+        } finally {
+            Metrics.PARSE.recordSince(start);
         }
+    }
+    
+    // Create task from the seven file-format fields starting at offset
+    static Task fromFields(String[] parts, int offset) {
+        int id = Integer.parseInt(parts[offset]);
+        String title = parts[offset + 1];
+        String description = parts[offset + 2];
+        boolean completed = Boolean.parseBoolean(parts[offset + 3]);
+        long createdAt = parseTime(parts[offset + 4]);
+        long completedAt = parseOptionalTime(parts[offset + 5]);
+        Priority priority = Priority.orDefault(parts[offset + 6]);
         
-        int id = Integer.parseInt(parts[0]);
-        String title = parts[1];
-        String description = parts[2];
-        boolean completed = Boolean.parseBoolean(parts[3]);
-        LocalDateTime createdAt = LocalDateTime.parse(parts[4]);
-        LocalDateTime completedAt = parts[5].equals("null") ? null : LocalDateTime.parse(parts[5]);
-        String priority = parts[6];
-        
+        return new Task(id, title, description, completed, createdAt, completedAt, priority);
+    }
+    
+    // Titles and descriptions escape '\', '|' and line breaks, in the
+    // snapshot and in journal records alike, so that they survive a round trip
+    static String escape(String value) {
+        if (value == null) {
+            return "null";
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (needsEscape(value.charAt(i))) {
+                return escape(new StringBuilder(value.length() + 8), value).toString();
+            }
+        }
+        return value;
+    }
+    
+    static StringBuilder escape(StringBuilder sb, String value) {
+        if (value == null) {
+            return sb.append("null");
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '|': sb.append("\\p"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb;
+    }
+    
+    static boolean needsEscape(char c) {
+        return c == '\\' || c == '|' || c == '\n' || c == '\r';
+    }
+    
+    private static boolean isEscape(char c) {
+        return c == '\\' || c == 'p' || c == 'n' || c == 'r';
+    }
+    
+    // Split a line on its '|' separators, undoing escape in every field
+    static String[] splitFields(String line) {
+        List<String> fields = new ArrayList<>(8);
+        int start = 0;
+        boolean escaped = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length() && isEscape(line.charAt(i + 1))) {
+                escaped = true;
+                i++;
+            } else if (c == '|') {
+                fields.add(escaped ? unescape(line, start, i) : line.substring(start, i));
+                start = i + 1;
+                escaped = false;
+            }
+        }
+        fields.add(escaped ? unescape(line, start, line.length()) : line.substring(start));
+        return fields.toArray(new String[0]);
+    }
+    
+    // Only the four sequences escape writes are undone; any other backslash
+    // is kept as it is
+    static String unescape(String text, int from, int to) {
+        StringBuilder sb = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < to && isEscape(text.charAt(i + 1))) {
+                char next = text.charAt(++i);
+                sb.append(next == 'p' ? '|' : next == 'n' ? '\n' : next == 'r' ? '\r' : '\\');
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+    
+    // ISO_LOCAL_DATE_TIME text
+    static long parseTime(String text) {
+        return epochNanos(LocalDateTime.parse(text));
+    }
+    
+    // Same, or "null" for no time
+    static long parseOptionalTime(String text) {
+        return text.equals("null") ? NO_TIME : parseTime(text);
+    }
+    
+    // Write epochNanos as ISO_LOCAL_DATE_TIME would, without a formatter or a
+    // LocalDateTime: always the seconds, then the fraction without trailing
+    // zeros. Epoch nanoseconds only reach the years 1677 to 2262 (see
+    // epochNanos), so the year is always four plain digits.
+    static void appendTime(StringBuilder out, long epochNanos) {
+        long second = Math.floorDiv(epochNanos, 1_000_000_000L);
+        int nano = (int) Math.floorMod(epochNanos, 1_000_000_000L);
+        LocalDate date = LocalDate.ofEpochDay(Math.floorDiv(second, 86_400L));
+        int secondOfDay = (int) Math.floorMod(second, 86_400L);
+        appendDigits(out, date.getYear(), 4).append('-');
+        appendDigits(out, date.getMonthValue(), 2).append('-');
+        appendDigits(out, date.getDayOfMonth(), 2).append('T');
+        appendDigits(out, secondOfDay / 3600, 2).append(':');
+        appendDigits(out, secondOfDay / 60 % 60, 2).append(':');
+        appendDigits(out, secondOfDay % 60, 2);
+        if (nano != 0) {
+            int digits = 9;
+            while (nano % 10 == 0) {
+                nano /= 10;
+                digits--;
+            }
+            appendDigits(out.append('.'), nano, digits);
+        }
+    }
+    
+    private static StringBuilder appendDigits(StringBuilder out, int value, int digits) {
+        int end = out.length() + digits;
+        out.setLength(end);
+        for (int i = end - 1; i >= end - digits; i--) {
+            out.setCharAt(i, (char) ('0' + value % 10));
+            value /= 10;
+        }
+        return out;
+    }
+    
+    static long epochNanos(LocalDateTime time) {
+        if (time == null) {
+            return NO_TIME;
+        }
+        return epochNanos(time.toEpochSecond(ZoneOffset.UTC), time.getNano());
+    }
+    
+    // A time before or after the years nanoseconds reach is kept as the first
+    // or last one they do, so a task with an odd date still loads
+    static long epochNanos(long epochSecond, int nano) {
+        if (epochSecond < MIN_EPOCH_SECOND) {
+            return MIN_EPOCH_SECOND * NANOS_PER_SECOND;
+        }
+        if (epochSecond > MAX_EPOCH_SECOND) {
+            return MAX_EPOCH_SECOND * NANOS_PER_SECOND + NANOS_PER_SECOND - 1;
+        }
+        return epochSecond * NANOS_PER_SECOND + nano;
+    }
+    
+    static LocalDateTime localDateTime(long epochNanos) {
+        if (epochNanos == NO_TIME) {
+            return null;
+        }
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L),
+                (int) Math.floorMod(epochNanos, 1_000_000_000L), ZoneOffset.UTC);
+    }
+    
+    static long now() {
+        return epochNanos(LocalDateTime.now());
+    }
+    
+    // Independent copy, safe to hand to another thread
+    public Task copy() {
         return new Task(id, title, description, completed, createdAt, completedAt, priority);
     }
     
     @Override
     public String toString() {
-        return String.format("[%s] %s - %s (%s)", 
+        return String.format("[%s] %s - %s (%s)",
                 completed ? "✓" : " ", title, description, priority);
     }
-}
\ No newline at end of file
+}
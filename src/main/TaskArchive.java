@@ -0,0 +1,422 @@
+// TaskArchive.java
+package main;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.ref.SoftReference;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Completed tasks moved out of the working set, in tasks.archive.gz next to
+// the snapshot. The file only grows: each batch archived is appended as a
+// gzip member of journal records, an add per task moved in and a delete per
+// task taken back out, so nothing written is ever rewritten. Nothing is read
+// at startup. The first call that needs the tasks pages them all in and keeps
+// them for as long as memory allows; later calls read only the members
+// appended since. tasks.archive.meta holds the valid length, the task count
+// and the highest id, so the id counter and the stats never read the archive,
+// and a member cut short by a crash is cut off before the next one is added.
+// Processes sharing the directory append under its DirectoryLock, each first
+// reading the meta file again to pick up what the others wrote.
+final class TaskArchive {
+    static final String ARCHIVE_FILE = "tasks.archive.gz";
+    private static final String META_FILE = "tasks.archive.meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 1 << 16;
+    
+    private final Path path;
+    private final Path metaPath;
+    private final DirectoryLock directoryLock;
+    
+    // Guarded by this
+    private long length;
+    private int count;
+    private int maxId;
+    // Dropped by the collector under memory pressure and paged in again
+    private SoftReference<Loaded> cache = new SoftReference<>(null);
+    
+    // The archive as read so far
+    private static final class Loaded {
+        final IntTaskMap tasks = new IntTaskMap();
+        // Built the first time a search needs it
+        SearchIndex searchIndex;
+        long length;
+        
+        void put(Task task) {
+            Task previous = tasks.put(task.getId(), task);
+            if (searchIndex != null) {
+                if (previous != null) {
+                    searchIndex.remove(previous);
+                }
+                searchIndex.add(task);
+            }
+        }
+        
+        void remove(int id) {
+            Task previous = tasks.remove(id);
+            if (previous != null && searchIndex != null) {
+                searchIndex.remove(previous);
+            }
+        }
+    }
+    
+    TaskArchive(Path dataDir, DirectoryLock directoryLock) {
+        this.path = dataDir.resolve(ARCHIVE_FILE);
+        this.metaPath = dataDir.resolve(META_FILE);
+        this.directoryLock = directoryLock;
+        try {
+            readMeta();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error reading archive: " + e.getMessage());
+        }
+    }
+    
+    synchronized int size() {
+        return count;
+    }
+    
+    // 0 when empty
+    synchronized int maxId() {
+        return maxId;
+    }
+    
+    // True if the tasks can be used without reading the file
+    synchronized boolean isLoaded() {
+        Loaded loaded = cache.get();
+        return loaded != null && loaded.length == length;
+    }
+    
+    synchronized void append(Collection<Task> tasks) throws IOException {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        List<String> records = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            records.add(FileHandler.addRecord(task));
+        }
+        long previousLength;
+        directoryLock.lock();
+        try {
+            refresh();
+            previousLength = length;
+            writeMember(records);
+            int newMaxId = maxId;
+            for (Task task : tasks) {
+                newMaxId = Math.max(newMaxId, task.getId());
+            }
+            count += tasks.size();
+            maxId = newMaxId;
+            writeMeta();
+        } finally {
+            directoryLock.unlock();
+        }
+        Loaded loaded = cache.get();
+        if (loaded != null && loaded.length == previousLength) {
+            for (Task task : tasks) {
+                loaded.put(task.copy());
+            }
+            loaded.length = length;
+        }
+    }
+    
+    // Take tasks back out, to be deleted or restored to the working set;
+    // returns the ones that were archived
+    synchronized List<Task> remove(Collection<Integer> ids) throws IOException {
+        List<Task> removed = new ArrayList<>();
+        // Paged in first, so the lock only covers what others appended since
+        Loaded loaded = load();
+        directoryLock.lock();
+        try {
+            loaded = load();
+            List<String> records = new ArrayList<>();
+            for (int id : ids) {
+                Task task = loaded.tasks.get(id);
+                if (task != null) {
+                    removed.add(task);
+                    records.add(FileHandler.deleteRecord(id));
+                }
+            }
+            if (records.isEmpty()) {
+                return removed;
+            }
+            writeMember(records);
+            count -= removed.size();
+            writeMeta();
+        } finally {
+            directoryLock.unlock();
+        }
+        for (Task task : removed) {
+            loaded.remove(task.getId());
+        }
+        loaded.length = length;
+        return removed;
+    }
+    
+    // A copy of the archived task, or null
+    synchronized Task get(int id) throws IOException {
+        refresh();
+        if (count == 0) {
+            return null;
+        }
+        Task task = load().tasks.get(id);
+        return task != null ? task.copy() : null;
+    }
+    
+    // Ids of the archived tasks, ascending
+    synchronized int[] ids() throws IOException {
+        refresh();
+        if (count == 0) {
+            return new int[0];
+        }
+        IntTaskMap tasks = load().tasks;
+        int[] ids = new int[tasks.size()];
+        int[] next = {0};
+        tasks.forEachWhile(task -> {
+            ids[next[0]++] = task.getId();
+            return true;
+        });
+        Arrays.sort(ids);
+        return ids;
+    }
+    
+    // Copies of the tasks with ids[from] to ids[to - 1] still archived, so a
+    // caller can walk ids() a page at a time without holding this lock
+    synchronized List<Task> copies(int[] ids, int from, int to) throws IOException {
+        refresh();
+        List<Task> copies = new ArrayList<>(to - from);
+        if (count == 0) {
+            return copies;
+        }
+        Loaded loaded = load();
+        for (int i = from; i < to; i++) {
+            Task task = loaded.tasks.get(ids[i]);
+            if (task != null) {
+                copies.add(task.copy());
+            }
+        }
+        return copies;
+    }
+    
+    // Offer archived tasks to visitor until it returns false. They are the
+    // archive's own copies; visitor must not change them.
+    synchronized void scan(Predicate<Task> visitor) throws IOException {
+        refresh();
+        if (count > 0) {
+            load().tasks.forEachWhile(visitor);
+        }
+    }
+    
+    // Like scan, but only the tasks matching every word of text, best first,
+    // found through a search index over the archive built the first time
+    synchronized void search(String text, Predicate<Task> visitor) throws IOException {
+        refresh();
+        if (count == 0) {
+            return;
+        }
+        Loaded loaded = load();
+        for (int id : searchIndex(loaded).search(text, Integer.MAX_VALUE)) {
+            if (!visitor.test(loaded.tasks.get(id))) {
+                break;
+            }
+        }
+    }
+    
+    // Read the archive in, search index and all, ahead of the queries
+    synchronized void pageIn() throws IOException {
+        refresh();
+        if (count > 0) {
+            searchIndex(load());
+        }
+    }
+    
+    private static SearchIndex searchIndex(Loaded loaded) {
+        if (loaded.searchIndex == null) {
+            SearchIndex index = new SearchIndex();
+            for (Task task : loaded.tasks) {
+                index.add(task);
+            }
+            loaded.searchIndex = index;
+        }
+        return loaded.searchIndex;
+    }
+    
+    // Read whatever was appended since the last read, here or elsewhere
+    private Loaded load() throws IOException {
+        refresh();
+        Loaded loaded = cache.get();
+        if (loaded == null) {
+            loaded = new Loaded();
+            cache = new SoftReference<>(loaded);
+        }
+        if (loaded.length < length) {
+            long start = Metrics.start();
+            read(loaded.length, length, loaded);
+            loaded.length = length;
+            Metrics.ARCHIVE.recordSince(start);
+        }
+        return loaded;
+    }
+    
+    private void read(long from, long to, Loaded loaded) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                InputStream limited = new Limited(Channels.newInputStream(channel.position(from)), to - from);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        new GZIPInputStream(limited, BUFFER_SIZE), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    String[] fields = Task.splitFields(line);
+                    if (fields[0].equals("D")) {
+                        loaded.remove(Integer.parseInt(fields[1]));
+                    } else {
+                        loaded.put(Task.fromFields(fields, 1));
+                    }
+                } catch (RuntimeException e) {
+                    Metrics.count(Metrics.PARSE_ERRORS, 1);
+                    System.err.println("Error parsing archived task: " + line + " - " + e.getMessage());
+                }
+            }
+        } catch (EOFException e) {
+            // A member cut short; every complete record before it was read
+            System.err.println("Error reading archive: " + e.getMessage());
+        }
+    }
+    
+    // One gzip member at the end of the valid part of the file, forced to
+    // disk before the meta file counts it
+    private void writeMember(List<String> records) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (channel.size() > length) {
+                channel.truncate(length);
+            }
+            channel.position(length);
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+            GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8), BUFFER_SIZE);
+            try {
+                for (String record : records) {
+                    writer.write(record);
+                    writer.write('\n');
+                }
+                writer.flush();
+                gzip.finish();
+                out.flush();
+                channel.force(false);
+                long written = channel.position() - length;
+                length = channel.position();
+                Metrics.count(Metrics.BYTES_WRITTEN, written);
+            } finally {
+                // Frees the deflater; the channel is closed twice, which is harmless
+                writer.close();
+            }
+        }
+    }
+    
+    private void readMeta() throws IOException {
+        if (Files.exists(metaPath)) {
+            refresh();
+        } else if (Files.exists(path)) {
+            // Lost; count the archive once to rebuild it
+            length = Files.size(path);
+            Loaded loaded = load();
+            count = loaded.tasks.size();
+            loaded.tasks.forEachWhile(task -> {
+                maxId = Math.max(maxId, task.getId());
+                return true;
+            });
+            writeMeta();
+        }
+    }
+    
+    // Another process may have appended since the meta file was read
+    private void refresh() throws IOException {
+        if (!Files.exists(metaPath)) {
+            return;
+        }
+        try {
+            String[] fields = Files.readString(metaPath, StandardCharsets.UTF_8).trim().split("\\|");
+            length = Long.parseLong(fields[0]);
+            count = Integer.parseInt(fields[1]);
+            maxId = Integer.parseInt(fields[2]);
+        } catch (RuntimeException e) {
+            throw new IOException("Unreadable " + META_FILE + ": " + e.getMessage(), e);
+        }
+    }
+    
+    private void writeMeta() throws IOException {
+        Path tempPath = metaPath.resolveSibling(metaPath.getFileName() + TEMP_SUFFIX);
+        Files.writeString(tempPath, length + "|" + count + "|" + maxId + "\n", StandardCharsets.UTF_8);
+        Files.move(tempPath, metaPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    // The first remaining bytes of a stream, so a torn member past the valid
+    // length is never read
+    private static final class Limited extends FilterInputStream {
+        private long remaining;
+        
+        Limited(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(buffer, offset, (int) Math.min(length, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+        
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+        
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+    }
+}
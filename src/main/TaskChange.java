@@ -0,0 +1,63 @@
+// TaskChange.java
+package main;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+// One change to a TodoManager's tasks, as published by its change feed.
+// Sequence numbers go up by one per change, and the latest one is always
+// the manager's getVersion().
+public final class TaskChange {
+    public enum Type { ADDED, UPDATED, COMPLETED, REMOVED }
+    
+    // What an UPDATED change touched; COMPLETED changes only ever change
+    // the completion and its time
+    public enum Field { TITLE, DESCRIPTION, PRIORITY }
+    
+    private static final Set<Field> NO_FIELDS = Collections.unmodifiableSet(EnumSet.noneOf(Field.class));
+    
+    private final long sequence;
+    private final Type type;
+    private final Task task;
+    private final Set<Field> fields;
+    
+    TaskChange(long sequence, Type type, Task task, Set<Field> fields) {
+        this.sequence = sequence;
+        this.type = type;
+        this.task = task;
+        this.fields = fields.isEmpty() ? NO_FIELDS : Collections.unmodifiableSet(fields);
+    }
+    
+    TaskChange(long sequence, Type type, Task task) {
+        this(sequence, type, task, NO_FIELDS);
+    }
+    
+    public long getSequence() {
+        return sequence;
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    public int getTaskId() {
+        return task.getId();
+    }
+    
+    // The task right after the change, or as it was when removed. Every
+    // subscriber gets the same object, so it must not be changed.
+    public Task getTask() {
+        return task;
+    }
+    
+    // Empty unless the type is UPDATED
+    public Set<Field> getChangedFields() {
+        return fields;
+    }
+    
+    @Override
+    public String toString() {
+        return sequence + " " + type + " " + task.getId() + (fields.isEmpty() ? "" : " " + fields);
+    }
+}
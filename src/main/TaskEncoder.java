@@ -0,0 +1,230 @@
+// TaskEncoder.java
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+// Writes tasks.txt: Task.ESCAPED_HEADER, then lines byte for byte what
+// Task.toFileFormat and a UTF-8 BufferedWriter produce, straight into a
+// reusable direct buffer that is drained to a channel as it fills. Nothing is allocated per task: numbers
+// and timestamps are written digit by digit, and the date and time of the
+// last timestamp are kept so that tasks created close together only
+// rewrite the fraction. One encoder is not safe for concurrent use.
+public final class TaskEncoder {
+    private static final int BUFFER_SIZE = 1 << 16;
+    // Most bytes a char, or a surrogate pair, takes in UTF-8
+    private static final int MAX_CHAR_BYTES = 4;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HEADER = Task.ESCAPED_HEADER.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[][] PRIORITIES = new byte[Task.Priority.values().length][];
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final int SECONDS_PER_DAY = 86_400;
+    // "yyyy-MM-ddTHH:mm:ss"
+    private static final int TIMESTAMP_LENGTH = 19;
+    
+    static {
+        for (Task.Priority priority : Task.Priority.values()) {
+            PRIORITIES[priority.ordinal()] = priority.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+    
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private int position;
+    private long bytesWritten;
+    // Last timestamp written, to the second
+    private final byte[] timestamp = new byte[TIMESTAMP_LENGTH];
+    private long timestampSecond = Long.MIN_VALUE;
+    private long timestampDay = Long.MIN_VALUE;
+    
+    // The line that starts every snapshot written with escaped fields
+    public void encodeHeader(WritableByteChannel out) throws IOException {
+        writeBytes(HEADER, out);
+        writeBytes(LINE_SEPARATOR, out);
+    }
+    
+    // Append task's line to the buffer, draining it into out whenever it fills
+    public void encode(Task task, WritableByteChannel out) throws IOException {
+        writeInt(task.getId(), out);
+        writeByte('|', out);
+        writeString(task.getTitle(), out);
+        writeByte('|', out);
+        writeString(task.getDescription(), out);
+        writeByte('|', out);
+        writeBytes(task.isCompleted() ? TRUE : FALSE, out);
+        writeByte('|', out);
+        writeTime(task.getCreatedAtNanos(), out);
+        writeByte('|', out);
+        writeTime(task.getCompletedAtNanos(), out);
+        writeByte('|', out);
+        Task.Priority priority = task.getPriority();
+        writeBytes(priority != null ? PRIORITIES[priority.ordinal()] : NULL, out);
+        writeBytes(LINE_SEPARATOR, out);
+    }
+    
+    // Write whatever is still buffered
+    public void flush(WritableByteChannel out) throws IOException {
+        buffer.limit(position).position(0);
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        bytesWritten += position;
+        buffer.clear();
+        position = 0;
+    }
+    
+    // Bytes handed to a channel so far
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+    
+    private void ensure(int length, WritableByteChannel out) throws IOException {
+        if (BUFFER_SIZE - position < length) {
+            flush(out);
+        }
+    }
+    
+    private void writeByte(char c, WritableByteChannel out) throws IOException {
+        ensure(1, out);
+        buffer.put(position++, (byte) c);
+    }
+    
+    private void writeBytes(byte[] bytes, WritableByteChannel out) throws IOException {
+        ensure(bytes.length, out);
+        buffer.put(position, bytes);
+        position += bytes.length;
+    }
+    
+    private void writeInt(int value, WritableByteChannel out) throws IOException {
+        if (value == Integer.MIN_VALUE) {
+            writeBytes(Integer.toString(value).getBytes(StandardCharsets.US_ASCII), out);
+            return;
+        }
+        ensure(11, out);
+        if (value < 0) {
+            buffer.put(position++, (byte) '-');
+            value = -value;
+        }
+        int digits = digits(value);
+        for (int i = position + digits - 1; i >= position; i--) {
+            buffer.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        position += digits;
+    }
+    
+    private static int digits(int value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+    
+    // UTF-8, escaped as Task.escape does, with "?" for a lone surrogate, which a
+    // strict writer would reject
+    private void writeString(String value, WritableByteChannel out) throws IOException {
+        if (value == null) {
+            writeBytes(NULL, out);
+            return;
+        }
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (BUFFER_SIZE - position < MAX_CHAR_BYTES) {
+                flush(out);
+            }
+            char c = value.charAt(i);
+            if (Task.needsEscape(c)) {
+                buffer.put(position++, (byte) '\\');
+                buffer.put(position++, (byte) (c == '|' ? 'p' : c == '\n' ? 'n' : c == '\r' ? 'r' : c));
+            } else if (c < 0x80) {
+                buffer.put(position++, (byte) c);
+            } else if (c < 0x800) {
+                buffer.put(position++, (byte) (0xC0 | c >> 6));
+                buffer.put(position++, (byte) (0x80 | c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                int codePoint = Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1))
+                        ? Character.toCodePoint(c, value.charAt(++i)) : -1;
+                if (codePoint < 0) {
+                    buffer.put(position++, (byte) '?');
+                } else {
+                    buffer.put(position++, (byte) (0xF0 | codePoint >> 18));
+                    buffer.put(position++, (byte) (0x80 | codePoint >> 12 & 0x3F));
+                    buffer.put(position++, (byte) (0x80 | codePoint >> 6 & 0x3F));
+                    buffer.put(position++, (byte) (0x80 | codePoint & 0x3F));
+                }
+            } else {
+                buffer.put(position++, (byte) (0xE0 | c >> 12));
+                buffer.put(position++, (byte) (0x80 | c >> 6 & 0x3F));
+                buffer.put(position++, (byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+    
+    // ISO_LOCAL_DATE_TIME: seconds always, then the fraction without trailing
+    // zeros, and no fraction at all on a whole second
+    private void writeTime(long epochNanos, WritableByteChannel out) throws IOException {
+        if (epochNanos == Task.NO_TIME) {
+            writeBytes(NULL, out);
+            return;
+        }
+        long second = Math.floorDiv(epochNanos, NANOS_PER_SECOND);
+        int nano = (int) Math.floorMod(epochNanos, NANOS_PER_SECOND);
+        if (second != timestampSecond) {
+            cacheTimestamp(second);
+        }
+        writeBytes(timestamp, out);
+        if (nano != 0) {
+            ensure(10, out);
+            buffer.put(position++, (byte) '.');
+            int digits = 9;
+            while (nano % 10 == 0) {
+                nano /= 10;
+                digits--;
+            }
+            for (int i = position + digits - 1; i >= position; i--) {
+                buffer.put(i, (byte) ('0' + nano % 10));
+                nano /= 10;
+            }
+            position += digits;
+        }
+    }
+    
+    // Fill timestamp for second, redoing the date only when the day changed.
+    // Epoch nanoseconds only reach the years 1677 to 2262, so the year always
+    // takes the four unsigned digits ISO_LOCAL_DATE gives it.
+    private void cacheTimestamp(long second) {
+        long day = Math.floorDiv(second, SECONDS_PER_DAY);
+        if (day != timestampDay) {
+            LocalDate date = LocalDate.ofEpochDay(day);
+            putDigits(0, date.getYear(), 4);
+            timestamp[4] = '-';
+            putDigits(5, date.getMonthValue(), 2);
+            timestamp[7] = '-';
+            putDigits(8, date.getDayOfMonth(), 2);
+            timestamp[10] = 'T';
+            timestamp[13] = ':';
+            timestamp[16] = ':';
+            timestampDay = day;
+        }
+        int secondOfDay = Math.floorMod(second, SECONDS_PER_DAY);
+        putDigits(11, secondOfDay / 3600, 2);
+        putDigits(14, secondOfDay / 60 % 60, 2);
+        putDigits(17, secondOfDay % 60, 2);
+        timestampSecond = second;
+    }
+    
+    private void putDigits(int offset, int value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            timestamp[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
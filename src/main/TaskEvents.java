@@ -0,0 +1,77 @@
+// TaskEvents.java
+package main;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Flight Recorder events for the load, save, query and table paths, under the
+// "To-Do" category. They are independent of Metrics.ENABLED: JFR decides
+// whether to record them, and while no recording is running they cost next to
+// nothing.
+final class TaskEvents {
+    private TaskEvents() {
+    }
+    
+    @Name("todo.Load")
+    @Label("Load Tasks")
+    @Category("To-Do")
+    static class Load extends Event {
+        @Label("Tasks")
+        int tasks;
+        
+        @Label("Snapshot Size")
+        @DataAmount
+        long bytes;
+        
+        @Label("Format")
+        String format;
+    }
+    
+    @Name("todo.Save")
+    @Label("Save Tasks")
+    @Category("To-Do")
+    static class Save extends Event {
+        @Label("Tasks")
+        int tasks;
+        
+        @Label("Snapshot Size")
+        @DataAmount
+        long bytes;
+        
+        @Label("Format")
+        String format;
+        
+        @Label("Compaction")
+        boolean compaction;
+    }
+    
+    @Name("todo.Query")
+    @Label("Task Query")
+    @Category("To-Do")
+    static class Query extends Event {
+        @Label("Operation")
+        String operation;
+    }
+    
+    @Name("todo.Mutation")
+    @Label("Task Mutation")
+    @Category("To-Do")
+    static class Mutation extends Event {
+        @Label("Operation")
+        String operation;
+        
+        @Label("Tasks")
+        int tasks;
+    }
+    
+    @Name("todo.RefreshTable")
+    @Label("Refresh Task Table")
+    @Category("To-Do")
+    static class RefreshTable extends Event {
+        @Label("Rows")
+        int rows;
+    }
+}
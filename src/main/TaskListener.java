@@ -0,0 +1,36 @@
+// TaskListener.java
+package main;
+
+import java.util.List;
+
+// Receives fine-grained changes from a TodoManager. Callbacks run on the thread
+// that made the change, after the manager's lock has been released, so a
+// listener may read from the manager but must hand UI work to the right thread.
+public interface TaskListener {
+    void taskAdded(Task task);
+    
+    // A run of tasks added together, such as a batch or one chunk of a
+    // background load
+    default void tasksAdded(List<Task> tasks) {
+        for (Task task : tasks) {
+            taskAdded(task);
+        }
+    }
+    
+    // Title, description, priority or completion of the task changed
+    void taskUpdated(Task task);
+    
+    default void tasksUpdated(List<Task> tasks) {
+        for (Task task : tasks) {
+            taskUpdated(task);
+        }
+    }
+    
+    void taskRemoved(Task task);
+    
+    default void tasksRemoved(List<Task> tasks) {
+        for (Task task : tasks) {
+            taskRemoved(task);
+        }
+    }
+}
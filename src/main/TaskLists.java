@@ -0,0 +1,234 @@
+// TaskLists.java
+package main;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+// Named task lists, each its own TodoManager persisted in its own shard: the
+// default list keeps data/tasks.txt and its journal, every other list the
+// same files under data/lists/<name>/. Ids are only unique within a list.
+// A list is loaded the first time it is used; loadAll and the cross-list
+// queries fork one task per list on a fork-join pool, so the shards are
+// parsed and queried in parallel.
+public class TaskLists {
+    public static final String DEFAULT_LIST = "Default";
+    
+    private static final String LISTS_DIR = "lists";
+    // Names double as directory names, so keep them portable
+    private static final Pattern NAME = Pattern.compile("[\\p{L}\\p{N}][\\p{L}\\p{N} _.-]{0,63}");
+    
+    private final Path dataDir;
+    private final Path listsDir;
+    private final Function<Path, FileHandler> fileHandlers;
+    // Lists other than the default, by name; guarded by itself
+    private final TreeSet<String> names = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, ListEntry> entries = new ConcurrentHashMap<>();
+    private final List<TodoManager> opened = new CopyOnWriteArrayList<>();
+    // Loading is part disk, part parsing, so use at least two workers
+    private final ForkJoinPool pool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    
+    // A list's manager, once it exists, and the moment it is fully loaded
+    private static final class ListEntry {
+        volatile TodoManager manager;
+        final CompletableFuture<TodoManager> loaded = new CompletableFuture<>();
+    }
+    
+    public TaskLists() {
+        this(Paths.get(FileHandler.DATA_DIR));
+    }
+    
+    public TaskLists(Path dataDir) {
+        this(dataDir, dir -> new FileHandler(dir, FileHandler.defaultFormat()));
+    }
+    
+    // fileHandlers builds the handler for a list's directory, e.g. to turn on
+    // write-behind
+    public TaskLists(Path dataDir, Function<Path, FileHandler> fileHandlers) {
+        this.dataDir = dataDir;
+        this.listsDir = dataDir.resolve(LISTS_DIR);
+        this.fileHandlers = fileHandlers;
+        if (Files.isDirectory(listsDir)) {
+            try (DirectoryStream<Path> dirs = Files.newDirectoryStream(listsDir, Files::isDirectory)) {
+                for (Path dir : dirs) {
+                    String name = dir.getFileName().toString();
+                    if (isValidName(name)) {
+                        names.add(name);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error reading task lists: " + e.getMessage());
+            }
+        }
+    }
+    
+    // The default list first, then the others alphabetically
+    public List<String> names() {
+        List<String> all = new ArrayList<>();
+        all.add(DEFAULT_LIST);
+        synchronized (names) {
+            all.addAll(names);
+        }
+        return all;
+    }
+    
+    public boolean contains(String name) {
+        if (DEFAULT_LIST.equalsIgnoreCase(name)) {
+            return true;
+        }
+        synchronized (names) {
+            return names.contains(name);
+        }
+    }
+    
+    public static boolean isValidName(String name) {
+        return name != null && NAME.matcher(name).matches() && !name.equalsIgnoreCase(DEFAULT_LIST);
+    }
+    
+    // Create an empty list; its directory is made right away
+    public void create(String name) {
+        if (!isValidName(name)) {
+            throw new IllegalArgumentException("Invalid list name: " + name);
+        }
+        synchronized (names) {
+            if (names.contains(name)) {
+                throw new IllegalArgumentException("A list named " + name + " already exists");
+            }
+            try {
+                Files.createDirectories(listsDir.resolve(name));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Could not create list " + name + ": " + e.getMessage(), e);
+            }
+            names.add(name);
+        }
+    }
+    
+    // True once the list's manager exists, loaded or still loading
+    public boolean isOpen(String name) {
+        ListEntry entry = entries.get(canonicalName(name));
+        return entry != null && entry.manager != null;
+    }
+    
+    // The list's manager, loading it on this thread the first time, or
+    // waiting for a load already under way elsewhere
+    public TodoManager get(String name) {
+        String key = canonicalName(name);
+        ListEntry created = new ListEntry();
+        ListEntry entry = entries.putIfAbsent(key, created);
+        if (entry != null) {
+            return entry.loaded.join();
+        }
+        try {
+            TodoManager manager = new TodoManager(fileHandlers.apply(directory(key)));
+            opened.add(manager);
+            created.manager = manager;
+            created.loaded.complete(manager);
+            return manager;
+        } catch (RuntimeException e) {
+            entries.remove(key, created);
+            created.loaded.completeExceptionally(e);
+            throw e;
+        }
+    }
+    
+    // Open a list for display without waiting for it. setup gets the manager
+    // before any task of a new load arrives, so listeners it registers see the
+    // whole load; a list opened earlier is handed over as it is. setup runs on
+    // this thread unless get is still loading the list on another one. The
+    // future completes once the list is fully loaded.
+    public CompletableFuture<TodoManager> open(String name, Consumer<TodoManager> setup, DoubleConsumer progress) {
+        String key = canonicalName(name);
+        ListEntry created = new ListEntry();
+        ListEntry entry = entries.putIfAbsent(key, created);
+        if (entry == null) {
+            TodoManager manager = new TodoManager(fileHandlers.apply(directory(key)), false);
+            opened.add(manager);
+            created.manager = manager;
+            setup.accept(manager);
+            manager.loadInBackground(progress).thenRun(() -> created.loaded.complete(manager));
+            return created.loaded;
+        }
+        TodoManager manager = entry.manager;
+        if (manager != null) {
+            setup.accept(manager);
+            return entry.loaded;
+        }
+        return entry.loaded.thenApply(loaded -> {
+            setup.accept(loaded);
+            return loaded;
+        });
+    }
+    
+    // Load every list that is not loaded yet, in parallel
+    public void loadAll() {
+        queryAll(manager -> null);
+    }
+    
+    // Run query against every list in parallel, loading lists as needed.
+    // Results are keyed by list name, in the order of names().
+    public <T> Map<String, T> queryAll(Function<TodoManager, T> query) {
+        List<String> all = names();
+        List<ForkJoinTask<T>> forks = new ArrayList<>(all.size());
+        for (String name : all) {
+            forks.add(pool.submit(() -> query.apply(get(name))));
+        }
+        Map<String, T> results = new LinkedHashMap<>();
+        for (int i = 0; i < all.size(); i++) {
+            results.put(all.get(i), forks.get(i).join());
+        }
+        return results;
+    }
+    
+    // Pending tasks of one priority across all lists, e.g. everything still
+    // open at High
+    public Map<String, List<Task>> getPendingTasks(Task.Priority priority) {
+        return queryAll(manager -> {
+            List<Task> tasks = manager.getTasksByPriority(priority);
+            tasks.removeIf(Task::isCompleted);
+            return tasks;
+        });
+    }
+    
+    // Close every list opened so far
+    public void close() {
+        for (TodoManager manager : opened) {
+            manager.close();
+        }
+        pool.shutdown();
+    }
+    
+    // The stored spelling of a known name; list names ignore case, as the
+    // directories do on some systems
+    private String canonicalName(String name) {
+        if (DEFAULT_LIST.equalsIgnoreCase(name)) {
+            return DEFAULT_LIST;
+        }
+        synchronized (names) {
+            String known = names.floor(name);
+            if (known == null || !known.equalsIgnoreCase(name)) {
+                throw new IllegalArgumentException("No task list named " + name);
+            }
+            return known;
+        }
+    }
+    
+    private Path directory(String name) {
+        return name.equals(DEFAULT_LIST) ? dataDir : listsDir.resolve(name);
+    }
+}
@@ -0,0 +1,236 @@
+// TaskObservableList.java
+package main;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javafx.collections.ModifiableObservableListBase;
+
+// Observable list of tasks that can announce an in-place change to a task.
+// An update change lets FilteredList re-test and SortedList re-place just that
+// element, and keeps the row's selection, where set() would replace the row.
+public class TaskObservableList extends ModifiableObservableListBase<Task> {
+    static final int MAX_CHANGE_RANGES = 256;
+    
+    private final List<Task> tasks = new ArrayList<>();
+    
+    public void fireUpdated(int index) {
+        beginChange();
+        nextUpdate(index);
+        endChange();
+    }
+    
+    // A manager with column storage hands out a new Task for every change,
+    // which replaces the row's; otherwise the row's own task changed in place
+    public void updateTask(Task task) {
+        int index = indexOfId(task.getId());
+        if (index < 0) {
+            return;
+        }
+        if (tasks.get(index) == task) {
+            fireUpdated(index);
+        } else {
+            set(index, task);
+        }
+    }
+    
+    // Several tasks changed in place at once. SortedList re-places an updated
+    // row by binary search, which only works while every other row is still in
+    // order, so the tasks are taken out in one change and put back in another.
+    public void reinsertUpdated(List<Task> updated) {
+        if (updated.size() == 1) {
+            updateTask(updated.get(0));
+            return;
+        }
+        List<Integer> positions = new ArrayList<>(updated.size());
+        for (Task task : updated) {
+            int index = indexOfId(task.getId());
+            if (index >= 0) {
+                positions.add(index);
+            }
+        }
+        positions.sort(null);
+        if (scattered(positions)) {
+            fireReplacedAll(new ArrayList<>(tasks));
+        } else {
+            removeTasks(updated);
+            insertTasks(updated);
+        }
+    }
+    
+    // Merge tasks into the list in id order as one change
+    public void insertTasks(List<Task> added) {
+        List<Task> sorted = new ArrayList<>(added);
+        sorted.sort(Comparator.comparingInt(Task::getId));
+        List<Task> merged = new ArrayList<>(tasks.size() + sorted.size());
+        List<Integer> positions = new ArrayList<>(sorted.size());
+        int next = 0;
+        for (Task task : tasks) {
+            while (next < sorted.size() && sorted.get(next).getId() < task.getId()) {
+                positions.add(merged.size());
+                merged.add(sorted.get(next++));
+            }
+            merged.add(task);
+        }
+        while (next < sorted.size()) {
+            positions.add(merged.size());
+            merged.add(sorted.get(next++));
+        }
+        
+        List<Task> previous = scattered(positions) ? new ArrayList<>(tasks) : null;
+        beginChange();
+        try {
+            tasks.clear();
+            tasks.addAll(merged);
+            modCount++;
+            if (previous != null) {
+                fireReplacedAll(previous);
+            } else {
+                for (int position : positions) {
+                    nextAdd(position, position + 1);
+                }
+            }
+        } finally {
+            endChange();
+        }
+    }
+    
+    // Remove a group of tasks as one change, in a single pass over the list;
+    // removing them one at a time would shift the backing array once per task
+    public void removeTasks(List<Task> removed) {
+        Set<Integer> ids = new HashSet<>();
+        for (Task task : removed) {
+            ids.add(task.getId());
+        }
+        List<Integer> positions = new ArrayList<>(removed.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            if (ids.contains(tasks.get(i).getId())) {
+                positions.add(i);
+            }
+        }
+        if (positions.isEmpty()) {
+            return;
+        }
+        
+        List<Task> previous = scattered(positions) ? new ArrayList<>(tasks) : null;
+        beginChange();
+        try {
+            int kept = 0;
+            int next = 0;
+            for (int i = 0; i < tasks.size(); i++) {
+                Task task = tasks.get(i);
+                if (next < positions.size() && positions.get(next) == i) {
+                    next++;
+                    if (previous == null) {
+                        nextRemove(kept, task);
+                    }
+                } else {
+                    tasks.set(kept++, task);
+                }
+            }
+            tasks.subList(kept, tasks.size()).clear();
+            modCount++;
+            if (previous != null) {
+                fireReplacedAll(previous);
+            }
+        } finally {
+            endChange();
+        }
+    }
+    
+    // ModifiableObservableListBase clears the list one element at a time, each
+    // removal shifting every task after it, which takes minutes at a million
+    @Override
+    public boolean setAll(Collection<? extends Task> replacement) {
+        if (tasks.isEmpty() && replacement.isEmpty()) {
+            return false;
+        }
+        List<Task> previous = new ArrayList<>(tasks);
+        beginChange();
+        try {
+            tasks.clear();
+            tasks.addAll(replacement);
+            modCount++;
+            fireReplacedAll(previous);
+        } finally {
+            endChange();
+        }
+        return true;
+    }
+    
+    // Announce that previous was replaced by the current contents
+    private void fireReplacedAll(List<Task> previous) {
+        beginChange();
+        try {
+            nextRemove(0, previous);
+            nextAdd(0, tasks.size());
+        } finally {
+            endChange();
+        }
+    }
+    
+    // FilteredList and SortedList shift their arrays once per changed range,
+    // so a change spread over many ranges is cheaper announced as "everything
+    // replaced", which they handle with one rebuild and sort
+    static boolean scattered(List<Integer> positions) {
+        int ranges = 0;
+        for (int i = 0; i < positions.size() && ranges <= MAX_CHANGE_RANGES; i++) {
+            if (i == 0 || positions.get(i) != positions.get(i - 1) + 1) {
+                ranges++;
+            }
+        }
+        return ranges > MAX_CHANGE_RANGES;
+    }
+    
+    // Tasks are appended in id order, so try a binary search first and fall
+    // back to a scan for lists whose file was reordered by hand
+    public int indexOfId(int id) {
+        int low = 0;
+        int high = tasks.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = tasks.get(mid).getId();
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            if (tasks.get(i).getId() == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    @Override
+    public Task get(int index) {
+        return tasks.get(index);
+    }
+    
+    @Override
+    public int size() {
+        return tasks.size();
+    }
+    
+    @Override
+    protected void doAdd(int index, Task element) {
+        tasks.add(index, element);
+    }
+    
+    @Override
+    protected Task doSet(int index, Task element) {
+        return tasks.set(index, element);
+    }
+    
+    @Override
+    protected Task doRemove(int index) {
+        return tasks.remove(index);
+    }
+}
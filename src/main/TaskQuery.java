@@ -0,0 +1,307 @@
+// TaskQuery.java
+package main;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Predicate;
+
+// A combination of conditions on tasks, with an order and a page, run by
+// TodoManager.query. Every condition set must hold:
+//
+//   TaskQuery query = TaskQuery.builder()
+//           .pending()
+//           .priority(Task.Priority.HIGH)
+//           .createdBetween(monthStart, null)
+//           .titleContains("report")
+//           .orderBy(TaskQuery.Sort.CREATED, true)
+//           .limit(50)
+//           .build();
+//
+// The manager picks the index that leaves the fewest candidates and tests the
+// rest of the conditions on those, so the order conditions are given in does
+// not matter. Queries are immutable and can be kept and run again.
+public final class TaskQuery {
+    public enum Sort {
+        // No particular order, whichever is cheapest: the order of the index
+        // the manager used
+        NONE,
+        // Best text match first; needs text
+        RELEVANCE,
+        ID,
+        TITLE,
+        // High first
+        PRIORITY,
+        CREATED,
+        // Tasks without a completion time last
+        COMPLETED
+    }
+    
+    private static final TaskQuery ALL = builder().build();
+    
+    final Boolean completed;
+    final Set<Task.Priority> priorities;
+    final long createdFrom;
+    final long createdTo;
+    final long completedFrom;
+    final long completedTo;
+    final String text;
+    final List<String> textTokens;
+    final String titleContains;
+    final List<Predicate<? super Task>> filters;
+    final Sort sort;
+    final boolean descending;
+    final int offset;
+    final int limit;
+    final boolean archived;
+    
+    private TaskQuery(Builder builder) {
+        this.completed = builder.completed;
+        this.priorities = builder.priorities.isEmpty() || builder.priorities.size() == Task.Priority.values().length
+                ? Collections.emptySet() : Collections.unmodifiableSet(EnumSet.copyOf(builder.priorities));
+        this.createdFrom = builder.createdFrom;
+        this.createdTo = builder.createdTo;
+        this.completedFrom = builder.completedFrom;
+        this.completedTo = builder.completedTo;
+        this.textTokens = SearchIndex.tokenize(builder.text);
+        this.text = textTokens.isEmpty() ? null : builder.text;
+        this.titleContains = builder.titleContains;
+        this.filters = Collections.unmodifiableList(new ArrayList<>(builder.filters));
+        this.sort = builder.sort;
+        this.descending = builder.descending;
+        this.offset = builder.offset;
+        this.limit = builder.limit;
+        this.archived = builder.archived;
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    // Every task, in no particular order
+    public static TaskQuery all() {
+        return ALL;
+    }
+    
+    boolean hasCreatedRange() {
+        return createdFrom != Long.MIN_VALUE || createdTo != Long.MAX_VALUE;
+    }
+    
+    // Only completed tasks have a completion time, so this implies completed
+    boolean hasCompletedRange() {
+        return completedFrom != Long.MIN_VALUE || completedTo != Long.MAX_VALUE;
+    }
+    
+    // True if the query says something about the text or the dates, the
+    // conditions only an index answers without looking at every task
+    public boolean needsIndex() {
+        return text != null || hasCreatedRange() || hasCompletedRange() || sort == Sort.RELEVANCE;
+    }
+    
+    // Whether task meets every condition; order and page play no part
+    public boolean matches(Task task) {
+        return matches(task, false);
+    }
+    
+    // textChecked skips the text condition, for tasks the search index found
+    boolean matches(Task task, boolean textChecked) {
+        if (completed != null && task.isCompleted() != completed) {
+            return false;
+        }
+        if (!priorities.isEmpty() && !priorities.contains(task.getPriority())) {
+            return false;
+        }
+        if (hasCreatedRange() && !inRange(task.getCreatedAtNanos(), createdFrom, createdTo)) {
+            return false;
+        }
+        if (hasCompletedRange() && !inRange(task.getCompletedAtNanos(), completedFrom, completedTo)) {
+            return false;
+        }
+        if (text != null && !textChecked && !SearchIndex.matches(task, textTokens)) {
+            return false;
+        }
+        if (titleContains != null && !containsIgnoreCase(task.getTitle(), titleContains)) {
+            return false;
+        }
+        for (Predicate<? super Task> filter : filters) {
+            if (!filter.test(task)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // Without lower-casing a copy of every title tested
+    private static boolean containsIgnoreCase(String text, String part) {
+        if (text == null) {
+            return false;
+        }
+        for (int i = 0; i + part.length() <= text.length(); i++) {
+            if (text.regionMatches(true, i, part, 0, part.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static boolean inRange(long time, long from, long to) {
+        return time != Task.NO_TIME && time >= from && time < to;
+    }
+    
+    // The order the query asks for, ties broken by id; null for NONE and
+    // RELEVANCE, which the manager orders itself
+    Comparator<Task> comparator() {
+        Comparator<Task> order;
+        switch (sort) {
+            case ID:
+                order = Comparator.comparingInt(Task::getId);
+                break;
+            case TITLE:
+                order = Comparator.comparing(Task::getTitle, Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER));
+                break;
+            case PRIORITY:
+                order = Comparator.comparing(Task::getPriority, Comparator.nullsLast(Comparator.naturalOrder()));
+                break;
+            case CREATED:
+                order = Comparator.comparingLong(Task::getCreatedAtNanos);
+                break;
+            case COMPLETED:
+                // NO_TIME is the smallest long, so map it past every real time
+                order = Comparator.comparingLong(task -> task.getCompletedAtNanos() == Task.NO_TIME
+                        ? Long.MAX_VALUE : task.getCompletedAtNanos());
+                break;
+            default:
+                return null;
+        }
+        if (sort != Sort.ID) {
+            order = order.thenComparingInt(Task::getId);
+        }
+        return descending ? order.reversed() : order;
+    }
+    
+    public static final class Builder {
+        private Boolean completed;
+        private final Set<Task.Priority> priorities = EnumSet.noneOf(Task.Priority.class);
+        private long createdFrom = Long.MIN_VALUE;
+        private long createdTo = Long.MAX_VALUE;
+        private long completedFrom = Long.MIN_VALUE;
+        private long completedTo = Long.MAX_VALUE;
+        private String text;
+        private String titleContains;
+        private final List<Predicate<? super Task>> filters = new ArrayList<>();
+        private Sort sort = Sort.NONE;
+        private boolean descending;
+        private int offset;
+        private int limit = Integer.MAX_VALUE;
+        private boolean archived;
+        
+        private Builder() {
+        }
+        
+        public Builder pending() {
+            completed = false;
+            return this;
+        }
+        
+        public Builder completed() {
+            completed = true;
+            return this;
+        }
+        
+        // true, false, or null for either
+        public Builder completed(Boolean completed) {
+            this.completed = completed;
+            return this;
+        }
+        
+        // Any of the priorities given here and in earlier calls
+        public Builder priority(Task.Priority... priorities) {
+            Collections.addAll(this.priorities, priorities);
+            return this;
+        }
+        
+        // Created at or after from and before to; a null bound leaves that end open
+        public Builder createdBetween(LocalDateTime from, LocalDateTime to) {
+            createdFrom = from != null ? Task.epochNanos(from) : Long.MIN_VALUE;
+            createdTo = to != null ? Task.epochNanos(to) : Long.MAX_VALUE;
+            return this;
+        }
+        
+        // Completed at or after from and before to; a null bound leaves that
+        // end open, but the task must have been completed
+        public Builder completedBetween(LocalDateTime from, LocalDateTime to) {
+            completedFrom = from != null ? Task.epochNanos(from) : Long.MIN_VALUE;
+            completedTo = to != null ? Task.epochNanos(to) : Long.MAX_VALUE;
+            if (from == null && to == null) {
+                completed = true;
+            }
+            return this;
+        }
+        
+        // Words that must all start a word of the title or description, as in
+        // TodoManager.search; blank text is no condition
+        public Builder text(String text) {
+            this.text = text;
+            return this;
+        }
+        
+        // Title containing this, ignoring case
+        public Builder titleContains(String text) {
+            titleContains = text == null || text.isEmpty() ? null : text.toLowerCase(Locale.ROOT);
+            return this;
+        }
+        
+        // Any other condition; it is tested after the indexed ones
+        public Builder where(Predicate<? super Task> filter) {
+            filters.add(filter);
+            return this;
+        }
+        
+        public Builder orderBy(Sort sort) {
+            return orderBy(sort, false);
+        }
+        
+        public Builder orderBy(Sort sort, boolean descending) {
+            this.sort = sort;
+            this.descending = descending;
+            return this;
+        }
+        
+        // Skip this many results
+        public Builder offset(int offset) {
+            if (offset < 0) {
+                throw new IllegalArgumentException("Offset must not be negative: " + offset);
+            }
+            this.offset = offset;
+            return this;
+        }
+        
+        // At most this many results
+        public Builder limit(int limit) {
+            if (limit < 0) {
+                throw new IllegalArgumentException("Limit must not be negative: " + limit);
+            }
+            this.limit = limit;
+            return this;
+        }
+        
+        // Archived tasks too, read in from the archive the first time. They
+        // are all completed and have no indexes, so this adds a scan of them.
+        public Builder withArchived() {
+            archived = true;
+            return this;
+        }
+        
+        public TaskQuery build() {
+            if (sort == Sort.RELEVANCE && SearchIndex.tokenize(text).isEmpty()) {
+                throw new IllegalArgumentException("Ordering by relevance needs text to search for");
+            }
+            return new TaskQuery(this);
+        }
+    }
+}
@@ -0,0 +1,614 @@
+// TaskServer.java
+package main;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+// Headless JSON API over the task lists on the JDK's built-in HTTP server,
+// one virtual thread per request. Routes, with {list} a list name; /api/tasks
+// and /api/batch are short for the default list's:
+//   GET    /api/lists                     names of the lists
+//   GET    /api/lists/{list}/tasks        tasks, filtered by the query parameters
+//                                         status, priority, q, limit and
+//                                         created/completed From/To
+//   POST   /api/lists/{list}/tasks        add {"title", "description", "priority"}
+//   GET    /api/lists/{list}/tasks/{id}
+//   PUT    /api/lists/{list}/tasks/{id}   change any of title, description,
+//                                         priority and completed
+//   DELETE /api/lists/{list}/tasks/{id}
+//   POST   /api/lists/{list}/batch        array of operations applied as one batch
+//   GET    /api/lists/{list}/changes      changes after the cursor in after,
+//                                         at most limit of them
+// Task GETs carry an ETag built from the list's version; a request whose
+// If-None-Match still matches gets 304 Not Modified and no body. The ETag is
+// also a cursor into the change feed: a client that keeps a copy of the tasks
+// can poll the changes after it, and only fetches the tasks again on 410
+// Gone, when it fell too far behind or the server was restarted.
+public class TaskServer {
+    private static final String PREFIX = "/api/";
+    private static final int MAX_BODY_BYTES = 1 << 20;
+    private static final int DEFAULT_SEARCH_LIMIT = 1000;
+    private static final int DEFAULT_CHANGE_LIMIT = 1000;
+    private static final int MAX_CACHED_BODIES = 64;
+    
+    private final TaskLists lists;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    // Versions start over with each run; this keeps old ETags from matching
+    private final String instance = Long.toHexString(System.currentTimeMillis());
+    // Task lists as last rendered, by list and query string. Between two
+    // changes, clients asking the same question share one rendering.
+    private final Map<String, RenderedTasks> rendered = new ConcurrentHashMap<>();
+    
+    private static final class RenderedTasks {
+        final long version;
+        final byte[] json;
+        
+        RenderedTasks(long version, byte[] json) {
+            this.version = version;
+            this.json = json;
+        }
+    }
+    
+    // An error reported to the client with its status code
+    private static class ApiException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        
+        final int status;
+        
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+    
+    public TaskServer(TaskLists lists, InetSocketAddress address) throws IOException {
+        // Without TCP_NODELAY a small response waits on the client's delayed
+        // ACK, about 40 ms a request. The JDK reads this once, when the first
+        // server is made, so it has to be set before that.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.lists = lists;
+        this.server = HttpServer.create(address, 0);
+        this.executor = requestExecutor();
+        server.setExecutor(executor);
+        server.createContext(PREFIX, this::handle);
+    }
+    
+    public void start() {
+        server.start();
+    }
+    
+    // Stop accepting requests, giving those in flight up to delaySeconds
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+    
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+    
+    // One virtual thread per request on Java 21 and later. The build still
+    // targets 17, so the factory is looked up when the server starts, and an
+    // older runtime gets a cached pool of platform threads instead.
+    private static ExecutorService requestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "http-request");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = Metrics.start();
+        try {
+            route(exchange);
+        } catch (ApiException e) {
+            sendError(exchange, e.status, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("Error handling " + exchange.getRequestURI() + ": " + e);
+            sendError(exchange, 500, "Internal error");
+        } finally {
+            exchange.close();
+            Metrics.HTTP_REQUEST.recordSince(start);
+        }
+    }
+    
+    private void route(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath().substring(PREFIX.length());
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        String[] parts = path.split("/", -1);
+        String method = exchange.getRequestMethod();
+        
+        String list = TaskLists.DEFAULT_LIST;
+        int rest = 0;
+        if (parts[0].equals("lists")) {
+            if (parts.length == 1) {
+                requireMethod(method, "GET");
+                sendListNames(exchange);
+                return;
+            }
+            list = parts[1];
+            rest = 2;
+        }
+        if (!lists.contains(list)) {
+            throw new ApiException(404, "No task list named " + list);
+        }
+        int remaining = parts.length - rest;
+        if (remaining == 1 && parts[rest].equals("tasks")) {
+            if (method.equals("GET")) {
+                getTasks(exchange, list, lists.get(list));
+            } else {
+                requireMethod(method, "POST");
+                addTask(exchange, lists.get(list));
+            }
+        } else if (remaining == 2 && parts[rest].equals("tasks")) {
+            int id = parseId(parts[rest + 1]);
+            TodoManager manager = lists.get(list);
+            switch (method) {
+                case "GET": getTask(exchange, manager, id); break;
+                case "PUT": updateTask(exchange, manager, id); break;
+                case "DELETE": removeTask(exchange, manager, id); break;
+                default: throw new ApiException(405, "Method " + method + " not allowed");
+            }
+        } else if (remaining == 1 && parts[rest].equals("changes")) {
+            requireMethod(method, "GET");
+            getChanges(exchange, lists.get(list));
+        } else if (remaining == 1 && parts[rest].equals("batch")) {
+            requireMethod(method, "POST");
+            batch(exchange, lists.get(list));
+        } else {
+            throw new ApiException(404, "Not found");
+        }
+    }
+    
+    private void sendListNames(HttpExchange exchange) throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        List<String> names = lists.names();
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            Json.appendString(json, names.get(i));
+        }
+        send(exchange, 200, json.append(']').toString());
+    }
+    
+    private void getTasks(HttpExchange exchange, String list, TodoManager manager) throws IOException {
+        // Read before the tasks, so a change made meanwhile can only make the
+        // ETag older than the body, never newer
+        long version = manager.getVersion();
+        String etag = etag(version);
+        if (notModified(exchange, etag)) {
+            return;
+        }
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        String key = list.toLowerCase(Locale.ROOT) + "?" + (rawQuery != null ? rawQuery : "");
+        RenderedTasks cached = rendered.get(key);
+        if (cached == null || cached.version != version) {
+            List<Task> tasks = query(manager, parseQuery(rawQuery));
+            StringBuilder json = new StringBuilder(tasks.size() * 160 + 2);
+            Json.appendTasks(json, tasks);
+            cached = new RenderedTasks(version, json.toString().getBytes(StandardCharsets.UTF_8));
+            if (rendered.size() >= MAX_CACHED_BODIES) {
+                rendered.clear();
+            }
+            rendered.put(key, cached);
+        }
+        exchange.getResponseHeaders().set("ETag", etag);
+        send(exchange, 200, cached.json);
+    }
+    
+    // The parameters as one TaskQuery, so the manager picks the index to
+    // start from; a search is ranked unless sort says otherwise
+    private static List<Task> query(TodoManager manager, Map<String, String> query) {
+        TaskQuery.Builder builder = TaskQuery.builder();
+        String status = query.getOrDefault("status", "all");
+        if (status.equals("pending")) {
+            builder.pending();
+        } else if (status.equals("completed")) {
+            builder.completed();
+        } else if (!status.equals("all")) {
+            throw new IllegalArgumentException("status must be all, pending or completed");
+        }
+        if (query.containsKey("priority")) {
+            Task.Priority priority = Task.Priority.parse(query.get("priority"));
+            if (priority == null) {
+                throw new IllegalArgumentException("Unknown priority " + query.get("priority"));
+            }
+            builder.priority(priority);
+        }
+        LocalDateTime createdFrom = parseTime(query.get("createdFrom"));
+        LocalDateTime createdTo = parseTime(query.get("createdTo"));
+        if (createdFrom != null || createdTo != null) {
+            builder.createdBetween(createdFrom, createdTo);
+        }
+        LocalDateTime completedFrom = parseTime(query.get("completedFrom"));
+        LocalDateTime completedTo = parseTime(query.get("completedTo"));
+        if (completedFrom != null || completedTo != null) {
+            builder.completedBetween(completedFrom, completedTo);
+        }
+        String text = query.getOrDefault("q", "");
+        builder.text(text);
+        boolean searching = !SearchIndex.tokenize(text).isEmpty();
+        
+        String sort = query.get("sort");
+        if (sort != null) {
+            // A leading - sorts descending
+            boolean descending = sort.startsWith("-");
+            builder.orderBy(parseSort(descending ? sort.substring(1) : sort), descending);
+        } else if (searching) {
+            builder.orderBy(TaskQuery.Sort.RELEVANCE);
+        }
+        if (query.containsKey("offset")) {
+            builder.offset(parseCount("offset", query.get("offset")));
+        }
+        int limit = query.containsKey("limit") ? parseCount("limit", query.get("limit")) : Integer.MAX_VALUE;
+        builder.limit(searching ? Math.min(limit, DEFAULT_SEARCH_LIMIT) : limit);
+        return manager.query(builder.build());
+    }
+    
+    private static TaskQuery.Sort parseSort(String text) {
+        for (TaskQuery.Sort sort : TaskQuery.Sort.values()) {
+            if (sort.name().equalsIgnoreCase(text)) {
+                return sort;
+            }
+        }
+        throw new IllegalArgumentException("Unknown sort " + text);
+    }
+    
+    private void addTask(HttpExchange exchange, TodoManager manager) throws IOException {
+        Map<String, Object> body = readObject(exchange);
+        String title = requiredTitle(body);
+        Task task = manager.addTask(title, optionalString(body, "description", ""), optionalPriority(body));
+        exchange.getResponseHeaders().set("Location", exchange.getRequestURI().getPath().replaceAll("/$", "")
+                + "/" + task.getId());
+        sendTask(exchange, 201, task);
+    }
+    
+    private void getTask(HttpExchange exchange, TodoManager manager, int id) throws IOException {
+        String etag = etag(manager.getVersion());
+        if (notModified(exchange, etag)) {
+            return;
+        }
+        Task task = existing(manager, id);
+        exchange.getResponseHeaders().set("ETag", etag);
+        sendTask(exchange, 200, task);
+    }
+    
+    // Fields left out keep their values, read under the same write lock the
+    // changes apply under, so a concurrent PUT to other fields is not undone
+    private void updateTask(HttpExchange exchange, TodoManager manager, int id) throws IOException {
+        Map<String, Object> body = readObject(exchange);
+        String title = body.containsKey("title") ? requiredTitle(body) : null;
+        String description = optionalString(body, "description", null);
+        Task.Priority priority = body.containsKey("priority") ? optionalPriority(body) : null;
+        Boolean completed = optionalBoolean(body, "completed");
+        existing(manager, id);
+        manager.batch(batch -> {
+            batch.edit(id, title, description, priority);
+            if (completed != null) {
+                batch.setCompleted(id, completed);
+            }
+        });
+        sendTask(exchange, 200, existing(manager, id));
+    }
+    
+    private void removeTask(HttpExchange exchange, TodoManager manager, int id) throws IOException {
+        existing(manager, id);
+        manager.removeTask(id);
+        exchange.sendResponseHeaders(204, -1);
+    }
+    
+    // [{"op": "add", "title", "description", "priority"},
+    //  {"op": "update", "id", "title", "description", "priority"},
+    //  {"op": "complete", "id", "completed"}, {"op": "remove", "id"}]
+    // An update replaces all three fields; ids that do not exist are skipped.
+    // Every operation is checked before any is applied, and then all of them
+    // share one write lock, one journal write and one round of listener calls.
+    private void batch(HttpExchange exchange, TodoManager manager) throws IOException {
+        Object parsed = Json.parse(readBody(exchange));
+        if (!(parsed instanceof List)) {
+            throw new IllegalArgumentException("Expected an array of operations");
+        }
+        List<Consumer<TodoManager.Batch>> operations = new ArrayList<>();
+        for (Object item : (List<?>) parsed) {
+            if (!(item instanceof Map)) {
+                throw new IllegalArgumentException("Expected an operation object");
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> operation = (Map<String, Object>) item;
+            String op = optionalString(operation, "op", "");
+            switch (op) {
+                case "add": {
+                    String title = requiredTitle(operation);
+                    String description = optionalString(operation, "description", "");
+                    Task.Priority priority = optionalPriority(operation);
+                    operations.add(batch -> batch.add(title, description, priority));
+                    break;
+                }
+                case "update": {
+                    int id = requiredId(operation);
+                    String title = requiredTitle(operation);
+                    String description = optionalString(operation, "description", "");
+                    Task.Priority priority = optionalPriority(operation);
+                    operations.add(batch -> batch.update(id, title, description, priority));
+                    break;
+                }
+                case "complete": {
+                    int id = requiredId(operation);
+                    Boolean completed = optionalBoolean(operation, "completed");
+                    boolean value = completed == null || completed;
+                    operations.add(batch -> batch.setCompleted(id, value));
+                    break;
+                }
+                case "remove": {
+                    int id = requiredId(operation);
+                    operations.add(batch -> batch.remove(id));
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown operation \"" + op + "\"");
+            }
+        }
+        manager.batch(batch -> {
+            for (Consumer<TodoManager.Batch> operation : operations) {
+                operation.accept(batch);
+            }
+        });
+        send(exchange, 200, "{\"operations\":" + operations.size() + ",\"version\":" + manager.getVersion() + "}");
+    }
+    
+    // {"cursor": after for the next poll, "changes": [...]}
+    private void getChanges(HttpExchange exchange, TodoManager manager) throws IOException {
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        long after = parseCursor(query.get("after"));
+        int limit = query.containsKey("limit") ? parseCount("limit", query.get("limit")) : DEFAULT_CHANGE_LIMIT;
+        List<TaskChange> changes = manager.getChangesSince(after, Math.min(limit, ChangeFeed.CAPACITY));
+        if (changes == null) {
+            throw new ApiException(410, "Those changes are no longer kept; fetch the tasks again");
+        }
+        long last = changes.isEmpty() ? after : changes.get(changes.size() - 1).getSequence();
+        StringBuilder json = new StringBuilder(changes.size() * 220 + 48);
+        json.append("{\"cursor\":");
+        Json.appendString(json, cursor(last));
+        json.append(",\"changes\":[");
+        for (int i = 0; i < changes.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            Json.appendChange(json, changes.get(i));
+        }
+        send(exchange, 200, json.append("]}").toString());
+    }
+    
+    private String etag(long version) {
+        return "\"" + cursor(version) + "\"";
+    }
+    
+    private String cursor(long version) {
+        return instance + "-" + version;
+    }
+    
+    // The sequence number in a cursor or ETag this server handed out
+    private long parseCursor(String text) {
+        if (text == null || text.isEmpty()) {
+            throw new IllegalArgumentException("after is required");
+        }
+        String cursor = text.startsWith("\"") && text.endsWith("\"") && text.length() > 1
+                ? text.substring(1, text.length() - 1) : text;
+        int dash = cursor.lastIndexOf('-');
+        if (dash < 0) {
+            throw new IllegalArgumentException("Bad cursor " + text);
+        }
+        if (!cursor.substring(0, dash).equals(instance)) {
+            throw new ApiException(410, "The cursor is from an earlier run; fetch the tasks again");
+        }
+        try {
+            return Long.parseLong(cursor.substring(dash + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad cursor " + text);
+        }
+    }
+    
+    private static boolean notModified(HttpExchange exchange, String etag) throws IOException {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag) || tag.equals("*")) {
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.sendResponseHeaders(304, -1);
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Archived tasks count; changing one brings it back to the working set
+    private static Task existing(TodoManager manager, int id) {
+        Task task = manager.findTask(id);
+        if (task == null) {
+            throw new ApiException(404, "No task with id " + id);
+        }
+        return task;
+    }
+    
+    private static void requireMethod(String method, String allowed) {
+        if (!method.equals(allowed)) {
+            throw new ApiException(405, "Method " + method + " not allowed");
+        }
+    }
+    
+    private static int parseId(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new ApiException(404, "No task with id " + text);
+        }
+    }
+    
+    private static int parseCount(String name, String text) {
+        try {
+            int count = Integer.parseInt(text);
+            if (count >= 0) {
+                return count;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException(name + " must be a non-negative number");
+    }
+    
+    // An ISO date-time, or a date meaning its first moment; null if absent
+    private static LocalDateTime parseTime(String text) {
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+        try {
+            return text.length() == 10 ? LocalDate.parse(text).atStartOfDay() : LocalDateTime.parse(text);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Bad date-time " + text);
+        }
+    }
+    
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals >= 0 ? pair.substring(0, equals) : pair;
+            String value = equals >= 0 ? pair.substring(equals + 1) : "";
+            query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+    
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                throw new ApiException(413, "Request body is larger than " + MAX_BODY_BYTES + " bytes");
+            }
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readObject(HttpExchange exchange) throws IOException {
+        Object parsed = Json.parse(readBody(exchange));
+        if (!(parsed instanceof Map)) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        return (Map<String, Object>) parsed;
+    }
+    
+    private static String requiredTitle(Map<String, Object> body) {
+        String title = optionalString(body, "title", "").trim();
+        if (title.isEmpty()) {
+            throw new IllegalArgumentException("title is required");
+        }
+        return title;
+    }
+    
+    private static int requiredId(Map<String, Object> body) {
+        Object id = body.get("id");
+        if (!(id instanceof Long) || (Long) id != ((Long) id).intValue()) {
+            throw new IllegalArgumentException("id must be a whole number");
+        }
+        return ((Long) id).intValue();
+    }
+    
+    private static String optionalString(Map<String, Object> body, String field, String fallback) {
+        Object value = body.get(field);
+        if (value == null) {
+            return fallback;
+        }
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException(field + " must be a string");
+        }
+        return (String) value;
+    }
+    
+    private static Boolean optionalBoolean(Map<String, Object> body, String field) {
+        Object value = body.get(field);
+        if (value != null && !(value instanceof Boolean)) {
+            throw new IllegalArgumentException(field + " must be true or false");
+        }
+        return (Boolean) value;
+    }
+    
+    // MEDIUM when absent, as in the form
+    private static Task.Priority optionalPriority(Map<String, Object> body) {
+        String text = optionalString(body, "priority", null);
+        if (text == null) {
+            return Task.Priority.MEDIUM;
+        }
+        Task.Priority priority = Task.Priority.parse(text);
+        if (priority == null) {
+            throw new IllegalArgumentException("Unknown priority " + text);
+        }
+        return priority;
+    }
+    
+    private static void sendTask(HttpExchange exchange, int status, Task task) throws IOException {
+        StringBuilder json = new StringBuilder(192);
+        Json.appendTask(json, task);
+        send(exchange, status, json.toString());
+    }
+    
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        Json.appendString(json, message);
+        send(exchange, status, json.append('}').toString());
+    }
+    
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        send(exchange, status, json.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,554 @@
+// TaskSortedList.java
+package main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableListBase;
+
+// The tasks of a list in the order of one table column, for the table to show
+// in place of a SortedList. SortedList sorts every row again each time the
+// column changes, on the FX thread, going through the cell value factories
+// twice per comparison. Here a column's order is sorted once, with
+// Arrays.parallelSort on a background thread, and then kept: the order shown
+// follows each change as it comes, the others collect the changes and catch
+// up in one pass when shown again. Switching between kept orders, or flipping
+// one, is a single permutation, so the selection stays with its rows. Any
+// other order, such as several columns at once, is sorted the same way but
+// only the latest is kept. Must be used on the thread that changes the source.
+public final class TaskSortedList extends ObservableListBase<Task> {
+    // The columns whose orders are kept, each ending in id order for ties
+    public enum Column {
+        ID(Comparator.comparingInt(Task::getId)),
+        TITLE(Comparator.comparing(Task::getTitle, Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER))),
+        // High first
+        PRIORITY(Comparator.comparing(Task::getPriority, Comparator.nullsLast(Comparator.naturalOrder()))),
+        // Pending first
+        STATUS(Comparator.comparing(Task::isCompleted)),
+        CREATED(Comparator.comparingLong(Task::getCreatedAtNanos));
+        
+        // The column's own comparison, to chain with others
+        final Comparator<Task> key;
+        
+        Column(Comparator<Task> key) {
+            this.key = key;
+        }
+        
+        Comparator<Task> order() {
+            return this == ID ? key : key.thenComparingInt(Task::getId);
+        }
+    }
+    
+    // Lists this small are sorted on the spot rather than handed to a
+    // background thread; parallelSort sorts them on one thread anyway
+    private static final int SORT_IN_PLACE_MAX = 1 << 13;
+    // Batches touching at most this many tasks are applied one task at a time
+    private static final int FEW_CHANGES = 16;
+    // Sorts of one snapshot before an order that keeps failing is given up on
+    private static final int SORT_ATTEMPTS = 3;
+    
+    private final ObservableList<Task> source;
+    // Runs on the thread that changes the source, e.g. Platform::runLater
+    private final Executor owner;
+    private final Map<Column, Order> orders = new EnumMap<>(Column.class);
+    private Order adHoc;
+    private Order shown;
+    private boolean descending;
+    // The order asked for last, which may still be sorting
+    private Order requested;
+    private boolean requestedDescending;
+    
+    // One order of every task, or null tasks until it is sorted
+    private static final class Order {
+        final Comparator<Task> comparator;
+        List<Task> tasks;
+        // Changes since tasks was last brought up to date
+        Batch pending = new Batch();
+        // Tasks sorted, or being sorted
+        int size;
+        boolean sorting;
+        // Bumped to drop a sort under way
+        int generation;
+        CompletableFuture<Void> sorted = new CompletableFuture<>();
+        
+        Order(Comparator<Task> comparator) {
+            this.comparator = comparator;
+        }
+    }
+    
+    // A run of changes to the source: tasks taken out by id, then tasks put
+    // in. A changed task is both, so it is re-placed.
+    private static final class Batch {
+        final IntIntMap removed = new IntIntMap();
+        final Map<Integer, Task> inserted = new LinkedHashMap<>();
+        // The tasks taken out themselves, while there are only a few
+        List<Task> taken = new ArrayList<>();
+        
+        void remove(Task task) {
+            take(task);
+            inserted.remove(task.getId());
+        }
+        
+        void update(Task task) {
+            take(task);
+            inserted.put(task.getId(), task);
+        }
+        
+        // A task new to the source
+        void insert(Task task) {
+            inserted.put(task.getId(), task);
+        }
+        
+        private void take(Task task) {
+            removed.put(task.getId(), 1);
+            if (taken != null && !containsSame(taken, task)) {
+                if (taken.size() < FEW_CHANGES) {
+                    taken.add(task);
+                } else {
+                    taken = null;
+                }
+            }
+        }
+        
+        // later happened after this
+        void addAll(Batch later) {
+            later.removed.forEach((id, ignored) -> {
+                removed.put(id, 1);
+                inserted.remove(id);
+            });
+            inserted.putAll(later.inserted);
+            if (later.taken == null) {
+                taken = null;
+            }
+            for (int i = 0; taken != null && i < later.taken.size(); i++) {
+                take(later.taken.get(i));
+            }
+        }
+        
+        int size() {
+            return removed.size() + inserted.size();
+        }
+        
+        boolean isEmpty() {
+            return removed.isEmpty() && inserted.isEmpty();
+        }
+    }
+    
+    // Shown in id order to begin with
+    public TaskSortedList(ObservableList<Task> source, Executor owner) {
+        this.source = source;
+        this.owner = owner;
+        Order byId = new Order(Column.ID.order());
+        install(byId, sort(source.toArray(new Task[0]), byId.comparator));
+        orders.put(Column.ID, byId);
+        shown = byId;
+        requested = byId;
+        source.addListener(this::sourceChanged);
+    }
+    
+    // Show the tasks in a column's order, sorting them the first time. The
+    // future completes once they are sorted; they are shown then unless
+    // another order was asked for meanwhile.
+    public CompletableFuture<Void> sortBy(Column column, boolean descending) {
+        Order order = orders.get(column);
+        if (order == null) {
+            order = new Order(column.order());
+            orders.put(column, order);
+        }
+        return show(order, descending);
+    }
+    
+    // Show the tasks in any other order, ties in id order; it is sorted
+    // afresh every time
+    public CompletableFuture<Void> sortBy(Comparator<Task> comparator) {
+        adHoc = new Order(comparator.thenComparingInt(Task::getId));
+        return show(adHoc, false);
+    }
+    
+    private CompletableFuture<Void> show(Order order, boolean descending) {
+        requested = order;
+        requestedDescending = descending;
+        if (order.tasks != null) {
+            display(order, descending);
+            return CompletableFuture.completedFuture(null);
+        }
+        if (!order.sorting) {
+            startSort(order);
+        }
+        return order.sorted;
+    }
+    
+    // Sorted here if small, otherwise off this thread; changes made meanwhile
+    // are caught up once it is done
+    private void startSort(Order order) {
+        Task[] snapshot = source.toArray(new Task[0]);
+        int generation = ++order.generation;
+        order.pending = new Batch();
+        order.size = snapshot.length;
+        order.sorting = true;
+        if (order.sorted.isDone()) {
+            order.sorted = new CompletableFuture<>();
+        }
+        if (snapshot.length <= SORT_IN_PLACE_MAX) {
+            List<Task> tasks;
+            try {
+                tasks = sort(snapshot, order.comparator);
+            } catch (RuntimeException e) {
+                failed(order, generation, e);
+                return;
+            }
+            sorted(order, generation, tasks);
+            return;
+        }
+        CompletableFuture.supplyAsync(() -> sort(snapshot, order.comparator))
+                .whenCompleteAsync((tasks, e) -> {
+                    if (e != null) {
+                        failed(order, generation, e instanceof CompletionException ? e.getCause() : e);
+                    } else {
+                        sorted(order, generation, tasks);
+                    }
+                }, owner);
+    }
+    
+    private void sorted(Order order, int generation, List<Task> tasks) {
+        if (order.generation != generation) {
+            return;
+        }
+        order.sorting = false;
+        install(order, tasks);
+        if (requested == order) {
+            display(order, requestedDescending);
+        }
+        order.sorted.complete(null);
+    }
+    
+    // The comparator threw, or broke its contract on every attempt. The order
+    // shown stays; any other is dropped, so asking for it again sorts afresh.
+    private void failed(Order order, int generation, Throwable e) {
+        if (order.generation != generation) {
+            return;
+        }
+        order.sorting = false;
+        if (order != shown) {
+            order.tasks = null;
+            order.pending = new Batch();
+        }
+        System.err.println("Error sorting tasks: " + e.getMessage());
+        order.sorted.completeExceptionally(e);
+    }
+    
+    private static List<Task> sort(Task[] tasks, Comparator<Task> comparator) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Arrays.parallelSort(tasks, comparator);
+                return Arrays.asList(tasks);
+            } catch (IllegalArgumentException e) {
+                // A task that changed while it was being sorted makes the
+                // order look inconsistent, and its update follows; sort again.
+                // A comparator that fails every time is itself inconsistent.
+                if (attempt == SORT_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+    
+    private void install(Order order, List<Task> tasks) {
+        order.tasks = new ArrayList<>(tasks);
+        order.size = tasks.size();
+        catchUp(order, false);
+    }
+    
+    // Switch the list to a sorted order, announced as a permutation
+    private void display(Order order, boolean descending) {
+        catchUp(order, false);
+        if (order == shown && descending == this.descending) {
+            return;
+        }
+        int size = order.tasks.size();
+        IntIntMap positions = new IntIntMap(size);
+        for (int i = 0; i < size; i++) {
+            positions.put(order.tasks.get(descending ? size - 1 - i : i).getId(), i);
+        }
+        int[] permutation = new int[size];
+        for (int i = 0; i < size; i++) {
+            permutation[i] = positions.get(get(i).getId());
+        }
+        shown = order;
+        this.descending = descending;
+        if (size > 0) {
+            beginChange();
+            nextPermutation(0, size, permutation);
+            endChange();
+        }
+    }
+    
+    private void sourceChanged(ListChangeListener.Change<? extends Task> change) {
+        Batch batch = new Batch();
+        while (change.next()) {
+            if (change.wasPermutated()) {
+                // The same tasks; no order here depends on the source's
+                continue;
+            }
+            if (change.wasUpdated()) {
+                for (int i = change.getFrom(); i < change.getTo(); i++) {
+                    batch.update(source.get(i));
+                }
+                continue;
+            }
+            for (Task task : change.getRemoved()) {
+                batch.remove(task);
+            }
+            for (Task task : change.getAddedSubList()) {
+                batch.insert(task);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        
+        // The order shown may be an ad hoc one already replaced by another
+        List<Order> all = new ArrayList<>(orders.values());
+        if (adHoc != null) {
+            all.add(adHoc);
+        }
+        if (!all.contains(shown)) {
+            all.add(shown);
+        }
+        for (Order order : all) {
+            if (order.tasks == null && !order.sorting) {
+                continue;
+            }
+            order.pending.addAll(batch);
+            if (order == shown) {
+                catchUp(order, true);
+            } else if (order.pending.size() > Math.max(TaskObservableList.MAX_CHANGE_RANGES, order.size)) {
+                // Cheaper to sort again than to merge this many, and only
+                // worth doing if it is still wanted
+                if (order == requested) {
+                    startSort(order);
+                } else {
+                    order.generation++;
+                    order.sorting = false;
+                    order.tasks = null;
+                    order.pending = new Batch();
+                    order.sorted.complete(null);
+                }
+            }
+        }
+    }
+    
+    // Apply the pending changes. If fire, the order is the one shown and
+    // listeners hear what moved.
+    private void catchUp(Order order, boolean fire) {
+        Batch batch = order.pending;
+        if (batch.isEmpty()) {
+            return;
+        }
+        order.pending = new Batch();
+        if (batch.taken != null && batch.inserted.size() <= FEW_CHANGES) {
+            applyInPlace(order, batch, fire);
+        } else {
+            merge(order, batch, fire);
+        }
+        order.size = order.tasks.size();
+    }
+    
+    // A few changes, made one task at a time. A task that changed in place
+    // no longer sorts where it sits, so it may have to be found by identity.
+    private void applyInPlace(Order order, Batch batch, boolean fire) {
+        List<Task> tasks = order.tasks;
+        Comparator<Task> comparator = order.comparator;
+        if (batch.taken.size() == 1 && batch.inserted.size() == 1) {
+            // One task changed; if it still sorts where it is, it stays
+            // there and keeps its row's selection
+            Task task = batch.taken.get(0);
+            int at = indexOf(tasks, task, comparator);
+            if (at >= 0 && batch.inserted.get(task.getId()) == task && sortsAt(tasks, at, comparator)) {
+                if (fire) {
+                    beginChange();
+                    nextUpdate(shownIndex(at, tasks.size()));
+                    endChange();
+                }
+                return;
+            }
+        }
+        if (fire) {
+            beginChange();
+        }
+        try {
+            for (Task task : batch.taken) {
+                int at = indexOf(tasks, task, comparator);
+                if (at >= 0) {
+                    int index = shownIndex(at, tasks.size());
+                    tasks.remove(at);
+                    if (fire) {
+                        nextRemove(index, task);
+                    }
+                }
+            }
+            for (Task task : batch.inserted.values()) {
+                int at = Collections.binarySearch(tasks, task, comparator);
+                at = at < 0 ? -at - 1 : at;
+                tasks.add(at, task);
+                if (fire) {
+                    int index = shownIndex(at, tasks.size());
+                    nextAdd(index, index + 1);
+                }
+            }
+        } finally {
+            if (fire) {
+                endChange();
+            }
+        }
+    }
+    
+    private static int indexOf(List<Task> tasks, Task task, Comparator<Task> comparator) {
+        int at = Collections.binarySearch(tasks, task, comparator);
+        if (at >= 0 && tasks.get(at) == task) {
+            return at;
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            if (tasks.get(i) == task) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private static boolean sortsAt(List<Task> tasks, int at, Comparator<Task> comparator) {
+        Task task = tasks.get(at);
+        return (at == 0 || comparator.compare(tasks.get(at - 1), task) < 0)
+                && (at == tasks.size() - 1 || comparator.compare(task, tasks.get(at + 1)) < 0);
+    }
+    
+    private static boolean containsSame(List<Task> tasks, Task task) {
+        for (Task other : tasks) {
+            if (other == task) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Many changes, applied in one pass: the tasks kept stay in order, and the
+    // ones put back in are sorted and merged in
+    private void merge(Order order, Batch batch, boolean fire) {
+        Task[] inserted = batch.inserted.values().toArray(new Task[0]);
+        Arrays.parallelSort(inserted, order.comparator);
+        List<Task> previous = order.tasks;
+        List<Task> kept = new ArrayList<>(previous.size());
+        List<Integer> removedAt = new ArrayList<>();
+        for (int i = 0; i < previous.size(); i++) {
+            Task task = previous.get(i);
+            if (batch.removed.containsKey(task.getId())) {
+                removedAt.add(i);
+            } else {
+                kept.add(task);
+            }
+        }
+        // Found by binary search; comparing every kept task on the way would
+        // cost more than the copying
+        List<Task> merged = new ArrayList<>(kept.size() + inserted.length);
+        List<Integer> addedAt = new ArrayList<>(inserted.length);
+        int from = 0;
+        for (Task task : inserted) {
+            int at = Collections.binarySearch(kept, task, order.comparator);
+            at = at < 0 ? -at - 1 : at;
+            merged.addAll(kept.subList(from, at));
+            addedAt.add(merged.size());
+            merged.add(task);
+            from = at;
+        }
+        merged.addAll(kept.subList(from, kept.size()));
+        order.tasks = merged;
+        if (fire) {
+            fireMoved(previous, merged, removedAt, addedAt);
+        }
+    }
+    
+    // Positions are in previous and merged, in id order; the list may show
+    // them the other way round
+    private void fireMoved(List<Task> previous, List<Task> merged, List<Integer> removedAt, List<Integer> addedAt) {
+        if (removedAt.equals(addedAt) && previous.size() == merged.size() && sameTasks(previous, merged, addedAt)) {
+            // Changed in place without moving, which keeps the rows selected
+            beginChange();
+            for (int position : addedAt) {
+                nextUpdate(shownIndex(position, merged.size()));
+            }
+            endChange();
+            return;
+        }
+        List<Integer> removed = shownIndexes(removedAt, previous.size());
+        List<Integer> added = shownIndexes(addedAt, merged.size());
+        beginChange();
+        try {
+            if (TaskObservableList.scattered(removed) || TaskObservableList.scattered(added)) {
+                List<Task> before = new ArrayList<>(previous);
+                if (descending) {
+                    Collections.reverse(before);
+                }
+                nextRemove(0, before);
+                nextAdd(0, merged.size());
+                return;
+            }
+            // Each removal shifts the rest down by one; additions land in
+            // ascending order, so each one's final index is already right
+            for (int k = 0; k < removed.size(); k++) {
+                int index = removed.get(k);
+                nextRemove(index - k, previous.get(shownIndex(index, previous.size())));
+            }
+            for (int index : added) {
+                nextAdd(index, index + 1);
+            }
+        } finally {
+            endChange();
+        }
+    }
+    
+    private static boolean sameTasks(List<Task> previous, List<Task> merged, List<Integer> positions) {
+        for (int position : positions) {
+            if (previous.get(position) != merged.get(position)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private List<Integer> shownIndexes(List<Integer> positions, int size) {
+        List<Integer> indexes = new ArrayList<>(positions.size());
+        for (int position : positions) {
+            indexes.add(shownIndex(position, size));
+        }
+        if (descending) {
+            Collections.reverse(indexes);
+        }
+        return indexes;
+    }
+    
+    // Position in the order to index in the list, and back
+    private int shownIndex(int position, int size) {
+        return descending ? size - 1 - position : position;
+    }
+    
+    @Override
+    public Task get(int index) {
+        List<Task> tasks = shown.tasks;
+        return tasks.get(shownIndex(index, tasks.size()));
+    }
+    
+    @Override
+    public int size() {
+        return shown.tasks.size();
+    }
+}
@@ -0,0 +1,304 @@
+// TaskStore.java
+package main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+// Struct-of-arrays TaskTable: one primitive array per field, indexed by row,
+// with titles and descriptions held in a StringPool. There is no object per
+// task, so a large list takes a fraction of the heap IndexedTaskMap needs, and
+// the completion and priority queries are one pass over a byte array.
+// Tasks handed out are built on demand and are copies. Rows keep insertion
+// order; a removed row is marked and squeezed out once such rows make up half
+// of the table.
+class TaskStore implements TaskTable {
+    private static final int COMPLETED = 1;
+    private static final int REMOVED = 2;
+    private static final int PRIORITY_SHIFT = 2;
+    private static final Task.Priority[] PRIORITIES = Task.Priority.values();
+    private static final int MIN_CAPACITY = 16;
+    
+    private int[] ids;
+    private byte[] flags;           // COMPLETED | REMOVED | priority ordinal << PRIORITY_SHIFT
+    private long[] createdAt;
+    private long[] completedAt;
+    private int[] titles;           // StringPool codes
+    private int[] descriptions;
+    private int end;                // rows in use, removed ones included
+    private int size;
+    private int completedCount;
+    private final int[] priorityCounts = new int[PRIORITIES.length];
+    // Task id to row + 1
+    private IntIntMap rows;
+    private final StringPool strings = new StringPool();
+    
+    TaskStore(int expectedSize) {
+        allocate(Math.max(MIN_CAPACITY, expectedSize));
+        rows = new IntIntMap(expectedSize);
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    public int completedCount() {
+        return completedCount;
+    }
+    
+    @Override
+    public int count(Task.Priority priority) {
+        return priorityCounts[priority.ordinal()];
+    }
+    
+    @Override
+    public Task get(int id) {
+        int row = rows.get(id) - 1;
+        return row >= 0 ? task(row) : null;
+    }
+    
+    @Override
+    public List<Task> all() {
+        return select(REMOVED, 0, size);
+    }
+    
+    @Override
+    public List<Task> completed() {
+        return select(REMOVED | COMPLETED, COMPLETED, completedCount);
+    }
+    
+    @Override
+    public List<Task> pending() {
+        return select(REMOVED | COMPLETED, 0, size - completedCount);
+    }
+    
+    @Override
+    public List<Task> byPriority(Task.Priority priority) {
+        int mask = REMOVED | (3 << PRIORITY_SHIFT);
+        return select(mask, priority.ordinal() << PRIORITY_SHIFT, priorityCounts[priority.ordinal()]);
+    }
+    
+    // Tasks of the rows whose flags, masked, equal value
+    private List<Task> select(int mask, int value, int expected) {
+        byte[] flags = this.flags;
+        int end = Math.min(this.end, flags.length);
+        List<Task> result = new ArrayList<>(Math.max(0, expected));
+        for (int row = 0; row < end; row++) {
+            if ((flags[row] & mask) == value) {
+                result.add(task(row));
+            }
+        }
+        return result;
+    }
+    
+    // Tests the flag bytes first, so only matching rows become Task objects
+    @Override
+    public void scan(Boolean completed, Task.Priority priority, Predicate<Task> visitor) {
+        int mask = REMOVED;
+        int value = 0;
+        if (completed != null) {
+            mask |= COMPLETED;
+            value |= completed ? COMPLETED : 0;
+        }
+        if (priority != null) {
+            mask |= 3 << PRIORITY_SHIFT;
+            value |= priority.ordinal() << PRIORITY_SHIFT;
+        }
+        byte[] flags = this.flags;
+        int end = Math.min(this.end, flags.length);
+        for (int row = 0; row < end; row++) {
+            if ((flags[row] & mask) == value && !visitor.test(task(row))) {
+                return;
+            }
+        }
+    }
+    
+    @Override
+    public Task put(Task task) {
+        int row = rows.get(task.getId()) - 1;
+        Task previous = null;
+        int oldTitle = StringPool.NULL;
+        int oldDescription = StringPool.NULL;
+        if (row >= 0) {
+            previous = task(row);
+            unset(row);
+            oldTitle = titles[row];
+            oldDescription = descriptions[row];
+        } else {
+            if (end == ids.length) {
+                grow();
+            }
+            row = end++;
+            rows.put(task.getId(), row + 1);
+        }
+        ids[row] = task.getId();
+        set(row, task.isCompleted(), task.getPriority());
+        createdAt[row] = task.getCreatedAtNanos();
+        completedAt[row] = task.getCompletedAtNanos();
+        titles[row] = strings.intern(task.getTitle());
+        descriptions[row] = strings.intern(task.getDescription());
+        strings.release(oldTitle);
+        strings.release(oldDescription);
+        return previous;
+    }
+    
+    @Override
+    public Task remove(int id) {
+        int row = rows.remove(id) - 1;
+        if (row < 0) {
+            return null;
+        }
+        Task task = task(row);
+        unset(row);
+        strings.release(titles[row]);
+        strings.release(descriptions[row]);
+        flags[row] = REMOVED;
+        titles[row] = StringPool.NULL;
+        descriptions[row] = StringPool.NULL;
+        if (end - size > Math.max(MIN_CAPACITY, size)) {
+            squeeze();
+        }
+        return task;
+    }
+    
+    @Override
+    public Task setCompleted(int id, boolean completed) {
+        int row = rows.get(id) - 1;
+        if (row < 0 || ((flags[row] & COMPLETED) != 0) == completed) {
+            return null;
+        }
+        flags[row] ^= COMPLETED;
+        completedCount += completed ? 1 : -1;
+        // Same rule as Task.setCompleted
+        if (!completed) {
+            completedAt[row] = Task.NO_TIME;
+        } else if (completedAt[row] == Task.NO_TIME) {
+            completedAt[row] = Task.now();
+        }
+        return task(row);
+    }
+    
+    @Override
+    public Task update(int id, String title, String description, Task.Priority priority) {
+        int row = rows.get(id) - 1;
+        if (row < 0) {
+            return null;
+        }
+        boolean completed = (flags[row] & COMPLETED) != 0;
+        unset(row);
+        set(row, completed, priority);
+        // Intern before releasing, so an unchanged string keeps its code
+        int oldTitle = titles[row];
+        int oldDescription = descriptions[row];
+        titles[row] = strings.intern(title);
+        descriptions[row] = strings.intern(description);
+        strings.release(oldTitle);
+        strings.release(oldDescription);
+        return task(row);
+    }
+    
+    @Override
+    public List<Task> copies() {
+        return all();
+    }
+    
+    @Override
+    public Iterator<Task> iterator() {
+        return new Iterator<Task>() {
+            private int row = advance(0);
+            
+            private int advance(int from) {
+                while (from < end && (flags[from] & REMOVED) != 0) {
+                    from++;
+                }
+                return from;
+            }
+            
+            @Override
+            public boolean hasNext() {
+                return row < end;
+            }
+            
+            @Override
+            public Task next() {
+                if (row >= end) {
+                    throw new NoSuchElementException();
+                }
+                Task task = task(row);
+                row = advance(row + 1);
+                return task;
+            }
+        };
+    }
+    
+    // Bytes held by the arrays, for comparing memory use
+    long footprint() {
+        return ids.length * (4L + 1 + 8 + 8 + 4 + 4) + 8L * rows.size() * 2 + strings.footprint();
+    }
+    
+    private Task task(int row) {
+        int flags = this.flags[row];
+        return new Task(ids[row], strings.get(titles[row]), strings.get(descriptions[row]),
+                (flags & COMPLETED) != 0, createdAt[row], completedAt[row],
+                PRIORITIES[(flags >>> PRIORITY_SHIFT) & 3]);
+    }
+    
+    private void set(int row, boolean completed, Task.Priority priority) {
+        flags[row] = (byte) ((completed ? COMPLETED : 0) | priority.ordinal() << PRIORITY_SHIFT);
+        completedCount += completed ? 1 : 0;
+        priorityCounts[priority.ordinal()]++;
+        size++;
+    }
+    
+    // Take a live row out of the counts; set puts it back
+    private void unset(int row) {
+        int flags = this.flags[row];
+        completedCount -= flags & COMPLETED;
+        priorityCounts[(flags >>> PRIORITY_SHIFT) & 3]--;
+        size--;
+    }
+    
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        createdAt = Arrays.copyOf(createdAt, capacity);
+        completedAt = Arrays.copyOf(completedAt, capacity);
+        titles = Arrays.copyOf(titles, capacity);
+        descriptions = Arrays.copyOf(descriptions, capacity);
+    }
+    
+    private void allocate(int capacity) {
+        ids = new int[capacity];
+        flags = new byte[capacity];
+        createdAt = new long[capacity];
+        completedAt = new long[capacity];
+        titles = new int[capacity];
+        descriptions = new int[capacity];
+    }
+    
+    // Move the live rows to the front, keeping their order. Writes into the
+    // existing arrays, which is safe because a row only ever moves down.
+    private void squeeze() {
+        IntIntMap squeezed = new IntIntMap(size);
+        int to = 0;
+        for (int from = 0; from < end; from++) {
+            if ((flags[from] & REMOVED) == 0) {
+                ids[to] = ids[from];
+                flags[to] = flags[from];
+                createdAt[to] = createdAt[from];
+                completedAt[to] = completedAt[from];
+                titles[to] = titles[from];
+                descriptions[to] = descriptions[from];
+                squeezed.put(ids[to], ++to);
+            }
+        }
+        end = to;
+        rows = squeezed;
+    }
+}
@@ -0,0 +1,53 @@
+// TaskTable.java
+package main;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+// Storage behind a TodoManager: the tasks by id plus the completion and
+// priority views its queries read. Not thread-safe; the manager's lock guards
+// it. Reads may also run in the manager's optimistic pass, where a concurrent
+// write can make them throw or return garbage that the manager then discards.
+//
+// Whether a returned task is the stored object or a copy depends on the
+// implementation, so callers change tasks only through the table.
+interface TaskTable extends Iterable<Task> {
+    int size();
+    
+    int completedCount();
+    
+    default int pendingCount() {
+        return size() - completedCount();
+    }
+    
+    int count(Task.Priority priority);
+    
+    Task get(int id);
+    
+    List<Task> all();
+    
+    List<Task> completed();
+    
+    List<Task> pending();
+    
+    List<Task> byPriority(Task.Priority priority);
+    
+    // Offer tasks to visitor until it returns false: only completed or only
+    // pending ones unless completed is null, and only those of priority unless
+    // that is null. Tasks that fail those tests are never built.
+    void scan(Boolean completed, Task.Priority priority, Predicate<Task> visitor);
+    
+    // Insert, or replace the task with the same id in place; returns the replaced task
+    Task put(Task task);
+    
+    Task remove(int id);
+    
+    // The changed task, or null if there is no such task or it is already in that state
+    Task setCompleted(int id, boolean completed);
+    
+    // The changed task, or null if there is no such task
+    Task update(int id, String title, String description, Task.Priority priority);
+    
+    // Independent copies of every task, safe to write out on another thread
+    List<Task> copies();
+}
@@ -0,0 +1,647 @@
+// TaskTransfer.java
+package main;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Bulk import and export of tasks as CSV or JSON Lines, streamed so that
+// memory stays flat whatever the size of the file.
+//
+// An import is a pipeline of two threads. The caller's thread reads, parses
+// and validates records and hands them on in batches through a short
+// bounded queue; a "tasks-import" thread adds each batch with
+// TodoManager.addTasks, one lock and one journal write per batch. A record
+// that fails to parse or validate is reported with its line number and
+// skipped, and the import goes on. Imported tasks get new ids and keep
+// their timestamps and completion.
+//
+// CSV has a header row naming the columns, in any order:
+//   id,title,description,completed,createdAt,completedAt,priority
+// Only title is required; id is ignored on import. JSON Lines holds one
+// object per line with the same fields, as the HTTP API writes them.
+// Times are ISO local date-times.
+public final class TaskTransfer {
+    public enum Format {
+        CSV, JSONL;
+        
+        // By file extension: .csv, or .jsonl / .ndjson
+        public static Format of(Path path) {
+            String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+            if (name.endsWith(".csv")) {
+                return CSV;
+            }
+            if (name.endsWith(".jsonl") || name.endsWith(".ndjson")) {
+                return JSONL;
+            }
+            throw new IllegalArgumentException("Not a .csv or .jsonl file: " + path.getFileName());
+        }
+    }
+    
+    static final String[] COLUMNS = {"id", "title", "description", "completed", "createdAt", "completedAt", "priority"};
+    private static final int TITLE = 1;
+    private static final int DESCRIPTION = 2;
+    private static final int COMPLETED = 3;
+    private static final int CREATED_AT = 4;
+    private static final int COMPLETED_AT = 5;
+    private static final int PRIORITY = 6;
+    
+    // Records per addTasks call, and batches parsed ahead of the inserter
+    static final int BATCH_SIZE = 4096;
+    private static final int QUEUED_BATCHES = 4;
+    // Errors kept in the report; the rest are only counted
+    static final int MAX_REPORTED_ERRORS = 100;
+    private static final List<Task> END = Collections.emptyList();
+    
+    private TaskTransfer() {
+    }
+    
+    public static Report importFile(TodoManager manager, Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return importTasks(manager, in, Format.of(path), null);
+        }
+    }
+    
+    // errors, if not null, hears every rejected record as it is found, on the
+    // calling thread
+    public static Report importTasks(TodoManager manager, InputStream in, Format format,
+            Consumer<RecordError> errors) throws IOException {
+        if (manager.isLoading()) {
+            throw new IllegalStateException("Tasks are still loading");
+        }
+        long start = System.nanoTime();
+        Report report = new Report(errors);
+        BlockingQueue<List<Task>> batches = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+        Inserter inserter = new Inserter(manager, batches);
+        Thread thread = new Thread(inserter, "tasks-import");
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            List<Task> batch = new ArrayList<>(BATCH_SIZE);
+            RecordReader reader = format == Format.CSV ? new CsvReader(in) : new JsonLinesReader(in);
+            Task task;
+            while ((task = next(reader, report)) != null) {
+                batch.add(task);
+                if (batch.size() == BATCH_SIZE) {
+                    if (!hand(batches, batch, inserter)) {
+                        break;
+                    }
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) {
+                hand(batches, batch, inserter);
+            }
+        } finally {
+            hand(batches, END, inserter);
+            join(thread);
+        }
+        if (inserter.failure != null) {
+            throw inserter.failure;
+        }
+        report.imported = inserter.added;
+        report.nanos = System.nanoTime() - start;
+        return report;
+    }
+    
+    // The next valid record, reporting the ones that are not; null at the end
+    private static Task next(RecordReader reader, Report report) throws IOException {
+        while (true) {
+            try {
+                Task task = reader.next();
+                report.records += task != null ? 1 : 0;
+                return task;
+            } catch (IllegalArgumentException e) {
+                report.records++;
+                report.reject(new RecordError(reader.recordLine, e.getMessage()));
+            }
+        }
+    }
+    
+    // Queue a batch for the inserter; false once the inserter has given up
+    private static boolean hand(BlockingQueue<List<Task>> batches, List<Task> batch, Inserter inserter) {
+        try {
+            while (inserter.failure == null) {
+                if (batches.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Import interrupted", e);
+        }
+        return false;
+    }
+    
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    // Adds the batches it is handed until END
+    private static final class Inserter implements Runnable {
+        private final TodoManager manager;
+        private final BlockingQueue<List<Task>> batches;
+        private volatile long added;
+        private volatile RuntimeException failure;
+        
+        Inserter(TodoManager manager, BlockingQueue<List<Task>> batches) {
+            this.manager = manager;
+            this.batches = batches;
+        }
+        
+        @Override
+        public void run() {
+            try {
+                List<Task> batch;
+                while ((batch = batches.take()) != END) {
+                    manager.addTasks(batch);
+                    added += batch.size();
+                }
+            } catch (InterruptedException e) {
+                failure = new IllegalStateException("Import interrupted", e);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+    }
+    
+    public static long exportFile(TodoManager manager, Path path) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path)) {
+            return exportTasks(manager, out, Format.of(path));
+        }
+    }
+    
+    // Every task, the working set in id order and then the archive in id
+    // order; returns how many were written. Does not close out.
+    public static long exportTasks(TodoManager manager, OutputStream out, Format format) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        StringBuilder record = new StringBuilder(256);
+        long[] count = {0};
+        IOException[] failure = {null};
+        if (format == Format.CSV) {
+            writer.write(String.join(",", COLUMNS));
+            writer.write('\n');
+        }
+        Consumer<Task> export = task -> {
+            if (failure[0] != null) {
+                return;
+            }
+            record.setLength(0);
+            if (format == Format.CSV) {
+                appendCsv(record, task);
+            } else {
+                Json.appendTask(record, task);
+            }
+            record.append('\n');
+            try {
+                writer.append(record);
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+            count[0]++;
+        };
+        manager.forEachTask(export);
+        if (failure[0] == null) {
+            manager.forEachArchivedTask(export);
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        writer.flush();
+        return count[0];
+    }
+    
+    private static void appendCsv(StringBuilder out, Task task) {
+        out.append(task.getId()).append(',');
+        appendCsvField(out, task.getTitle());
+        out.append(',');
+        appendCsvField(out, task.getDescription());
+        out.append(',').append(task.isCompleted()).append(',');
+        appendTime(out, task.getCreatedAtNanos());
+        out.append(',');
+        appendTime(out, task.getCompletedAtNanos());
+        out.append(',');
+        if (task.getPriority() != null) {
+            out.append(task.getPriority());
+        }
+    }
+    
+    private static void appendTime(StringBuilder out, long epochNanos) {
+        if (epochNanos != Task.NO_TIME) {
+            Task.appendTime(out, epochNanos);
+        }
+    }
+    
+    // Quoted only when it has to be, with quotes doubled (RFC 4180)
+    private static void appendCsvField(StringBuilder out, String value) {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.append(value);
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        out.append('"');
+    }
+    
+    // Checks one record's fields and builds its task. Blank optional fields
+    // take their defaults, and absent times are NO_TIME.
+    static Task toTask(String title, String description, String completed, long createdAt,
+            long completedAt, String priority) {
+        if (title == null || title.isBlank()) {
+            throw new IllegalArgumentException("title is required");
+        }
+        boolean done;
+        if (isBlank(completed)) {
+            done = completedAt != Task.NO_TIME;
+        } else if (completed.equalsIgnoreCase("true")) {
+            done = true;
+        } else if (completed.equalsIgnoreCase("false")) {
+            done = false;
+        } else {
+            throw new IllegalArgumentException("completed must be true or false, not " + completed);
+        }
+        // A task with no creation time was created now, or when it was completed if earlier
+        long created = createdAt != Task.NO_TIME ? createdAt
+                : completedAt != Task.NO_TIME ? Math.min(Task.now(), completedAt) : Task.now();
+        long finished = Task.NO_TIME;
+        if (done) {
+            finished = completedAt != Task.NO_TIME ? completedAt : created;
+        } else if (completedAt != Task.NO_TIME) {
+            throw new IllegalArgumentException("completedAt given for a task that is not completed");
+        }
+        Task.Priority parsed = Task.Priority.MEDIUM;
+        if (!isBlank(priority)) {
+            parsed = Task.Priority.parse(priority);
+            if (parsed == null) {
+                throw new IllegalArgumentException("Unknown priority " + priority);
+            }
+        }
+        return new Task(0, title, description != null ? description : "", done, created, finished, parsed);
+    }
+    
+    private static boolean isBlank(String text) {
+        return text == null || text.isEmpty();
+    }
+    
+    // What an import did
+    public static final class Report {
+        private final Consumer<RecordError> listener;
+        private final List<RecordError> errors = new ArrayList<>();
+        private long records;
+        private long imported;
+        private long rejected;
+        private long nanos;
+        
+        private Report(Consumer<RecordError> listener) {
+            this.listener = listener;
+        }
+        
+        private void reject(RecordError error) {
+            rejected++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(error);
+            }
+            if (listener != null) {
+                listener.accept(error);
+            }
+        }
+        
+        // Records read, valid or not
+        public long getRecords() {
+            return records;
+        }
+        
+        public long getImported() {
+            return imported;
+        }
+        
+        public long getRejected() {
+            return rejected;
+        }
+        
+        // The first MAX_REPORTED_ERRORS rejected records, in file order
+        public List<RecordError> getErrors() {
+            return Collections.unmodifiableList(errors);
+        }
+        
+        public double getSeconds() {
+            return nanos / 1e9;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%d of %d records imported, %d rejected, in %.2f s",
+                    imported, records, rejected, getSeconds());
+        }
+    }
+    
+    // A record that was skipped, and why
+    public static final class RecordError {
+        private final long line;
+        private final String message;
+        
+        RecordError(long line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+        
+        // Where the record starts, from 1
+        public long getLine() {
+            return line;
+        }
+        
+        public String getMessage() {
+            return message;
+        }
+        
+        @Override
+        public String toString() {
+            return "line " + line + ": " + message;
+        }
+    }
+    
+    // Reads a record at a time
+    private abstract static class RecordReader {
+        // Last line consumed, and the line the current record starts on
+        long line;
+        long recordLine;
+        
+        // The next record's task, or null at the end; IllegalArgumentException
+        // for a bad record, after which the reader is at the next one
+        abstract Task next() throws IOException;
+    }
+    
+    // RFC 4180: fields separated by commas, optionally quoted, quotes doubled
+    // inside quotes, and line breaks allowed inside quotes. The bytes are
+    // scanned directly, since every delimiter is ASCII and so can never be
+    // part of a UTF-8 sequence; only the text fields become Strings.
+    private static final class CsvReader extends RecordReader {
+        private final InputStream in;
+        private final byte[] buffer = new byte[1 << 16];
+        private int position;
+        private int limit;
+        private boolean eof;
+        // Current record's fields, unquoted, back to back
+        private byte[] record = new byte[512];
+        private int recordLength;
+        private int[] fieldEnds = new int[COLUMNS.length];
+        private int fieldCount;
+        // Record field of each column, -1 if the file has none
+        private final int[] columnField = new int[COLUMNS.length];
+        
+        CsvReader(InputStream in) throws IOException {
+            this.in = in;
+            if (!readRecord()) {
+                throw new IllegalArgumentException("The file is empty; a CSV import needs a header row");
+            }
+            Arrays.fill(columnField, -1);
+            for (int f = 0; f < fieldCount; f++) {
+                String name = field(f).trim();
+                // A byte order mark may start the first name
+                if (f == 0 && name.startsWith("\uFEFF")) {
+                    name = name.substring(1);
+                }
+                for (int c = 0; c < COLUMNS.length; c++) {
+                    if (COLUMNS[c].equalsIgnoreCase(name)) {
+                        columnField[c] = f;
+                    }
+                }
+            }
+            if (columnField[TITLE] < 0) {
+                throw new IllegalArgumentException("The CSV header has no title column");
+            }
+        }
+        
+        @Override
+        Task next() throws IOException {
+            while (readRecord()) {
+                if (fieldCount == 1 && recordLength == 0) {
+                    continue; // blank line
+                }
+                return toTask(column(TITLE), column(DESCRIPTION), column(COMPLETED), time(CREATED_AT),
+                        time(COMPLETED_AT), column(PRIORITY));
+            }
+            return null;
+        }
+        
+        // Parsed from the record's bytes, without a String unless it is malformed
+        private long time(int column) {
+            int f = columnField[column];
+            if (f < 0 || f >= fieldCount) {
+                return Task.NO_TIME;
+            }
+            int from = f == 0 ? 0 : fieldEnds[f - 1];
+            int to = fieldEnds[f];
+            if (from == to) {
+                return Task.NO_TIME;
+            }
+            try {
+                return MappedTaskLoader.parseTime(record, from, to);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Bad " + COLUMNS[column] + " " + field(f));
+            }
+        }
+        
+        private String column(int column) {
+            int f = columnField[column];
+            return f >= 0 && f < fieldCount ? field(f) : null;
+        }
+        
+        private String field(int f) {
+            int from = f == 0 ? 0 : fieldEnds[f - 1];
+            return new String(record, from, fieldEnds[f] - from, StandardCharsets.UTF_8);
+        }
+        
+        // Read one record into record/fieldEnds; false at the end of input
+        private boolean readRecord() throws IOException {
+            if (!fill()) {
+                return false;
+            }
+            recordLine = ++line;
+            recordLength = 0;
+            fieldCount = 0;
+            boolean quoted = false;
+            boolean afterQuote = false;
+            while (true) {
+                if (position == limit && !fill()) {
+                    if (quoted) {
+                        throw new IllegalArgumentException("Unterminated quoted field");
+                    }
+                    endField();
+                    return true;
+                }
+                // Copy the run up to the next byte that means something at once
+                int run = position;
+                while (run < limit && !isSpecial(buffer[run], quoted)) {
+                    run++;
+                }
+                if (run > position) {
+                    append(position, run);
+                    position = run;
+                    afterQuote = false;
+                    continue;
+                }
+                byte b = buffer[position++];
+                if (quoted) {
+                    if (b == '"') {
+                        quoted = false;
+                        afterQuote = true;
+                    } else {
+                        line++;
+                        append(b);
+                    }
+                } else if (b == ',') {
+                    endField();
+                    afterQuote = false;
+                } else if (b == '\n') {
+                    endField();
+                    return true;
+                } else if (b == '\r') {
+                    // Dropped outside quotes; a lone one still ends nothing
+                } else if (b == '"') {
+                    // An opening quote, or the second of a doubled one
+                    if (afterQuote) {
+                        append(b);
+                    }
+                    quoted = true;
+                    afterQuote = false;
+                }
+            }
+        }
+        
+        // Quotes end a quoted field, where only line breaks are counted;
+        // outside one, commas, quotes and line breaks all matter
+        private static boolean isSpecial(byte b, boolean quoted) {
+            return b == '"' || b == '\n' || !quoted && (b == ',' || b == '\r');
+        }
+        
+        private void append(int from, int to) {
+            int length = to - from;
+            if (recordLength + length > record.length) {
+                record = Arrays.copyOf(record, Math.max(recordLength + length, record.length * 2));
+            }
+            System.arraycopy(buffer, from, record, recordLength, length);
+            recordLength += length;
+        }
+        
+        private void append(byte b) {
+            if (recordLength == record.length) {
+                record = Arrays.copyOf(record, record.length * 2);
+            }
+            record[recordLength++] = b;
+        }
+        
+        private void endField() {
+            if (fieldCount == fieldEnds.length) {
+                fieldEnds = Arrays.copyOf(fieldEnds, fieldEnds.length * 2);
+            }
+            fieldEnds[fieldCount++] = recordLength;
+        }
+        
+        private boolean fill() throws IOException {
+            if (position < limit) {
+                return true;
+            }
+            if (eof) {
+                return false;
+            }
+            int read = in.read(buffer);
+            if (read <= 0) {
+                eof = true;
+                return false;
+            }
+            position = 0;
+            limit = read;
+            return true;
+        }
+    }
+    
+    // One JSON object per line; blank lines are skipped
+    private static final class JsonLinesReader extends RecordReader {
+        private final BufferedReader reader;
+        
+        JsonLinesReader(InputStream in) {
+            this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+        }
+        
+        @Override
+        Task next() throws IOException {
+            String text;
+            while ((text = reader.readLine()) != null) {
+                recordLine = ++line;
+                if (text.isBlank()) {
+                    continue;
+                }
+                Object value = Json.parse(text);
+                if (!(value instanceof Map)) {
+                    throw new IllegalArgumentException("Expected a JSON object");
+                }
+                Map<?, ?> object = (Map<?, ?>) value;
+                Object completed = object.get("completed");
+                if (completed != null && !(completed instanceof Boolean)) {
+                    throw new IllegalArgumentException("completed must be true or false");
+                }
+                return toTask(string(object, "title"), string(object, "description"),
+                        completed != null ? completed.toString() : null, time(object, "createdAt"),
+                        time(object, "completedAt"), string(object, "priority"));
+            }
+            return null;
+        }
+        
+        private static long time(Map<?, ?> object, String field) {
+            String text = string(object, field);
+            if (text == null || text.isEmpty()) {
+                return Task.NO_TIME;
+            }
+            try {
+                return Task.parseTime(text);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Bad " + field + " " + text);
+            }
+        }
+        
+        private static String string(Map<?, ?> object, String field) {
+            Object value = object.get(field);
+            if (value != null && !(value instanceof String)) {
+                throw new IllegalArgumentException(field + " must be a string");
+            }
+            return (String) value;
+        }
+    }
+}
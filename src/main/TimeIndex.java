@@ -0,0 +1,194 @@
+// TimeIndex.java
+package main;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+// Ordered index from a timestamp (Task's epoch nanoseconds) to task ids, for
+// range queries in O(log n + k). Entries are (time, id) pairs sorted by time
+// and then id, held in chunks of at most MAX_CHUNK like the leaves of a
+// B+-tree; a binary search over the chunks' last entries finds where a range
+// starts. Appending in time order, as tasks are created, only touches the
+// last chunk. Not thread-safe; TodoManager guards it.
+class TimeIndex {
+    private static final int MAX_CHUNK = 512;
+    // A chunk this small is merged into its neighbour when they fit together
+    private static final int MIN_CHUNK = MAX_CHUNK / 4;
+    
+    private static final class Chunk {
+        final long[] times = new long[MAX_CHUNK];
+        final int[] ids = new int[MAX_CHUNK];
+        int size;
+    }
+    
+    private Chunk[] chunks = {new Chunk()};
+    private int chunkCount = 1;
+    private int size;
+    
+    int size() {
+        return size;
+    }
+    
+    void add(long time, int id) {
+        int c = findChunk(time, id);
+        Chunk chunk = chunks[c];
+        int position = position(chunk, time, id);
+        if (chunk.size == MAX_CHUNK) {
+            if (c == chunkCount - 1 && position == MAX_CHUNK) {
+                // In-order append: start a new chunk and leave this one full
+                chunk = insertChunk(c + 1);
+                position = 0;
+            } else {
+                Chunk upper = insertChunk(c + 1);
+                int half = MAX_CHUNK / 2;
+                System.arraycopy(chunk.times, half, upper.times, 0, MAX_CHUNK - half);
+                System.arraycopy(chunk.ids, half, upper.ids, 0, MAX_CHUNK - half);
+                upper.size = MAX_CHUNK - half;
+                chunk.size = half;
+                if (position > half) {
+                    chunk = upper;
+                    position -= half;
+                }
+            }
+        }
+        System.arraycopy(chunk.times, position, chunk.times, position + 1, chunk.size - position);
+        System.arraycopy(chunk.ids, position, chunk.ids, position + 1, chunk.size - position);
+        chunk.times[position] = time;
+        chunk.ids[position] = id;
+        chunk.size++;
+        size++;
+    }
+    
+    boolean remove(long time, int id) {
+        int c = findChunk(time, id);
+        Chunk chunk = chunks[c];
+        int position = position(chunk, time, id);
+        if (position == chunk.size || chunk.times[position] != time || chunk.ids[position] != id) {
+            return false;
+        }
+        System.arraycopy(chunk.times, position + 1, chunk.times, position, chunk.size - position - 1);
+        System.arraycopy(chunk.ids, position + 1, chunk.ids, position, chunk.size - position - 1);
+        chunk.size--;
+        size--;
+        if (chunk.size < MIN_CHUNK && chunkCount > 1) {
+            mergeWithNeighbour(c);
+        }
+        return true;
+    }
+    
+    // Ids with from <= time < to, in time order
+    void range(long from, long to, IntConsumer action) {
+        rangeWhile(from, to, id -> {
+            action.accept(id);
+            return true;
+        });
+    }
+    
+    // The same, stopping as soon as action returns false
+    void rangeWhile(long from, long to, IntPredicate action) {
+        if (from >= to) {
+            return;
+        }
+        int c = findChunk(from, Integer.MIN_VALUE);
+        int position = position(chunks[c], from, Integer.MIN_VALUE);
+        for (; c < chunkCount; c++, position = 0) {
+            Chunk chunk = chunks[c];
+            for (; position < chunk.size; position++) {
+                if (chunk.times[position] >= to || !action.test(chunk.ids[position])) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    // Number of ids with from <= time < to, without visiting them one by one
+    // inside the chunks that lie wholly in the range
+    int count(long from, long to) {
+        if (from >= to) {
+            return 0;
+        }
+        int first = findChunk(from, Integer.MIN_VALUE);
+        int last = findChunk(to, Integer.MIN_VALUE);
+        int end = position(chunks[last], to, Integer.MIN_VALUE);
+        int start = position(chunks[first], from, Integer.MIN_VALUE);
+        if (first == last) {
+            return end - start;
+        }
+        int count = chunks[first].size - start + end;
+        for (int c = first + 1; c < last; c++) {
+            count += chunks[c].size;
+        }
+        return count;
+    }
+    
+    // First chunk whose last entry is at or after (time, id), or the last chunk
+    private int findChunk(long time, int id) {
+        int low = 0;
+        int high = chunkCount - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Chunk chunk = chunks[mid];
+            if (chunk.size == 0 || compare(chunk.times[chunk.size - 1], chunk.ids[chunk.size - 1], time, id) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    // Index of the first entry in chunk at or after (time, id)
+    private static int position(Chunk chunk, long time, int id) {
+        int low = 0;
+        int high = chunk.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(chunk.times[mid], chunk.ids[mid], time, id) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    private static int compare(long time, int id, long otherTime, int otherId) {
+        int order = Long.compare(time, otherTime);
+        return order != 0 ? order : Integer.compare(id, otherId);
+    }
+    
+    private Chunk insertChunk(int index) {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        }
+        System.arraycopy(chunks, index, chunks, index + 1, chunkCount - index);
+        Chunk chunk = new Chunk();
+        chunks[index] = chunk;
+        chunkCount++;
+        return chunk;
+    }
+    
+    private void removeChunk(int index) {
+        System.arraycopy(chunks, index + 1, chunks, index, chunkCount - index - 1);
+        chunks[--chunkCount] = null;
+    }
+    
+    // Fold chunk c into the previous or next chunk if the two fit in one
+    private void mergeWithNeighbour(int c) {
+        Chunk chunk = chunks[c];
+        if (c > 0 && chunks[c - 1].size + chunk.size <= MAX_CHUNK) {
+            Chunk previous = chunks[c - 1];
+            System.arraycopy(chunk.times, 0, previous.times, previous.size, chunk.size);
+            System.arraycopy(chunk.ids, 0, previous.ids, previous.size, chunk.size);
+            previous.size += chunk.size;
+            removeChunk(c);
+        } else if (c + 1 < chunkCount && chunks[c + 1].size + chunk.size <= MAX_CHUNK) {
+            Chunk next = chunks[c + 1];
+            System.arraycopy(next.times, 0, chunk.times, chunk.size, next.size);
+            System.arraycopy(next.ids, 0, chunk.ids, chunk.size, next.size);
+            chunk.size += next.size;
+            removeChunk(c + 1);
+        }
+    }
+}
@@ -1,32 +1,117 @@
 // TodoAppUI.java
 package main;
 
+import javafx.animation.PauseTransition;
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
-import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.*;
+import javafx.stage.FileChooser;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
+import javafx.util.Duration;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
-
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
 public class TodoAppUI extends Application {
+    // Upper bound on how long a change waits in memory before it is written
+    private static final long FLUSH_DELAY_MILLIS = 200;
+    private static final int SEARCH_LIMIT = 1000;
+    private static final DateTimeFormatter CREATED_FORMAT = DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm");
+    private static final Comparator<Task> DESCRIPTION_ORDER =
+            Comparator.comparing(Task::getDescription, Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER));
+    // Search results this long are sorted off the FX thread
+    private static final int SORT_IN_PLACE_MAX = 1 << 13;
+    // Typing pauses this long before the search runs
+    private static final Duration SEARCH_DELAY = Duration.millis(150);
+    
+    // Every named list; the table shows the one picked in listComboBox
+    private TaskLists taskLists;
+    private String currentList;
     private TodoManager todoManager;
+    // The archive is being read in for the current list
+    private boolean archiveLoading;
+    private TableUpdater tableUpdater;
+    private ComboBox<String> listComboBox;
     private TableView<Task> taskTable;
-    private ObservableList<Task> taskList;
+    // All tasks, kept in step with the manager one change at a time; the
+    // table shows a sorted and filtered live view of it
+    private TaskObservableList taskList;
+    private TaskSortedList sortedTasks;
+    private FilteredList<Task> filteredTasks;
+    // The columns whose orders sortedTasks keeps
+    private final Map<TableColumn<Task, ?>, TaskSortedList.Column> columnOrders = new HashMap<>();
+    // Ranked search matches, or tasks in the date range in time order, shown
+    // instead of the live view while either is set; sorted by the column
+    // headers once they are clicked
+    private ObservableList<Task> searchResults;
+    // Bumped whenever searchResults is filled, so a late sort is dropped
+    private int searchGeneration;
+    // Searches and date ranges run here, one at a time, so neither a first
+    // query building its index nor a large result stalls the FX thread
+    private final ExecutorService queryExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "tasks-query");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Bumped by every applyQuery, so results of an older query are dropped
+    private int queryGeneration;
+    private boolean queryRunning;
+    // The filter bar or the tasks changed while a query ran
+    private boolean queryPending;
+    private PauseTransition searchDelay;
     private Label statsLabel;
-    private ComboBox<String> filterComboBox;
+    // The filter bar; every part set must hold, and they make one TaskQuery
+    private ComboBox<String> statusComboBox;
+    private ComboBox<String> priorityComboBox;
+    private TextField searchField;
+    // Date-range filter on creation or completion day; either end may be empty
+    private ComboBox<String> dateFieldComboBox;
+    private DatePicker fromDatePicker;
+    private DatePicker toDatePicker;
+    // Shown while tasks stream in from disk
+    private HBox loadingBox;
+    private ProgressBar loadingBar;
+    private long startNanos;
     
     @Override
     public void start(Stage primaryStage) {
-        todoManager = new TodoManager();
-        taskList = FXCollections.observableArrayList();
+        startNanos = System.nanoTime();
+        Metrics.registerMBean();
+        // Saves happen on a background thread so large lists and slow disks
+        // never stall the buttons below
+        taskLists = new TaskLists(Paths.get(FileHandler.DATA_DIR), dir -> {
+            FileHandler fileHandler = new FileHandler(dir, FileHandler.defaultFormat());
+            fileHandler.enableWriteBehind(FLUSH_DELAY_MILLIS);
+            return fileHandler;
+        });
+        Main.closeOnExit(taskLists);
+        taskList = new TaskObservableList();
+        sortedTasks = new TaskSortedList(taskList, Platform::runLater);
+        filteredTasks = new FilteredList<>(sortedTasks);
+        searchResults = FXCollections.observableArrayList();
         
         primaryStage.setTitle("To-Do Application");
         
@@ -49,10 +134,183 @@ public class TodoAppUI extends Application {
         // Create scene and show
         Scene scene = new Scene(root, 900, 600);
         primaryStage.setScene(scene);
+        reportFirstPaint(scene);
         primaryStage.show();
         
-        // Load initial data
-        refreshTaskTable();
+        // Tasks are loaded after the window is up
+        switchList(TaskLists.DEFAULT_LIST);
+    }
+    
+    // Show another list. A list is loaded the first time it is picked: its
+    // file is parsed on a background thread and tasks reach the table in
+    // chunks through TableUpdater, so the window stays usable meanwhile.
+    private void switchList(String name) {
+        if (name.equals(currentList)) {
+            return;
+        }
+        currentList = name;
+        long openedNanos = todoManager == null ? startNanos : System.nanoTime();
+        boolean firstOpen = !taskLists.isOpen(name);
+        if (todoManager != null) {
+            todoManager.removeTaskListener(tableUpdater);
+        }
+        // Events the old list already queued are dropped by its TableUpdater
+        todoManager = null;
+        taskList.setAll(List.of());
+        setLoading(true);
+        CompletableFuture<TodoManager> loaded = taskLists.open(name, manager -> {
+            todoManager = manager;
+            tableUpdater = new TableUpdater(manager);
+            manager.addTaskListener(tableUpdater);
+            manager.setPersistenceErrorListener(e -> Platform.runLater(() ->
+                    showAlert("Save Failed", "Changes could not be saved: " + e.getMessage())));
+        }, progress -> Platform.runLater(() -> loadingBar.setProgress(progress)));
+        // Edits synced in from elsewhere reach the table like local ones
+        loaded.thenAccept(TodoManager::watchExternalChanges);
+        if (loaded.isDone()) {
+            setLoading(false);
+            refreshTaskTable();
+            return;
+        }
+        // The table fills as chunks arrive; until then show the empty list
+        updateStats();
+        applyQuery();
+        loaded.thenAccept(manager -> Platform.runLater(() -> {
+            if (manager != todoManager) {
+                return;
+            }
+            setLoading(false);
+            // A list picked again mid-load only heard the chunks loaded since
+            if (!firstOpen) {
+                refreshTaskTable();
+            }
+            if (Metrics.ENABLED) {
+                System.out.printf("Loaded %d tasks of %s after %d ms%n", manager.getTaskCount(), name,
+                        (System.nanoTime() - openedNanos) / 1_000_000);
+            }
+        }));
+    }
+    
+    private void setLoading(boolean loading) {
+        loadingBar.setProgress(0);
+        loadingBox.setVisible(loading);
+        loadingBox.setManaged(loading);
+    }
+    
+    private void createList() {
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.setTitle("New List");
+        dialog.setHeaderText(null);
+        dialog.setContentText("List name:");
+        dialog.showAndWait().map(String::trim).ifPresent(name -> {
+            try {
+                taskLists.create(name);
+            } catch (IllegalArgumentException e) {
+                showAlert("New List", e.getMessage());
+                return;
+            }
+            listComboBox.getItems().setAll(taskLists.names());
+            listComboBox.setValue(name);
+        });
+    }
+    
+    private FileChooser transferChooser(String title) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle(title);
+        chooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("CSV", "*.csv"),
+                new FileChooser.ExtensionFilter("JSON Lines", "*.jsonl", "*.ndjson"));
+        return chooser;
+    }
+    
+    // Streams the file into the current list on a background thread; the
+    // table fills through TableUpdater as each batch is added
+    private void importTasks() {
+        TodoManager manager = todoManager;
+        if (manager == null || manager.isLoading()) {
+            showAlert("Import", "Wait for the list to finish loading.");
+            return;
+        }
+        File file = transferChooser("Import Tasks").showOpenDialog(taskTable.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return TaskTransfer.importFile(manager, file.toPath());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).whenComplete((report, failure) -> Platform.runLater(() -> {
+            if (failure != null) {
+                showAlert("Import Failed", causeMessage(failure));
+                return;
+            }
+            // The first few rejected records; the rest would not fit
+            StringBuilder message = new StringBuilder(report.toString());
+            List<TaskTransfer.RecordError> errors = report.getErrors();
+            for (int i = 0; i < Math.min(10, errors.size()); i++) {
+                message.append('\n').append(errors.get(i));
+            }
+            if (report.getRejected() > 10) {
+                message.append("\n...");
+            }
+            showAlert("Import", message.toString());
+        }));
+    }
+    
+    private void exportTasks() {
+        TodoManager manager = todoManager;
+        if (manager == null) {
+            return;
+        }
+        FileChooser chooser = transferChooser("Export Tasks");
+        chooser.setInitialFileName(currentList + ".csv");
+        File file = chooser.showSaveDialog(taskTable.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return TaskTransfer.exportFile(manager, file.toPath());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).whenComplete((count, failure) -> Platform.runLater(() -> showAlert("Export", failure != null
+                ? "Export failed: " + causeMessage(failure)
+                : "Exported " + count + " tasks to " + file.getName())));
+    }
+    
+    // CompletableFuture wraps what the task threw
+    private static String causeMessage(Throwable failure) {
+        return failure.getCause() != null ? failure.getCause().getMessage() : failure.getMessage();
+    }
+    
+    // Startup timing, with -Dtodo.metrics=true: the first layout pulse after
+    // show() is the first frame drawn
+    private void reportFirstPaint(Scene scene) {
+        if (!Metrics.ENABLED) {
+            return;
+        }
+        boolean[] reported = {false};
+        Runnable[] listener = new Runnable[1];
+        listener[0] = () -> {
+            if (!reported[0]) {
+                reported[0] = true;
+                System.out.printf("First paint after %d ms%n", elapsedMillis());
+                Platform.runLater(() -> scene.removePostLayoutPulseListener(listener[0]));
+            }
+        };
+        scene.addPostLayoutPulseListener(listener[0]);
+    }
+    
+    private long elapsedMillis() {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+    
+    @Override
+    public void stop() {
+        taskLists.close();
     }
     
     private VBox createTopSection() {
@@ -65,19 +323,93 @@ public class TodoAppUI extends Application {
         statsLabel = new Label();
         statsLabel.setStyle("-fx-font-size: 14px; -fx-text-fill: #7f8c8d;");
         
+        // List switcher
+        HBox listBox = new HBox(10);
+        listBox.setAlignment(Pos.CENTER);
+        
+        Label listLabel = new Label("List:");
+        listComboBox = new ComboBox<>();
+        listComboBox.getItems().addAll(taskLists.names());
+        listComboBox.setValue(TaskLists.DEFAULT_LIST);
+        listComboBox.setOnAction(e -> {
+            String name = listComboBox.getValue();
+            if (name != null) {
+                switchList(name);
+            }
+        });
+        
+        Button newListButton = new Button("New List");
+        newListButton.setOnAction(e -> createList());
+        
+        Button importButton = new Button("Import...");
+        importButton.setOnAction(e -> importTasks());
+        
+        Button exportButton = new Button("Export...");
+        exportButton.setOnAction(e -> exportTasks());
+        
+        listBox.getChildren().addAll(listLabel, listComboBox, newListButton, importButton, exportButton);
+        
         // Filter section
         HBox filterBox = new HBox(10);
         filterBox.setAlignment(Pos.CENTER);
         
         Label filterLabel = new Label("Filter:");
-        filterComboBox = new ComboBox<>();
-        filterComboBox.getItems().addAll("All Tasks", "Pending", "Completed", "High Priority", "Medium Priority", "Low Priority");
-        filterComboBox.setValue("All Tasks");
-        filterComboBox.setOnAction(e -> applyFilter());
+        statusComboBox = new ComboBox<>();
+        statusComboBox.getItems().addAll("All Tasks", "Pending", "Completed");
+        statusComboBox.setValue("All Tasks");
+        statusComboBox.setOnAction(e -> applyQuery());
+        
+        priorityComboBox = new ComboBox<>();
+        priorityComboBox.getItems().addAll("Any Priority", "High", "Medium", "Low");
+        priorityComboBox.setValue("Any Priority");
+        priorityComboBox.setOnAction(e -> applyQuery());
+        
+        Label searchLabel = new Label("Search:");
+        searchField = new TextField();
+        searchField.setPromptText("Words in title or description");
+        searchField.setPrefWidth(250);
+        searchDelay = new PauseTransition(SEARCH_DELAY);
+        searchDelay.setOnFinished(e -> applyQuery());
+        searchField.textProperty().addListener((obs, oldText, newText) -> searchDelay.playFromStart());
+        
+        filterBox.getChildren().addAll(filterLabel, statusComboBox, priorityComboBox, searchLabel, searchField);
+        
+        HBox dateBox = new HBox(10);
+        dateBox.setAlignment(Pos.CENTER);
+        
+        dateFieldComboBox = new ComboBox<>();
+        dateFieldComboBox.getItems().addAll("Created", "Completed");
+        dateFieldComboBox.setValue("Created");
+        dateFieldComboBox.setOnAction(e -> applyQuery());
+        
+        Label fromLabel = new Label("From:");
+        fromDatePicker = new DatePicker();
+        fromDatePicker.setPrefWidth(130);
+        fromDatePicker.valueProperty().addListener((obs, oldDate, newDate) -> applyQuery());
+        
+        Label toLabel = new Label("To:");
+        toDatePicker = new DatePicker();
+        toDatePicker.setPrefWidth(130);
+        toDatePicker.valueProperty().addListener((obs, oldDate, newDate) -> applyQuery());
+        
+        Button clearDatesButton = new Button("Clear Dates");
+        clearDatesButton.setOnAction(e -> {
+            fromDatePicker.setValue(null);
+            toDatePicker.setValue(null);
+        });
+        
+        dateBox.getChildren().addAll(dateFieldComboBox, fromLabel, fromDatePicker, toLabel, toDatePicker,
+                clearDatesButton);
         
-        filterBox.getChildren().addAll(filterLabel, filterComboBox);
+        loadingBox = new HBox(10);
+        loadingBox.setAlignment(Pos.CENTER);
+        loadingBar = new ProgressBar(0);
+        loadingBar.setPrefWidth(300);
+        Label loadingLabel = new Label("Loading tasks...");
+        loadingLabel.setStyle("-fx-text-fill: #7f8c8d;");
+        loadingBox.getChildren().addAll(loadingLabel, loadingBar);
         
-        topSection.getChildren().addAll(titleLabel, statsLabel, filterBox);
+        topSection.getChildren().addAll(titleLabel, statsLabel, listBox, filterBox, dateBox, loadingBox);
         return topSection;
     }
     
@@ -87,47 +419,58 @@ public class TodoAppUI extends Application {
         // Create table
         taskTable = new TableView<>();
         taskTable.setPlaceholder(new Label("No tasks found. Add your first task!"));
+        // Toggle and delete act on every selected row
+        taskTable.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
         
+        // Cell values are read with plain getters rather than looked up by
+        // reflection on every cell drawn
         // ID Column
         TableColumn<Task, Integer> idColumn = new TableColumn<>("ID");
-        idColumn.setCellValueFactory(new PropertyValueFactory<>("id"));
+        idColumn.setCellValueFactory(cellData -> new ReadOnlyObjectWrapper<>(cellData.getValue().getId()));
         idColumn.setPrefWidth(50);
         
         // Title Column
         TableColumn<Task, String> titleColumn = new TableColumn<>("Title");
-        titleColumn.setCellValueFactory(new PropertyValueFactory<>("title"));
+        titleColumn.setCellValueFactory(cellData -> new ReadOnlyStringWrapper(cellData.getValue().getTitle()));
         titleColumn.setPrefWidth(200);
         
         // Description Column
         TableColumn<Task, String> descColumn = new TableColumn<>("Description");
-        descColumn.setCellValueFactory(new PropertyValueFactory<>("description"));
+        descColumn.setCellValueFactory(cellData -> new ReadOnlyStringWrapper(cellData.getValue().getDescription()));
         descColumn.setPrefWidth(250);
         
         // Priority Column
-        TableColumn<Task, String> priorityColumn = new TableColumn<>("Priority");
-        priorityColumn.setCellValueFactory(new PropertyValueFactory<>("priority"));
+        TableColumn<Task, Task.Priority> priorityColumn = new TableColumn<>("Priority");
+        priorityColumn.setCellValueFactory(cellData -> new ReadOnlyObjectWrapper<>(cellData.getValue().getPriority()));
         priorityColumn.setPrefWidth(100);
         
         // Status Column
         TableColumn<Task, String> statusColumn = new TableColumn<>("Status");
         statusColumn.setCellValueFactory(cellData -> {
             String status = cellData.getValue().isCompleted() ? "✅ Completed" : "⏳ Pending";
-            return new javafx.beans.property.SimpleStringProperty(status);
+            return new ReadOnlyStringWrapper(status);
         });
         statusColumn.setPrefWidth(120);
         
         // Created Date Column
         TableColumn<Task, String> dateColumn = new TableColumn<>("Created");
-        dateColumn.setCellValueFactory(cellData -> {
-            String date = cellData.getValue().getCreatedAt()
-                    .format(DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm"));
-            return new javafx.beans.property.SimpleStringProperty(date);
-        });
+        dateColumn.setCellValueFactory(cellData ->
+                new ReadOnlyStringWrapper(cellData.getValue().getCreatedAt().format(CREATED_FORMAT)));
         dateColumn.setPrefWidth(150);
         
         taskTable.getColumns().addAll(Arrays.asList(
         idColumn, titleColumn, descColumn, priorityColumn, statusColumn, dateColumn));
-        taskTable.setItems(taskList);
+        columnOrders.put(idColumn, TaskSortedList.Column.ID);
+        columnOrders.put(titleColumn, TaskSortedList.Column.TITLE);
+        columnOrders.put(priorityColumn, TaskSortedList.Column.PRIORITY);
+        columnOrders.put(statusColumn, TaskSortedList.Column.STATUS);
+        columnOrders.put(dateColumn, TaskSortedList.Column.CREATED);
+        // Sorting is done by sortedTasks, not by the table comparing cell values
+        taskTable.setSortPolicy(table -> {
+            sortTable();
+            return true;
+        });
+        taskTable.setItems(filteredTasks);
         
         centerSection.getChildren().add(taskTable);
         return centerSection;
@@ -154,7 +497,11 @@ public class TodoAppUI extends Application {
         deleteButton.setStyle("-fx-background-color: #e74c3c; -fx-text-fill: white; -fx-font-weight: bold;");
         deleteButton.setOnAction(e -> deleteSelectedTask());
         
-        bottomSection.getChildren().addAll(addButton, editButton, completeButton, deleteButton);
+        Button clearCompletedButton = new Button("🧹 Clear Completed");
+        clearCompletedButton.setStyle("-fx-background-color: #7f8c8d; -fx-text-fill: white; -fx-font-weight: bold;");
+        clearCompletedButton.setOnAction(e -> clearCompletedTasks());
+        
+        bottomSection.getChildren().addAll(addButton, editButton, completeButton, deleteButton, clearCompletedButton);
         return bottomSection;
     }
     
@@ -171,9 +518,9 @@ public class TodoAppUI extends Application {
         TextField titleField = new TextField();
         TextArea descArea = new TextArea();
         descArea.setPrefRowCount(3);
-        ComboBox<String> priorityBox = new ComboBox<>();
-        priorityBox.getItems().addAll("High", "Medium", "Low");
-        priorityBox.setValue("Medium");
+        ComboBox<Task.Priority> priorityBox = new ComboBox<>();
+        priorityBox.getItems().addAll(Task.Priority.values());
+        priorityBox.setValue(Task.Priority.MEDIUM);
         
         grid.add(new Label("Title:"), 0, 0);
         grid.add(titleField, 1, 0);
@@ -194,7 +541,6 @@ public class TodoAppUI extends Application {
                 todoManager.addTask(titleField.getText().trim(), 
                                   descArea.getText().trim(), 
                                   priorityBox.getValue());
-                refreshTaskTable();
                 dialog.close();
             } else {
                 showAlert("Error", "Title cannot be empty!");
@@ -227,8 +573,8 @@ public class TodoAppUI extends Application {
         TextField titleField = new TextField(selectedTask.getTitle());
         TextArea descArea = new TextArea(selectedTask.getDescription());
         descArea.setPrefRowCount(3);
-        ComboBox<String> priorityBox = new ComboBox<>();
-        priorityBox.getItems().addAll("High", "Medium", "Low");
+        ComboBox<Task.Priority> priorityBox = new ComboBox<>();
+        priorityBox.getItems().addAll(Task.Priority.values());
         priorityBox.setValue(selectedTask.getPriority());
         
         grid.add(new Label("Title:"), 0, 0);
@@ -251,7 +597,6 @@ public class TodoAppUI extends Application {
                                      titleField.getText().trim(), 
                                      descArea.getText().trim(), 
                                      priorityBox.getValue());
-                refreshTaskTable();
                 dialog.close();
             } else {
                 showAlert("Error", "Title cannot be empty!");
@@ -266,69 +611,284 @@ public class TodoAppUI extends Application {
     }
     
     private void toggleTaskCompletion() {
-        Task selectedTask = taskTable.getSelectionModel().getSelectedItem();
-        if (selectedTask == null) {
+        List<Task> selectedTasks = selectedTasks();
+        if (selectedTasks.isEmpty()) {
             showAlert("No Selection", "Please select a task to toggle completion.");
             return;
         }
         
-        if (selectedTask.isCompleted()) {
-            todoManager.markTaskIncomplete(selectedTask.getId());
-        } else {
-            todoManager.markTaskCompleted(selectedTask.getId());
-        }
-        refreshTaskTable();
+        // A single task flips; a mixed selection is completed as a whole, and a
+        // selection that is already all completed is reopened
+        boolean allCompleted = selectedTasks.stream().allMatch(Task::isCompleted);
+        todoManager.setCompleted(ids(selectedTasks), !allCompleted);
     }
     
     private void deleteSelectedTask() {
-        Task selectedTask = taskTable.getSelectionModel().getSelectedItem();
-        if (selectedTask == null) {
+        List<Task> selectedTasks = selectedTasks();
+        if (selectedTasks.isEmpty()) {
             showAlert("No Selection", "Please select a task to delete.");
             return;
         }
         
         Alert confirmAlert = new Alert(Alert.AlertType.CONFIRMATION);
         confirmAlert.setTitle("Confirm Deletion");
-        confirmAlert.setHeaderText("Delete Task");
-        confirmAlert.setContentText("Are you sure you want to delete this task?");
+        confirmAlert.setHeaderText(selectedTasks.size() == 1 ? "Delete Task" : "Delete " + selectedTasks.size() + " Tasks");
+        confirmAlert.setContentText(selectedTasks.size() == 1
+                ? "Are you sure you want to delete this task?"
+                : "Are you sure you want to delete these " + selectedTasks.size() + " tasks?");
         
         confirmAlert.showAndWait().ifPresent(response -> {
             if (response == ButtonType.OK) {
-                todoManager.removeTask(selectedTask.getId());
-                refreshTaskTable();
+                todoManager.removeTasks(ids(selectedTasks));
             }
         });
     }
     
-    private void applyFilter() {
-        String selectedFilter = filterComboBox.getValue();
-        taskList.clear();
+    private void clearCompletedTasks() {
+        int completed = todoManager.getCompletedTaskCount();
+        if (completed == 0) {
+            showAlert("Nothing to Clear", "There are no completed tasks.");
+            return;
+        }
         
-        switch (selectedFilter) {
-            case "All Tasks":
-                taskList.addAll(todoManager.getAllTasks());
-                break;
+        Alert confirmAlert = new Alert(Alert.AlertType.CONFIRMATION);
+        confirmAlert.setTitle("Confirm Deletion");
+        confirmAlert.setHeaderText("Clear Completed Tasks");
+        confirmAlert.setContentText("Are you sure you want to delete all " + completed + " completed tasks?");
+        
+        confirmAlert.showAndWait().ifPresent(response -> {
+            if (response == ButtonType.OK) {
+                todoManager.removeCompleted();
+            }
+        });
+    }
+    
+    // Copy of the selection; it changes as soon as the manager applies the batch
+    private List<Task> selectedTasks() {
+        return new ArrayList<>(taskTable.getSelectionModel().getSelectedItems());
+    }
+    
+    private static List<Integer> ids(List<Task> tasks) {
+        List<Integer> ids = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            ids.add(task.getId());
+        }
+        return ids;
+    }
+    
+    // The filter bar as a query, without order or limit
+    private TaskQuery.Builder filterQuery() {
+        TaskQuery.Builder query = TaskQuery.builder();
+        switch (statusComboBox.getValue()) {
             case "Pending":
-                taskList.addAll(todoManager.getPendingTasks());
+                query.pending();
                 break;
             case "Completed":
-                taskList.addAll(todoManager.getCompletedTasks());
-                break;
-            case "High Priority":
-                taskList.addAll(todoManager.getTasksByPriority("High"));
-                break;
-            case "Medium Priority":
-                taskList.addAll(todoManager.getTasksByPriority("Medium"));
-                break;
-            case "Low Priority":
-                taskList.addAll(todoManager.getTasksByPriority("Low"));
+                query.completed();
                 break;
         }
+        Task.Priority priority = Task.Priority.parse(priorityComboBox.getValue());
+        if (priority != null) {
+            query.priority(priority);
+        }
+        query.text(searchField.getText());
+        if (isDateRangeSet()) {
+            if (byCompletionDate()) {
+                query.completedBetween(rangeStart(), rangeEnd());
+            } else {
+                query.createdBetween(rangeStart(), rangeEnd());
+            }
+        }
+        return query;
+    }
+    
+    // Status and priority alone filter the live view. Searches and date
+    // ranges go to TodoManager.query on queryExecutor, which starts from
+    // whichever of its indexes leaves the fewest tasks to check, so each
+    // search or date picked costs the matches rather than a scan of every
+    // task; the table shows the results once they are in.
+    private void applyQuery() {
+        queryGeneration++;
+        TaskQuery.Builder builder = filterQuery();
+        TaskQuery query = builder.build();
+        boolean history = showsHistory(query);
+        if (!query.needsIndex() && !history) {
+            boolean all = "All Tasks".equals(statusComboBox.getValue())
+                    && "Any Priority".equals(priorityComboBox.getValue());
+            filteredTasks.setPredicate(all ? null : query::matches);
+            if (taskTable.getItems() != filteredTasks) {
+                taskTable.setItems(filteredTasks);
+            }
+            return;
+        }
+        
+        if (taskTable.getItems() != searchResults) {
+            taskTable.setItems(searchResults);
+        }
+        if (todoManager == null) {
+            // Still loading; the query runs again as tasks arrive
+            searchResults.clear();
+            searchGeneration++;
+            return;
+        }
+        if (history) {
+            if (todoManager.isArchiveLoaded()) {
+                builder.withArchived();
+            } else {
+                // Live results now, archived ones once they are read in
+                loadArchive();
+            }
+        }
+        if (query.text != null) {
+            builder.orderBy(TaskQuery.Sort.RELEVANCE).limit(SEARCH_LIMIT);
+        } else if (query.needsIndex()) {
+            builder.orderBy(byCompletionDate() ? TaskQuery.Sort.COMPLETED : TaskQuery.Sort.CREATED);
+        } else {
+            builder.orderBy(TaskQuery.Sort.COMPLETED, true);
+        }
+        runQuery(builder.build());
+    }
+    
+    // While a query runs, later ones only mark it stale; once it ends,
+    // applyQuery runs again with the filter bar as it then stands
+    private void runQuery(TaskQuery query) {
+        if (queryRunning) {
+            queryPending = true;
+            return;
+        }
+        queryRunning = true;
+        int generation = queryGeneration;
+        TodoManager manager = todoManager;
+        CompletableFuture.supplyAsync(() -> manager.query(query), queryExecutor)
+                .whenComplete((results, e) -> Platform.runLater(() -> {
+                    queryRunning = false;
+                    if (queryPending) {
+                        queryPending = false;
+                        applyQuery();
+                    } else if (e != null) {
+                        System.err.println("Error querying tasks: " + e.getMessage());
+                    } else if (generation == queryGeneration && manager == todoManager) {
+                        searchResults.setAll(results);
+                        searchGeneration++;
+                        sortResults();
+                    }
+                }));
+    }
+    
+    // The table's sort policy. One column with a kept order is shown from
+    // sortedTasks at once, or as soon as it is first sorted; any other order
+    // is sorted off the FX thread.
+    private void sortTable() {
+        List<TableColumn<Task, ?>> sortOrder = taskTable.getSortOrder();
+        if (sortOrder.isEmpty()) {
+            sortedTasks.sortBy(TaskSortedList.Column.ID, false);
+        } else if (sortOrder.size() == 1 && columnOrders.containsKey(sortOrder.get(0))) {
+            TableColumn<Task, ?> column = sortOrder.get(0);
+            sortedTasks.sortBy(columnOrders.get(column), column.getSortType() == TableColumn.SortType.DESCENDING);
+        } else {
+            sortedTasks.sortBy(tableOrder());
+        }
+        if (taskTable.getItems() == searchResults) {
+            // Back to the query's own order if the headers were cleared
+            applyQuery();
+        }
+    }
+    
+    // The order the column headers ask for, or null for none
+    private Comparator<Task> tableOrder() {
+        Comparator<Task> order = null;
+        for (TableColumn<Task, ?> column : taskTable.getSortOrder()) {
+            TaskSortedList.Column kept = columnOrders.get(column);
+            Comparator<Task> next = kept != null ? kept.key : DESCRIPTION_ORDER;
+            if (column.getSortType() == TableColumn.SortType.DESCENDING) {
+                next = next.reversed();
+            }
+            order = order == null ? next : order.thenComparing(next);
+        }
+        return order == null ? null : order.thenComparingInt(Task::getId);
     }
     
+    // Search results in the order of the column headers, if any; a long list
+    // is sorted with Arrays.parallelSort on a background thread
+    private void sortResults() {
+        Comparator<Task> order = tableOrder();
+        if (order == null) {
+            return;
+        }
+        Task[] results = searchResults.toArray(new Task[0]);
+        if (results.length <= SORT_IN_PLACE_MAX) {
+            Arrays.sort(results, order);
+            searchResults.setAll(results);
+            return;
+        }
+        int generation = searchGeneration;
+        CompletableFuture.runAsync(() -> Arrays.parallelSort(results, order)).thenRun(() -> Platform.runLater(() -> {
+            if (generation == searchGeneration) {
+                searchResults.setAll(results);
+            }
+        }));
+    }
+    
+    private boolean isQuerying() {
+        TaskQuery query = filterQuery().build();
+        return query.needsIndex() || showsHistory(query);
+    }
+    
+    // Completed tasks and searches take in the archived tasks, which only
+    // TodoManager.query reaches
+    private boolean showsHistory(TaskQuery query) {
+        return todoManager != null && todoManager.getArchivedTaskCount() > 0
+                && !Boolean.FALSE.equals(query.completed)
+                && (query.needsIndex() || Boolean.TRUE.equals(query.completed));
+    }
+    
+    // Read the archive in off the FX thread, then run the query again
+    private void loadArchive() {
+        if (archiveLoading) {
+            return;
+        }
+        archiveLoading = true;
+        TodoManager manager = todoManager;
+        CompletableFuture.runAsync(manager::loadArchive).whenComplete((ignored, e) -> Platform.runLater(() -> {
+            archiveLoading = false;
+            if (manager == todoManager && manager.isArchiveLoaded()) {
+                applyQuery();
+            }
+        }));
+    }
+    
+    private boolean isDateRangeSet() {
+        return fromDatePicker.getValue() != null || toDatePicker.getValue() != null;
+    }
+    
+    private boolean byCompletionDate() {
+        return "Completed".equals(dateFieldComboBox.getValue());
+    }
+    
+    private LocalDateTime rangeStart() {
+        LocalDate from = fromDatePicker.getValue();
+        return from != null ? from.atStartOfDay() : null;
+    }
+    
+    // The To day is included, so the range ends as the next day starts
+    private LocalDateTime rangeEnd() {
+        LocalDate to = toDatePicker.getValue();
+        return to != null ? to.plusDays(1).atStartOfDay() : null;
+    }
+    
+    // Full reload; after this, changes arrive through TableUpdater
     private void refreshTaskTable() {
-        applyFilter();
+        long start = Metrics.start();
+        TaskEvents.RefreshTable event = new TaskEvents.RefreshTable();
+        event.begin();
+        taskList.setAll(todoManager.getAllTasks());
+        applyQuery();
         updateStats();
+        Metrics.REFRESH_TABLE.recordSince(start);
+        if (event.shouldCommit()) {
+            event.rows = taskList.size();
+            event.commit();
+        }
     }
     
     private void updateStats() {
@@ -338,6 +898,98 @@ public class TodoAppUI extends Application {
         
         statsLabel.setText(String.format("📊 Total: %d | ✅ Completed: %d | ⏳ Pending: %d", 
                                         total, completed, pending));
+        int archived = todoManager.getArchivedTaskCount();
+        if (archived > 0) {
+            statsLabel.setText(statsLabel.getText() + String.format(" | 🗄️ Archived: %d", archived));
+        }
+    }
+    
+    // Keeps the table in step with one list's manager; anything it hears
+    // after another list was picked is ignored
+    private class TableUpdater implements TaskListener {
+        private final TodoManager manager;
+        
+        TableUpdater(TodoManager manager) {
+            this.manager = manager;
+        }
+        
+        @Override
+        public void taskAdded(Task task) {
+            onFxThread(() -> {
+                taskList.add(task);
+                updateStats();
+                refreshSearch();
+            });
+        }
+        
+        @Override
+        public void tasksAdded(List<Task> tasks) {
+            onFxThread(() -> {
+                taskList.addAll(tasks);
+                updateStats();
+                refreshSearch();
+            });
+        }
+        
+        @Override
+        public void taskUpdated(Task task) {
+            onFxThread(() -> {
+                taskList.updateTask(task);
+                updateStats();
+                refreshSearch();
+            });
+        }
+        
+        @Override
+        public void tasksUpdated(List<Task> tasks) {
+            onFxThread(() -> {
+                taskList.reinsertUpdated(tasks);
+                updateStats();
+                refreshSearch();
+            });
+        }
+        
+        @Override
+        public void tasksRemoved(List<Task> tasks) {
+            onFxThread(() -> {
+                taskList.removeTasks(tasks);
+                updateStats();
+                refreshSearch();
+            });
+        }
+        
+        @Override
+        public void taskRemoved(Task task) {
+            onFxThread(() -> {
+                int index = taskList.indexOfId(task.getId());
+                if (index >= 0) {
+                    taskList.remove(index);
+                }
+                updateStats();
+                refreshSearch();
+            });
+        }
+        
+        // Search and date-range results are a snapshot; re-run the query to
+        // keep them current
+        private void refreshSearch() {
+            if (isQuerying()) {
+                applyQuery();
+            }
+        }
+        
+        private void onFxThread(Runnable action) {
+            Runnable current = () -> {
+                if (manager == todoManager) {
+                    action.run();
+                }
+            };
+            if (Platform.isFxApplicationThread()) {
+                current.run();
+            } else {
+                Platform.runLater(current);
+            }
+        }
     }
     
     private void showAlert(String title, String message) {
@@ -1,119 +1,1580 @@
 // TodoManager.java
 package main;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
+// Safe to share between the UI thread and background threads. Mutations take
+// the write side of a StampedLock; the id map and all indexes change together
+// under it, and the matching journal record is appended before it is released
+// so the journal order always matches the in-memory order. Reads first try an
+// optimistic, lock-free pass and only fall back to the read lock if a writer
+// interfered. Listeners hear about each change after the lock is released.
+// Every change is also published on a change feed as a numbered TaskChange,
+// which subscribers read at their own pace; see subscribe.
+//
+// A manager can also start empty and load on a background thread; see
+// loadInBackground.
 public class TodoManager {
-    private List<Task> tasks;
-    private FileHandler fileHandler;
-    private int nextId;
+    // OBJECTS keeps a Task object per task (IndexedTaskMap); COLUMNS keeps the
+    // fields in primitive arrays (TaskStore), which takes far less heap for
+    // large lists but builds a new Task for every one a query returns
+    public enum Storage { OBJECTS, COLUMNS }
+    
+    private static final String STORAGE_PROPERTY = "todo.storage";
+    
+    // First chunk of a background load, kept small so the table fills quickly;
+    // later chunks double up to MAX_LOAD_CHUNK to keep per-chunk overhead low
+    private static final int FIRST_LOAD_CHUNK = 256;
+    private static final int MAX_LOAD_CHUNK = 16384;
+    // Tasks forEachTask copies per read lock
+    private static final int VISIT_PAGE = 4096;
+    
+    private final StampedLock lock = new StampedLock();
+    private final Storage storage;
+    // Tasks by id with their completion and priority indexes
+    private TaskTable tasks;
+    // Built on the first search, then maintained by every mutation
+    private SearchIndex searchIndex;
+    // Built together on the first date-range query, then maintained by every
+    // mutation; completedIndex holds only tasks with a completion time
+    private TimeIndex createdIndex;
+    private TimeIndex completedIndex;
+    private final FileHandler fileHandler;
+    // Above every id this manager has seen
+    private final AtomicInteger nextId;
+    // New ids come from blocks leased through the file handler, so processes
+    // sharing the data directory never hand out the same one
+    private final Object idLock = new Object();
+    private int leasedId;
+    private int leaseEnd;
+    // Bumped by every change to the tasks, and the sequence number of the
+    // TaskChange that describes it; written under the write lock
+    private volatile long version;
+    private final ChangeFeed feed = new ChangeFeed();
+    private final List<TaskListener> listeners = new CopyOnWriteArrayList<>();
+    // Mutations made while a background load runs, applied in order once it is
+    // done; null when no load is pending. Guarded by the write lock.
+    private List<Runnable> deferred;
+    private volatile boolean loading;
+    private volatile Thread loaderThread;
     
     public TodoManager() {
-        this.tasks = new ArrayList<>();
-        this.fileHandler = new FileHandler();
-        this.nextId = 1;
-        loadTasks();
+        this(new FileHandler());
     }
     
-    public void addTask(String title, String description, String priority) {
-        Task task = new Task(nextId++, title, description, priority);
-        tasks.add(task);
-        saveTasks();
+    public TodoManager(FileHandler fileHandler) {
+        this(fileHandler, true);
     }
     
-    public void removeTask(int id) {
-        tasks.removeIf(task -> task.getId() == id);
-        saveTasks();
+    // With loadNow false the manager starts empty; register listeners, then
+    // call loadInBackground
+    public TodoManager(FileHandler fileHandler, boolean loadNow) {
+        this(fileHandler, loadNow, defaultStorage());
     }
     
-    public void markTaskCompleted(int id) {
-        for (Task task : tasks) {
-            if (task.getId() == id) {
-                task.setCompleted(true);
-                saveTasks();
-                break;
+    public TodoManager(FileHandler fileHandler, boolean loadNow, Storage storage) {
+        this.storage = storage;
+        this.tasks = newTable(0);
+        this.fileHandler = fileHandler;
+        this.nextId = new AtomicInteger(1);
+        if (loadNow) {
+            loadTasks();
+        } else {
+            deferred = new ArrayList<>();
+            loading = true;
+        }
+    }
+    
+    public Task addTask(String title, String description, String priority) {
+        return addTask(title, description, Task.Priority.orDefault(priority));
+    }
+    
+    // The new task, or null if it was queued behind a background load
+    public Task addTask(String title, String description, Task.Priority priority) {
+        if (deferWhileLoading(() -> addTask(title, description, priority))) {
+            return null;
+        }
+        long start = Metrics.start();
+        TaskEvents.Mutation event = new TaskEvents.Mutation();
+        event.begin();
+        // Ids come from the lease, so the task is built outside the lock
+        Task task = new Task(allocateId(), title, description, priority);
+        long stamp = lock.writeLock();
+        try {
+            insert(task);
+            fileHandler.appendAdd(task);
+            compactIfNeeded();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        feed.publish();
+        for (TaskListener listener : listeners) {
+            listener.taskAdded(task);
+        }
+        mutated(Metrics.ADD, start, event, 1);
+        return task;
+    }
+    
+    public void removeTask(int id) {
+        if (deferWhileLoading(() -> removeTask(id))) {
+            return;
+        }
+        if (archivedOnly(id)) {
+            removeTasks(List.of(id));
+            return;
+        }
+        long start = Metrics.start();
+        TaskEvents.Mutation event = new TaskEvents.Mutation();
+        event.begin();
+        Task task;
+        long stamp = lock.writeLock();
+        try {
+            task = delete(id);
+            if (task != null) {
+                fileHandler.appendDelete(id);
+                compactIfNeeded();
             }
+        } finally {
+            lock.unlockWrite(stamp);
         }
+        feed.publish();
+        if (task != null) {
+            for (TaskListener listener : listeners) {
+                listener.taskRemoved(task);
+            }
+        }
+        mutated(Metrics.REMOVE, start, event, task != null ? 1 : 0);
+    }
+    
+    public void markTaskCompleted(int id) {
+        setCompletion(id, true);
     }
     
     public void markTaskIncomplete(int id) {
-        for (Task task : tasks) {
-            if (task.getId() == id) {
-                task.setCompleted(false);
-                saveTasks();
-                break;
+        setCompletion(id, false);
+    }
+    
+    private void setCompletion(int id, boolean completed) {
+        if (deferWhileLoading(() -> setCompletion(id, completed))) {
+            return;
+        }
+        if (!completed && archivedOnly(id)) {
+            setCompleted(List.of(id), false);
+            return;
+        }
+        long start = Metrics.start();
+        TaskEvents.Mutation event = new TaskEvents.Mutation();
+        event.begin();
+        Task task;
+        long stamp = lock.writeLock();
+        try {
+            task = complete(id, completed);
+            if (task != null) {
+                fileHandler.appendCompletion(task);
+                compactIfNeeded();
             }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        feed.publish();
+        if (task != null) {
+            notifyUpdated(task);
         }
+        mutated(Metrics.COMPLETE, start, event, task != null ? 1 : 0);
     }
     
     public void updateTask(int id, String title, String description, String priority) {
-        for (Task task : tasks) {
-            if (task.getId() == id) {
-                task.setTitle(title);
-                task.setDescription(description);
-                task.setPriority(priority);
-                saveTasks();
-                break;
+        updateTask(id, title, description, Task.Priority.orDefault(priority));
+    }
+    
+    public void updateTask(int id, String title, String description, Task.Priority priority) {
+        if (deferWhileLoading(() -> updateTask(id, title, description, priority))) {
+            return;
+        }
+        if (archivedOnly(id)) {
+            batch(batch -> batch.update(id, title, description, priority));
+            return;
+        }
+        long start = Metrics.start();
+        TaskEvents.Mutation event = new TaskEvents.Mutation();
+        event.begin();
+        Task task;
+        long stamp = lock.writeLock();
+        try {
+            task = change(id, title, description, priority);
+            if (task != null) {
+                fileHandler.appendUpdate(task);
+                compactIfNeeded();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        feed.publish();
+        if (task != null) {
+            notifyUpdated(task);
+        }
+        mutated(Metrics.UPDATE, start, event, task != null ? 1 : 0);
+    }
+    
+    // Adds copies of the tasks under new ids, keeping their other fields
+    // (timestamps, completion), as one batch
+    public void addTasks(Collection<Task> newTasks) {
+        batch(batch -> {
+            for (Task task : newTasks) {
+                batch.add(task);
+            }
+        });
+    }
+    
+    public void removeTasks(Collection<Integer> ids) {
+        batch(batch -> {
+            for (int id : ids) {
+                batch.remove(id);
+            }
+        });
+    }
+    
+    public void setCompleted(Collection<Integer> ids, boolean completed) {
+        batch(batch -> {
+            for (int id : ids) {
+                batch.setCompleted(id, completed);
+            }
+        });
+    }
+    
+    public void removeCompleted() {
+        batch(Batch::removeCompleted);
+    }
+    
+    // Move the tasks completed longer than olderThan ago to the archive, as
+    // one batch; listeners hear them removed. Returns how many moved. Loading
+    // does the same if the FileHandler has an archive age set.
+    public int archiveCompleted(Duration olderThan) {
+        if (deferWhileLoading(() -> archiveCompleted(olderThan))) {
+            return 0;
+        }
+        long start = Metrics.start();
+        TaskEvents.Mutation event = new TaskEvents.Mutation();
+        event.begin();
+        long before = Task.now() - olderThan.toNanos();
+        BatchChanges changes = new BatchChanges();
+        long stamp = lock.writeLock();
+        try {
+            List<Task> old = new ArrayList<>();
+            tasks.scan(true, null, task -> {
+                if (task.getCompletedAtNanos() != Task.NO_TIME && task.getCompletedAtNanos() < before) {
+                    old.add(task);
+                }
+                return true;
+            });
+            if (!old.isEmpty() && fileHandler.moveToArchive(old)) {
+                for (Task task : old) {
+                    changes.remove(task.getId());
+                }
+                fileHandler.append(changes.journal);
+                compactIfNeeded();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        feed.publish();
+        changes.notifyListeners();
+        mutated(Metrics.BATCH, start, event, changes.size());
+        return changes.size();
+    }
+    
+    // Archived tasks, read in from the archive the first time
+    public List<Task> getArchivedTasks() {
+        List<Task> archived = new ArrayList<>();
+        scanArchive(null, task -> archived.add(task.copy()));
+        return withoutLive(archived);
+    }
+    
+    // Hand every archived task to action in id order, reading the archive in
+    // the first time. The ids are listed first and the tasks copied a page
+    // at a time, so no lock is held while action runs.
+    public void forEachArchivedTask(Consumer<Task> action) throws IOException {
+        TaskArchive archive = fileHandler.archive();
+        int[] ids = archive.ids();
+        for (int from = 0; from < ids.length; from += VISIT_PAGE) {
+            for (Task task : withoutLive(archive.copies(ids, from, Math.min(ids.length, from + VISIT_PAGE)))) {
+                action.accept(task);
+            }
+        }
+    }
+    
+    // Known without reading the archive
+    public int getArchivedTaskCount() {
+        return fileHandler.archive().size();
+    }
+    
+    // True if archived tasks can be listed or queried without reading a file
+    public boolean isArchiveLoaded() {
+        return fileHandler.archive().isLoaded();
+    }
+    
+    // Read the archive in ahead of a query that needs it, say on a
+    // background thread
+    public void loadArchive() {
+        try {
+            fileHandler.archive().pageIn();
+        } catch (IOException e) {
+            System.err.println("Error reading archive: " + e.getMessage());
+        }
+    }
+    
+    // Every archived task, or with text those matching it, best first
+    private void scanArchive(String text, Predicate<Task> visitor) {
+        try {
+            if (text != null) {
+                fileHandler.archive().search(text, visitor);
+            } else {
+                fileHandler.archive().scan(visitor);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading archive: " + e.getMessage());
+        }
+    }
+    
+    private Task archivedTask(int id) {
+        try {
+            return fileHandler.archive().get(id);
+        } catch (IOException e) {
+            System.err.println("Error reading archive: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    // A task only the archive has. A change to one goes through a batch,
+    // which takes it back out of the archive.
+    private boolean archivedOnly(int id) {
+        if (fileHandler.archive().size() == 0) {
+            return false;
+        }
+        long stamp = lock.readLock();
+        try {
+            if (tasks.get(id) != null) {
+                return false;
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return archivedTask(id) != null;
+    }
+    
+    // A crash between archiving tasks and journaling their removal leaves
+    // them in both places; the live copy wins
+    private List<Task> withoutLive(List<Task> archived) {
+        if (archived.isEmpty()) {
+            return archived;
+        }
+        long stamp = lock.readLock();
+        try {
+            archived.removeIf(task -> tasks.get(task.getId()) != null);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return archived;
+    }
+    
+    // Record changes on the Batch, then apply them all at once: one write lock,
+    // one journal write and one round of listener calls. Nothing is applied if
+    // the body throws. The body must not call back into this manager's mutators.
+    public void batch(Consumer<Batch> body) {
+        if (deferWhileLoading(() -> batch(body))) {
+            return;
+        }
+        Batch batch = new Batch();
+        body.accept(batch);
+        if (batch.operations.isEmpty()) {
+            return;
+        }
+        
+        long start = Metrics.start();
+        TaskEvents.Mutation event = new TaskEvents.Mutation();
+        event.begin();
+        BatchChanges changes = new BatchChanges();
+        long stamp = lock.writeLock();
+        try {
+            for (Consumer<BatchChanges> operation : batch.operations) {
+                operation.accept(changes);
             }
+            fileHandler.append(changes.journal);
+            if (!changes.unarchived.isEmpty()) {
+                fileHandler.removeFromArchive(changes.unarchived);
+            }
+            compactIfNeeded();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        feed.publish();
+        changes.notifyListeners();
+        mutated(Metrics.BATCH, start, event, changes.size());
+    }
+    
+    // Changes collected by batch(); ids of added tasks are assigned when they
+    // are applied
+    public final class Batch {
+        private final List<Consumer<BatchChanges>> operations = new ArrayList<>();
+        
+        private Batch() {
+        }
+        
+        public void add(String title, String description, Task.Priority priority) {
+            Task task = new Task(0, title, description, priority);
+            operations.add(changes -> changes.add(task));
+        }
+        
+        // Adds a copy of task under a new id
+        public void add(Task task) {
+            Task copy = task.copy();
+            operations.add(changes -> changes.add(copy));
+        }
+        
+        public void remove(int id) {
+            operations.add(changes -> changes.remove(id));
+        }
+        
+        public void setCompleted(int id, boolean completed) {
+            operations.add(changes -> changes.setCompleted(id, completed));
+        }
+        
+        public void update(int id, String title, String description, Task.Priority priority) {
+            operations.add(changes -> changes.update(id, title, description, priority));
+        }
+        
+        // Like update, but a null title, description or priority keeps the
+        // task's own, as it is when the batch is applied
+        public void edit(int id, String title, String description, Task.Priority priority) {
+            operations.add(changes -> changes.edit(id, title, description, priority));
+        }
+        
+        // Every task that is completed when the batch is applied
+        public void removeCompleted() {
+            operations.add(changes -> {
+                for (Task task : tasks.completed()) {
+                    changes.remove(task.getId());
+                }
+            });
+        }
+    }
+    
+    // Net effect of a batch on listeners: a task added and then removed in the
+    // same batch is never announced, and an added task is not also "updated"
+    private final class BatchChanges {
+        private final FileHandler.JournalBatch journal = new FileHandler.JournalBatch();
+        private final Map<Integer, Task> added = new LinkedHashMap<>();
+        private final Map<Integer, Task> updated = new LinkedHashMap<>();
+        private final Map<Integer, Task> removed = new LinkedHashMap<>();
+        // Archived tasks to take out of the archive once the batch is journaled
+        private final Set<Integer> unarchived = new LinkedHashSet<>();
+        
+        void add(Task task) {
+            task.setId(allocateId());
+            insert(task);
+            journal.add(task);
+            added.put(task.getId(), task);
+        }
+        
+        void remove(int id) {
+            Task task = delete(id);
+            if (task != null) {
+                journal.delete(id);
+                if (added.remove(id) == null) {
+                    updated.remove(id);
+                    removed.put(id, task);
+                }
+            } else if (!unarchived.contains(id)) {
+                Task archived = archivedTask(id);
+                if (archived != null) {
+                    unarchived.add(id);
+                    removed.put(id, archived);
+                }
+            }
+        }
+        
+        // An archived task comes back to the working set before it changes
+        private void restore(int id) {
+            if (fileHandler.archive().size() == 0 || unarchived.contains(id) || tasks.get(id) != null) {
+                return;
+            }
+            Task task = archivedTask(id);
+            if (task != null) {
+                insert(task);
+                journal.add(task);
+                added.put(id, task);
+                unarchived.add(id);
+            }
+        }
+        
+        void setCompleted(int id, boolean completed) {
+            if (!completed) {
+                restore(id);
+            }
+            Task task = complete(id, completed);
+            if (task != null) {
+                journal.completion(task);
+                changed(task);
+            }
+        }
+        
+        void update(int id, String title, String description, Task.Priority priority) {
+            restore(id);
+            Task task = change(id, title, description, priority);
+            if (task != null) {
+                journal.update(task);
+                changed(task);
+            }
+        }
+        
+        void edit(int id, String title, String description, Task.Priority priority) {
+            restore(id);
+            Task current = tasks.get(id);
+            if (current != null) {
+                update(id, title != null ? title : current.getTitle(),
+                        description != null ? description : current.getDescription(),
+                        priority != null ? priority : current.getPriority());
+            }
+        }
+        
+        // A task added earlier in the batch is announced once, in its final form
+        private void changed(Task task) {
+            if (added.containsKey(task.getId())) {
+                added.put(task.getId(), task);
+            } else {
+                updated.put(task.getId(), task);
+            }
+        }
+        
+        int size() {
+            return added.size() + updated.size() + removed.size();
+        }
+        
+        void notifyListeners() {
+            notifyChanged(removed, updated, added);
+        }
+    }
+    
+    // Removals first, so a listener never sees two tasks with one id
+    private void notifyChanged(Map<Integer, Task> removed, Map<Integer, Task> updated, Map<Integer, Task> added) {
+        for (TaskListener listener : listeners) {
+            if (!removed.isEmpty()) {
+                listener.tasksRemoved(new ArrayList<>(removed.values()));
+            }
+            if (!updated.isEmpty()) {
+                listener.tasksUpdated(new ArrayList<>(updated.values()));
+            }
+            if (!added.isEmpty()) {
+                listener.tasksAdded(new ArrayList<>(added.values()));
+            }
+        }
+    }
+    
+    // The helpers below change the id map and every index together; callers
+    // hold the write lock and write the journal record themselves
+    
+    private void insert(Task task) {
+        tasks.put(task);
+        feed.append(new TaskChange(++version, TaskChange.Type.ADDED, snapshot(task)));
+        if (searchIndex != null) {
+            searchIndex.add(task);
+        }
+        if (createdIndex != null) {
+            indexTimes(task);
+        }
+    }
+    
+    private Task delete(int id) {
+        Task task = tasks.remove(id);
+        if (task != null) {
+            feed.append(new TaskChange(++version, TaskChange.Type.REMOVED, task));
+            if (searchIndex != null) {
+                searchIndex.remove(task);
+            }
+            if (createdIndex != null) {
+                unindexTimes(task);
+            }
+        }
+        return task;
+    }
+    
+    // The task, or null if it does not exist or is already in that state
+    private Task complete(int id, boolean completed) {
+        if (completedIndex == null) {
+            Task task = tasks.setCompleted(id, completed);
+            if (task != null) {
+                feed.append(new TaskChange(++version, TaskChange.Type.COMPLETED, snapshot(task)));
+            }
+            return task;
+        }
+        // The index must see the old completion time to remove it
+        Task previous = tasks.get(id);
+        if (previous == null) {
+            return null;
+        }
+        long previousCompletedAt = previous.getCompletedAtNanos();
+        Task task = tasks.setCompleted(id, completed);
+        if (task != null) {
+            feed.append(new TaskChange(++version, TaskChange.Type.COMPLETED, snapshot(task)));
+        }
+        if (task != null && task.getCompletedAtNanos() != previousCompletedAt) {
+            if (previousCompletedAt != Task.NO_TIME) {
+                completedIndex.remove(previousCompletedAt, id);
+            }
+            if (task.getCompletedAtNanos() != Task.NO_TIME) {
+                completedIndex.add(task.getCompletedAtNanos(), id);
+            }
+        }
+        return task;
+    }
+    
+    private Task change(int id, String title, String description, Task.Priority priority) {
+        // The index must see the old text to remove it, and the feed what changed
+        Task previous = tasks.get(id);
+        if (previous == null) {
+            return null;
+        }
+        Set<TaskChange.Field> fields = changedFields(previous, title, description, priority);
+        if (searchIndex != null) {
+            searchIndex.remove(previous);
+        }
+        Task task = tasks.update(id, title, description, priority);
+        feed.append(new TaskChange(++version, TaskChange.Type.UPDATED, snapshot(task), fields));
+        if (searchIndex != null) {
+            searchIndex.add(task);
+        }
+        return task;
+    }
+    
+    private static Set<TaskChange.Field> changedFields(Task previous, String title, String description,
+            Task.Priority priority) {
+        Set<TaskChange.Field> fields = EnumSet.noneOf(TaskChange.Field.class);
+        if (!Objects.equals(previous.getTitle(), title)) {
+            fields.add(TaskChange.Field.TITLE);
+        }
+        if (!Objects.equals(previous.getDescription(), description)) {
+            fields.add(TaskChange.Field.DESCRIPTION);
+        }
+        if (previous.getPriority() != priority) {
+            fields.add(TaskChange.Field.PRIORITY);
+        }
+        return fields;
+    }
+    
+    // Replace a task wholesale with task, as changed elsewhere; the feed hears
+    // an update and a completion, whichever apply. Null if nothing differs.
+    private Task overwrite(Task previous, Task task) {
+        Set<TaskChange.Field> fields = changedFields(previous, task.getTitle(), task.getDescription(),
+                task.getPriority());
+        boolean created = previous.getCreatedAtNanos() != task.getCreatedAtNanos();
+        boolean completion = previous.isCompleted() != task.isCompleted()
+                || previous.getCompletedAtNanos() != task.getCompletedAtNanos();
+        if (fields.isEmpty() && !created && !completion) {
+            return null;
+        }
+        if (searchIndex != null) {
+            searchIndex.remove(previous);
+        }
+        if (createdIndex != null) {
+            unindexTimes(previous);
+        }
+        tasks.put(task);
+        // Column storage copies the fields into a row of its own
+        Task stored = tasks.get(task.getId());
+        if (!fields.isEmpty() || created) {
+            feed.append(new TaskChange(++version, TaskChange.Type.UPDATED, snapshot(stored), fields));
+        }
+        if (completion) {
+            feed.append(new TaskChange(++version, TaskChange.Type.COMPLETED, snapshot(stored)));
+        }
+        if (searchIndex != null) {
+            searchIndex.add(stored);
+        }
+        if (createdIndex != null) {
+            indexTimes(stored);
+        }
+        return stored;
+    }
+    
+    private void indexTimes(Task task) {
+        createdIndex.add(task.getCreatedAtNanos(), task.getId());
+        if (task.getCompletedAtNanos() != Task.NO_TIME) {
+            completedIndex.add(task.getCompletedAtNanos(), task.getId());
+        }
+    }
+    
+    private void unindexTimes(Task task) {
+        createdIndex.remove(task.getCreatedAtNanos(), task.getId());
+        if (task.getCompletedAtNanos() != Task.NO_TIME) {
+            completedIndex.remove(task.getCompletedAtNanos(), task.getId());
+        }
+    }
+    
+    // The feed keeps tasks as they were at the change. Stored objects change
+    // in place, so they are copied; column storage already built a new one.
+    private Task snapshot(Task task) {
+        return storage == Storage.OBJECTS ? task.copy() : task;
+    }
+    
+    public void addTaskListener(TaskListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeTaskListener(TaskListener listener) {
+        listeners.remove(listener);
+    }
+    
+    private static void mutated(LatencyHistogram histogram, long start, TaskEvents.Mutation event, int tasks) {
+        histogram.recordSince(start);
+        if (event.shouldCommit()) {
+            event.operation = histogram.name();
+            event.tasks = tasks;
+            event.commit();
+        }
+    }
+    
+    private void notifyUpdated(Task task) {
+        for (TaskListener listener : listeners) {
+            listener.taskUpdated(task);
         }
     }
     
     public List<Task> getAllTasks() {
-        return new ArrayList<>(tasks);
+        return read(Metrics.GET_ALL, () -> tasks.all());
     }
     
     public List<Task> getCompletedTasks() {
-        return tasks.stream()
-                .filter(Task::isCompleted)
-                .collect(Collectors.toList());
+        return read(Metrics.GET_COMPLETED, () -> tasks.completed());
     }
     
     public List<Task> getPendingTasks() {
-        return tasks.stream()
-                .filter(task -> !task.isCompleted())
-                .collect(Collectors.toList());
+        return read(Metrics.GET_PENDING, () -> tasks.pending());
     }
     
+    // Matched case-insensitively; text that is not a priority matches nothing
     public List<Task> getTasksByPriority(String priority) {
-        return tasks.stream()
-                .filter(task -> task.getPriority().equalsIgnoreCase(priority))
-                .collect(Collectors.toList());
+        Task.Priority parsed = Task.Priority.parse(priority);
+        return parsed != null ? getTasksByPriority(parsed) : new ArrayList<>();
+    }
+    
+    public List<Task> getTasksByPriority(Task.Priority priority) {
+        return read(Metrics.GET_BY_PRIORITY, () -> tasks.byPriority(priority));
     }
     
     public Task getTaskById(int id) {
-        return tasks.stream()
-                .filter(task -> task.getId() == id)
-                .findFirst()
-                .orElse(null);
+        return read(Metrics.GET_BY_ID, () -> tasks.get(id));
+    }
+    
+    // Like getTaskById, but an archived task is found too, reading the
+    // archive in if need be
+    public Task findTask(int id) {
+        Task task = getTaskById(id);
+        if (task != null || fileHandler.archive().size() == 0) {
+            return task;
+        }
+        return archivedTask(id);
+    }
+    
+    // Hand every task to action in id order, a page at a time: each page is
+    // copied under the read lock and handed over once it is released, so
+    // writers wait for one page at most and memory holds one page however
+    // many tasks there are. Tasks added or changed meanwhile are seen if
+    // their page is read after the change.
+    public void forEachTask(Consumer<Task> action) {
+        List<Task> page = new ArrayList<>(VISIT_PAGE);
+        long from = Integer.MIN_VALUE;
+        while (from <= Integer.MAX_VALUE) {
+            page.clear();
+            long stamp = lock.readLock();
+            try {
+                from = readPage(from, page);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            for (Task task : page) {
+                action.accept(task);
+            }
+        }
+    }
+    
+    // Copy up to VISIT_PAGE tasks with ids from on into page, in id order, and
+    // return the id to go on from, past Integer.MAX_VALUE at the end. Ids the
+    // manager hands out are dense, bar the unused ends of leased blocks, so it
+    // looks them up one by one; where they are sparse (the first page, below
+    // id 1, or after many removals) it picks the lowest ids out of one pass
+    // over the table instead.
+    private long readPage(long from, List<Task> page) {
+        long last = nextId.get() - 1L;
+        if (from > last) {
+            return Long.MAX_VALUE;
+        }
+        if (last - from < 4L * tasks.size() + VISIT_PAGE) {
+            long id = from;
+            for (; id <= last && page.size() < VISIT_PAGE; id++) {
+                Task task = tasks.get((int) id);
+                if (task != null) {
+                    page.add(snapshot(task));
+                }
+            }
+            return id;
+        }
+        // Highest id kept so far at the head
+        PriorityQueue<Task> lowest = new PriorityQueue<>(VISIT_PAGE + 1,
+                Comparator.comparingInt(Task::getId).reversed());
+        tasks.scan(null, null, task -> {
+            if (task.getId() >= from && (lowest.size() < VISIT_PAGE || task.getId() < lowest.peek().getId())) {
+                lowest.add(task);
+                if (lowest.size() > VISIT_PAGE) {
+                    lowest.poll();
+                }
+            }
+            return true;
+        });
+        for (Task task : lowest) {
+            page.add(snapshot(task));
+        }
+        page.sort(Comparator.comparingInt(Task::getId));
+        return lowest.size() < VISIT_PAGE ? Long.MAX_VALUE : page.get(page.size() - 1).getId() + 1L;
+    }
+    
+    // Tasks whose title or description contain every word of the query, either
+    // exactly or as a word prefix; best matches first, at most limit of them
+    public List<Task> search(String query, int limit) {
+        long start = Metrics.start();
+        TaskEvents.Query event = new TaskEvents.Query();
+        event.begin();
+        try {
+            return searchLocked(query, limit);
+        } finally {
+            queried(Metrics.SEARCH, start, event);
+        }
+    }
+    
+    private List<Task> searchLocked(String query, int limit) {
+        long stamp = lockWithIndex(() -> searchIndex == null, this::buildSearchIndex);
+        try {
+            int[] ids = searchIndex.search(query, limit);
+            List<Task> results = new ArrayList<>(ids.length);
+            for (int id : ids) {
+                results.add(tasks.get(id));
+            }
+            return results;
+        } finally {
+            lock.unlock(stamp);
+        }
+    }
+    
+    // Tasks created at or after from and before to, oldest first; a null bound
+    // leaves that end open
+    public List<Task> getTasksCreatedBetween(LocalDateTime from, LocalDateTime to) {
+        return timeRange(false, from, to);
+    }
+    
+    // Completed tasks whose completion time is at or after from and before to,
+    // earliest first; a null bound leaves that end open
+    public List<Task> getTasksCompletedBetween(LocalDateTime from, LocalDateTime to) {
+        return timeRange(true, from, to);
+    }
+    
+    private List<Task> timeRange(boolean completed, LocalDateTime from, LocalDateTime to) {
+        long start = Metrics.start();
+        TaskEvents.Query event = new TaskEvents.Query();
+        event.begin();
+        long fromNanos = from != null ? Task.epochNanos(from) : Long.MIN_VALUE;
+        long toNanos = to != null ? Task.epochNanos(to) : Long.MAX_VALUE;
+        long stamp = lockWithIndex(() -> createdIndex == null, this::buildTimeIndexes);
+        try {
+            TimeIndex index = completed ? completedIndex : createdIndex;
+            List<Task> results = new ArrayList<>(index.count(fromNanos, toNanos));
+            index.range(fromNanos, toNanos, id -> results.add(tasks.get(id)));
+            return results;
+        } finally {
+            lock.unlock(stamp);
+            queried(Metrics.TIME_RANGE, start, event);
+        }
+    }
+    
+    // Tasks meeting every condition of query, in its order and page. The
+    // planner estimates how many candidates each usable source would offer,
+    // from the sizes the indexes keep: the search index's postings for the
+    // text, a time index's count for a date range, or the completion or
+    // priority map. It takes the smallest and tests the other conditions on
+    // each candidate as it comes, building no list of candidates. Unsorted,
+    // or sorted in the order the source already has, the walk stops as soon
+    // as offset + limit tasks matched; otherwise only the best offset + limit
+    // are kept in a heap.
+    public List<Task> query(TaskQuery query) {
+        long start = Metrics.start();
+        TaskEvents.Query event = new TaskEvents.Query();
+        event.begin();
+        boolean needsSearch = query.text != null;
+        boolean needsTimes = query.hasCreatedRange() || query.hasCompletedRange();
+        long stamp = lockWithIndex(
+                () -> needsSearch && searchIndex == null || needsTimes && createdIndex == null, () -> {
+                    if (needsSearch && searchIndex == null) {
+                        buildSearchIndex();
+                    }
+                    if (needsTimes && createdIndex == null) {
+                        buildTimeIndexes();
+                    }
+                });
+        try {
+            List<Task> found;
+            try {
+                found = collect(query, plan(query));
+            } finally {
+                lock.unlock(stamp);
+            }
+            if (query.archived) {
+                found = withArchived(query, found);
+            }
+            return page(query, found);
+        } finally {
+            queried(Metrics.QUERY, start, event);
+        }
+    }
+    
+    // Where query's candidates come from
+    enum QuerySource { SEARCH, CREATED, COMPLETED, TABLE }
+    
+    // Called with the lock held and the indexes query needs built
+    QuerySource plan(TaskQuery query) {
+        if (query.sort == TaskQuery.Sort.RELEVANCE) {
+            return QuerySource.SEARCH;
+        }
+        QuerySource best = QuerySource.TABLE;
+        long fewest = tableCandidates(query);
+        if (query.text != null) {
+            long candidates = searchIndex.estimate(query.textTokens);
+            if (candidates < fewest) {
+                best = QuerySource.SEARCH;
+                fewest = candidates;
+            }
+        }
+        if (query.hasCreatedRange()) {
+            long candidates = createdIndex.count(query.createdFrom, query.createdTo);
+            if (candidates < fewest) {
+                best = QuerySource.CREATED;
+                fewest = candidates;
+            }
+        }
+        if (query.hasCompletedRange() && completedIndex.count(query.completedFrom, query.completedTo) < fewest) {
+            best = QuerySource.COMPLETED;
+        }
+        return best;
+    }
+    
+    private long tableCandidates(TaskQuery query) {
+        Task.Priority priority = onlyPriority(query);
+        if (priority != null) {
+            return tasks.count(priority);
+        }
+        if (query.completed != null) {
+            return query.completed ? tasks.completedCount() : tasks.pendingCount();
+        }
+        return tasks.size();
+    }
+    
+    private static Task.Priority onlyPriority(TaskQuery query) {
+        return query.priorities.size() == 1 ? query.priorities.iterator().next() : null;
+    }
+    
+    // The first offset + limit matches, in query's order
+    private List<Task> collect(TaskQuery query, QuerySource source) {
+        int wanted = wanted(query);
+        if (query.limit == 0) {
+            return new ArrayList<>();
+        }
+        Comparator<Task> order = query.comparator();
+        boolean sorted = order == null
+                || source == QuerySource.CREATED && query.sort == TaskQuery.Sort.CREATED && !query.descending
+                || source == QuerySource.COMPLETED && query.sort == TaskQuery.Sort.COMPLETED && !query.descending;
+        List<Task> found = new ArrayList<>();
+        // Worst of the best kept so far at the head
+        PriorityQueue<Task> best = !sorted && wanted < Integer.MAX_VALUE
+                ? new PriorityQueue<>(wanted + 1, order.reversed()) : null;
+        boolean textChecked = source == QuerySource.SEARCH;
+        Predicate<Task> visitor = task -> {
+            if (!query.matches(task, textChecked)) {
+                return true;
+            }
+            if (best != null) {
+                best.add(task);
+                if (best.size() > wanted) {
+                    best.poll();
+                }
+                return true;
+            }
+            found.add(task);
+            return !sorted || found.size() < wanted;
+        };
+        switch (source) {
+            case SEARCH:
+                for (int id : searchIndex.search(query.text, Integer.MAX_VALUE)) {
+                    if (!visitor.test(tasks.get(id))) {
+                        break;
+                    }
+                }
+                break;
+            case CREATED:
+                createdIndex.rangeWhile(query.createdFrom, query.createdTo, id -> visitor.test(tasks.get(id)));
+                break;
+            case COMPLETED:
+                completedIndex.rangeWhile(query.completedFrom, query.completedTo, id -> visitor.test(tasks.get(id)));
+                break;
+            default:
+                tasks.scan(query.completed, onlyPriority(query), visitor);
+        }
+        if (best != null) {
+            found.addAll(best);
+        }
+        if (!sorted) {
+            found.sort(order);
+        }
+        return found;
+    }
+    
+    // Add the archived tasks that match to found, the live matches in order.
+    // The archive has no indexes, so this is a scan of it; without an order
+    // of its own the query lists archived tasks after the live ones.
+    private List<Task> withArchived(TaskQuery query, List<Task> found) {
+        if (Boolean.FALSE.equals(query.completed) || query.limit == 0 || fileHandler.archive().size() == 0) {
+            return found;
+        }
+        int wanted = wanted(query);
+        Comparator<Task> order = query.comparator();
+        List<Task> archived = new ArrayList<>();
+        PriorityQueue<Task> best = order != null && wanted < Integer.MAX_VALUE
+                ? new PriorityQueue<>(wanted + 1, order.reversed()) : null;
+        boolean textChecked = query.text != null;
+        scanArchive(query.text, task -> {
+            if (!query.matches(task, textChecked)) {
+                return true;
+            }
+            if (best != null) {
+                best.add(task.copy());
+                if (best.size() > wanted) {
+                    best.poll();
+                }
+                return true;
+            }
+            archived.add(task.copy());
+            return order != null || found.size() + archived.size() < wanted;
+        });
+        if (best != null) {
+            archived.addAll(best);
+        }
+        List<Task> merged = new ArrayList<>(found);
+        merged.addAll(withoutLive(archived));
+        if (order != null) {
+            merged.sort(order);
+        }
+        return merged;
+    }
+    
+    private static int wanted(TaskQuery query) {
+        return (int) Math.min((long) query.offset + query.limit, Integer.MAX_VALUE);
+    }
+    
+    private static List<Task> page(TaskQuery query, List<Task> found) {
+        int wanted = wanted(query);
+        if (query.offset >= found.size()) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(found.subList(query.offset, Math.min(found.size(), wanted)));
+    }
+    
+    private void buildSearchIndex() {
+        searchIndex = new SearchIndex();
+        for (Task task : tasks) {
+            searchIndex.add(task);
+        }
+    }
+    
+    private void buildTimeIndexes() {
+        createdIndex = new TimeIndex();
+        completedIndex = new TimeIndex();
+        for (Task task : tasks) {
+            indexTimes(task);
+        }
+    }
+    
+    // Take the read lock, first upgrading to the write lock to build a lazy
+    // index if missing says it is not there yet; returns the stamp to unlock
+    private long lockWithIndex(BooleanSupplier missing, Runnable build) {
+        long stamp = lock.readLock();
+        if (missing.getAsBoolean()) {
+            long writeStamp = lock.tryConvertToWriteLock(stamp);
+            if (writeStamp == 0) {
+                lock.unlockRead(stamp);
+                writeStamp = lock.writeLock();
+            }
+            stamp = writeStamp;
+            if (missing.getAsBoolean()) {
+                try {
+                    build.run();
+                } catch (RuntimeException | Error e) {
+                    lock.unlock(stamp);
+                    throw e;
+                }
+            }
+        }
+        return stamp;
     }
     
     private void loadTasks() {
         List<Task> loadedTasks = fileHandler.loadTasks();
         if (loadedTasks != null) {
-            tasks.addAll(loadedTasks);
-            // Set nextId to be greater than the highest existing ID
-            nextId = tasks.stream()
-                    .mapToInt(Task::getId)
-                    .max()
-                    .orElse(0) + 1;
+            long stamp = lock.writeLock();
+            try {
+                tasks = newTable(loadedTasks.size());
+                searchIndex = null;
+                createdIndex = null;
+                completedIndex = null;
+                int maxId = 0;
+                for (Task task : loadedTasks) {
+                    tasks.put(task);
+                    maxId = Math.max(maxId, task.getId());
+                }
+                // Set nextId to be greater than the highest existing ID
+                nextId.set(maxId + 1);
+                // Nobody has seen the tasks yet, so there is nothing to replay
+                feed.reset(++version);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+        afterLoad();
+    }
+    
+    // Ids of archived tasks are never handed out again, and the deletions a
+    // load that archived tasks journaled are folded into a smaller snapshot
+    private void afterLoad() {
+        long stamp = lock.writeLock();
+        try {
+            nextId.accumulateAndGet(fileHandler.archive().maxId() + 1, Math::max);
+            compactIfNeeded();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    // Load the stored tasks on a "tasks-loader" thread. They are added in
+    // chunks as the file is parsed, and each chunk reaches listeners through
+    // tasksAdded; progress hears the fraction of the file read. Reads see the
+    // tasks loaded so far. Mutations made before the load finishes are queued
+    // and applied in order right after it, so a task the user edits early is
+    // never overwritten by its stored copy.
+    public CompletableFuture<Void> loadInBackground(DoubleConsumer progress) {
+        if (!loading || loaderThread != null) {
+            throw new IllegalStateException("Tasks are already loaded");
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Thread loader = new Thread(() -> {
+            try {
+                List<Task> chunk = new ArrayList<>();
+                int[] chunkSize = {FIRST_LOAD_CHUNK};
+                fileHandler.loadTasks(task -> {
+                    chunk.add(task);
+                    if (chunk.size() >= chunkSize[0]) {
+                        addLoaded(chunk);
+                        chunk.clear();
+                        chunkSize[0] = Math.min(chunkSize[0] * 2, MAX_LOAD_CHUNK);
+                    }
+                }, progress);
+                addLoaded(chunk);
+                afterLoad();
+            } catch (RuntimeException e) {
+                System.err.println("Error loading tasks: " + e.getMessage());
+            } finally {
+                applyDeferred();
+            }
+            done.complete(null);
+        }, "tasks-loader");
+        loader.setDaemon(true);
+        loaderThread = loader;
+        loader.start();
+        return done;
+    }
+    
+    private void addLoaded(List<Task> chunk) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        List<Task> added = new ArrayList<>(chunk);
+        List<Task> replaced = new ArrayList<>();
+        long stamp = lock.writeLock();
+        try {
+            int maxId = 0;
+            // The feed only keeps its last CAPACITY changes, so a bigger chunk
+            // restarts it with the tasks it would keep; the earlier ones are
+            // counted but never built
+            int keepFrom = Math.max(0, added.size() - ChangeFeed.CAPACITY);
+            if (keepFrom > 0) {
+                version += keepFrom;
+                feed.reset(version);
+            }
+            for (int i = 0; i < added.size(); i++) {
+                Task task = added.get(i);
+                // Only a hand-edited file repeats an id; the later line wins
+                Task previous = tasks.put(task);
+                if (previous != null) {
+                    if (searchIndex != null) {
+                        searchIndex.remove(previous);
+                    }
+                    if (createdIndex != null) {
+                        unindexTimes(previous);
+                    }
+                    replaced.add(previous);
+                    if (i >= keepFrom) {
+                        feed.append(new TaskChange(++version, TaskChange.Type.REMOVED, previous));
+                    }
+                }
+                if (searchIndex != null) {
+                    searchIndex.add(task);
+                }
+                if (createdIndex != null) {
+                    indexTimes(task);
+                }
+                maxId = Math.max(maxId, task.getId());
+                if (i >= keepFrom) {
+                    feed.append(new TaskChange(++version, TaskChange.Type.ADDED, snapshot(task)));
+                }
+            }
+            nextId.accumulateAndGet(maxId + 1, Math::max);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        feed.publish();
+        for (TaskListener listener : listeners) {
+            for (Task task : replaced) {
+                listener.taskRemoved(task);
+            }
+            listener.tasksAdded(added);
+        }
+    }
+    
+    // While a background load runs, queue the mutation instead of running it.
+    // The loader thread itself runs the queue, so it is never deferred.
+    private boolean deferWhileLoading(Runnable mutation) {
+        if (!loading || Thread.currentThread() == loaderThread) {
+            return false;
+        }
+        long stamp = lock.writeLock();
+        try {
+            if (deferred == null) {
+                return false;
+            }
+            deferred.add(mutation);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
         }
     }
     
-    private void saveTasks() {
-        fileHandler.saveTasks(tasks);
+    // Run on the loader thread; mutations queued meanwhile join the next round
+    private void applyDeferred() {
+        while (true) {
+            List<Runnable> batch;
+            long stamp = lock.writeLock();
+            try {
+                batch = deferred;
+                if (batch.isEmpty()) {
+                    deferred = null;
+                    loading = false;
+                    return;
+                }
+                deferred = new ArrayList<>();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            for (Runnable mutation : batch) {
+                mutation.run();
+            }
+        }
+    }
+    
+    public boolean isLoading() {
+        return loading;
+    }
+    
+    // Changes whenever the tasks do, so two equal readings mean nothing
+    // changed in between; suitable for cache validators such as ETags. It is
+    // also the sequence number of the latest TaskChange.
+    public long getVersion() {
+        return version;
+    }
+    
+    // Up to max changes after sequence, oldest first; empty if there are none
+    // yet, null if some of them are no longer kept (the feed holds the last
+    // ChangeFeed.CAPACITY). To get back in step, read getVersion(), then the
+    // tasks, and continue from that version: changes made in between may
+    // repeat what the tasks already show, which is harmless when each one is
+    // applied to the task with its id.
+    public List<TaskChange> getChangesSince(long sequence, int max) {
+        return feed.since(sequence, max);
+    }
+    
+    // Deliver every change after sequence to subscriber, asynchronously on
+    // executor and never more than it has requested. A subscriber that falls
+    // too far behind to catch up gets onError with an IllegalStateException
+    // and can start again as getChangesSince describes; close ends every
+    // subscription with onComplete once its subscriber has read to the end.
+    public void subscribe(long sequence, Flow.Subscriber<? super TaskChange> subscriber, Executor executor) {
+        feed.subscribe(sequence, subscriber, executor);
+    }
+    
+    public void subscribe(long sequence, Flow.Subscriber<? super TaskChange> subscriber) {
+        subscribe(sequence, subscriber, ForkJoinPool.commonPool());
+    }
+    
+    private <T> T read(LatencyHistogram histogram, Supplier<T> reader) {
+        long start = Metrics.start();
+        TaskEvents.Query event = new TaskEvents.Query();
+        event.begin();
+        try {
+            return read(reader);
+        } finally {
+            queried(histogram, start, event);
+        }
+    }
+    
+    private int readInt(LatencyHistogram histogram, IntSupplier reader) {
+        long start = Metrics.start();
+        TaskEvents.Query event = new TaskEvents.Query();
+        event.begin();
+        try {
+            return readInt(reader);
+        } finally {
+            queried(histogram, start, event);
+        }
+    }
+    
+    private static void queried(LatencyHistogram histogram, long start, TaskEvents.Query event) {
+        histogram.recordSince(start);
+        if (event.shouldCommit()) {
+            event.operation = histogram.name();
+            event.commit();
+        }
+    }
+    
+    // Run the reader without locking and keep the result if no write overlapped
+    // it. The index structures may be mid-change during an optimistic pass, so a
+    // runtime exception there only means the pass was torn; retry under the lock.
+    private <T> T read(Supplier<T> reader) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = reader.get();
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                // fall through to the read lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    // Same as read, without boxing the counts
+    private int readInt(IntSupplier reader) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                int result = reader.getAsInt();
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                // fall through to the read lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return reader.getAsInt();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    private TaskTable newTable(int expectedSize) {
+        return storage == Storage.COLUMNS ? new TaskStore(expectedSize) : new IndexedTaskMap(expectedSize);
+    }
+    
+    private static Storage defaultStorage() {
+        return "columns".equalsIgnoreCase(System.getProperty(STORAGE_PROPERTY))
+                ? Storage.COLUMNS : Storage.OBJECTS;
+    }
+    
+    public Storage getStorage() {
+        return storage;
+    }
+    
+    // Mutations are journaled; the snapshot is rewritten only when the
+    // journal has grown past the live task count. Called under the write lock.
+    private void compactIfNeeded() {
+        if (fileHandler.needsCompaction(tasks.size())) {
+            fileHandler.compact(tasks::copies);
+        }
+    }
+    
+    // The next id of the current lease, leasing a new block once it runs out
+    private int allocateId() {
+        synchronized (idLock) {
+            if (leasedId >= leaseEnd) {
+                leasedId = fileHandler.leaseIds(nextId.get(), FileHandler.ID_LEASE);
+                leaseEnd = leasedId + FileHandler.ID_LEASE;
+            }
+            int id = leasedId++;
+            nextId.accumulateAndGet(id + 1, Math::max);
+            return id;
+        }
+    }
+    
+    // Pick up changes other programs make to the data files from now on: a
+    // sync tool bringing in another machine's edits, a script appending to
+    // the journal, a second instance. Each settled change is read, only as
+    // far as it differs from what this manager wrote, and applied as one
+    // round of listener calls, as a batch is. Call once the tasks are loaded.
+    public void watchExternalChanges() {
+        if (loading) {
+            throw new IllegalStateException("Tasks are still loading");
+        }
+        try {
+            fileHandler.watch(this::applyExternalChanges);
+        } catch (IOException e) {
+            System.err.println("Error watching task files: " + e.getMessage());
+        }
+    }
+    
+    // Runs on the watcher thread. The files are read under the write lock, so
+    // no change made here can land between reading them and applying them.
+    private void applyExternalChanges() {
+        long start = Metrics.start();
+        Map<Integer, Task> added = new LinkedHashMap<>();
+        Map<Integer, Task> updated = new LinkedHashMap<>();
+        Map<Integer, Task> removed = new LinkedHashMap<>();
+        long stamp = lock.writeLock();
+        try {
+            FileHandler.ExternalChanges changes = fileHandler.readExternalChanges();
+            if (changes == null) {
+                return;
+            }
+            int[] maxId = {0};
+            changes.forEachTask(task -> {
+                Task previous = tasks.get(task.getId());
+                if (previous == null) {
+                    insert(task);
+                    added.put(task.getId(), task);
+                } else {
+                    Task stored = overwrite(previous, task);
+                    if (stored != null) {
+                        updated.put(stored.getId(), stored);
+                    }
+                }
+                maxId[0] = Math.max(maxId[0], task.getId());
+            });
+            changes.forEachCompletion((id, completed, completedAt) -> {
+                Task previous = tasks.get(id);
+                if (previous != null) {
+                    Task task = previous.copy();
+                    task.setCompleted(completed);
+                    task.setCompletedAtNanos(completedAt);
+                    Task stored = overwrite(previous, task);
+                    if (stored != null) {
+                        updated.put(id, stored);
+                    }
+                }
+            });
+            List<Integer> gone = new ArrayList<>();
+            changes.forEachRemoved(gone::add);
+            if (changes.isComplete()) {
+                for (Task task : tasks) {
+                    if (!changes.contains(task.getId())) {
+                        gone.add(task.getId());
+                    }
+                }
+            }
+            for (int id : gone) {
+                Task task = delete(id);
+                if (task != null) {
+                    updated.remove(id);
+                    removed.put(id, task);
+                }
+            }
+            // Compacting is left to whoever wrote the records
+            nextId.accumulateAndGet(maxId[0] + 1, Math::max);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        feed.publish();
+        notifyChanged(removed, updated, added);
+        Metrics.RELOAD.recordSince(start);
+    }
+    
+    // Push any write-behind records to disk now
+    public void flush() {
+        fileHandler.flush();
+    }
+    
+    public void setPersistenceErrorListener(Consumer<IOException> listener) {
+        fileHandler.setErrorListener(listener);
+    }
+    
+    public void close() {
+        feed.close();
+        fileHandler.close();
     }
     
     public int getTaskCount() {
-        return tasks.size();
+        return readInt(Metrics.COUNT, () -> tasks.size());
     }
     
     public int getCompletedTaskCount() {
-        return (int) tasks.stream().filter(Task::isCompleted).count();
+        return readInt(Metrics.COUNT, () -> tasks.completedCount());
     }
     
     public int getPendingTaskCount() {
-        return (int) tasks.stream().filter(task -> !task.isCompleted()).count();
+        return readInt(Metrics.COUNT, () -> tasks.pendingCount());
+    }
+    
+    public int getTaskCountByPriority(String priority) {
+        Task.Priority parsed = Task.Priority.parse(priority);
+        return parsed != null ? getTaskCountByPriority(parsed) : 0;
+    }
+    
+    public int getTaskCountByPriority(Task.Priority priority) {
+        return readInt(Metrics.COUNT, () -> tasks.count(priority));
     }
 }
\ No newline at end of file
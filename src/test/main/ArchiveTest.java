@@ -0,0 +1,187 @@
+// ArchiveTest.java
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+// Old completed tasks leave the working set for the archive on load and on
+// demand, come back when they change, and together with the working set
+// always hold every task exactly once, before and after a reload
+class ArchiveTest {
+    private static final Duration AGE = Duration.ofDays(30);
+    private static final int TASKS = 2_000;
+    
+    @TempDir
+    Path dir;
+    
+    @ParameterizedTest
+    @EnumSource(TodoManager.Storage.class)
+    void archiveAndUnarchive(TodoManager.Storage storage) throws Exception {
+        Path data = Files.createDirectory(dir.resolve(storage.name()));
+        Random random = new Random(23);
+        LocalDateTime now = LocalDateTime.now();
+        List<Task> tasks = new ArrayList<>();
+        List<String> old = new ArrayList<>();
+        for (int id = 1; id <= TASKS; id++) {
+            long created = Task.epochNanos(now.minusDays(100 + random.nextInt(100)));
+            boolean completed = random.nextBoolean();
+            long completedAt = !completed ? Task.NO_TIME
+                    : Task.epochNanos(now.minusDays(random.nextBoolean() ? 60 : 1));
+            Task task = new Task(id, "task " + id, "", completed, created, completedAt, Task.Priority.LOW);
+            tasks.add(task);
+            if (completedAt != Task.NO_TIME && completedAt < Task.epochNanos(now.minus(AGE))) {
+                old.add(describe(task));
+            }
+        }
+        FileHandler writer = new FileHandler(data);
+        writer.saveTasks(tasks);
+        writer.close();
+        List<String> all = describeAll(tasks);
+        
+        TodoManager manager = manager(data, storage, AGE);
+        try {
+            assertEquals(old.size(), manager.getArchivedTaskCount());
+            assertEquals(TASKS - old.size(), manager.getTaskCount());
+            Collections.sort(old);
+            assertEquals(old, describeAll(manager.getArchivedTasks()));
+            assertEquals(all, everything(manager));
+        } finally {
+            manager.close();
+        }
+        
+        // Read lazily after a reload, then changed through the manager
+        manager = manager(data, storage, Duration.ZERO);
+        try {
+            assertFalse(manager.isArchiveLoaded());
+            assertEquals(old.size(), manager.getArchivedTaskCount());
+            assertEquals(all, everything(manager));
+            List<Task> archived = manager.getArchivedTasks();
+            Task reopened = archived.get(0);
+            Task renamed = archived.get(1);
+            Task removed = archived.get(2);
+            manager.setCompleted(List.of(reopened.getId()), false);
+            manager.updateTask(renamed.getId(), "renamed", "", Task.Priority.HIGH);
+            manager.removeTask(removed.getId());
+            assertEquals(old.size() - 3, manager.getArchivedTaskCount());
+            assertFalse(manager.getTaskById(reopened.getId()).isCompleted());
+            assertEquals("renamed", manager.getTaskById(renamed.getId()).getTitle());
+            assertNull(manager.getTaskById(removed.getId()));
+            List<String> expected = everything(manager);
+            assertEquals(TASKS - 1, expected.size());
+            List<Task> completed = manager.query(TaskQuery.builder().completed().withArchived()
+                    .orderBy(TaskQuery.Sort.ID).build());
+            assertEquals(completedIds(manager), ids(completed));
+            
+            // Archived on demand, then all of it survives a reload
+            int moved = manager.archiveCompleted(Duration.ZERO);
+            assertEquals(0, manager.getCompletedTaskCount());
+            assertEquals(old.size() - 3 + moved, manager.getArchivedTaskCount());
+            assertEquals(expected, everything(manager));
+            manager.close();
+            manager = manager(data, storage, Duration.ZERO);
+            assertEquals(expected, everything(manager));
+        } finally {
+            manager.close();
+        }
+    }
+    
+    @ParameterizedTest
+    @EnumSource(TaskTransfer.Format.class)
+    void exportAndLookupReachTheArchive(TaskTransfer.Format format) throws Exception {
+        Path data = Files.createDirectory(dir.resolve(format.name()));
+        TodoManager manager = manager(data, TodoManager.Storage.OBJECTS, Duration.ZERO);
+        TodoManager copy = manager(Files.createDirectory(dir.resolve(format + "-copy")),
+                TodoManager.Storage.OBJECTS, Duration.ZERO);
+        try {
+            for (int i = 0; i < 100; i++) {
+                Task task = manager.addTask("task " + i, "", Task.Priority.MEDIUM);
+                if (i % 3 == 0) {
+                    manager.markTaskCompleted(task.getId());
+                }
+            }
+            manager.archiveCompleted(Duration.ZERO);
+            assertEquals(34, manager.getArchivedTaskCount());
+            Task archived = manager.getArchivedTasks().get(0);
+            assertNull(manager.getTaskById(archived.getId()));
+            assertEquals(describe(archived), describe(manager.findTask(archived.getId())));
+            assertNull(manager.findTask(1_000));
+            
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(100, TaskTransfer.exportTasks(manager, out, format));
+            TaskTransfer.importTasks(copy, new ByteArrayInputStream(out.toByteArray()), format, null);
+            assertEquals(withoutIds(everything(manager)), withoutIds(describeAll(copy.getAllTasks())));
+        } finally {
+            manager.close();
+            copy.close();
+        }
+    }
+    
+    private static TodoManager manager(Path data, TodoManager.Storage storage, Duration archiveAfter) {
+        FileHandler fileHandler = new FileHandler(data);
+        fileHandler.setArchiveAfter(archiveAfter);
+        fileHandler.enableWriteBehind(50);
+        return new TodoManager(fileHandler, true, storage);
+    }
+    
+    // The working set and the archive together
+    private static List<String> everything(TodoManager manager) {
+        List<Task> tasks = new ArrayList<>(manager.getAllTasks());
+        tasks.addAll(manager.getArchivedTasks());
+        return describeAll(tasks);
+    }
+    
+    private static List<Integer> completedIds(TodoManager manager) {
+        List<Task> tasks = new ArrayList<>(manager.getAllTasks());
+        tasks.addAll(manager.getArchivedTasks());
+        tasks.removeIf(task -> !task.isCompleted());
+        tasks.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+        return ids(tasks);
+    }
+    
+    private static List<Integer> ids(List<Task> tasks) {
+        List<Integer> ids = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            ids.add(task.getId());
+        }
+        return ids;
+    }
+    
+    // Imported tasks are numbered afresh
+    private static List<String> withoutIds(List<String> described) {
+        List<String> stripped = new ArrayList<>(described.size());
+        for (String task : described) {
+            stripped.add(task.substring(task.indexOf('|')));
+        }
+        Collections.sort(stripped);
+        return stripped;
+    }
+    
+    private static List<String> describeAll(List<Task> tasks) {
+        List<String> described = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            described.add(describe(task));
+        }
+        Collections.sort(described);
+        return described;
+    }
+    
+    private static String describe(Task task) {
+        return task.getId() + "|" + task.getTitle() + "|" + task.isCompleted() + "|" + task.getCreatedAtNanos()
+                + "|" + task.getCompletedAtNanos() + "|" + task.getPriority();
+    }
+}
@@ -0,0 +1,225 @@
+// ChangeFeedTest.java
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+// Changes come in sequence order with no gaps, pulled or pushed, and
+// applying them one by one rebuilds exactly the manager's tasks
+class ChangeFeedTest {
+    private static final Task.Priority[] PRIORITIES = Task.Priority.values();
+    
+    @TempDir
+    Path dir;
+    
+    @ParameterizedTest
+    @EnumSource(TodoManager.Storage.class)
+    void pulledChangesRebuildTheTasks(TodoManager.Storage storage) {
+        TodoManager manager = manager(storage);
+        try {
+            Map<Integer, String> mirror = new TreeMap<>();
+            for (Task task : manager.getAllTasks()) {
+                mirror.put(task.getId(), describe(task));
+            }
+            long cursor = manager.getVersion();
+            List<TaskChange> seen = new ArrayList<>();
+            List<String> seenAs = new ArrayList<>();
+            Random random = new Random(9);
+            for (int round = 0; round < 40; round++) {
+                mutate(manager, random, 50);
+                List<TaskChange> changes;
+                while (!(changes = manager.getChangesSince(cursor, 64)).isEmpty()) {
+                    for (TaskChange change : changes) {
+                        assertEquals(cursor + 1, change.getSequence());
+                        cursor = change.getSequence();
+                        if (change.getType() == TaskChange.Type.REMOVED) {
+                            assertNotNull(mirror.remove(change.getTaskId()));
+                        } else {
+                            mirror.put(change.getTaskId(), describe(change.getTask()));
+                        }
+                        seen.add(change);
+                        seenAs.add(describe(change.getTask()));
+                    }
+                }
+                assertEquals(manager.getVersion(), cursor);
+                Map<Integer, String> tasks = new TreeMap<>();
+                for (Task task : manager.getAllTasks()) {
+                    tasks.put(task.getId(), describe(task));
+                }
+                assertEquals(tasks, mirror);
+            }
+            // Later edits leave the tasks of earlier changes as they were
+            for (int i = 0; i < seen.size(); i++) {
+                assertEquals(seenAs.get(i), describe(seen.get(i).getTask()));
+            }
+            // Too far back to catch up from
+            mutate(manager, random, ChangeFeed.CAPACITY + 10);
+            assertNull(manager.getChangesSince(cursor, 1));
+        } finally {
+            manager.close();
+        }
+    }
+    
+    @ParameterizedTest
+    @EnumSource(TodoManager.Storage.class)
+    void subscribersGetEveryChangeInOrder(TodoManager.Storage storage) throws Exception {
+        TodoManager manager = manager(storage);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            long start = manager.getVersion();
+            Recorder oneByOne = new Recorder(1);
+            manager.subscribe(start, oneByOne, executor);
+            mutate(manager, new Random(4), 5_000);
+            long end = manager.getVersion();
+            manager.close();
+            assertTrue(oneByOne.done.await(30, TimeUnit.SECONDS));
+            assertNull(oneByOne.error.get());
+            assertEquals(end - start, oneByOne.sequences.size());
+            for (int i = 0; i < oneByOne.sequences.size(); i++) {
+                assertEquals(start + 1 + i, oneByOne.sequences.get(i));
+            }
+        } finally {
+            manager.close();
+            executor.shutdown();
+        }
+    }
+    
+    @ParameterizedTest
+    @EnumSource(TodoManager.Storage.class)
+    void laggingSubscribersAreToldOfTheGap(TodoManager.Storage storage) throws Exception {
+        TodoManager manager = manager(storage);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Recorder idle = new Recorder(0);
+            manager.subscribe(manager.getVersion(), idle, executor);
+            mutate(manager, new Random(6), ChangeFeed.CAPACITY + 10);
+            idle.awaitSubscribed().request(1);
+            assertTrue(idle.done.await(30, TimeUnit.SECONDS));
+            assertTrue(idle.sequences.isEmpty());
+            assertTrue(idle.error.get() instanceof IllegalStateException, String.valueOf(idle.error.get()));
+            
+            Recorder invalid = new Recorder(0);
+            manager.subscribe(manager.getVersion(), invalid, executor);
+            invalid.awaitSubscribed().request(-1);
+            assertTrue(invalid.done.await(30, TimeUnit.SECONDS));
+            assertTrue(invalid.error.get() instanceof IllegalArgumentException, String.valueOf(invalid.error.get()));
+        } finally {
+            manager.close();
+            executor.shutdown();
+        }
+    }
+    
+    private TodoManager manager(TodoManager.Storage storage) {
+        FileHandler fileHandler = new FileHandler(dir.resolve(storage.name()));
+        fileHandler.setArchiveAfter(Duration.ZERO);
+        fileHandler.enableWriteBehind(50);
+        TodoManager manager = new TodoManager(fileHandler, true, storage);
+        for (int i = 0; i < 100; i++) {
+            manager.addTask("task " + i, "", PRIORITIES[i % 3]);
+        }
+        return manager;
+    }
+    
+    // Every kind of change, alone and in batches, on tasks that mostly exist
+    private static void mutate(TodoManager manager, Random random, int count) {
+        for (int i = 0; i < count; i++) {
+            List<Task> tasks = manager.getAllTasks();
+            int id = tasks.isEmpty() ? 0 : tasks.get(random.nextInt(tasks.size())).getId();
+            switch (tasks.isEmpty() ? 0 : random.nextInt(6)) {
+                case 0:
+                    manager.addTask("added " + i, "note " + i, PRIORITIES[random.nextInt(3)]);
+                    break;
+                case 1:
+                    manager.updateTask(id, "updated " + i, "", PRIORITIES[random.nextInt(3)]);
+                    break;
+                case 2:
+                    manager.markTaskCompleted(id);
+                    break;
+                case 3:
+                    manager.setCompleted(List.of(id), false);
+                    break;
+                case 4:
+                    manager.removeTask(id);
+                    break;
+                default:
+                    int n = i;
+                    manager.batch(batch -> {
+                        batch.add("batched " + n, "", Task.Priority.LOW);
+                        batch.update(id, "batched " + n, "both", Task.Priority.HIGH);
+                        batch.setCompleted(id, true);
+                    });
+            }
+        }
+    }
+    
+    private static String describe(Task task) {
+        return task.getId() + "|" + task.getTitle() + "|" + task.getDescription() + "|" + task.isCompleted()
+                + "|" + task.getCompletedAtNanos() + "|" + task.getPriority();
+    }
+    
+    // Requests batch changes at a time, or none until asked from outside
+    private static final class Recorder implements Flow.Subscriber<TaskChange> {
+        private final int batch;
+        private final List<Long> sequences = new ArrayList<>();
+        private final AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+        private final CountDownLatch subscribed = new CountDownLatch(1);
+        private final CountDownLatch done = new CountDownLatch(1);
+        
+        Recorder(int batch) {
+            this.batch = batch;
+        }
+        
+        Flow.Subscription awaitSubscribed() throws InterruptedException {
+            assertTrue(subscribed.await(30, TimeUnit.SECONDS));
+            return subscription.get();
+        }
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription.set(subscription);
+            subscribed.countDown();
+            if (batch > 0) {
+                subscription.request(batch);
+            }
+        }
+        
+        @Override
+        public void onNext(TaskChange change) {
+            sequences.add(change.getSequence());
+            if (batch > 0) {
+                subscription.get().request(batch);
+            }
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+            error.set(throwable);
+            done.countDown();
+        }
+        
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+}
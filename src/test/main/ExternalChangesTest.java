@@ -0,0 +1,140 @@
+// ExternalChangesTest.java
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+// A watching manager keeps up with a second instance writing to the same
+// directory, through journal appends, its compactions and a snapshot
+// replaced wholesale, and matches a fresh load after each; its own writes
+// never come back to it as changes
+class ExternalChangesTest {
+    private static final long SETTLE_MILLIS = 10_000;
+    private static final Task.Priority[] PRIORITIES = Task.Priority.values();
+    
+    @TempDir
+    Path dir;
+    
+    @ParameterizedTest
+    @EnumSource(FileHandler.SnapshotFormat.class)
+    void watcherMatchesAFreshLoad(FileHandler.SnapshotFormat format) throws Exception {
+        for (TodoManager.Storage storage : TodoManager.Storage.values()) {
+            Path data = Files.createDirectory(dir.resolve(format + "-" + storage));
+            FileHandler seed = new FileHandler(data, format);
+            List<Task> tasks = new ArrayList<>();
+            for (int id = 1; id <= 300; id++) {
+                tasks.add(new Task(id, "task " + id, "", PRIORITIES[id % 3]));
+            }
+            seed.saveTasks(tasks);
+            seed.close();
+            
+            TodoManager watching = manager(data, format, storage);
+            TodoManager other = manager(data, format, storage);
+            try {
+                watching.watchExternalChanges();
+                // Let the watcher take its baselines
+                Thread.sleep(500);
+                Random random = new Random(storage.ordinal());
+                
+                edit(other, random, 200);
+                awaitFreshLoad(watching, data, format);
+                // Enough records for the other instance to compact its journal
+                edit(other, random, 1_500);
+                awaitFreshLoad(watching, data, format);
+                
+                List<Task> replaced = new ArrayList<>();
+                for (Task task : other.getAllTasks()) {
+                    if (task.getId() % 4 != 0) {
+                        Task copy = task.copy();
+                        copy.setTitle("replaced " + task.getId());
+                        replaced.add(copy);
+                    }
+                }
+                FileHandler rewriter = new FileHandler(data, format);
+                rewriter.saveTasks(replaced);
+                rewriter.close();
+                awaitFreshLoad(watching, data, format);
+                
+                // Its own edits leave nothing for the watcher to apply
+                edit(watching, random, 300);
+                watching.flush();
+                long version = watching.getVersion();
+                Thread.sleep(1_000);
+                assertEquals(version, watching.getVersion());
+                assertEquals(describe(load(data, format)), describe(watching.getAllTasks()));
+            } finally {
+                watching.close();
+                other.close();
+            }
+        }
+    }
+    
+    private static TodoManager manager(Path data, FileHandler.SnapshotFormat format, TodoManager.Storage storage) {
+        FileHandler fileHandler = new FileHandler(data, format);
+        fileHandler.setArchiveAfter(Duration.ZERO);
+        return new TodoManager(fileHandler, true, storage);
+    }
+    
+    private static void edit(TodoManager manager, Random random, int count) {
+        for (int i = 0; i < count; i++) {
+            List<Task> tasks = manager.getAllTasks();
+            int id = tasks.get(random.nextInt(tasks.size())).getId();
+            switch (random.nextInt(5)) {
+                case 0:
+                    manager.addTask("added " + i, "by " + Thread.currentThread().getName(), PRIORITIES[i % 3]);
+                    break;
+                case 1:
+                    manager.removeTask(id);
+                    break;
+                case 2:
+                    manager.markTaskCompleted(id);
+                    break;
+                case 3:
+                    manager.setCompleted(List.of(id), false);
+                    break;
+                default:
+                    manager.updateTask(id, "edited " + i, "twice | over", PRIORITIES[random.nextInt(3)]);
+            }
+        }
+        manager.flush();
+    }
+    
+    private static void awaitFreshLoad(TodoManager watching, Path data, FileHandler.SnapshotFormat format)
+            throws InterruptedException {
+        List<String> expected = describe(load(data, format));
+        long deadline = System.currentTimeMillis() + SETTLE_MILLIS;
+        while (!expected.equals(describe(watching.getAllTasks())) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(expected, describe(watching.getAllTasks()));
+    }
+    
+    private static List<Task> load(Path data, FileHandler.SnapshotFormat format) {
+        FileHandler reader = new FileHandler(data, format);
+        try {
+            return reader.loadTasks();
+        } finally {
+            reader.close();
+        }
+    }
+    
+    private static List<String> describe(List<Task> tasks) {
+        List<String> described = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            described.add(task.getId() + "|" + task.getTitle() + "|" + task.getDescription() + "|"
+                    + task.isCompleted() + "|" + task.getCompletedAtNanos() + "|" + task.getPriority());
+        }
+        Collections.sort(described);
+        return described;
+    }
+}
@@ -0,0 +1,72 @@
+// FileHandlerTest.java
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileHandlerTest {
+    @TempDir
+    Path dir;
+    
+    @Test
+    void failedCompactionReleasesTheWriterLock() {
+        FileHandler fileHandler = new FileHandler(dir);
+        FileHandler reader = new FileHandler(dir);
+        try {
+            fileHandler.saveTasks(List.of(new Task(1, "first", "", Task.Priority.LOW)));
+            fileHandler.appendAdd(new Task(2, "second", "", Task.Priority.LOW));
+            
+            assertThrows(IllegalStateException.class, () -> fileHandler.compact(() -> {
+                throw new IllegalStateException("no snapshot");
+            }));
+            // Takes the writer lock again
+            assertTimeoutPreemptively(Duration.ofSeconds(10),
+                    () -> fileHandler.saveTasks(List.of(new Task(3, "third", "", Task.Priority.LOW))));
+            assertEquals(1, reader.loadTasks().size());
+        } finally {
+            reader.close();
+            fileHandler.close();
+        }
+    }
+    
+    @Test
+    void compactionLeavesQueuedRecordsWhileAnotherWriterHoldsTheLock() throws Exception {
+        FileHandler fileHandler = new FileHandler(dir);
+        DirectoryLock other = new DirectoryLock(dir);
+        try {
+            fileHandler.saveTasks(List.of(new Task(1, "first", "", Task.Priority.LOW)));
+            fileHandler.enableWriteBehind(60_000);
+            fileHandler.appendAdd(new Task(2, "second", "", Task.Priority.LOW));
+            long before = journalSize();
+            
+            other.lockWriter();
+            try {
+                fileHandler.compact(() -> {
+                    throw new AssertionError("Compacted while another writer held the lock");
+                });
+            } finally {
+                other.unlockWriter();
+            }
+            // Nothing was flushed on the caller's thread
+            assertEquals(before, journalSize());
+            fileHandler.flush();
+            assertEquals(2, fileHandler.loadTasks().size());
+        } finally {
+            other.close();
+            fileHandler.close();
+        }
+    }
+    
+    private long journalSize() throws Exception {
+        Path journal = dir.resolve("tasks.journal");
+        return Files.exists(journal) ? Files.size(journal) : 0;
+    }
+}
@@ -0,0 +1,138 @@
+// IntTaskMapTest.java
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class IntTaskMapTest {
+    private static final int SMALL = 1_000;
+    private static final int LARGE = 1_000_000;
+    private static final int OPS = 100_000;
+    
+    @Test
+    void putGetRemove() {
+        IntTaskMap map = new IntTaskMap();
+        Task first = task(7);
+        assertNull(map.put(7, first));
+        assertSame(first, map.get(7));
+        assertTrue(map.containsKey(7));
+        assertFalse(map.containsKey(8));
+        
+        Task replacement = task(7);
+        assertSame(first, map.put(7, replacement));
+        assertSame(replacement, map.get(7));
+        assertEquals(1, map.size());
+        
+        assertSame(replacement, map.remove(7));
+        assertNull(map.remove(7));
+        assertNull(map.get(7));
+        assertTrue(map.isEmpty());
+    }
+    
+    @Test
+    void keepsInsertionOrderThroughRemovesAndRebuilds() {
+        IntTaskMap map = new IntTaskMap();
+        List<Integer> expected = new ArrayList<>();
+        for (int id = 1; id <= 10_000; id++) {
+            map.put(id, task(id));
+            expected.add(id);
+        }
+        for (int id = 2; id <= 10_000; id += 2) {
+            map.remove(id);
+            expected.remove(Integer.valueOf(id));
+        }
+        // Grows past the removed entries, which squeezes them out
+        for (int id = 20_000; id > 10_000; id--) {
+            map.put(id, task(id));
+            expected.add(id);
+        }
+        // A replaced task keeps its place
+        map.put(1, task(1));
+        
+        List<Integer> ids = new ArrayList<>();
+        for (Task task : map) {
+            ids.add(task.getId());
+        }
+        assertEquals(expected, ids);
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected.size(), map.values().size());
+    }
+    
+    @Test
+    void lookupsStayConstantTime() {
+        IntTaskMap small = filled(SMALL);
+        IntTaskMap large = filled(LARGE);
+        int[] smallIds = randomIds(SMALL, OPS);
+        int[] largeIds = randomIds(LARGE, OPS);
+        Task[] sink = new Task[1];
+        
+        double smallNanos = Timing.nanosPerOp(() -> { }, OPS, i -> sink[0] = small.get(smallIds[i]));
+        double largeNanos = Timing.nanosPerOp(() -> { }, OPS, i -> sink[0] = large.get(largeIds[i]));
+        assertTrue(Timing.constantTime(smallNanos, largeNanos), Timing.describe("get", smallNanos, largeNanos));
+    }
+    
+    @Test
+    void removesAndReplacesStayConstantTime() {
+        int[] smallIds = shuffledIds(SMALL, SMALL / 2);
+        int[] largeIds = shuffledIds(LARGE, OPS);
+        IntTaskMap[] map = new IntTaskMap[1];
+        
+        double smallNanos = Timing.nanosPerOp(() -> map[0] = filled(SMALL), smallIds.length,
+                i -> map[0].remove(smallIds[i]));
+        double largeNanos = Timing.nanosPerOp(() -> map[0] = filled(LARGE), largeIds.length,
+                i -> map[0].remove(largeIds[i]));
+        assertTrue(Timing.constantTime(smallNanos, largeNanos), Timing.describe("remove", smallNanos, largeNanos));
+        
+        IntTaskMap small = filled(SMALL);
+        IntTaskMap large = filled(LARGE);
+        int[] smallPuts = randomIds(SMALL, OPS);
+        int[] largePuts = randomIds(LARGE, OPS);
+        Task replacement = task(0);
+        smallNanos = Timing.nanosPerOp(() -> { }, OPS, i -> small.put(smallPuts[i], replacement));
+        largeNanos = Timing.nanosPerOp(() -> { }, OPS, i -> large.put(largePuts[i], replacement));
+        assertTrue(Timing.constantTime(smallNanos, largeNanos), Timing.describe("put", smallNanos, largeNanos));
+        assertEquals(LARGE, large.size());
+    }
+    
+    private static IntTaskMap filled(int size) {
+        IntTaskMap map = new IntTaskMap(size);
+        for (int id = 1; id <= size; id++) {
+            map.put(id, task(id));
+        }
+        return map;
+    }
+    
+    private static Task task(int id) {
+        return new Task(id, "task " + id, "", Task.Priority.MEDIUM);
+    }
+    
+    // Ids in 1..size, repeats allowed
+    private static int[] randomIds(int size, int count) {
+        return new Random(42).ints(count, 1, size + 1).toArray();
+    }
+    
+    // Distinct ids in 1..size, in random order
+    private static int[] shuffledIds(int size, int count) {
+        int[] ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i + 1;
+        }
+        Random random = new Random(42);
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int id = ids[i];
+            ids[i] = ids[j];
+            ids[j] = id;
+        }
+        return Arrays.copyOf(ids, count);
+    }
+}
@@ -0,0 +1,112 @@
+// SearchIndexTest.java
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+// The index ranks what a scan of every task would: each query token scores
+// the title and description words it starts, and ties go to the newer id
+class SearchIndexTest {
+    // Words that are prefixes of one another, so one token matches several terms
+    private static final String[] WORDS = {
+            "a", "ab", "abc", "abd", "b", "ba", "bab", "Report", "rep", "r2d2", "zeta"};
+    
+    @Test
+    void ranksLikeAScan() {
+        Random random = new Random(7);
+        SearchIndex index = new SearchIndex();
+        Map<Integer, Task> tasks = new HashMap<>();
+        for (int id = 1; id <= 500; id++) {
+            Task task = new Task(id, text(random, 3), text(random, 6), Task.Priority.MEDIUM);
+            tasks.put(id, task);
+            index.add(task);
+        }
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 100; i++) {
+                int id = random.nextInt(600) + 1;
+                Task task = tasks.remove(id);
+                if (task != null) {
+                    index.remove(task);
+                }
+                // Removed for good, or added back with new text
+                if (random.nextInt(3) > 0) {
+                    task = new Task(id, text(random, 3), text(random, 6), Task.Priority.LOW);
+                    tasks.put(id, task);
+                    index.add(task);
+                }
+            }
+            for (int i = 0; i < 30; i++) {
+                String query = text(random, 1 + random.nextInt(3)) + (random.nextBoolean() ? "" : " -");
+                int limit = random.nextBoolean() ? 5 : Integer.MAX_VALUE;
+                assertArrayEquals(scan(tasks, query, limit), index.search(query, limit), query);
+            }
+        }
+    }
+    
+    @Test
+    void estimateCoversEveryMatch() {
+        SearchIndex index = new SearchIndex();
+        Map<Integer, Task> tasks = new HashMap<>();
+        Random random = new Random(11);
+        for (int id = 1; id <= 300; id++) {
+            Task task = new Task(id, text(random, 2), text(random, 4), Task.Priority.HIGH);
+            tasks.put(id, task);
+            index.add(task);
+        }
+        for (String word : WORDS) {
+            List<String> tokens = SearchIndex.tokenize(word + " b");
+            long matches = index.search(word + " b", Integer.MAX_VALUE).length;
+            assertEquals(scan(tasks, word + " b", Integer.MAX_VALUE).length, matches);
+            assertTrue(index.estimate(tokens) >= matches, word);
+        }
+    }
+    
+    private static String text(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextBoolean() ? " " : ", ");
+        }
+        return text.toString();
+    }
+    
+    private static int[] scan(Map<Integer, Task> tasks, String query, int limit) {
+        List<String> tokens = SearchIndex.tokenize(query);
+        List<long[]> found = new ArrayList<>();
+        for (Task task : tasks.values()) {
+            if (tokens.isEmpty() || !SearchIndex.matches(task, tokens)) {
+                continue;
+            }
+            long score = 0;
+            for (String token : tokens) {
+                score += score(SearchIndex.tokenize(task.getTitle()), token, 3)
+                        + score(SearchIndex.tokenize(task.getDescription()), token, 1);
+            }
+            found.add(new long[] {score, task.getId()});
+        }
+        found.sort((a, b) -> a[0] != b[0] ? Long.compare(b[0], a[0]) : Long.compare(b[1], a[1]));
+        int[] ids = new int[Math.min(limit, found.size())];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = (int) found.get(i)[1];
+        }
+        return ids;
+    }
+    
+    // Every occurrence of a word the token starts counts, twice if it is the whole word
+    private static long score(List<String> words, String token, int weight) {
+        long score = 0;
+        for (String word : words) {
+            if (word.startsWith(token)) {
+                score += weight * (word.equals(token) ? 2 : 1);
+            }
+        }
+        return score;
+    }
+}
@@ -0,0 +1,158 @@
+// TaskFormatTest.java
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+// The formats the benchmarks time: a task line, the encoder that writes the
+// same bytes, and a full save and load through either snapshot format
+class TaskFormatTest {
+    private static final LocalDateTime CREATED = LocalDateTime.of(2024, 5, 1, 9, 0, 0, 120_000_000);
+    
+    @TempDir
+    Path dir;
+    
+    @Test
+    void lineRoundTrip() {
+        for (Task task : tasks()) {
+            assertSameTask(task, Task.fromFileFormat(task.toFileFormat()));
+        }
+        assertEquals("2|Pay rent|C:\\\\bills\\\\rent.pdf \\p due\\n1st|true|2024-05-01T09:00:00.12"
+                + "|2024-05-02T10:30:00|High", tasks().get(1).toFileFormat());
+    }
+    
+    @Test
+    void keepsBackslashesThatAreNoEscape() {
+        Task task = Task.fromFileFormat("1|ends in \\|a\\qb \\\\ c|false|2024-05-01T09:00|null|Low");
+        assertEquals("ends in \\", task.getTitle());
+        assertEquals("a\\qb \\ c", task.getDescription());
+    }
+    
+    // Snapshots from before escaping have no header and are read verbatim,
+    // then written back with one
+    @ParameterizedTest
+    @EnumSource(FileHandler.SnapshotFormat.class)
+    void readsLegacySnapshotsVerbatim(FileHandler.SnapshotFormat format) throws Exception {
+        String title = "Fix C:\\Users\\bob\\notes\\";
+        String description = "see C:\\temp\\new and C:\\r\\p";
+        Files.writeString(dir.resolve("tasks.txt"), "1|" + title + "|" + description
+                + "|false|2024-05-01T09:00|null|Low" + System.lineSeparator());
+        assertEquals(title, Task.fromFileFormat("1|" + title + "|x|false|2024-05-01T09:00|null|Low", false).getTitle());
+        
+        FileHandler fileHandler = new FileHandler(dir, format);
+        List<Task> loaded = fileHandler.loadTasks();
+        assertEquals(1, loaded.size());
+        assertEquals(title, loaded.get(0).getTitle());
+        assertEquals(description, loaded.get(0).getDescription());
+        
+        fileHandler.saveTasks(loaded);
+        fileHandler.close();
+        if (format == FileHandler.SnapshotFormat.TEXT) {
+            assertEquals(Task.ESCAPED_HEADER, Files.readAllLines(dir.resolve("tasks.txt")).get(0));
+        }
+        Task reloaded = new FileHandler(dir, format).loadTasks().get(0);
+        assertEquals(title, reloaded.getTitle());
+        assertEquals(description, reloaded.getDescription());
+    }
+    
+    @Test
+    void rejectsMalformedLines() {
+        assertThrows(IllegalArgumentException.class, () -> Task.fromFileFormat("1|title|description"));
+        assertThrows(IllegalArgumentException.class,
+                () -> Task.fromFileFormat("1|a|b|false|2024-05-01T09:00|null|"));
+        assertThrows(RuntimeException.class,
+                () -> Task.fromFileFormat("x|a|b|false|2024-05-01T09:00|null|High"));
+    }
+    
+    @Test
+    void clampsTimesOutsideTheNanosecondRange() {
+        Task early = Task.fromFileFormat("1|a|b|true|1200-01-01T00:00|9999-12-31T23:59:59|High");
+        assertEquals(LocalDateTime.of(1677, 9, 21, 0, 12, 44), early.getCreatedAt());
+        assertEquals(LocalDateTime.of(2262, 4, 11, 23, 47, 15, 999_999_999), early.getCompletedAt());
+        assertSameTask(early, Task.fromFileFormat(early.toFileFormat()));
+    }
+    
+    @ParameterizedTest
+    @EnumSource(FileHandler.SnapshotFormat.class)
+    void loadsTasksWithOddDates(FileHandler.SnapshotFormat format) throws Exception {
+        Files.writeString(dir.resolve("tasks.txt"), "1|a|b|false|0001-01-01T00:00|null|Low" + System.lineSeparator()
+                + "2|c|d|false|2024-05-01T09:00|null|Low" + System.lineSeparator());
+        FileHandler fileHandler = new FileHandler(dir, format);
+        fileHandler.setArchiveAfter(Duration.ZERO);
+        List<Task> loaded = new ArrayList<>(fileHandler.loadTasks());
+        loaded.sort(Comparator.comparingInt(Task::getId));
+        assertEquals(2, loaded.size());
+        assertEquals(1677, loaded.get(0).getCreatedAt().getYear());
+        
+        // And again from what was written back
+        fileHandler.saveTasks(loaded);
+        List<Task> reloaded = new ArrayList<>(new FileHandler(dir, format).loadTasks());
+        reloaded.sort(Comparator.comparingInt(Task::getId));
+        assertSameTask(loaded.get(0), reloaded.get(0));
+    }
+    
+    @Test
+    void encoderWritesTheSameBytes() throws Exception {
+        TaskEncoder encoder = new TaskEncoder();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WritableByteChannel out = Channels.newChannel(bytes);
+        StringBuilder expected = new StringBuilder();
+        for (Task task : tasks()) {
+            encoder.encode(task, out);
+            expected.append(task.toFileFormat()).append(System.lineSeparator());
+        }
+        encoder.flush(out);
+        assertEquals(expected.toString(), bytes.toString(StandardCharsets.UTF_8));
+    }
+    
+    @ParameterizedTest
+    @EnumSource(FileHandler.SnapshotFormat.class)
+    void saveAndLoad(FileHandler.SnapshotFormat format) {
+        FileHandler fileHandler = new FileHandler(dir, format);
+        fileHandler.setArchiveAfter(Duration.ZERO);
+        fileHandler.saveTasks(tasks());
+        
+        List<Task> loaded = new ArrayList<>(fileHandler.loadTasks());
+        loaded.sort(Comparator.comparingInt(Task::getId));
+        List<Task> expected = tasks();
+        assertEquals(expected.size(), loaded.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameTask(expected.get(i), loaded.get(i));
+        }
+    }
+    
+    private static List<Task> tasks() {
+        List<Task> tasks = new ArrayList<>();
+        tasks.add(new Task(1, "Buy milk", "", false, CREATED, null, "Low"));
+        tasks.add(new Task(2, "Pay rent", "C:\\bills\\rent.pdf | due\n1st", true,
+                CREATED, LocalDateTime.of(2024, 5, 2, 10, 30), "High"));
+        tasks.add(new Task(3, "Ünïcödé ✓ 𝄞", "line one\r\nline two", false, CREATED.plusNanos(1), null, "Medium"));
+        return tasks;
+    }
+    
+    private static void assertSameTask(Task expected, Task actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getTitle(), actual.getTitle());
+        assertEquals(expected.getDescription(), actual.getDescription());
+        assertEquals(expected.isCompleted(), actual.isCompleted());
+        assertEquals(expected.getCreatedAt(), actual.getCreatedAt());
+        assertEquals(expected.getCompletedAt(), actual.getCompletedAt());
+        assertEquals(expected.getPriority(), actual.getPriority());
+    }
+}
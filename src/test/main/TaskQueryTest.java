@@ -0,0 +1,173 @@
+// TaskQueryTest.java
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+// Whichever source the planner starts from, a query returns what filtering,
+// sorting and paging every task would
+class TaskQueryTest {
+    private static final Task.Priority[] PRIORITIES = Task.Priority.values();
+    private static final TaskQuery.Sort[] ORDERS = {
+            TaskQuery.Sort.ID, TaskQuery.Sort.TITLE, TaskQuery.Sort.PRIORITY,
+            TaskQuery.Sort.CREATED, TaskQuery.Sort.COMPLETED};
+    // Common words and a rare one, so the search index is sometimes the
+    // smallest source and sometimes not
+    private static final String[] WORDS = {"call", "email", "report", "review", "plan", "zephyr"};
+    private static final LocalDateTime EPOCH = LocalDateTime.of(2024, 1, 1, 0, 0);
+    private static final int DAYS = 60;
+    
+    @TempDir
+    Path dir;
+    
+    @ParameterizedTest
+    @EnumSource(TodoManager.Storage.class)
+    void queriesMatchALinearFilter(TodoManager.Storage storage) {
+        Random random = new Random(12);
+        List<Task> tasks = new ArrayList<>();
+        for (int id = 1; id <= 5_000; id++) {
+            long created = Task.epochNanos(EPOCH.plusMinutes(random.nextInt(DAYS * 24 * 60)));
+            boolean completed = random.nextInt(3) == 0;
+            long completedAt = completed ? created + random.nextInt(1_000_000) * 1_000_000_000L : Task.NO_TIME;
+            tasks.add(new Task(id, words(random), words(random), completed, created, completedAt,
+                    PRIORITIES[random.nextInt(3)]));
+        }
+        FileHandler writer = new FileHandler(dir);
+        writer.saveTasks(tasks);
+        writer.close();
+        FileHandler fileHandler = new FileHandler(dir);
+        fileHandler.setArchiveAfter(Duration.ZERO);
+        fileHandler.enableWriteBehind(200);
+        TodoManager manager = new TodoManager(fileHandler, true, storage);
+        try {
+            Set<TodoManager.QuerySource> used = EnumSet.noneOf(TodoManager.QuerySource.class);
+            for (int round = 0; round < 10; round++) {
+                for (int i = 0; i < 100; i++) {
+                    TaskQuery query = randomQuery(random);
+                    List<Task> all = manager.getAllTasks();
+                    List<Task> found = manager.query(query);
+                    used.add(manager.plan(query));
+                    check(query, all, found);
+                }
+                // Indexes kept up to date across edits
+                for (int i = 0; i < 200; i++) {
+                    int id = random.nextInt(5_000) + 1;
+                    if (manager.getTaskById(id) == null) {
+                        manager.addTask(words(random), words(random), PRIORITIES[random.nextInt(3)]);
+                        continue;
+                    }
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            manager.updateTask(id, words(random), words(random), PRIORITIES[random.nextInt(3)]);
+                            break;
+                        case 1:
+                            manager.markTaskCompleted(id);
+                            break;
+                        case 2:
+                            manager.setCompleted(List.of(id), false);
+                            break;
+                        default:
+                            manager.removeTask(id);
+                    }
+                }
+            }
+            assertEquals(EnumSet.allOf(TodoManager.QuerySource.class), used);
+        } finally {
+            manager.close();
+        }
+    }
+    
+    private static void check(TaskQuery query, List<Task> all, List<Task> found) {
+        List<Task> expected = new ArrayList<>();
+        for (Task task : all) {
+            if (query.matches(task)) {
+                expected.add(task);
+            }
+        }
+        if (query.sort == TaskQuery.Sort.NONE) {
+            // Any page of the matches will do
+            assertEquals(Math.min(query.limit, Math.max(0, expected.size() - query.offset)), found.size());
+            List<Integer> matching = ids(expected);
+            for (Task task : found) {
+                assertTrue(matching.contains(task.getId()), task + " does not match");
+            }
+            return;
+        }
+        expected.sort(query.comparator());
+        int from = Math.min(query.offset, expected.size());
+        int to = (int) Math.min(expected.size(), (long) query.offset + query.limit);
+        assertEquals(ids(expected.subList(from, to)), ids(found));
+    }
+    
+    private static TaskQuery randomQuery(Random random) {
+        TaskQuery.Builder query = TaskQuery.builder();
+        switch (random.nextInt(3)) {
+            case 0:
+                query.pending();
+                break;
+            case 1:
+                query.completed();
+                break;
+        }
+        if (random.nextBoolean()) {
+            query.priority(PRIORITIES[random.nextInt(3)]);
+            if (random.nextInt(4) == 0) {
+                query.priority(PRIORITIES[random.nextInt(3)]);
+            }
+        }
+        if (random.nextBoolean()) {
+            query.text(WORDS[random.nextInt(WORDS.length)].substring(0, 2 + random.nextInt(3)));
+        }
+        if (random.nextInt(3) == 0) {
+            query.titleContains(WORDS[random.nextInt(WORDS.length)].substring(1, 4));
+        }
+        if (random.nextBoolean()) {
+            LocalDateTime from = EPOCH.plusHours(random.nextInt(DAYS * 24));
+            LocalDateTime to = from.plusHours(random.nextInt(24 * (random.nextBoolean() ? 1 : 20)));
+            if (random.nextBoolean()) {
+                query.createdBetween(random.nextInt(5) == 0 ? null : from, to);
+            } else {
+                query.completedBetween(from, random.nextInt(5) == 0 ? null : to);
+            }
+        }
+        if (random.nextInt(5) == 0) {
+            query.where(task -> task.getId() % 3 != 0);
+        }
+        if (random.nextInt(4) > 0) {
+            query.orderBy(ORDERS[random.nextInt(ORDERS.length)], random.nextBoolean());
+        }
+        if (random.nextBoolean()) {
+            query.offset(random.nextInt(20)).limit(random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(50));
+        }
+        return query.build();
+    }
+    
+    private static String words(Random random) {
+        StringBuilder text = new StringBuilder();
+        for (int i = random.nextInt(4); i >= 0; i--) {
+            // The last word is rare
+            text.append(WORDS[random.nextInt(random.nextInt(20) == 0 ? WORDS.length : WORDS.length - 1)]).append(' ');
+        }
+        return text.toString().trim();
+    }
+    
+    private static List<Integer> ids(List<Task> tasks) {
+        List<Integer> ids = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            ids.add(task.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,53 @@
+// TaskSortedListTest.java
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class TaskSortedListTest {
+    // Sorted on the calling thread and in the background
+    @ParameterizedTest
+    @ValueSource(ints = {100, 20_000})
+    void inconsistentComparatorFailsInsteadOfSpinning(int size) throws Exception {
+        ObservableList<Task> source = FXCollections.observableArrayList();
+        for (int id = size; id >= 1; id--) {
+            source.add(new Task(id, "task " + id, "", Task.Priority.MEDIUM));
+        }
+        TaskSortedList sorted = new TaskSortedList(source, Runnable::run);
+        Comparator<Task> broken = (a, b) -> {
+            throw new IllegalArgumentException("Comparison method violates its general contract!");
+        };
+        
+        CompletableFuture<Void> future = sorted.sortBy(broken);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalArgumentException.class, e.getCause());
+        assertEquals(ids(source.sorted(Comparator.comparingInt(Task::getId))), ids(sorted));
+        
+        // The list still follows its source, and sorts by other orders
+        source.remove(0);
+        sorted.sortBy(TaskSortedList.Column.TITLE, true).get(10, TimeUnit.SECONDS);
+        List<Task> expected = new ArrayList<>(source);
+        expected.sort(TaskSortedList.Column.TITLE.key.reversed());
+        assertEquals(ids(expected), ids(sorted));
+    }
+    
+    private static List<Integer> ids(List<Task> tasks) {
+        List<Integer> ids = new ArrayList<>();
+        for (Task task : tasks) {
+            ids.add(task.getId());
+        }
+        return ids;
+    }
+}
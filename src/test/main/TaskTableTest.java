@@ -0,0 +1,87 @@
+// TaskTableTest.java
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+import org.junit.jupiter.api.Test;
+
+// Both storage layouts return every view in the order of the whole table,
+// however the tasks in it were changed
+class TaskTableTest {
+    private static final Task.Priority[] PRIORITIES = Task.Priority.values();
+    
+    @Test
+    void viewsKeepTableOrder() {
+        TaskTable objects = new IndexedTaskMap(0);
+        TaskTable columns = new TaskStore(0);
+        Random random = new Random(42);
+        // Loaded out of id order, as a file edited by hand may be
+        for (int i = 0; i < 2_000; i++) {
+            int id = (i * 7919) % 2_000 + 1;
+            Task task = new Task(id, "task " + id, "", PRIORITIES[random.nextInt(3)]);
+            objects.put(task);
+            columns.put(task.copy());
+        }
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 500; i++) {
+                int id = random.nextInt(2_000) + 1;
+                switch (random.nextInt(4)) {
+                    case 0:
+                        boolean completed = random.nextBoolean();
+                        objects.setCompleted(id, completed);
+                        columns.setCompleted(id, completed);
+                        break;
+                    case 1:
+                        Task.Priority priority = PRIORITIES[random.nextInt(3)];
+                        objects.update(id, "changed " + id, "", priority);
+                        columns.update(id, "changed " + id, "", priority);
+                        break;
+                    case 2:
+                        Task task = objects.get(id).copy();
+                        task.setPriority(PRIORITIES[random.nextInt(3)]);
+                        objects.put(task);
+                        columns.put(task.copy());
+                        break;
+                    default:
+                        // Touches nothing but the title
+                        Task current = objects.get(id);
+                        objects.update(id, "renamed", "", current.getPriority());
+                        columns.update(id, "renamed", "", current.getPriority());
+                }
+            }
+            check(objects);
+            check(columns);
+            assertEquals(ids(columns.all()), ids(objects.all()));
+        }
+    }
+    
+    private static void check(TaskTable table) {
+        List<Task> all = table.all();
+        assertEquals(filter(all, Task::isCompleted), ids(table.completed()));
+        assertEquals(filter(all, task -> !task.isCompleted()), ids(table.pending()));
+        for (Task.Priority priority : PRIORITIES) {
+            assertEquals(filter(all, task -> task.getPriority() == priority), ids(table.byPriority(priority)));
+            List<Integer> scanned = new ArrayList<>();
+            table.scan(true, priority, task -> scanned.add(task.getId()));
+            assertEquals(filter(all, task -> task.isCompleted() && task.getPriority() == priority), scanned);
+        }
+    }
+    
+    private static List<Integer> filter(List<Task> tasks, Predicate<Task> test) {
+        List<Integer> ids = new ArrayList<>();
+        for (Task task : tasks) {
+            if (test.test(task)) {
+                ids.add(task.getId());
+            }
+        }
+        return ids;
+    }
+    
+    private static List<Integer> ids(List<Task> tasks) {
+        return filter(tasks, task -> true);
+    }
+}
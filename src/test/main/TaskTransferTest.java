@@ -0,0 +1,167 @@
+// TaskTransferTest.java
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+// Exported tasks import back unchanged but for their ids, whatever their
+// text holds, and hand-written files are read as spreadsheets write them
+class TaskTransferTest {
+    // Text that CSV has to quote, JSON has to escape, or a line reader could split
+    private static final String[] AWKWARD = {
+            "plain", "comma, inside", "\"quoted\"", "say \"\"twice\"\"", "line\nbreak", "crlf\r\nbreak",
+            "lone\rreturn", " padded ", "tab\there", "back\\slash", "pipe|bar", "ünïcødé ✓ 🎉", " separator",
+            "{\"json\": true}", ",", "\"", ""};
+    private static final LocalDateTime EPOCH = LocalDateTime.of(2024, 1, 1, 0, 0);
+    
+    @TempDir
+    Path dir;
+    
+    @ParameterizedTest
+    @EnumSource(TaskTransfer.Format.class)
+    void exportsImportBack(TaskTransfer.Format format) throws Exception {
+        Random random = new Random(21);
+        List<Task> tasks = new ArrayList<>();
+        // More than one import batch
+        for (int id = 1; id <= TaskTransfer.BATCH_SIZE * 2 + 100; id++) {
+            String title = AWKWARD[random.nextInt(AWKWARD.length - 1)] + " " + id;
+            String description = AWKWARD[random.nextInt(AWKWARD.length)];
+            long created = Task.epochNanos(EPOCH.plusSeconds(random.nextInt(1 << 24))) + random.nextInt(1_000_000_000);
+            boolean completed = random.nextBoolean();
+            long completedAt = completed ? created + random.nextInt(1 << 30) : Task.NO_TIME;
+            tasks.add(new Task(id, title, description, completed, created, completedAt,
+                    Task.Priority.values()[random.nextInt(3)]));
+        }
+        TodoManager source = manager("source", tasks);
+        TodoManager target = manager("target", List.of());
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(tasks.size(), TaskTransfer.exportTasks(source, out, format));
+            TaskTransfer.Report report = TaskTransfer.importTasks(target,
+                    new ByteArrayInputStream(out.toByteArray()), format, null);
+            assertEquals(List.of(), report.getErrors());
+            assertEquals(tasks.size(), report.getRecords());
+            assertEquals(tasks.size(), report.getImported());
+            assertEquals(describe(source.getAllTasks()), describe(target.getAllTasks()));
+        } finally {
+            source.close();
+            target.close();
+        }
+    }
+    
+    @Test
+    void readsCsvAsSpreadsheetsWriteIt() throws Exception {
+        String csv = "\uFEFFPriority,Title,completedAt,Description\r\n"
+                + "High,\"Quarterly, \"\"final\"\" report\",2024-03-01T09:30:00,\"first line\r\nsecond line\"\r\n"
+                + "\r\n"
+                + "low,plain,,\r\n"
+                + "urgent,bad priority,,\r\n"
+                + "low,,,no title\r\n"
+                + "Medium,last,2024-03-02T10:00:00.5,no newline at the end";
+        TodoManager manager = manager("csv", List.of());
+        try {
+            List<TaskTransfer.RecordError> errors = new ArrayList<>();
+            TaskTransfer.Report report = TaskTransfer.importTasks(manager,
+                    new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), TaskTransfer.Format.CSV,
+                    errors::add);
+            assertEquals(5, report.getRecords());
+            assertEquals(3, report.getImported());
+            assertEquals(2, report.getRejected());
+            assertEquals(errors, report.getErrors());
+            assertEquals(6, errors.get(0).getLine());
+            assertEquals(7, errors.get(1).getLine());
+            
+            List<Task> tasks = manager.getAllTasks();
+            tasks.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+            assertEquals(3, tasks.size());
+            assertEquals("Quarterly, \"final\" report", tasks.get(0).getTitle());
+            assertEquals("first line\r\nsecond line", tasks.get(0).getDescription());
+            assertEquals(Task.Priority.HIGH, tasks.get(0).getPriority());
+            assertTrue(tasks.get(0).isCompleted());
+            assertEquals(LocalDateTime.of(2024, 3, 1, 9, 30), tasks.get(0).getCompletedAt());
+            assertEquals("plain", tasks.get(1).getTitle());
+            assertEquals("", tasks.get(1).getDescription());
+            assertEquals(Task.Priority.LOW, tasks.get(1).getPriority());
+            assertFalse(tasks.get(1).isCompleted());
+            assertEquals("no newline at the end", tasks.get(2).getDescription());
+            assertEquals(LocalDateTime.of(2024, 3, 2, 10, 0, 0, 500_000_000), tasks.get(2).getCompletedAt());
+        } finally {
+            manager.close();
+        }
+    }
+    
+    @Test
+    void reportsBadJsonLinesAndGoesOn() throws Exception {
+        String jsonl = "{\"title\": \"one\", \"priority\": \"High\"}\n"
+                + "\n"
+                + "{\"title\": \"two\", \"completed\": \"yes\"}\n"
+                + "not json\n"
+                + "[\"an\", \"array\"]\n"
+                + "{\"title\": \"three\", \"completedAt\": \"2024-05-05T05:05:05\"}\n";
+        TodoManager manager = manager("jsonl", List.of());
+        try {
+            TaskTransfer.Report report = TaskTransfer.importTasks(manager,
+                    new ByteArrayInputStream(jsonl.getBytes(StandardCharsets.UTF_8)), TaskTransfer.Format.JSONL, null);
+            assertEquals(2, report.getImported());
+            assertEquals(3, report.getRejected());
+            List<Long> lines = new ArrayList<>();
+            for (TaskTransfer.RecordError error : report.getErrors()) {
+                lines.add(error.getLine());
+            }
+            assertEquals(List.of(3L, 4L, 5L), lines);
+            assertEquals(List.of("one|false|HIGH", "three|true|MEDIUM"), summaries(manager.getAllTasks()));
+        } finally {
+            manager.close();
+        }
+    }
+    
+    private TodoManager manager(String name, List<Task> tasks) throws Exception {
+        Path data = Files.createDirectory(dir.resolve(name));
+        if (!tasks.isEmpty()) {
+            FileHandler writer = new FileHandler(data);
+            writer.saveTasks(tasks);
+            writer.close();
+        }
+        FileHandler fileHandler = new FileHandler(data);
+        fileHandler.setArchiveAfter(Duration.ZERO);
+        fileHandler.enableWriteBehind(200);
+        return new TodoManager(fileHandler, true, TodoManager.Storage.OBJECTS);
+    }
+    
+    // Everything but the id, in a stable order
+    private static List<String> describe(List<Task> tasks) {
+        List<String> described = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            described.add(task.getTitle() + "|" + task.getDescription() + "|" + task.isCompleted() + "|"
+                    + task.getCreatedAtNanos() + "|" + task.getCompletedAtNanos() + "|" + task.getPriority());
+        }
+        Collections.sort(described);
+        return described;
+    }
+    
+    private static List<String> summaries(List<Task> tasks) {
+        List<String> summaries = new ArrayList<>();
+        for (Task task : tasks) {
+            summaries.add(task.getTitle() + "|" + task.isCompleted() + "|" + task.getPriority().name());
+        }
+        Collections.sort(summaries);
+        return summaries;
+    }
+}
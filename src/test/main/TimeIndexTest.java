@@ -0,0 +1,164 @@
+// TimeIndexTest.java
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.function.ToLongFunction;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+// Ranges and counts match a TreeSet of the same (time, id) pairs, through
+// chunk splits and merges, and the manager's date-range queries match a
+// filter over every task
+class TimeIndexTest {
+    private static final Comparator<long[]> ORDER =
+            Comparator.<long[]>comparingLong(entry -> entry[0]).thenComparingLong(entry -> entry[1]);
+    private static final LocalDateTime EPOCH = LocalDateTime.of(2024, 1, 1, 0, 0);
+    
+    @TempDir
+    Path dir;
+    
+    @Test
+    void matchesATreeSet() {
+        TimeIndex index = new TimeIndex();
+        TreeSet<long[]> reference = new TreeSet<>(ORDER);
+        Random random = new Random(3);
+        // In time order first, as tasks are created, then anywhere
+        for (int id = 1; id <= 5_000; id++) {
+            add(index, reference, id / 3, id);
+        }
+        for (int round = 0; round < 40; round++) {
+            for (int i = 0; i < 1_000; i++) {
+                long time = random.nextInt(4_000);
+                int id = random.nextInt(10_000);
+                if (random.nextInt(5) < 2) {
+                    add(index, reference, time, id);
+                } else if (!reference.isEmpty()) {
+                    // Mostly entries that are there, sometimes ones that are not
+                    long[] entry = random.nextBoolean() ? reference.ceiling(new long[] {time, id}) : null;
+                    long[] removed = entry != null ? entry : new long[] {time, id};
+                    assertEquals(reference.remove(removed), index.remove(removed[0], (int) removed[1]));
+                }
+            }
+            assertEquals(reference.size(), index.size());
+            for (int i = 0; i < 50; i++) {
+                long from = random.nextInt(10) == 0 ? Long.MIN_VALUE : random.nextInt(4_200) - 100;
+                long to = random.nextInt(10) == 0 ? Long.MAX_VALUE : from + random.nextInt(1_500) - 100;
+                List<Integer> expected = range(reference, from, to);
+                List<Integer> actual = new ArrayList<>();
+                index.range(from, to, actual::add);
+                assertEquals(expected, actual, from + ".." + to);
+                assertEquals(expected.size(), index.count(from, to), from + ".." + to);
+                
+                List<Integer> first = new ArrayList<>();
+                index.rangeWhile(from, to, id -> first.add(id) && first.size() < 10);
+                assertEquals(expected.subList(0, Math.min(10, expected.size())), first);
+            }
+        }
+    }
+    
+    @ParameterizedTest
+    @EnumSource(TodoManager.Storage.class)
+    void dateRangesMatchAFilter(TodoManager.Storage storage) throws Exception {
+        Random random = new Random(5);
+        List<Task> tasks = new ArrayList<>();
+        for (int id = 1; id <= 3_000; id++) {
+            long created = nanos(EPOCH.plusHours(random.nextInt(24 * 60)));
+            boolean completed = random.nextBoolean();
+            long completedAt = completed ? created + random.nextInt(1_000) * 3_600_000_000_000L : Task.NO_TIME;
+            tasks.add(new Task(id, "task " + id, "", completed, created, completedAt, Task.Priority.LOW));
+        }
+        FileHandler writer = new FileHandler(dir);
+        writer.saveTasks(tasks);
+        writer.close();
+        FileHandler fileHandler = new FileHandler(dir);
+        fileHandler.setArchiveAfter(Duration.ZERO);
+        fileHandler.enableWriteBehind(200);
+        TodoManager manager = new TodoManager(fileHandler, true, storage);
+        try {
+            for (int round = 0; round < 10; round++) {
+                for (int i = 0; i < 20; i++) {
+                    LocalDateTime from = random.nextInt(8) == 0 ? null : EPOCH.plusHours(random.nextInt(24 * 90));
+                    LocalDateTime to = random.nextInt(8) == 0 ? null : EPOCH.plusHours(random.nextInt(24 * 90));
+                    assertEquals(filter(manager, Task::getCreatedAtNanos, from, to),
+                            ids(manager.getTasksCreatedBetween(from, to)));
+                    assertEquals(filter(manager, Task::getCompletedAtNanos, from, to),
+                            ids(manager.getTasksCompletedBetween(from, to)));
+                }
+                // Completing, reopening and removing move tasks in the indexes
+                for (int i = 0; i < 200; i++) {
+                    int id = random.nextInt(3_000) + 1;
+                    if (manager.getTaskById(id) == null) {
+                        continue;
+                    }
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            manager.markTaskCompleted(id);
+                            break;
+                        case 1:
+                            manager.setCompleted(List.of(id), false);
+                            break;
+                        default:
+                            manager.removeTask(id);
+                    }
+                }
+            }
+        } finally {
+            manager.close();
+        }
+    }
+    
+    private static void add(TimeIndex index, TreeSet<long[]> reference, long time, int id) {
+        if (reference.add(new long[] {time, id})) {
+            index.add(time, id);
+        }
+    }
+    
+    private static List<Integer> range(TreeSet<long[]> reference, long from, long to) {
+        List<Integer> ids = new ArrayList<>();
+        if (from < to) {
+            for (long[] entry : reference.subSet(new long[] {from, Long.MIN_VALUE}, new long[] {to, Long.MIN_VALUE})) {
+                ids.add((int) entry[1]);
+            }
+        }
+        return ids;
+    }
+    
+    // Ids of every task whose time lies in [from, to), in time and then id order
+    private static List<Integer> filter(TodoManager manager, ToLongFunction<Task> time,
+                                        LocalDateTime from, LocalDateTime to) {
+        long fromNanos = from != null ? nanos(from) : Long.MIN_VALUE;
+        long toNanos = to != null ? nanos(to) : Long.MAX_VALUE;
+        List<Task> found = new ArrayList<>();
+        for (Task task : manager.getAllTasks()) {
+            long nanos = time.applyAsLong(task);
+            if (nanos != Task.NO_TIME && nanos >= fromNanos && nanos < toNanos) {
+                found.add(task);
+            }
+        }
+        found.sort(Comparator.comparingLong(time).thenComparingInt(Task::getId));
+        return ids(found);
+    }
+    
+    private static long nanos(LocalDateTime time) {
+        return Task.epochNanos(time);
+    }
+    
+    private static List<Integer> ids(List<Task> tasks) {
+        List<Integer> ids = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            ids.add(task.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,44 @@
+// Timing.java
+package main;
+
+import java.util.function.IntConsumer;
+
+// Rough per-operation timings for the scale tests. Each is the best of a few
+// rounds, so a collection or a slow first round does not decide the result.
+final class Timing {
+    private static final int ROUNDS = 5;
+    // A constant-time operation may cost this many times more on the large
+    // table than on the small one, for cache misses; a linear one would cost
+    // about as many times more as the table is larger
+    static final int MAX_RATIO = 20;
+    // Below this an operation is fast enough whatever the ratio; a scan of a
+    // million tasks takes far longer
+    static final long FLOOR_NANOS = 20_000;
+    
+    private Timing() {
+    }
+    
+    // Average nanoseconds per call of op(0) .. op(ops - 1); setup runs before
+    // every round, untimed
+    static double nanosPerOp(Runnable setup, int ops, IntConsumer op) {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            setup.run();
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                op.accept(i);
+            }
+            best = Math.min(best, (double) (System.nanoTime() - start) / ops);
+        }
+        return best;
+    }
+    
+    static boolean constantTime(double small, double large) {
+        return large <= Math.max(small * MAX_RATIO, FLOOR_NANOS);
+    }
+    
+    static String describe(String operation, double small, double large) {
+        return String.format("%s took %.0f ns at the small size and %.0f ns at a million tasks",
+                operation, small, large);
+    }
+}
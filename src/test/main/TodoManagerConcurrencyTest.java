@@ -0,0 +1,174 @@
+// TodoManagerConcurrencyTest.java
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+// Readers on the optimistic read path while writers change the tasks in
+// batches. Every batch keeps these true, so a read that saw half of one
+// returned a torn snapshot:
+//   - of each pair of tasks exactly one is completed and exactly one is High,
+//     the other Low
+//   - the Medium tasks are replaced one at a time, a remove and an add in one
+//     batch, so there are always CHURN of them and TOTAL tasks in all
+class TodoManagerConcurrencyTest {
+    private static final int PAIRS = 500;
+    private static final int CHURN = 200;
+    private static final int TOTAL = PAIRS * 2 + CHURN;
+    private static final int READERS = 4;
+    private static final long RUN_MILLIS = 2_000;
+    
+    @TempDir
+    Path dir;
+    
+    @ParameterizedTest
+    @EnumSource(TodoManager.Storage.class)
+    void readsSeeWholeBatches(TodoManager.Storage storage) throws Exception {
+        FileHandler fileHandler = new FileHandler(Files.createDirectory(dir.resolve(storage.name())));
+        fileHandler.setArchiveAfter(Duration.ZERO);
+        fileHandler.enableWriteBehind(50);
+        TodoManager manager = new TodoManager(fileHandler, true, storage);
+        try {
+            int[][] pairs = seed(manager);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            long deadline = System.nanoTime() + RUN_MILLIS * 1_000_000;
+            long[] reads = new long[READERS];
+            
+            List<Thread> threads = new ArrayList<>();
+            threads.add(thread("pair-writer", failure, () -> {
+                Random random = new Random(1);
+                while (System.nanoTime() < deadline) {
+                    int[] pair = pairs[random.nextInt(PAIRS)];
+                    boolean first = random.nextBoolean();
+                    manager.batch(batch -> {
+                        batch.setCompleted(pair[0], first);
+                        batch.setCompleted(pair[1], !first);
+                        batch.update(pair[0], "first", "", first ? Task.Priority.HIGH : Task.Priority.LOW);
+                        batch.update(pair[1], "second", "", first ? Task.Priority.LOW : Task.Priority.HIGH);
+                    });
+                }
+            }));
+            threads.add(thread("churn-writer", failure, () -> {
+                Random random = new Random(2);
+                while (System.nanoTime() < deadline) {
+                    List<Task> churn = manager.getTasksByPriority(Task.Priority.MEDIUM);
+                    int id = churn.get(random.nextInt(churn.size())).getId();
+                    manager.batch(batch -> {
+                        batch.remove(id);
+                        batch.add("churn", "", Task.Priority.MEDIUM);
+                    });
+                }
+            }));
+            for (int r = 0; r < READERS; r++) {
+                int reader = r;
+                threads.add(thread("reader-" + r, failure, () -> {
+                    while (System.nanoTime() < deadline) {
+                        checkSnapshot(manager, pairs);
+                        reads[reader]++;
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            
+            assertNull(failure.get(), () -> "a reader or writer failed: " + failure.get());
+            for (long count : reads) {
+                assertTrue(count > 0);
+            }
+            checkSnapshot(manager, pairs);
+        } finally {
+            manager.close();
+        }
+    }
+    
+    // Ids of each pair; pair[0] starts completed and High
+    private static int[][] seed(TodoManager manager) {
+        manager.batch(batch -> {
+            for (int i = 0; i < PAIRS; i++) {
+                batch.add("first", "", Task.Priority.HIGH);
+                batch.add("second", "", Task.Priority.LOW);
+            }
+            for (int i = 0; i < CHURN; i++) {
+                batch.add("churn", "", Task.Priority.MEDIUM);
+            }
+        });
+        List<Integer> first = new ArrayList<>();
+        List<Integer> second = new ArrayList<>();
+        for (Task task : manager.getAllTasks()) {
+            if (task.getTitle().equals("first")) {
+                first.add(task.getId());
+            } else if (task.getTitle().equals("second")) {
+                second.add(task.getId());
+            }
+        }
+        int[][] pairs = new int[PAIRS][];
+        for (int i = 0; i < PAIRS; i++) {
+            pairs[i] = new int[] {first.get(i), second.get(i)};
+        }
+        manager.batch(batch -> {
+            for (int[] pair : pairs) {
+                batch.setCompleted(pair[0], true);
+            }
+        });
+        return pairs;
+    }
+    
+    // Ids are never reused, so the ids in each list show which snapshot it is
+    private static void checkSnapshot(TodoManager manager, int[][] pairs) {
+        List<Task> all = manager.getAllTasks();
+        assertEquals(TOTAL, all.size(), "getAllTasks size");
+        assertEquals(TOTAL, ids(all).size(), "getAllTasks ids");
+        assertEquals(TOTAL, manager.getTaskCount(), "getTaskCount");
+        
+        assertEachPairOnce(ids(manager.getCompletedTasks()), pairs, 0, "getCompletedTasks");
+        // The Medium tasks are never completed
+        assertEachPairOnce(ids(manager.getPendingTasks()), pairs, CHURN, "getPendingTasks");
+        assertEachPairOnce(ids(manager.getTasksByPriority(Task.Priority.HIGH)), pairs, 0, "High tasks");
+        assertEachPairOnce(ids(manager.getTasksByPriority(Task.Priority.LOW)), pairs, 0, "Low tasks");
+        assertEquals(CHURN, ids(manager.getTasksByPriority(Task.Priority.MEDIUM)).size(), "Medium tasks");
+    }
+    
+    // One task of every pair, plus others that belong to no pair
+    private static void assertEachPairOnce(Set<Integer> ids, int[][] pairs, int others, String what) {
+        assertEquals(PAIRS + others, ids.size(), what);
+        for (int[] pair : pairs) {
+            assertTrue(ids.contains(pair[0]) != ids.contains(pair[1]), what);
+        }
+    }
+    
+    private static Set<Integer> ids(List<Task> tasks) {
+        Set<Integer> ids = new HashSet<>();
+        for (Task task : tasks) {
+            ids.add(task.getId());
+        }
+        return ids;
+    }
+    
+    private static Thread thread(String name, AtomicReference<Throwable> failure, Runnable body) {
+        return new Thread(() -> {
+            try {
+                body.run();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        }, name);
+    }
+}
@@ -0,0 +1,81 @@
+// TodoManagerScaleTest.java
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+// Lookups, updates and removes by id cost the same with a million tasks as
+// with ten thousand, in either storage layout
+class TodoManagerScaleTest {
+    private static final int SMALL = 10_000;
+    private static final int LARGE = 1_000_000;
+    private static final int OPS = 1_000;
+    private static final Task.Priority[] PRIORITIES = Task.Priority.values();
+    
+    @TempDir
+    Path dir;
+    
+    @ParameterizedTest
+    @EnumSource(TodoManager.Storage.class)
+    void operationsByIdStayConstantTime(TodoManager.Storage storage) throws Exception {
+        double[] small = time(SMALL, storage);
+        double[] large = time(LARGE, storage);
+        String[] operations = {"getTaskById", "updateTask", "removeTask"};
+        for (int i = 0; i < operations.length; i++) {
+            assertTrue(Timing.constantTime(small[i], large[i]),
+                    storage + " " + Timing.describe(operations[i], small[i], large[i]));
+        }
+    }
+    
+    // Nanoseconds per getTaskById, updateTask and removeTask with size tasks
+    private double[] time(int size, TodoManager.Storage storage) throws Exception {
+        Path data = Files.createDirectory(dir.resolve(storage + "-" + size));
+        List<Task> tasks = new ArrayList<>(size);
+        for (int id = 1; id <= size; id++) {
+            tasks.add(new Task(id, "task " + id, "description of task " + id, PRIORITIES[id % PRIORITIES.length]));
+        }
+        new FileHandler(data).saveTasks(tasks);
+        tasks = null;
+        
+        FileHandler fileHandler = new FileHandler(data);
+        fileHandler.setArchiveAfter(Duration.ZERO);
+        fileHandler.enableWriteBehind(200);
+        TodoManager manager = new TodoManager(fileHandler, true, storage);
+        try {
+            assertEquals(size, manager.getTaskCount());
+            Random random = new Random(42);
+            int[] lookups = random.ints(OPS * 10, 1, size + 1).toArray();
+            List<Integer> shuffled = new ArrayList<>(size);
+            for (int id = 1; id <= size; id++) {
+                shuffled.add(id);
+            }
+            Collections.shuffle(shuffled, random);
+            int[] next = {0};
+            Task[] sink = new Task[1];
+            
+            double get = Timing.nanosPerOp(() -> { }, lookups.length, i -> sink[0] = manager.getTaskById(lookups[i]));
+            double update = Timing.nanosPerOp(() -> { }, OPS, i -> manager.updateTask(lookups[i],
+                    "updated " + i, "updated", Task.Priority.HIGH));
+            assertEquals("updated " + (OPS - 1), manager.getTaskById(lookups[OPS - 1]).getTitle());
+            double remove = Timing.nanosPerOp(() -> { }, OPS, i -> manager.removeTask(shuffled.get(next[0]++)));
+            
+            assertNull(manager.getTaskById(shuffled.get(0)));
+            assertEquals(size - next[0], manager.getTaskCount());
+            return new double[] {get, update, remove};
+        } finally {
+            manager.close();
+        }
+    }
+}